@@ -0,0 +1,87 @@
+package ru.avladimirov.threadterminal.benchmarks;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.avladimirov.threadterminal.main.Priority;
+import ru.avladimirov.threadterminal.main.TerminalSnapshot;
+import ru.avladimirov.threadterminal.main.Terminals;
+import ru.avladimirov.threadterminal.main.ThreadTerminal;
+
+/**
+ * Latency of a HIGH task, from its submission to its completion, while a
+ * backlog of LOW tasks is kept in the queue. A plain FIFO
+ * {@link ThreadPoolExecutor} shows the latency without priorities.
+ *
+ * @author Vladimirov.A.A
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.SampleTime)
+@OutputTimeUnit (TimeUnit.MICROSECONDS)
+@Warmup (iterations = 3, time = 2)
+@Measurement (iterations = 5, time = 2)
+@Fork (1)
+public class HighLatencyBenchmark {
+
+	static final int THREADS = 4;
+
+	@Param ({"1000", "10000"})
+	int backlog;
+
+	@Param ({Workloads.TERMINAL, Workloads.THREAD_POOL})
+	String executor;
+
+	private ThreadTerminal terminal;
+	private ThreadPoolExecutor pool;
+	private final TerminalSnapshot snapshot = new TerminalSnapshot ();
+
+	@Setup
+	public void setUp () {
+		if (Workloads.TERMINAL.equals (executor)) {
+			terminal = Terminals.newThreadTerminal ("benchmark", THREADS);
+		} else {
+			pool = Workloads.newThreadPool (THREADS);
+		}
+	}
+
+	/**
+	 * Tops the backlog up before each HIGH task.
+	 */
+	@Setup (Level.Invocation)
+	public void fillBacklog () {
+		if (terminal != null) {
+			for (long queued = terminal.snapshotTerminalState (snapshot).getQueuedTasksCount (); queued < backlog; queued++) {
+				terminal.submit (Workloads.TASK, Priority.LOW, false);
+			}
+		} else {
+			for (int queued = pool.getQueue ().size (); queued < backlog; queued++) {
+				pool.submit (Workloads.TASK);
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown () throws InterruptedException {
+		Workloads.shutdown (terminal);
+		Workloads.shutdown (pool);
+	}
+
+	@Benchmark
+	public Object highTask () throws Exception {
+		return terminal != null
+				? terminal.submit (Workloads.TASK, Priority.HIGH, false).get ()
+				: pool.submit (Workloads.TASK).get ();
+	}
+}
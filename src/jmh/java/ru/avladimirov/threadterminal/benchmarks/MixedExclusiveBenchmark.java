@@ -0,0 +1,107 @@
+package ru.avladimirov.threadterminal.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.avladimirov.threadterminal.main.Priority;
+import ru.avladimirov.threadterminal.main.ThreadTerminal;
+
+/**
+ * Throughput of usual tasks mixed with exclusive ones. The baseline is a
+ * plain {@link ThreadPoolExecutor}, where exclusive tasks take the write lock
+ * and usual ones take the read lock of a fair read-write lock, so a waiting
+ * exclusive task blocks the workers instead of the queue.
+ *
+ * @author Vladimirov.A.A
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 3, time = 2)
+@Measurement (iterations = 5, time = 2)
+@Fork (1)
+public class MixedExclusiveBenchmark {
+
+	static final int BATCH = 1000;
+
+	@Param ({"0.001", "0.01", "0.1"})
+	double exclusiveRatio;
+
+	@Param ({"4", "16"})
+	int threads;
+
+	@Param ({Workloads.TERMINAL, Workloads.WORK_STEALING_TERMINAL, Workloads.THREAD_POOL})
+	String executor;
+
+	private ThreadTerminal terminal;
+	private ThreadPoolExecutor pool;
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock (true);
+	private Callable<Object> readTask;
+	private Callable<Object> writeTask;
+	private int exclusivePeriod;
+	private final List<Future<Object>> futures = new ArrayList<> (BATCH);
+
+	@Setup
+	public void setUp () {
+		exclusivePeriod = (int) Math.round (1 / exclusiveRatio);
+		terminal = Workloads.newTerminal (executor, threads);
+		if (terminal == null) {
+			pool = Workloads.newThreadPool (threads);
+			readTask = newLockedTask (lock.readLock ());
+			writeTask = newLockedTask (lock.writeLock ());
+		}
+	}
+
+	private static Callable<Object> newLockedTask (final java.util.concurrent.locks.Lock lock) {
+		return new Callable<Object> () {
+
+			@Override
+			public Object call () throws Exception {
+				lock.lock ();
+				try {
+					return Workloads.TASK.call ();
+				} finally {
+					lock.unlock ();
+				}
+			}
+		};
+	}
+
+	@TearDown
+	public void tearDown () throws InterruptedException {
+		Workloads.shutdown (terminal);
+		Workloads.shutdown (pool);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation (BATCH)
+	public void mixedTasks () throws Exception {
+		futures.clear ();
+		for (int i = 0; i < BATCH; i++) {
+			boolean exclusive = i % exclusivePeriod == 0;
+			futures.add (terminal != null
+					? terminal.submit (Workloads.TASK, Priority.LOW, exclusive)
+					: pool.submit (exclusive ? writeTask : readTask));
+		}
+		for (Future<Object> future : futures) {
+			future.get ();
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package ru.avladimirov.threadterminal.benchmarks;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.avladimirov.threadterminal.main.Priority;
+import ru.avladimirov.threadterminal.main.TerminalSnapshot;
+import ru.avladimirov.threadterminal.main.TerminalState;
+import ru.avladimirov.threadterminal.main.Terminals;
+import ru.avladimirov.threadterminal.main.ThreadTerminal;
+
+/**
+ * The cost of a snapshot of the terminal state, while tasks are running. The
+ * baseline reads the same counts from a busy {@link ThreadPoolExecutor}.
+ *
+ * @author Vladimirov.A.A
+ */
+@BenchmarkMode (Mode.AverageTime)
+@OutputTimeUnit (TimeUnit.NANOSECONDS)
+@Warmup (iterations = 3, time = 2)
+@Measurement (iterations = 5, time = 2)
+@Fork (1)
+public class SnapshotBenchmark {
+
+	static final int THREADS = 8;
+	static final int BACKLOG = 1000;
+
+	/**
+	 * A terminal, that is kept busy by a feeder thread.
+	 */
+	@State (Scope.Benchmark)
+	public static class BusyTerminal {
+
+		ThreadTerminal terminal;
+		private Thread feeder;
+		private volatile boolean running = true;
+
+		@Setup
+		public void setUp () {
+			terminal = Terminals.newThreadTerminal ("benchmark", THREADS);
+			feeder = new Thread (new Runnable () {
+
+				@Override
+				public void run () {
+					TerminalSnapshot snapshot = new TerminalSnapshot ();
+					while (running) {
+						if (terminal.snapshotTerminalState (snapshot).getQueuedTasksCount () < BACKLOG) {
+							terminal.submit (Workloads.TASK, Priority.LOW, false);
+						} else {
+							LockSupport.parkNanos (100_000);
+						}
+					}
+				}
+			});
+			feeder.start ();
+		}
+
+		@TearDown
+		public void tearDown () throws InterruptedException {
+			running = false;
+			feeder.join ();
+			Workloads.shutdown (terminal);
+		}
+	}
+
+	/**
+	 * A thread pool, that is kept busy by a feeder thread.
+	 */
+	@State (Scope.Benchmark)
+	public static class BusyThreadPool {
+
+		ThreadPoolExecutor pool;
+		private Thread feeder;
+		private volatile boolean running = true;
+
+		@Setup
+		public void setUp () {
+			pool = Workloads.newThreadPool (THREADS);
+			feeder = new Thread (new Runnable () {
+
+				@Override
+				public void run () {
+					while (running) {
+						if (pool.getQueue ().size () < BACKLOG) {
+							pool.submit (Workloads.TASK);
+						} else {
+							LockSupport.parkNanos (100_000);
+						}
+					}
+				}
+			});
+			feeder.start ();
+		}
+
+		@TearDown
+		public void tearDown () throws InterruptedException {
+			running = false;
+			feeder.join ();
+			Workloads.shutdown (pool);
+		}
+	}
+
+	/**
+	 * A reusable snapshot of a single benchmark thread.
+	 */
+	@State (Scope.Thread)
+	public static class ReusedSnapshot {
+
+		final TerminalSnapshot snapshot = new TerminalSnapshot ();
+	}
+
+	@Benchmark
+	public TerminalState terminalState (BusyTerminal busy) {
+		return busy.terminal.snapshotTerminalState ();
+	}
+
+	@Benchmark
+	public long terminalSnapshot (BusyTerminal busy, ReusedSnapshot reused) {
+		TerminalSnapshot snapshot = busy.terminal.snapshotTerminalState (reused.snapshot);
+		return snapshot.getQueuedTasksCount () + snapshot.getActiveTasksCount () + snapshot.getFinishedTasksCount ();
+	}
+
+	@Benchmark
+	public long threadPoolCounts (BusyThreadPool busy) {
+		return busy.pool.getQueue ().size () + busy.pool.getActiveCount () + busy.pool.getCompletedTaskCount ();
+	}
+}
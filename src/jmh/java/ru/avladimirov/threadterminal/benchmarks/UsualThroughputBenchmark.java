@@ -0,0 +1,77 @@
+package ru.avladimirov.threadterminal.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.avladimirov.threadterminal.main.Priority;
+import ru.avladimirov.threadterminal.main.ThreadTerminal;
+
+/**
+ * Throughput of usual tasks only: submit, queue, take and the usual pass of
+ * the exclusive gate, compared with a plain {@link ThreadPoolExecutor}.
+ *
+ * @author Vladimirov.A.A
+ */
+@State (Scope.Benchmark)
+@BenchmarkMode (Mode.Throughput)
+@OutputTimeUnit (TimeUnit.MILLISECONDS)
+@Warmup (iterations = 3, time = 2)
+@Measurement (iterations = 5, time = 2)
+@Fork (1)
+public class UsualThroughputBenchmark {
+
+	static final int BATCH = 1000;
+
+	@Param ({"1", "2", "4", "8", "16", "32", "64"})
+	int threads;
+
+	@Param ({Workloads.TERMINAL, Workloads.WORK_STEALING_TERMINAL, Workloads.THREAD_POOL})
+	String executor;
+
+	private ThreadTerminal terminal;
+	private ThreadPoolExecutor pool;
+	private final List<Future<Object>> futures = new ArrayList<> (BATCH);
+
+	@Setup
+	public void setUp () {
+		terminal = Workloads.newTerminal (executor, threads);
+		if (terminal == null) {
+			pool = Workloads.newThreadPool (threads);
+		}
+	}
+
+	@TearDown
+	public void tearDown () throws InterruptedException {
+		Workloads.shutdown (terminal);
+		Workloads.shutdown (pool);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation (BATCH)
+	public void usualTasks () throws Exception {
+		futures.clear ();
+		for (int i = 0; i < BATCH; i++) {
+			futures.add (terminal != null
+					? terminal.submit (Workloads.TASK, Priority.LOW, false)
+					: pool.submit (Workloads.TASK));
+		}
+		for (Future<Object> future : futures) {
+			future.get ();
+		}
+	}
+}
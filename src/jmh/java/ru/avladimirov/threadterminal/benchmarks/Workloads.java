@@ -0,0 +1,82 @@
+package ru.avladimirov.threadterminal.benchmarks;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.avladimirov.threadterminal.main.ExecutionMode;
+import ru.avladimirov.threadterminal.main.TerminalConfig;
+import ru.avladimirov.threadterminal.main.Terminals;
+import ru.avladimirov.threadterminal.main.ThreadTerminal;
+
+/**
+ * Tasks and executors shared by the benchmarks.
+ *
+ * @author Vladimirov.A.A
+ */
+final class Workloads {
+
+	//a few microseconds of work, so that the scheduling cost is visible
+	static final long TASK_TOKENS = 500;
+
+	static final Callable<Object> TASK = new Callable<Object> () {
+
+		@Override
+		public Object call () {
+			Blackhole.consumeCPU (TASK_TOKENS);
+			return null;
+		}
+	};
+
+	static final String TERMINAL = "terminal";
+	static final String WORK_STEALING_TERMINAL = "workStealingTerminal";
+	static final String THREAD_POOL = "threadPool";
+
+	private Workloads () {
+	}
+
+	/**
+	 *
+	 * @param executor one of the executor params
+	 * @param threads the pool size
+	 * @return a terminal in the execution mode of the param, or null for
+	 * the thread pool baseline.
+	 */
+	static ThreadTerminal newTerminal (String executor, int threads) {
+		switch (executor) {
+			case TERMINAL:
+				return Terminals.newThreadTerminal ("benchmark", threads);
+			case WORK_STEALING_TERMINAL:
+				return Terminals.newThreadTerminal ("benchmark", threads,
+						new TerminalConfig ().setExecutionMode (ExecutionMode.WORK_STEALING));
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 *
+	 * @param threads the pool size
+	 * @return a plain fixed thread pool, the baseline for the terminal.
+	 */
+	static ThreadPoolExecutor newThreadPool (int threads) {
+		ThreadPoolExecutor pool = new ThreadPoolExecutor (threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable> ());
+		pool.prestartAllCoreThreads ();
+		return pool;
+	}
+
+	static void shutdown (ThreadTerminal terminal) throws InterruptedException {
+		if (terminal != null) {
+			terminal.shutdownNow ();
+			terminal.awaitTermination (1, TimeUnit.MINUTES);
+		}
+	}
+
+	static void shutdown (ThreadPoolExecutor pool) throws InterruptedException {
+		if (pool != null) {
+			pool.shutdownNow ();
+			pool.awaitTermination (1, TimeUnit.MINUTES);
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package ru.avladimirov.threadterminal.main;
+
+/**
+ * A {@link SchedulingPolicy} that promotes waiting tasks: the oldest task of
+ * each level gains one level for each promotion interval it has waited, and
+ * the task with the highest resulting level is taken. On a tie the task of the
+ * originally higher level wins. Thus no level starves for longer than its
+ * distance to the highest level multiplied by the interval.
+ *
+ * @author Vladimirov.A.A
+ */
+class AgingPolicy implements SchedulingPolicy {
+
+	private final long promotionNanos;
+
+	/**
+	 *
+	 * @param promotionNanos the time of waiting, that promotes a task by one
+	 * level.
+	 */
+	AgingPolicy (long promotionNanos) {
+		if (promotionNanos <= 0) {
+			throw new IllegalArgumentException ("promotion interval should be positive: " + promotionNanos);
+		}
+		this.promotionNanos = promotionNanos;
+	}
+
+	@Override
+	public int selectLevel (long nonEmptyLevels, LevelView levels) {
+		long now = System.nanoTime ();
+		int selected = -1;
+		long selectedEffective = Long.MAX_VALUE;
+		while (nonEmptyLevels != 0) {
+			int level = Long.numberOfTrailingZeros (nonEmptyLevels);
+			nonEmptyLevels &= nonEmptyLevels - 1;
+			long effective = level - (now - levels.getHeadSubmissionTime (level)) / promotionNanos;
+			if (effective < selectedEffective) {
+				selectedEffective = effective;
+				selected = level;
+			}
+		}
+		return selected;
+	}
+
+	long getPromotionNanos () {
+		return promotionNanos;
+	}
+}
@@ -0,0 +1,24 @@
+package ru.avladimirov.threadterminal.main;
+
+/**
+ * An enum for defining what
+ * {@link ThreadTerminal#submitCoalescing(java.util.concurrent.Callable, Class, String, Priority, boolean, CoalesceMode)}
+ * does, when a coalescing task with the same name, i.e. one submitted by the
+ * same method, is already queued or pending. In both cases nothing new is put
+ * to the queue, and the returned future is the one of the existing task.
+ *
+ * @author Vladimirov.A.A
+ */
+public enum CoalesceMode {
+
+	/**
+	 * The new callable is dropped, and its submission gets the result of the
+	 * existing task.
+	 */
+	ATTACH,
+	/**
+	 * The callable of the existing task is replaced with the new one, so the
+	 * newest submission is the one, that runs.
+	 */
+	REPLACE,;
+}
@@ -0,0 +1,98 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * A wrapper for a callable, that was submitted by
+ * {@link ThreadTerminal#submitCoalescing(Callable, Class, String, Priority, boolean, CoalesceMode)}.
+ * While the task is queued or pending, it's registered by its name, and the
+ * later submissions with the same name are attached to it. When the task
+ * starts, it leaves the registry, and the next submission creates a new
+ * task.
+ * <br>
+ * The attached submissions share the future of the task, so the registry
+ * keeps the result type of each task, and a submission with another result
+ * type is refused.
+ *
+ * @author Vladimirov.A.A
+ */
+class CoalescingCallable<T> implements Callable<T> {
+
+	private final String name;
+	private final Class<T> resultType;
+	private final Map<String, CoalescingCallable<?>> registry;
+	//guarded by this
+	private Callable<T> callable;
+	private boolean started = false;
+	private Future<T> future;
+
+	/**
+	 *
+	 * @param callable your custom callable
+	 * @param resultType the type of the callable's returned result
+	 * @param name of the task, the key of the registry
+	 * @param registry of the coalescing tasks of the terminal, that are not
+	 * started yet
+	 */
+	CoalescingCallable (Callable<T> callable, Class<T> resultType, String name, Map<String, CoalescingCallable<?>> registry) {
+		this.callable = callable;
+		this.resultType = resultType;
+		this.name = name;
+		this.registry = registry;
+	}
+
+	/**
+	 *
+	 * @param <U> the result type of a new submission
+	 * @param type the result type of a new submission
+	 * @return this task, typed by its result type
+	 * @throws IllegalArgumentException if the task has another result type.
+	 */
+	@SuppressWarnings ("unchecked")
+	<U> CoalescingCallable<U> withResultType (Class<U> type) {
+		if (!resultType.equals (type)) {
+			throw new IllegalArgumentException ("the task " + name + " returns " + resultType.getName ()
+					+ ", not " + type.getName ());
+		}
+		//the result types are the same, so the cast is safe
+		return (CoalescingCallable<U>) this;
+	}
+
+	synchronized void setFuture (Future<T> future) {
+		this.future = future;
+	}
+
+	synchronized Future<T> getFuture () {
+		return future;
+	}
+
+	/**
+	 *
+	 * @param newCallable of the new submission
+	 * @param mode what to do with it
+	 * @return true if the submission is attached to this task, false if the
+	 * task has already started or has been cancelled.
+	 */
+	synchronized boolean attach (Callable<T> newCallable, CoalesceMode mode) {
+		if (started || future.isDone ()) {
+			return false;
+		}
+		if (mode == CoalesceMode.REPLACE) {
+			callable = newCallable;
+		}
+		return true;
+	}
+
+	@Override
+	public T call () throws Exception {
+		Callable<T> current;
+		synchronized (this) {
+			started = true;
+			current = callable;
+		}
+		registry.remove (name, this);
+		return current.call ();
+	}
+}
@@ -1,7 +1,10 @@
 package ru.avladimirov.threadterminal.main;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
 /**
  * An extension of the {@link FutureTask} that supports comparability.
@@ -13,19 +16,56 @@ public class ComparableFutureTask<T> extends FutureTask<T> implements Comparable
 	private Prioritized prioritized;
 	private PriorityCallable<T> callable;
 	private long orderIndex;
+	private long submissionTime;
+	//set by the queue, that publishes it to the worker under its lock
+	private boolean gateWaiting = false;
+	private long gateWaitStart;
+	//completed by done (), may be null
+	private CompletableFuture<T> completion;
 
 	/**
+	 * The id of the task, allocated by the terminal, is also the order index
+	 * among callables of the same priority.
 	 *
 	 * @param callable should be a {@link PriorityCallable}, because it can be
 	 * compared.
-	 * @param index necessary for implementing the sequential order among
-	 * callables of the same priority.
 	 */
-	ComparableFutureTask (PriorityCallable<T> callable, AtomicLong index) {
+	ComparableFutureTask (PriorityCallable<T> callable) {
 		super (callable);
 		this.callable = callable;
 		this.prioritized = callable;
-		this.orderIndex = index.getAndIncrement ();
+		this.orderIndex = callable.getId ();
+		this.submissionTime = System.nanoTime ();
+	}
+
+	/**
+	 *
+	 * @param callable should be a {@link PriorityCallable}
+	 * @param completion is completed with the outcome of the task, in the
+	 * thread that completes the task
+	 */
+	ComparableFutureTask (PriorityCallable<T> callable, CompletableFuture<T> completion) {
+		this (callable);
+		this.completion = completion;
+	}
+
+	@Override
+	protected void done () {
+		if (completion == null) {
+			return;
+		}
+		if (isCancelled ()) {
+			completion.cancel (false);
+			return;
+		}
+		try {
+			completion.complete (get ());
+		} catch (ExecutionException ex) {
+			completion.completeExceptionally (ex.getCause ());
+		} catch (InterruptedException ex) {
+			//the task is done, so get () doesn't wait
+			Thread.currentThread ().interrupt ();
+		}
 	}
 
 	@Override
@@ -35,14 +75,41 @@ public class ComparableFutureTask<T> extends FutureTask<T> implements Comparable
 
 	/**
 	 *
-	 * @return the name of the underlying callable.
+	 * @return the name of the underlying callable, or a label made of its id
+	 * if it has no name.
 	 *
 	 * @see PriorityCallable
 	 */
 	public String getName () {
+		return TerminalState.label (callable.getName (), callable.getId ());
+	}
+
+	/**
+	 *
+	 * @return the name of the underlying callable, may be null.
+	 */
+	@Override
+	public String getTaskName () {
 		return callable.getName ();
 	}
 
+	/**
+	 *
+	 * @return the id of the task, allocated by the terminal.
+	 */
+	public long getId () {
+		return callable.getId ();
+	}
+
+	/**
+	 *
+	 * @return the exclusivity key, or null.
+	 */
+	@Override
+	public String getKey () {
+		return callable.getKey ();
+	}
+
 	/**
 	 *
 	 * @return true if the underlying callable is exclusive, false if it's
@@ -51,6 +118,7 @@ public class ComparableFutureTask<T> extends FutureTask<T> implements Comparable
 	 * @see ExclusiveCallable
 	 * @see UsualCallable
 	 */
+	@Override
 	public boolean isExclusive () {
 		return callable.getCallable () instanceof ExclusiveCallable;
 	}
@@ -59,4 +127,42 @@ public class ComparableFutureTask<T> extends FutureTask<T> implements Comparable
 	public long getIndex () {
 		return orderIndex;
 	}
+
+	@Override
+	public long getSubmissionTime () {
+		return submissionTime;
+	}
+
+	@Override
+	public void startGateWait (long time) {
+		gateWaiting = true;
+		gateWaitStart = time;
+	}
+
+	@Override
+	public long getGateWait (long now) {
+		return gateWaiting ? now - gateWaitStart : 0;
+	}
+
+	@Override
+	public long getDeadline () {
+		return callable.getDeadline ();
+	}
+
+	/**
+	 * Completes the task with a {@link TimeoutException} without running it.
+	 */
+	@Override
+	public void expire () {
+		setException (new TimeoutException ("the deadline of " + getName () + " has passed before its start"));
+	}
+
+	/**
+	 * Completes the task with a {@link RejectedExecutionException} without
+	 * running it.
+	 */
+	@Override
+	public void drop () {
+		setException (new RejectedExecutionException (getName () + " is dropped, as the queue is full"));
+	}
 }
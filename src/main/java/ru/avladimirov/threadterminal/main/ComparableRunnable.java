@@ -2,30 +2,123 @@ package ru.avladimirov.threadterminal.main;
 
 /**
  * An interface that provides comparability for runnables. Is necessary for
- * {@link PriorityExecutor} and its {@link PriorityBlockingQueue}.
+ * {@link PriorityExecutor} and its {@link PEBQueue}.
  *
  * @author Vladimirov.A.A
  */
 public interface ComparableRunnable extends Runnable, Comparable<ComparableRunnable> {
 
 	/**
-	 * For usage in the PriorityBlockingQueue
+	 * The deadline of a task, that has none.
+	 */
+	public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+	/**
+	 * For usage in the {@link PEBQueue}
 	 *
-	 * @return the priority of the runnable/callable.
+	 * @return the priority level of the runnable/callable, from
+	 * {@link Priority#HIGHEST_LEVEL} to {@link Priority#LOWEST_LEVEL}.
 	 */
 	public int getPriority ();
 
 	/**
-	 * For usage in the PriorityBlockingQueue
+	 * For usage in comparing
 	 *
 	 * @return the index of the task in the global order of submitted tasks.
 	 */
 	public long getIndex ();
 
+	/**
+	 * For usage in a {@link SchedulingPolicy}
+	 *
+	 * @return {@link System#nanoTime()} of the task submission.
+	 */
+	public long getSubmissionTime ();
+
+	/**
+	 * For usage in the {@link PEBQueue}: an exclusive task is handed out only
+	 * when there are no active tasks at all.
+	 *
+	 * @return true if the task should be executed exclusively.
+	 */
+	public boolean isExclusive ();
+
+	/**
+	 * For usage in the {@link PEBQueue}: a task with a key is excluded only by
+	 * an exclusive task with the same key, and an exclusive task with a key
+	 * excludes only the tasks with the same key (see {@link KeyedGate}).
+	 *
+	 * @return the exclusivity key of the task, or null if it has none. An
+	 * exclusive task without a key excludes all tasks.
+	 */
+	default public String getKey () {
+		return null;
+	}
+
+	/**
+	 * For usage in the {@link PEBQueue}: the rate limits of name prefixes
+	 * apply to the task by its name (see
+	 * {@link TerminalConfig#setRateLimit(String, double, int)}).
+	 *
+	 * @return the name of the task, or null if it has none.
+	 */
+	default public String getTaskName () {
+		return null;
+	}
+
+	/**
+	 * For usage in the {@link PEBQueue}: tasks with deadlines go first in
+	 * their level, by the earliest deadline, and a task, whose deadline has
+	 * passed before it has reached the head of the queue, is expired instead
+	 * of being started.
+	 *
+	 * @return {@link System#nanoTime()} of the latest start of the task, or
+	 * {@link #NO_DEADLINE}.
+	 */
+	default public long getDeadline () {
+		return NO_DEADLINE;
+	}
+
+	/**
+	 * Is called by the {@link PEBQueue}, when the task leaves the run queue,
+	 * but has to wait at the exclusive gate or for its key.
+	 *
+	 * @param time {@link System#nanoTime()} of the start of the wait
+	 */
+	default public void startGateWait (long time) {
+	}
+
+	/**
+	 * For usage in the {@link TerminalState}: the gate wait is recorded as a
+	 * phase of the lifecycle of the task (see {@link LatencyPhase}).
+	 *
+	 * @param now {@link System#nanoTime()} of the start of the task
+	 * @return the time, the task has waited at the gate, in nanoseconds, or 0
+	 * if it hasn't.
+	 */
+	default public long getGateWait (long now) {
+		return 0;
+	}
+
+	/**
+	 * Is called by the {@link PEBQueue} instead of {@link #run()}, when the
+	 * deadline of the task has passed before its start.
+	 */
+	default public void expire () {
+	}
+
+	/**
+	 * Is called by the {@link PEBQueue} instead of {@link #run()}, when the
+	 * task is dropped from the full queue to make room for another one, see
+	 * {@link OverflowPolicy#DROP_OLDEST_LOW}.
+	 */
+	default public void drop () {
+	}
+
 	@Override
 	default public int compareTo (ComparableRunnable another) {
 		int priority = this.getPriority () - another.getPriority ();
-		return priority != 0 ? priority : (int) (this.getIndex () - another.getIndex ());
+		return priority != 0 ? priority : Long.compare (this.getIndex (), another.getIndex ());
 	}
 
 }
@@ -1,102 +1,99 @@
 package ru.avladimirov.threadterminal.main;
 
 import java.util.concurrent.Callable;
-import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
-import static ru.avladimirov.threadterminal.main.Terminals.getLogger;
 
 /**
  * A wrapper for a callable, that exclusively uses its {@link PriorityExecutor}.
- * When its execution begins, it waits for all currently active tasks to finish,
- * then holds all new tasks from starting, then executes its callable.
+ * Its execution begins only when all currently active tasks are finished, and
+ * no new tasks start until it's finished. Both are guaranteed by the
+ * {@link PEBQueue}, which doesn't hand out the task before that, so the
+ * wrapper itself never waits.
  * <br>
  * In other words, this class in pair with {@link UsualCallable} form a
  * transport, that delivers its load (your custom callables) to the pool
- * executor and regulates its execution.
+ * executor and reports its execution.
  *
  * @author Vladimirov.A.A
  */
 class ExclusiveCallable<T> implements Callable<T> {
 
-	private Lock taskLock;
-	private Condition exclusiveCondition;
 	private Lock innerLock;
 	private Callable<T> callable;
 	private String name;
+	private long id;
+	private int priority;
 	private TerminalState terminalState;
-	private ThreadTerminal terminal;
+	//in the STRICT mode all registrations are done under the inner lock
+	private boolean strict;
 
 	/**
 	 *
 	 * @param callable your custom callable, it will be wrapped by this class.
 	 * @param threadTerminal that runs this wrapper
-	 * @param name of this wrapper.
+	 * @param name of this wrapper, may be null.
+	 * @param id of the task, allocated by the terminal.
+	 * @param priority of the task, its latencies are recorded by levels.
 	 */
-	ExclusiveCallable (Callable<T> callable, ThreadTerminal threadTerminal, String name) {
-		this.terminal = threadTerminal;
+	ExclusiveCallable (Callable<T> callable, ThreadTerminal threadTerminal, String name, long id, int priority) {
 		this.terminalState = threadTerminal.getTerminalState ();
 		this.callable = callable;
-		this.taskLock = threadTerminal.getTaskLock ();
-		this.exclusiveCondition = threadTerminal.getCondition ();
 		this.innerLock = terminalState.getInnerLock ();
+		this.strict = threadTerminal.getGateMode () == GateMode.STRICT;
 		this.name = name;
+		this.id = id;
+		this.priority = priority;
 	}
 
 	@Override
 	public T call () throws Exception {
-		taskLock.lock ();
-		getLogger ().debug (name + " exc " + "tasklocks");
+		//terminalStateUpdate:
+		//here we update the terminal inner state: increment the count of pending tasks
+		lockIfStrict ();
 		try {
-			//terminalStateUpdate:
-			//here we update the terminal inner state: increment the count of pending tasks
-			innerLock.lock ();
-			getLogger ().debug (name + " exc " + "innerLocks");
-			try {
-				terminalState.registerNewPending (name);
-			} finally {
-				innerLock.unlock ();
-				getLogger ().debug (name + " exc " + "inner unlocks");
-			}
-
-			//wait until all usual tasks finish executing
-			boolean exitCycle = false;
-			while (!exitCycle) {
-				innerLock.lock ();
-				try {
-					if (!terminalState.activeUsualsExist ()) {
-						terminalState.registerNewActive (name, true);
-						exitCycle = true;
-					} else {
-						if (terminal.isSelfTest ()) {
-							getLogger ().debug (name + " can't start: there are activeUsuals");
-						}
-					}
-				} finally {
-					innerLock.unlock ();
-				}
-				Thread.sleep (10);
-			}
+			terminalState.registerNewPending (id, name);
+		} finally {
+			unlockIfStrict ();
+		}
 
-			//now we can proceed
-			//terminalStateUpdate:
-			//terminal inner state is changed: the task has entered active phase
-			getLogger ().debug (name + " starts");
+		//the queue has admitted this task, so all usual tasks are already finished
+		//terminalStateUpdate:
+		//terminal inner state is changed: the task has entered active phase
+		lockIfStrict ();
+		try {
+			terminalState.registerNewActive (id, name, true);
+		} finally {
+			unlockIfStrict ();
+		}
+		long startTime = System.nanoTime ();
+		boolean failed = true;
 
+		try {
 			//the CALL code itself
-			return callable.call ();
+			T result = callable.call ();
+			failed = false;
+			return result;
 		} finally {
 			//terminalStateUpdate:
 			//terminal inner state is changed: the task has finished execution
-			innerLock.lock ();
+			lockIfStrict ();
 			try {
-				terminalState.registerNewFinished (name, true);
-				//tell all usual pending tasks that they can continue
-				exclusiveCondition.signalAll ();
+				terminalState.registerNewFinished (id, name, priority, true, startTime, failed);
 			} finally {
-				innerLock.unlock ();
+				unlockIfStrict ();
 			}
-			taskLock.unlock ();
-			getLogger ().debug (name + " unlocks and ends");
+		}
+	}
+
+	private void lockIfStrict () {
+		if (strict) {
+			innerLock.lock ();
+		}
+	}
+
+	private void unlockIfStrict () {
+		if (strict) {
+			innerLock.unlock ();
 		}
 	}
 }
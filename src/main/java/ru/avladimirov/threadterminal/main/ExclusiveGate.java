@@ -0,0 +1,125 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A gate between exclusive and usual tasks, built on a single atomic state
+ * word: an exclusive-held bit, an exclusive-waiting bit and a count of active
+ * usual tasks. A usual task enters and leaves the gate with a CAS, and no lock
+ * is needed unless an exclusive task is waiting for the active usual ones to
+ * finish.
+ * <br>
+ * The gate is used by the {@link PEBQueue}: it acquires the gate when it hands
+ * out a task, and releases it when the task is executed.
+ *
+ * @author Vladimirov.A.A
+ */
+class ExclusiveGate {
+
+	//an exclusive task is active
+	private static final long HELD = 1L << 62;
+	//an exclusive task waits for the active usual ones to finish
+	private static final long WAITING = 1L << 61;
+	//the rest of the bits is a count of active usual tasks
+	private static final long USUALS = WAITING - 1;
+
+	private final AtomicLong state = new AtomicLong (0);
+
+	/**
+	 * A usual task can't enter while an exclusive is either active or waiting,
+	 * otherwise the waiting exclusive could starve.
+	 *
+	 * @return true if the usual task has entered the gate.
+	 */
+	boolean tryAcquireUsual () {
+		for (;;) {
+			long s = state.get ();
+			if ((s & (HELD | WAITING)) != 0) {
+				return false;
+			}
+			if (state.compareAndSet (s, s + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * If there are active usual tasks, marks the gate as waiting for them,
+	 * so that the last of them reports it in {@link #releaseUsual()}.
+	 *
+	 * @return true if the exclusive task has entered the gate.
+	 */
+	boolean tryAcquireExclusive () {
+		for (;;) {
+			long s = state.get ();
+			if ((s & HELD) != 0) {
+				return false;
+			}
+			if ((s & USUALS) == 0) {
+				if (state.compareAndSet (s, HELD)) {
+					return true;
+				}
+			} else if ((s & WAITING) != 0 || state.compareAndSet (s, s | WAITING)) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return true if it was the last active usual task and an exclusive one
+	 * is waiting for it, so the waiting one should be woken up.
+	 */
+	boolean releaseUsual () {
+		long s = state.decrementAndGet ();
+		return (s & USUALS) == 0 && (s & WAITING) != 0;
+	}
+
+	void releaseExclusive () {
+		for (;;) {
+			long s = state.get ();
+			if (state.compareAndSet (s, s & ~HELD)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Passes the gate from the active exclusive task to the next one without
+	 * letting usual tasks in: the gate is marked as waiting, so the next one
+	 * enters it by {@link #tryAcquireExclusive()}.
+	 */
+	void handOver () {
+		for (;;) {
+			long s = state.get ();
+			if (state.compareAndSet (s, (s & ~HELD) | WAITING)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Is used when the waiting exclusive task is removed without being
+	 * executed.
+	 */
+	void cancelWaiting () {
+		for (;;) {
+			long s = state.get ();
+			if (state.compareAndSet (s, s & ~WAITING)) {
+				return;
+			}
+		}
+	}
+
+	int getActiveUsuals () {
+		return (int) (state.get () & USUALS);
+	}
+
+	boolean isExclusiveHeld () {
+		return (state.get () & HELD) != 0;
+	}
+
+	boolean isExclusiveWaiting () {
+		return (state.get () & WAITING) != 0;
+	}
+}
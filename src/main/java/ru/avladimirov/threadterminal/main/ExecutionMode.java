@@ -0,0 +1,32 @@
+package ru.avladimirov.threadterminal.main;
+
+/**
+ * An enum for defining what threads a {@link ThreadTerminal} runs its tasks
+ * in. In any mode tasks are ordered and admitted by the same queue, so the
+ * priorities and exclusivity work the same way.
+ *
+ * @author Vladimirov.A.A
+ */
+public enum ExecutionMode {
+
+	/**
+	 * A fixed pool of platform threads, the pool size is the count of
+	 * threads.
+	 */
+	PLATFORM_THREADS,
+	/**
+	 * Each admitted task runs in a virtual thread of its own, and the pool
+	 * size is the count of permits, that bounds the count of active tasks.
+	 * Tasks, that block on I/O, release their carrier threads. Needs Java 21
+	 * or later.
+	 */
+	VIRTUAL_THREADS,
+	/**
+	 * A {@link java.util.concurrent.ForkJoinPool}, the pool size is the count
+	 * of workers. Each worker owns a deque, the idle ones steal from the
+	 * others, and the workers don't wait on the lock of the queue. Usual
+	 * tasks without a key, submitted by a running task, are forked to the
+	 * deque of its worker and bypass the queue.
+	 */
+	WORK_STEALING,;
+}
@@ -0,0 +1,132 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed-capacity journal of finished tasks, that keeps the latest records
+ * in a preallocated ring buffer: task id, name, start and end timestamps,
+ * exclusivity and outcome. Recording a task allocates nothing, it only claims
+ * the next sequence number and writes the record to its slot, overwriting the
+ * oldest one.
+ * <br>
+ * Each slot is guarded by its version, that is the sequence number of the
+ * record in it, so readers never lock: a {@link JournalCursor} skips the
+ * records, that have been overwritten or are still being written.
+ *
+ * @author Vladimirov.A.A
+ */
+class FinishedJournal {
+
+	static final int MIN_CAPACITY = 100;
+	static final int MAX_CAPACITY = 1000000;
+
+	//a version of a slot, that is being written
+	private static final long WRITING = -1;
+	//a version of a slot, that has never been written
+	private static final long EMPTY = -2;
+	private static final long EXCLUSIVE = 1;
+	private static final long FAILED = 2;
+
+	private final int capacity;
+	//the sequence number of the next record
+	private final AtomicLong tail = new AtomicLong (0);
+	private final AtomicLongArray versions;
+	private final AtomicLongArray ids;
+	private final AtomicReferenceArray<String> names;
+	private final AtomicLongArray startTimes;
+	private final AtomicLongArray endTimes;
+	private final AtomicLongArray flags;
+
+	/**
+	 *
+	 * @param capacity from {@link #MIN_CAPACITY} to {@link #MAX_CAPACITY}
+	 */
+	FinishedJournal (int capacity) {
+		if (capacity < MIN_CAPACITY || capacity > MAX_CAPACITY) {
+			throw new IllegalArgumentException ("journal capacity should be from " + MIN_CAPACITY
+					+ " to " + MAX_CAPACITY + ": " + capacity);
+		}
+		this.capacity = capacity;
+		this.versions = new AtomicLongArray (capacity);
+		this.ids = new AtomicLongArray (capacity);
+		this.names = new AtomicReferenceArray<> (capacity);
+		this.startTimes = new AtomicLongArray (capacity);
+		this.endTimes = new AtomicLongArray (capacity);
+		this.flags = new AtomicLongArray (capacity);
+		for (int i = 0; i < capacity; i++) {
+			versions.set (i, EMPTY);
+		}
+	}
+
+	/**
+	 * Records a finished task.
+	 *
+	 * @param id of the task
+	 * @param name of the task
+	 * @param startTime {@link System#nanoTime()} of the task start
+	 * @param endTime {@link System#nanoTime()} of the task end
+	 * @param exclusive true if the task was exclusive
+	 * @param failed true if the task has thrown an exception
+	 * @return the sequence number of the record
+	 */
+	long record (long id, String name, long startTime, long endTime, boolean exclusive, boolean failed) {
+		long sequence = tail.getAndIncrement ();
+		int slot = (int) (sequence % capacity);
+		//a slow writer may meet a writer of the next round in the same slot
+		for (;;) {
+			long version = versions.get (slot);
+			if (version > sequence) {
+				return sequence;
+			}
+			if (version != WRITING && versions.compareAndSet (slot, version, WRITING)) {
+				break;
+			}
+			Thread.yield ();
+		}
+		ids.lazySet (slot, id);
+		names.lazySet (slot, name);
+		startTimes.lazySet (slot, startTime);
+		endTimes.lazySet (slot, endTime);
+		flags.lazySet (slot, (exclusive ? EXCLUSIVE : 0) | (failed ? FAILED : 0));
+		versions.set (slot, sequence);
+		return sequence;
+	}
+
+	/**
+	 *
+	 * @return the sequence number of the next record, that is the count of
+	 * records ever made.
+	 */
+	long getTail () {
+		return tail.get ();
+	}
+
+	int getCapacity () {
+		return capacity;
+	}
+
+	/**
+	 * Reads a record into the cursor.
+	 *
+	 * @return false if the record is overwritten or is not written yet.
+	 */
+	boolean read (long sequence, JournalCursor cursor) {
+		int slot = (int) (sequence % capacity);
+		if (versions.get (slot) != sequence) {
+			return false;
+		}
+		long id = ids.get (slot);
+		String name = names.get (slot);
+		long startTime = startTimes.get (slot);
+		long endTime = endTimes.get (slot);
+		long flag = flags.get (slot);
+		if (versions.get (slot) != sequence) {
+			return false;
+		}
+		cursor.set (sequence, id, name, startTime, endTime,
+				(flag & EXCLUSIVE) != 0, (flag & FAILED) != 0 ? TaskOutcome.FAILED : TaskOutcome.SUCCEEDED);
+		return true;
+	}
+}
@@ -0,0 +1,23 @@
+package ru.avladimirov.threadterminal.main;
+
+/**
+ * An enum for defining how a {@link ThreadTerminal} registers task transitions
+ * around its exclusive gate.
+ *
+ * @author Vladimirov.A.A
+ */
+public enum GateMode {
+
+	/**
+	 * Usual tasks pass the gate with a few CAS operations and take no lock,
+	 * unless an exclusive task is waiting for them. Task transitions are
+	 * registered in the {@link TerminalState} independently from each other.
+	 */
+	LOCK_FREE,
+	/**
+	 * Every task transition is registered in the {@link TerminalState} under
+	 * its inner lock, so all snapshots follow each other strictly in the order
+	 * of transitions. That's the way a self testing terminal works.
+	 */
+	STRICT,;
+}
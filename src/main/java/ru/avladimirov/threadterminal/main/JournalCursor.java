@@ -0,0 +1,108 @@
+package ru.avladimirov.threadterminal.main;
+
+/**
+ * A cursor over records of finished tasks, obtained from a
+ * {@link TerminalState}. It moves from older records to newer ones, and
+ * reads them right from the journal of the terminal without copying it: a
+ * record, that has been overwritten by a newer one since the state was taken,
+ * is skipped.
+ * <pre>
+ * JournalCursor cursor = state.getFinishedTasksCursor ();
+ * while (cursor.next ()) {
+ *	System.out.println (cursor.getName () + " " + cursor.getOutcome ());
+ * }
+ * </pre>
+ *
+ * @author Vladimirov.A.A
+ */
+public final class JournalCursor {
+
+	private final FinishedJournal journal;
+	//the sequence number to be read next
+	private long position;
+	//the sequence number, that is not read
+	private final long limit;
+
+	private long sequence;
+	private long taskId;
+	private String name;
+	private long startTime;
+	private long endTime;
+	private boolean exclusive;
+	private TaskOutcome outcome;
+
+	JournalCursor (FinishedJournal journal, long from, long limit) {
+		this.journal = journal;
+		this.position = from;
+		this.limit = limit;
+	}
+
+	/**
+	 * Moves to the next available record.
+	 *
+	 * @return false if there are no more records.
+	 */
+	public boolean next () {
+		while (position < limit) {
+			if (journal.read (position++, this)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	void set (long sequence, long taskId, String name, long startTime, long endTime, boolean exclusive, TaskOutcome outcome) {
+		this.sequence = sequence;
+		this.taskId = taskId;
+		this.name = name;
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.exclusive = exclusive;
+		this.outcome = outcome;
+	}
+
+	/**
+	 *
+	 * @return the number of the record in the order of finishing.
+	 */
+	public long getSequence () {
+		return sequence;
+	}
+
+	public long getTaskId () {
+		return taskId;
+	}
+
+	/**
+	 *
+	 * @return the name of the task, or a label made of its id if the task has
+	 * no name.
+	 */
+	public String getName () {
+		return TerminalState.label (name, taskId);
+	}
+
+	/**
+	 *
+	 * @return {@link System#nanoTime()} of the task start.
+	 */
+	public long getStartTime () {
+		return startTime;
+	}
+
+	/**
+	 *
+	 * @return {@link System#nanoTime()} of the task end.
+	 */
+	public long getEndTime () {
+		return endTime;
+	}
+
+	public boolean isExclusive () {
+		return exclusive;
+	}
+
+	public TaskOutcome getOutcome () {
+		return outcome;
+	}
+}
@@ -0,0 +1,238 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * A gate between tasks, that declare the same exclusivity key: an exclusive
+ * task with a key excludes only the tasks with the same key, as a writer
+ * excludes readers. Keys are hashed to a fixed table of stripes, each one is
+ * an atomic state word like the one of the {@link ExclusiveGate}: a
+ * writer-held bit, a waiting bit and a count of active readers. Tasks with
+ * unrelated keys run in parallel, unless their keys share a stripe.
+ * <br>
+ * A keyed task, that can't enter its stripe, is parked here in a FIFO of the
+ * stripe, and all tasks of the same stripe, that reach the head of the queue
+ * later, are parked behind it, so that a waiting writer is never overtaken by
+ * readers. Parking, admission and all the other methods except the releases
+ * are called by the {@link PEBQueue} under its lock.
+ *
+ * @author Vladimirov.A.A
+ */
+class KeyedGate<E extends ComparableRunnable> {
+
+	static final int STRIPES = 1024;
+
+	//a writer is active
+	private static final long HELD = 1L << 62;
+	//a task is parked for the stripe
+	private static final long WAITING = 1L << 61;
+	//the rest of the bits is a count of active readers
+	private static final long READERS = WAITING - 1;
+
+	private final AtomicLongArray stripes = new AtomicLongArray (STRIPES);
+	//parked tasks by their stripes, in the order of parking
+	private final Map<Integer, ArrayDeque<E>> parked = new LinkedHashMap<> ();
+	private int parkedCount = 0;
+
+	static int stripe (String key) {
+		int h = key.hashCode ();
+		return (h ^ (h >>> 16)) & (STRIPES - 1);
+	}
+
+	/**
+	 * If the stripe is busy, marks it as waiting, so that the task, that
+	 * frees it, reports it on release.
+	 *
+	 * @param task a keyed task
+	 * @return true if the task has entered its stripe.
+	 */
+	boolean tryAcquire (E task) {
+		int stripe = stripe (task.getKey ());
+		boolean writer = task.isExclusive ();
+		for (;;) {
+			long s = stripes.get (stripe);
+			boolean free = writer ? (s & (HELD | READERS)) == 0 : (s & HELD) == 0;
+			if (free) {
+				if (stripes.compareAndSet (stripe, s, writer ? s | HELD : s + 1)) {
+					return true;
+				}
+			} else if ((s & WAITING) != 0 || stripes.compareAndSet (stripe, s, s | WAITING)) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @param task a keyed task, that has entered its stripe
+	 * @return true if the stripe is free now and some task is parked for it,
+	 * so the waiting workers should be woken up.
+	 */
+	boolean release (ComparableRunnable task) {
+		int stripe = stripe (task.getKey ());
+		for (;;) {
+			long s = stripes.get (stripe);
+			long next = task.isExclusive () ? s & ~HELD : s - 1;
+			if (stripes.compareAndSet (stripe, s, next)) {
+				return (next & (HELD | READERS)) == 0 && (next & WAITING) != 0;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @param task a keyed task
+	 * @return true if some tasks of the same stripe are already parked, so
+	 * this one should be parked behind them.
+	 */
+	boolean isParked (E task) {
+		return parked.containsKey (stripe (task.getKey ()));
+	}
+
+	void park (E task) {
+		int stripe = stripe (task.getKey ());
+		ArrayDeque<E> deque = parked.get (stripe);
+		if (deque == null) {
+			deque = new ArrayDeque<> ();
+			parked.put (stripe, deque);
+		}
+		deque.addLast (task);
+		parkedCount++;
+	}
+
+	/**
+	 * Takes the first parked task, that can enter its stripe, trying the
+	 * heads of the stripes only. The heads, whose deadlines have passed while
+	 * they were parked, are removed instead.
+	 *
+	 * @param gate the global gate, a keyed task is a usual one for it
+	 * @param dispatchable is signalled if a task leaves the global gate while
+	 * an exclusive one waits for it
+	 * @param expired receives the removed expired tasks
+	 * @return the admitted task, or null if none can enter.
+	 */
+	E admitParked (ExclusiveGate gate, Condition dispatchable, Collection<? super E> expired) {
+		for (Iterator<Map.Entry<Integer, ArrayDeque<E>>> it = parked.entrySet ().iterator (); it.hasNext ();) {
+			Map.Entry<Integer, ArrayDeque<E>> entry = it.next ();
+			E head = entry.getValue ().peekFirst ();
+			while (head != null && PEBQueue.isExpired (head)) {
+				entry.getValue ().pollFirst ();
+				parkedCount--;
+				expired.add (head);
+				head = entry.getValue ().peekFirst ();
+			}
+			if (head == null) {
+				it.remove ();
+				clearWaiting (entry.getKey ());
+				continue;
+			}
+			if (!gate.tryAcquireUsual ()) {
+				return null;
+			}
+			if (!tryAcquire (head)) {
+				if (gate.releaseUsual ()) {
+					dispatchable.signal ();
+				}
+				continue;
+			}
+			entry.getValue ().pollFirst ();
+			parkedCount--;
+			if (entry.getValue ().isEmpty ()) {
+				it.remove ();
+				clearWaiting (entry.getKey ());
+			}
+			return head;
+		}
+		return null;
+	}
+
+	private void clearWaiting (int stripe) {
+		for (;;) {
+			long s = stripes.get (stripe);
+			if (stripes.compareAndSet (stripe, s, s & ~WAITING)) {
+				return;
+			}
+		}
+	}
+
+	int size () {
+		return parkedCount;
+	}
+
+	E peek () {
+		for (ArrayDeque<E> deque : parked.values ()) {
+			return deque.peekFirst ();
+		}
+		return null;
+	}
+
+	boolean contains (Object o) {
+		for (ArrayDeque<E> deque : parked.values ()) {
+			if (deque.contains (o)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	boolean remove (Object o) {
+		for (Iterator<Map.Entry<Integer, ArrayDeque<E>>> it = parked.entrySet ().iterator (); it.hasNext ();) {
+			Map.Entry<Integer, ArrayDeque<E>> entry = it.next ();
+			if (entry.getValue ().remove (o)) {
+				parkedCount--;
+				if (entry.getValue ().isEmpty ()) {
+					it.remove ();
+					clearWaiting (entry.getKey ());
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Adds all parked tasks to the list.
+	 *
+	 * @param list to add them to
+	 */
+	void addTo (List<Object> list) {
+		for (ArrayDeque<E> deque : parked.values ()) {
+			list.addAll (deque);
+		}
+	}
+
+	/**
+	 * Removes all parked tasks without admission.
+	 *
+	 * @param list to add them to, may be null
+	 * @param maxElements the maximum count of removed tasks
+	 * @return the count of removed tasks.
+	 */
+	int drainTo (Collection<? super E> list, int maxElements) {
+		int n = 0;
+		for (Iterator<Map.Entry<Integer, ArrayDeque<E>>> it = parked.entrySet ().iterator (); it.hasNext () && n < maxElements;) {
+			Map.Entry<Integer, ArrayDeque<E>> entry = it.next ();
+			ArrayDeque<E> deque = entry.getValue ();
+			while (n < maxElements && !deque.isEmpty ()) {
+				E task = deque.pollFirst ();
+				if (list != null) {
+					list.add (task);
+				}
+				parkedCount--;
+				n++;
+			}
+			if (deque.isEmpty ()) {
+				it.remove ();
+				clearWaiting (entry.getKey ());
+			}
+		}
+		return n;
+	}
+}
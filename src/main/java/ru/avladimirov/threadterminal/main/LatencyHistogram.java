@@ -0,0 +1,159 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A snapshot of a log-linear histogram of latencies in nanoseconds, taken
+ * from the {@link TerminalState}. Each power of two is split into 16 linear
+ * buckets, so a percentile is reported with an error below 1/16 of its
+ * value, and the values up to 2^40 ns (about 18 minutes) are told apart; the
+ * longer ones fall into the last bucket. The maximum is exact.
+ *
+ * @author Vladimirov.A.A
+ */
+public final class LatencyHistogram {
+
+	//linear buckets in each power of two
+	static final int SUB_BITS = 4;
+	static final int SUB_COUNT = 1 << SUB_BITS;
+	//the values from 2^MAX_EXPONENT on are counted in the last bucket
+	static final int MAX_EXPONENT = 40;
+	static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 1) * SUB_COUNT;
+
+	private static final long[] NO_COUNTS = new long[BUCKETS];
+	static final LatencyHistogram EMPTY = new LatencyHistogram (NO_COUNTS, 0, 0);
+
+	private final long[] counts;
+	private final long count;
+	private final long max;
+
+	/**
+	 *
+	 * @param counts by buckets, is not copied
+	 * @param count the sum of the counts
+	 * @param max the longest latency
+	 */
+	LatencyHistogram (long[] counts, long count, long max) {
+		this.counts = counts;
+		this.count = count;
+		this.max = max;
+	}
+
+	/**
+	 *
+	 * @param value a latency in nanoseconds
+	 * @return the index of its bucket.
+	 */
+	static int index (long value) {
+		if (value < SUB_COUNT) {
+			return value < 0 ? 0 : (int) value;
+		}
+		if (value >= 1L << MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros (value) - SUB_BITS;
+		return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) & (SUB_COUNT - 1));
+	}
+
+	/**
+	 *
+	 * @param index of a bucket
+	 * @return the highest latency of the bucket.
+	 */
+	static long highestValue (int index) {
+		if (index < SUB_COUNT) {
+			return index;
+		}
+		int shift = (index >>> SUB_BITS) - 1;
+		long lowest = (long) (SUB_COUNT + (index & (SUB_COUNT - 1))) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	/**
+	 *
+	 * @param histograms to be summed, may be empty
+	 * @return a histogram of all their latencies.
+	 */
+	static LatencyHistogram merge (Iterable<LatencyHistogram> histograms) {
+		long[] sum = null;
+		long count = 0;
+		long max = 0;
+		for (LatencyHistogram histogram : histograms) {
+			if (histogram.count == 0) {
+				continue;
+			}
+			if (sum == null) {
+				sum = new long[BUCKETS];
+			}
+			for (int i = 0; i < BUCKETS; i++) {
+				sum[i] += histogram.counts[i];
+			}
+			count += histogram.count;
+			max = Math.max (max, histogram.max);
+		}
+		return sum != null ? new LatencyHistogram (sum, count, max) : EMPTY;
+	}
+
+	/**
+	 *
+	 * @return the count of recorded latencies.
+	 */
+	public long getCount () {
+		return count;
+	}
+
+	/**
+	 *
+	 * @return the longest latency in nanoseconds, 0 if there are none.
+	 */
+	public long getMax () {
+		return max;
+	}
+
+	/**
+	 *
+	 * @param percentile from 0 to 100, e.g. 99.9
+	 * @return the latency in nanoseconds, that the given percent of the
+	 * latencies don't exceed, 0 if there are none.
+	 * @throws IllegalArgumentException if the percentile is out of range.
+	 */
+	public long getPercentile (double percentile) {
+		if (!(percentile >= 0 && percentile <= 100)) {
+			throw new IllegalArgumentException ("percentile should be from 0 to 100: " + percentile);
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max (1, (long) Math.ceil (percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min (highestValue (i), max);
+			}
+		}
+		return max;
+	}
+
+	public long getP50 () {
+		return getPercentile (50);
+	}
+
+	public long getP99 () {
+		return getPercentile (99);
+	}
+
+	public long getP999 () {
+		return getPercentile (99.9);
+	}
+
+	@Override
+	public String toString () {
+		return "count " + count + ", p50 " + micros (getP50 ()) + ", p99 " + micros (getP99 ())
+				+ ", p999 " + micros (getP999 ()) + ", max " + micros (max) + " us";
+	}
+
+	private static long micros (long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros (nanos);
+	}
+}
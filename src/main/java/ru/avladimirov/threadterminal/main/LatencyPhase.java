@@ -0,0 +1,27 @@
+package ru.avladimirov.threadterminal.main;
+
+/**
+ * An enum for defining the phases of the lifecycle of a task, which
+ * latencies are recorded by the {@link TerminalState} (see
+ * {@link TerminalState#getLatencyHistogram(LatencyPhase, int, boolean)}).
+ *
+ * @author Vladimirov.A.A
+ */
+public enum LatencyPhase {
+
+	/**
+	 * From the submission of the task till it leaves the queue: either to
+	 * start, or to wait at the exclusive gate.
+	 */
+	QUEUE_WAIT,
+	/**
+	 * From leaving the queue till the start, while an exclusive task waits
+	 * for the active tasks to finish, or a keyed task waits for its key. It's
+	 * 0 for the tasks, that start right away.
+	 */
+	GATE_WAIT,
+	/**
+	 * From the start of the task till its finish.
+	 */
+	RUN,;
+}
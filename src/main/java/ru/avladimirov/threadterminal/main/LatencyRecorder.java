@@ -0,0 +1,50 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A live log-linear histogram of latencies (see {@link LatencyHistogram} for
+ * the buckets). Recording takes no lock: it's a single increment of the
+ * counter of the bucket, and a CAS of the maximum only when it's exceeded.
+ * The memory is allocated at once and never grows.
+ *
+ * @author Vladimirov.A.A
+ */
+final class LatencyRecorder {
+
+	private final AtomicLongArray counts = new AtomicLongArray (LatencyHistogram.BUCKETS);
+	private final AtomicLong max = new AtomicLong (0);
+
+	/**
+	 *
+	 * @param nanos the latency, a negative one is counted as 0
+	 */
+	void record (long nanos) {
+		counts.getAndIncrement (LatencyHistogram.index (nanos));
+		long current = max.get ();
+		while (nanos > current && !max.compareAndSet (current, nanos)) {
+			current = max.get ();
+		}
+	}
+
+	/**
+	 * Reads the counters one by one, so a latency, that is recorded
+	 * meanwhile, may be missed by the snapshot. With a reset it's not lost
+	 * then: it goes to the next snapshot.
+	 *
+	 * @param reset if true, the counters are zeroed, so the next snapshot
+	 * covers the latencies recorded since this one
+	 * @return a snapshot of the histogram.
+	 */
+	LatencyHistogram snapshot (boolean reset) {
+		long[] values = new long[LatencyHistogram.BUCKETS];
+		long count = 0;
+		for (int i = 0; i < values.length; i++) {
+			values[i] = reset ? counts.getAndSet (i, 0) : counts.get (i);
+			count += values[i];
+		}
+		long maxValue = reset ? max.getAndSet (0) : max.get ();
+		return new LatencyHistogram (values, count, maxValue);
+	}
+}
@@ -0,0 +1,286 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records task lifecycle events of a terminal and passes them to its
+ * {@link TraceSink}. A terminal without a sink has no tracer at all, so a
+ * disabled trace costs a single null check per transition.
+ * <br>
+ * Each platform thread, that makes transitions, records events into a buffer
+ * of its own: a preallocated single producer ring, so recording takes no lock
+ * and allocates nothing. Virtual threads live for a single task, so they all
+ * share one multi producer ring instead of a buffer per thread. A background
+ * daemon thread drains all the buffers and calls the sink. If a buffer is
+ * full, the event is dropped and counted instead of slowing the task down.
+ *
+ * @author Vladimirov.A.A
+ */
+final class LifecycleTracer {
+
+	static final int BUFFER_CAPACITY = 4096;
+	private static final long DRAIN_INTERVAL = TimeUnit.MILLISECONDS.toNanos (10);
+	private static final TraceEvent[] EVENTS = TraceEvent.values ();
+
+	private final TraceSink sink;
+	private final CopyOnWriteArrayList<TraceBuffer> buffers = new CopyOnWriteArrayList<> ();
+	private final ThreadLocal<TraceBuffer> localBuffer = new ThreadLocal<TraceBuffer> () {
+
+		@Override
+		protected TraceBuffer initialValue () {
+			TraceBuffer buffer = new TraceBuffer (Thread.currentThread ());
+			buffers.add (buffer);
+			return buffer;
+		}
+	};
+	//allocated by the first event of a virtual thread
+	private volatile SharedBuffer sharedBuffer;
+	private final LongAdder droppedEvents = new LongAdder ();
+	private final Thread consumer;
+	private volatile boolean closed = false;
+
+	/**
+	 *
+	 * @param terminalName names the background thread
+	 * @param sink receives the events
+	 */
+	LifecycleTracer (String terminalName, TraceSink sink) {
+		this.sink = sink;
+		this.consumer = new Thread (this::consume, terminalName + "-tracer");
+		this.consumer.setDaemon (true);
+		this.consumer.start ();
+	}
+
+	/**
+	 * Records an event into the buffer of the current thread.
+	 *
+	 * @param event the lifecycle event
+	 * @param taskId the id of the task
+	 * @param name the name of the task, may be null
+	 */
+	void record (TraceEvent event, long taskId, String name) {
+		Thread thread = Thread.currentThread ();
+		boolean recorded = VirtualThreads.isVirtual (thread)
+				? getSharedBuffer ().offer (event, taskId, name, System.nanoTime (), thread.getId ())
+				: localBuffer.get ().offer (event, taskId, name, System.nanoTime ());
+		if (!recorded) {
+			droppedEvents.increment ();
+		}
+	}
+
+	private SharedBuffer getSharedBuffer () {
+		SharedBuffer buffer = sharedBuffer;
+		if (buffer == null) {
+			synchronized (this) {
+				buffer = sharedBuffer;
+				if (buffer == null) {
+					buffer = new SharedBuffer ();
+					sharedBuffer = buffer;
+				}
+			}
+		}
+		return buffer;
+	}
+
+	/**
+	 * Records an event of a queued task.
+	 *
+	 * @param event the lifecycle event
+	 * @param task a {@link ComparableFutureTask}, otherwise its index is taken
+	 * for the id
+	 */
+	void record (TraceEvent event, ComparableRunnable task) {
+		if (task instanceof ComparableFutureTask) {
+			ComparableFutureTask<?> futureTask = (ComparableFutureTask<?>) task;
+			record (event, futureTask.getId (), futureTask.getTaskName ());
+		} else {
+			record (event, task.getIndex (), null);
+		}
+	}
+
+	/**
+	 *
+	 * @return the count of events dropped because of full buffers.
+	 */
+	long getDroppedEvents () {
+		return droppedEvents.sum ();
+	}
+
+	/**
+	 * Stops the background thread after it drains the buffers for the last
+	 * time. Events recorded after that are never passed to the sink.
+	 */
+	void close () {
+		closed = true;
+		LockSupport.unpark (consumer);
+	}
+
+	/**
+	 * Waits for the background thread to pass all recorded events to the
+	 * sink and to stop. Should be called after {@link #close()}.
+	 *
+	 * @param timeout the maximum time to wait
+	 * @param unit the time unit of the timeout argument
+	 * @throws InterruptedException
+	 */
+	void awaitClosed (long timeout, TimeUnit unit) throws InterruptedException {
+		consumer.join (Math.max (1, unit.toMillis (timeout)));
+	}
+
+	private void consume () {
+		while (!closed) {
+			drain ();
+			LockSupport.parkNanos (this, DRAIN_INTERVAL);
+		}
+		drain ();
+	}
+
+	private void drain () {
+		for (Iterator<TraceBuffer> it = buffers.iterator (); it.hasNext ();) {
+			TraceBuffer buffer = it.next ();
+			boolean ownerAlive = buffer.owner.isAlive ();
+			buffer.drainTo (sink);
+			//nothing can be recorded into the buffer of a dead thread
+			if (!ownerAlive) {
+				buffers.remove (buffer);
+			}
+		}
+		SharedBuffer shared = sharedBuffer;
+		if (shared != null) {
+			shared.drainTo (sink);
+		}
+	}
+
+	/**
+	 * A single producer, single consumer ring of events.
+	 */
+	private static final class TraceBuffer {
+
+		private static final int MASK = BUFFER_CAPACITY - 1;
+
+		private final Thread owner;
+		private final long threadId;
+		private final long[] taskIds = new long[BUFFER_CAPACITY];
+		private final long[] times = new long[BUFFER_CAPACITY];
+		private final byte[] events = new byte[BUFFER_CAPACITY];
+		private final String[] names = new String[BUFFER_CAPACITY];
+		//written by the owner only
+		private final AtomicLong tail = new AtomicLong (0);
+		//written by the consumer only
+		private final AtomicLong head = new AtomicLong (0);
+
+		TraceBuffer (Thread owner) {
+			this.owner = owner;
+			this.threadId = owner.getId ();
+		}
+
+		boolean offer (TraceEvent event, long taskId, String name, long time) {
+			long t = tail.get ();
+			if (t - head.get () >= BUFFER_CAPACITY) {
+				return false;
+			}
+			int slot = (int) t & MASK;
+			taskIds[slot] = taskId;
+			times[slot] = time;
+			events[slot] = (byte) event.ordinal ();
+			names[slot] = name;
+			//publishes the slot to the consumer
+			tail.lazySet (t + 1);
+			return true;
+		}
+
+		void drainTo (TraceSink sink) {
+			long h = head.get ();
+			long t = tail.get ();
+			for (; h < t; h++) {
+				int slot = (int) h & MASK;
+				String name = names[slot];
+				names[slot] = null;
+				try {
+					sink.onEvent (EVENTS[events[slot]], taskIds[slot], name, times[slot], threadId);
+				} catch (RuntimeException ex) {
+					//a failing sink must not stop the trace
+				}
+			}
+			//releases the slots to the owner
+			head.lazySet (h);
+		}
+	}
+
+	/**
+	 * A multi producer, single consumer ring of events. A producer claims a
+	 * slot by moving the tail, and publishes it by its sequence, so the
+	 * consumer never reads a slot, that is still being written.
+	 */
+	private static final class SharedBuffer {
+
+		static final int CAPACITY = BUFFER_CAPACITY * 4;
+		private static final int MASK = CAPACITY - 1;
+
+		private final long[] taskIds = new long[CAPACITY];
+		private final long[] times = new long[CAPACITY];
+		private final long[] threadIds = new long[CAPACITY];
+		private final byte[] events = new byte[CAPACITY];
+		private final String[] names = new String[CAPACITY];
+		//the position + 1, once the slot is written, the position + CAPACITY, once it's drained
+		private final AtomicLongArray sequences = new AtomicLongArray (CAPACITY);
+		private final AtomicLong tail = new AtomicLong (0);
+		//written by the consumer only
+		private long head = 0;
+
+		SharedBuffer () {
+			for (int i = 0; i < CAPACITY; i++) {
+				sequences.lazySet (i, i);
+			}
+		}
+
+		boolean offer (TraceEvent event, long taskId, String name, long time, long threadId) {
+			long t;
+			int slot;
+			for (;;) {
+				t = tail.get ();
+				slot = (int) t & MASK;
+				long sequence = sequences.get (slot);
+				if (sequence < t) {
+					//the slot is not drained yet: the ring is full
+					return false;
+				}
+				if (sequence == t && tail.compareAndSet (t, t + 1)) {
+					break;
+				}
+			}
+			taskIds[slot] = taskId;
+			times[slot] = time;
+			threadIds[slot] = threadId;
+			events[slot] = (byte) event.ordinal ();
+			names[slot] = name;
+			//publishes the slot to the consumer
+			sequences.lazySet (slot, t + 1);
+			return true;
+		}
+
+		void drainTo (TraceSink sink) {
+			for (;; head++) {
+				int slot = (int) head & MASK;
+				if (sequences.get (slot) != head + 1) {
+					return;
+				}
+				String name = names[slot];
+				names[slot] = null;
+				try {
+					sink.onEvent (EVENTS[events[slot]], taskIds[slot], name, times[slot], threadIds[slot]);
+				} catch (RuntimeException ex) {
+					//a failing sink must not stop the trace
+				}
+				//releases the slot to the producers
+				sequences.lazySet (slot, head + CAPACITY);
+			}
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package ru.avladimirov.threadterminal.main;
+
+import org.apache.log4j.Logger;
+import static ru.avladimirov.threadterminal.main.Terminals.getLogger;
+
+/**
+ * A {@link TraceSink}, that writes task lifecycle events to the package
+ * logger at the debug level. The strings are built by the background thread
+ * of the tracer, and only if the debug level is enabled.
+ *
+ * @author Vladimirov.A.A
+ */
+public class Log4jTraceSink implements TraceSink {
+
+	private final Logger logger = getLogger ();
+
+	@Override
+	public void onEvent (TraceEvent event, long taskId, String name, long time, long threadId) {
+		if (logger.isDebugEnabled ()) {
+			logger.debug (TerminalState.label (name, taskId) + " " + event + " at " + time + " by thread " + threadId);
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package ru.avladimirov.threadterminal.main;
+
+/**
+ * An enum for defining what a {@link ThreadTerminal} does with a submitted
+ * task, when the queue has no room for it, see
+ * {@link TerminalConfig#setQueueCapacity(int, int)}. Whatever the policy is,
+ * {@link ThreadTerminal#submitBlocking(java.util.concurrent.Callable, String, int, boolean, long, java.util.concurrent.TimeUnit)}
+ * waits for room instead.
+ *
+ * @author Vladimirov.A.A
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * The submission throws a
+	 * {@link java.util.concurrent.RejectedExecutionException}.
+	 */
+	REJECT,
+	/**
+	 * A usual task without a key is run by the submitting thread itself, if
+	 * no exclusive task is active or waiting, so the submitter is slowed down
+	 * to the pace of the workers. Otherwise the submitting thread waits for
+	 * room in the queue. A worker of the same terminal, e.g. the one, that
+	 * submits a continuation of its task, never waits: the task is rejected
+	 * then, as the room may depend on the gate, that the worker holds.
+	 */
+	CALLER_RUNS,
+	/**
+	 * The oldest task of the lowest non-empty level is dropped to make room,
+	 * unless its level is higher than the level of the new task: then the new
+	 * task is rejected. The dropped task is never started, and its future
+	 * throws an {@link java.util.concurrent.ExecutionException} caused by a
+	 * {@link java.util.concurrent.RejectedExecutionException}. So the tasks
+	 * of a level are always admitted, while the lower levels have tasks to
+	 * give way.
+	 */
+	DROP_OLDEST_LOW,;
+}
@@ -1,68 +1,1249 @@
 package ru.avladimirov.threadterminal.main;
 
-import java.util.concurrent.PriorityBlockingQueue;
-import java.util.concurrent.locks.Lock;
-import static ru.avladimirov.threadterminal.main.Terminals.getLogger;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 
 /**
- * An extension of the {@link PriorityBlockingQueue} that supports task
- * exclusivity management.
+ * A priority blocking queue that supports task exclusivity management. Tasks
+ * are ordered by their priority level and inside one level by the order of
+ * submission (see {@link RunQueue}), the level of the next task is chosen by a
+ * {@link SchedulingPolicy}, and the queue hands a task out only when it can
+ * be executed right away: a usual task - when there is no active exclusive
+ * one, an exclusive task - when there are no active tasks at all. Until then
+ * the head of the queue holds back all tasks behind it, and the workers wait
+ * inside {@link #take()} or {@link #poll(long, TimeUnit)}. The admission
+ * itself is done by an {@link ExclusiveGate}.
+ * <br>
+ * Tasks with an exclusivity key are admitted by a {@link KeyedGate} as well:
+ * they are usual ones for the global gate, but exclude each other by their
+ * keys. A keyed task, that has to wait for its key, is parked there and
+ * doesn't hold back the tasks behind it.
+ * <br>
+ * With an epoch budget above 1, a finishing exclusive task hands the gate
+ * over to the next exclusive task without a key near the head of the queue,
+ * so that up to the budget of exclusive tasks run one after another with a
+ * single drain of the pool. The usual tasks, that they overtake, wait for the
+ * end of the epoch.
+ * <br>
+ * A task, whose deadline has passed before it has reached the head of its
+ * level, is removed and expired (see {@link ComparableRunnable#expire()})
+ * instead of being handed out, so it never takes a worker. The same is checked
+ * again for the waiting exclusive and the parked keyed tasks, before they are
+ * admitted. The expired tasks are completed outside the lock by the thread,
+ * that has found them.
+ * <br>
+ * The queue may be bounded by capacities of levels (see
+ * {@link TerminalConfig#setQueueCapacity(int, int)}): then {@link #offer(ComparableRunnable)}
+ * returns false, if there is no room, {@link #put(ComparableRunnable)} and
+ * {@link #offer(ComparableRunnable, long, TimeUnit)} wait for it, and
+ * {@link #offer(ComparableRunnable, Collection)} drops a lower task to make
+ * it. Only the tasks of the run queue are counted, as the waiting exclusive
+ * and the parked keyed tasks are taken already.
+ * <br>
+ * With rate limits (see {@link RateLimits}) a level, that has no permit, is
+ * skipped as if it were empty, and inside a level a task, that has no permit
+ * by its name, is passed over for one of the tasks behind it. The held back
+ * tasks keep their places, and when all the rest have to wait, one of the
+ * idle workers waits for the earliest permit, while the others wait for its
+ * signal.
+ * <br>
+ * Every task handed out by {@link #take()}, {@link #poll()} or
+ * {@link #poll(long, TimeUnit)} is considered admitted, and it should be
+ * passed back to {@link #release(ComparableRunnable)} once it's executed.
+ * {@link PriorityExecutor} does it in its afterExecute() method.
  *
  * @author Vladimirov.A.A
  */
-class PEBQueue<E> extends PriorityBlockingQueue<E> {
+class PEBQueue<E extends ComparableRunnable> extends AbstractQueue<E> implements BlockingQueue<E> {
 
-	private TerminalState terminalState;
+	private final RunQueue<E> runQueue = new RunQueue<> ();
+	private final SchedulingPolicy policy;
+	private final ReentrantLock lock = new ReentrantLock ();
 
-	PEBQueue (ThreadTerminal terminal) {
+	/**
+	 * Is signalled when a new task arrives or when an admitted task is
+	 * released, so that the head of the queue may become dispatchable.
+	 */
+	private final Condition dispatchable = lock.newCondition ();
+
+	private final ExclusiveGate gate = new ExclusiveGate ();
+
+	private final KeyedGate<E> keyedGate = new KeyedGate<> ();
+
+	/**
+	 * An exclusive task, that has reached the head of the queue and waits for
+	 * the active usual tasks to finish. It's already out of the run queue, so
+	 * that nothing submitted later can overtake it.
+	 */
+	private E waitingExclusive = null;
+
+	//records gate waits, may be null
+	private final LifecycleTracer tracer;
+
+	//how many tasks of a level are searched for the next exclusive one of an epoch
+	static final int EPOCH_LOOKAHEAD = 64;
+	private final int epochBudget;
+	//exclusive tasks admitted in the current epoch, 0 if the gate is not held by one
+	private int epochLength = 0;
+	//counts handovers and expired tasks, may be null
+	private final TerminalState terminalState;
+
+	//expired tasks found by dispatch (), to be completed outside the lock
+	private final ArrayList<E> expired = new ArrayList<> ();
+
+	//the capacities by levels, 0 for an unbounded level, null if the queue is unbounded
+	private final int[] capacities;
+	//a bit per each bounded level
+	private final long boundedLevels;
+	//is signalled when tasks leave the run queue, while someone waits for room
+	private final Condition notFull = lock.newCondition ();
+	private int roomWaiters = 0;
+
+	//how many tasks of a level are searched for the next one permitted by its name
+	static final int THROTTLE_LOOKAHEAD = 64;
+	//the buckets of the rate limits, null if there are none
+	private final RateLimits rateLimits;
+	//checks the names of the tasks against the rate limits at the time of the current dispatch
+	private final Predicate<E> permittedName;
+	private long dispatchTime = 0;
+	//true while a worker waits for a permit of a rate limit
+	private boolean throttleWaiting = false;
+
+	/**
+	 * Creates a queue with the {@link StrictPriorityPolicy}.
+	 */
+	PEBQueue () {
+		this (new StrictPriorityPolicy ());
+	}
+
+	/**
+	 *
+	 * @param policy decides which priority level the next task is taken from.
+	 */
+	PEBQueue (SchedulingPolicy policy) {
+		this (policy, null);
+	}
+
+	/**
+	 *
+	 * @param policy decides which priority level the next task is taken from.
+	 * @param tracer records an exclusive task, that starts waiting at the
+	 * gate, may be null.
+	 */
+	PEBQueue (SchedulingPolicy policy, LifecycleTracer tracer) {
+		this (policy, tracer, 1, null);
+	}
+
+	/**
+	 *
+	 * @param policy decides which priority level the next task is taken from.
+	 * @param tracer records an exclusive task, that starts waiting at the
+	 * gate, may be null.
+	 * @param epochBudget the maximum count of exclusive tasks in an epoch, 1
+	 * for no epochs.
+	 * @param terminalState counts the handovers of the gate, may be null.
+	 */
+	PEBQueue (SchedulingPolicy policy, LifecycleTracer tracer, int epochBudget, TerminalState terminalState) {
+		this (policy, tracer, epochBudget, terminalState, null);
+	}
+
+	/**
+	 *
+	 * @param policy decides which priority level the next task is taken from.
+	 * @param tracer records an exclusive task, that starts waiting at the
+	 * gate, may be null.
+	 * @param epochBudget the maximum count of exclusive tasks in an epoch, 1
+	 * for no epochs.
+	 * @param terminalState counts the handovers of the gate, may be null.
+	 * @param capacities of the levels, 0 for an unbounded level, null if the
+	 * queue is unbounded.
+	 */
+	PEBQueue (SchedulingPolicy policy, LifecycleTracer tracer, int epochBudget, TerminalState terminalState, int[] capacities) {
+		this (policy, tracer, epochBudget, terminalState, capacities, null);
+	}
+
+	/**
+	 *
+	 * @param policy decides which priority level the next task is taken from.
+	 * @param tracer records an exclusive task, that starts waiting at the
+	 * gate, may be null.
+	 * @param epochBudget the maximum count of exclusive tasks in an epoch, 1
+	 * for no epochs.
+	 * @param terminalState counts the handovers of the gate, may be null.
+	 * @param capacities of the levels, 0 for an unbounded level, null if the
+	 * queue is unbounded.
+	 * @param rateLimits the buckets of the rate limits, null if there are
+	 * none.
+	 */
+	PEBQueue (SchedulingPolicy policy, LifecycleTracer tracer, int epochBudget, TerminalState terminalState, int[] capacities,
+			RateLimits rateLimits) {
 		super ();
-		this.terminalState = terminal.getTerminalState ();
+		this.rateLimits = rateLimits;
+		this.permittedName = rateLimits != null && rateLimits.hasPrefixes () ? task -> rateLimits.permitsName (task, dispatchTime) : null;
+		this.policy = policy;
+		this.tracer = tracer;
+		this.epochBudget = epochBudget;
+		this.terminalState = terminalState;
+		long bounded = 0;
+		if (capacities != null) {
+			for (int level = 0; level < RunQueue.LEVELS; level++) {
+				if (capacities[level] > 0) {
+					bounded |= 1L << level;
+				}
+			}
+		}
+		this.boundedLevels = bounded;
+		this.capacities = bounded != 0 ? capacities : null;
 	}
 
-	@Override
-	public E take () throws InterruptedException {
-		Lock innerLock = terminalState.getInnerLock ();
-		innerLock.lock ();
-		getLogger ().debug ("queue: innerLock is acquired");
+	/**
+	 * Takes the head of the queue if it can be executed right away, and lets
+	 * the threads waiting for room know, if tasks have left the run queue.
+	 * Should be called under the lock.
+	 *
+	 * @return the admitted head, or null if the queue is empty or its head has
+	 * to wait.
+	 */
+	private E dispatch () {
+		if (roomWaiters == 0) {
+			return dispatchHead ();
+		}
+		int size = runQueue.size ();
+		E task = dispatchHead ();
+		if (runQueue.size () < size) {
+			notFull.signalAll ();
+		}
+		return task;
+	}
+
+	/**
+	 * Takes the head of the queue if it can be executed right away. Should be
+	 * called under the lock.
+	 *
+	 * @return the admitted head, or null if the queue is empty or its head has
+	 * to wait.
+	 */
+	private E dispatchHead () {
+		long now = 0;
+		if (rateLimits != null) {
+			now = System.nanoTime ();
+			rateLimits.reset ();
+		}
+		if (waitingExclusive != null) {
+			if (isExpired (waitingExclusive)) {
+				//its deadline has passed while it waited at the gate
+				expired.add (waitingExclusive);
+				removeWaitingExclusive ();
+			} else if (!gate.tryAcquireExclusive ()) {
+				return null;
+			} else {
+				E task = waitingExclusive;
+				waitingExclusive = null;
+				startEpoch ();
+				return task;
+			}
+		}
+		if (keyedGate.size () > 0) {
+			E task = keyedGate.admitParked (gate, dispatchable, expired);
+			if (task != null) {
+				signalNext ();
+				return task;
+			}
+		}
+		//the levels, which tasks are all held back by the rate limits
+		long throttledLevels = 0;
+		while (!runQueue.isEmpty ()) {
+			long nonEmptyLevels = runQueue.getNonEmptyLevels () & ~throttledLevels;
+			if (nonEmptyLevels == 0) {
+				return null;
+			}
+			int level = policy.selectLevel (nonEmptyLevels, runQueue);
+			if (level < 0 || level >= RunQueue.LEVELS || (nonEmptyLevels & (1L << level)) == 0) {
+				throw new IllegalStateException ("policy has selected an empty level " + level);
+			}
+			E head = runQueue.peekLevel (level);
+			if (isExpired (head)) {
+				runQueue.pollLevel (level);
+				forgetThrottled (head);
+				expired.add (head);
+				continue;
+			}
+			if (rateLimits != null && (head = selectPermitted (level, head, now)) == null) {
+				throttledLevels |= 1L << level;
+				continue;
+			}
+			if (head.getKey () != null) {
+				//the keyed tasks of one stripe are admitted in their order
+				if (keyedGate.isParked (head)) {
+					takeDispatched (level, head, now);
+					policy.dispatched (level);
+					head.startGateWait (System.nanoTime ());
+					keyedGate.park (head);
+					continue;
+				}
+				if (!gate.tryAcquireUsual ()) {
+					return null;
+				}
+				takeDispatched (level, head, now);
+				policy.dispatched (level);
+				if (keyedGate.tryAcquire (head)) {
+					signalNext ();
+					return head;
+				}
+				if (gate.releaseUsual ()) {
+					dispatchable.signal ();
+				}
+				head.startGateWait (System.nanoTime ());
+				keyedGate.park (head);
+				if (tracer != null) {
+					tracer.record (TraceEvent.GATE_WAIT, head);
+				}
+				continue;
+			}
+			if (head.isExclusive ()) {
+				if (gate.isExclusiveHeld ()) {
+					return null;
+				}
+				takeDispatched (level, head, now);
+				policy.dispatched (level);
+				if (gate.tryAcquireExclusive ()) {
+					startEpoch ();
+					return head;
+				}
+				head.startGateWait (System.nanoTime ());
+				waitingExclusive = head;
+				if (tracer != null) {
+					tracer.record (TraceEvent.GATE_WAIT, head);
+				}
+				return null;
+			}
+			if (!gate.tryAcquireUsual ()) {
+				return null;
+			}
+			takeDispatched (level, head, now);
+			policy.dispatched (level);
+			signalNext ();
+			return head;
+		}
+		return null;
+	}
+
+	/**
+	 * Finds the task of a level, that the rate limits permit: the head, or
+	 * with the limits of name prefixes one of the first tasks of the level.
+	 * The tasks, that are passed over, are held back. Should be called under
+	 * the lock.
+	 *
+	 * @param level a non-empty level
+	 * @param head of the level
+	 * @param now {@link System#nanoTime()} of the dispatch
+	 * @return the permitted task, or null if the level has none.
+	 */
+	private E selectPermitted (int level, E head, long now) {
+		if (!rateLimits.permitsLevel (level, head, now)) {
+			return null;
+		}
+		if (permittedName == null) {
+			return head;
+		}
+		dispatchTime = now;
+		return runQueue.find (level, THROTTLE_LOOKAHEAD, permittedName);
+	}
+
+	/**
+	 * Removes a dispatched task from the run queue and takes its permits.
+	 * Should be called under the lock.
+	 *
+	 * @param level of the task
+	 * @param task the head of the level, or the one chosen by
+	 * {@link #selectPermitted(int, ComparableRunnable, long)}
+	 * @param now {@link System#nanoTime()} of the dispatch
+	 */
+	private void takeDispatched (int level, E task, long now) {
+		if (rateLimits == null) {
+			runQueue.pollLevel (level);
+			return;
+		}
+		runQueue.removeTask (level, task);
+		rateLimits.acquire (task, now);
+	}
+
+	/**
+	 * Should be called under the lock, when a task leaves the run queue
+	 * without being dispatched.
+	 */
+	private void forgetThrottled (Object task) {
+		if (rateLimits != null) {
+			rateLimits.forget (task);
+		}
+	}
+
+	/**
+	 * Waits for a signal up to the given time. If a rate limit has held a task
+	 * back in the latest dispatch, one of the waiting workers wakes up, when
+	 * it may permit again, and the others wait for a signal. Should be called
+	 * under the lock.
+	 *
+	 * @param nanos the maximum time to wait
+	 * @return the estimate of the time left, as by
+	 * {@link Condition#awaitNanos(long)}.
+	 */
+	private long awaitDispatchable (long nanos) throws InterruptedException {
+		long delay = rateLimits != null ? rateLimits.getDelay () : 0;
+		if (delay <= 0 || delay >= nanos || throttleWaiting) {
+			return dispatchable.awaitNanos (nanos);
+		}
+		throttleWaiting = true;
+		try {
+			return nanos - delay + dispatchable.awaitNanos (delay);
+		} catch (InterruptedException ex) {
+			//let another worker wait for the permit
+			dispatchable.signal ();
+			throw ex;
+		} finally {
+			throttleWaiting = false;
+		}
+	}
+
+	/**
+	 *
+	 * @param task to be checked
+	 * @return true if the task has a deadline, that has passed.
+	 */
+	static boolean isExpired (ComparableRunnable task) {
+		return task.getDeadline () != ComparableRunnable.NO_DEADLINE && task.getDeadline () - System.nanoTime () < 0;
+	}
+
+	/**
+	 * Should be called under the lock.
+	 *
+	 * @return the expired tasks found since the last call, or null.
+	 */
+	private List<E> takeExpired () {
+		if (expired.isEmpty ()) {
+			return null;
+		}
+		List<E> tasks = new ArrayList<> (expired);
+		expired.clear ();
+		return tasks;
+	}
+
+	/**
+	 * Completes the expired tasks. Should be called outside the lock, as
+	 * their completion may run the code of their waiters.
+	 *
+	 * @param tasks from {@link #takeExpired()}, may be null
+	 * @return the count of the tasks.
+	 */
+	private int completeExpired (List<E> tasks) {
+		if (tasks == null) {
+			return 0;
+		}
+		for (E task : tasks) {
+			if (terminalState != null) {
+				terminalState.registerExpired ();
+			}
+			if (tracer != null) {
+				tracer.record (TraceEvent.EXPIRED, task);
+			}
+			task.expire ();
+		}
+		return tasks.size ();
+	}
+
+	/**
+	 * Checks the capacities, that count the tasks of the given level: the
+	 * ones of the level itself and of the higher ones. Should be called under
+	 * the lock.
+	 *
+	 * @param level of the new tasks
+	 * @param count of the new tasks
+	 * @return true if the tasks fit.
+	 */
+	private boolean hasRoom (int level, int count) {
+		long bounded = boundedLevels & (-1L >>> (RunQueue.LEVELS - 1 - level));
+		long nonEmptyLevels = runQueue.getNonEmptyLevels ();
+		int queued = count;
+		int counted = RunQueue.LEVELS;
+		//from the lowest bounded level up, each one adds the levels below the previous one
+		while (bounded != 0) {
+			int bound = RunQueue.LEVELS - 1 - Long.numberOfLeadingZeros (bounded);
+			bounded &= ~(1L << bound);
+			queued += countTasks (nonEmptyLevels, bound, counted);
+			counted = bound;
+			if (queued > capacities[bound]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The same as {@link #hasRoom(int, int)} for a batch of tasks, that may
+	 * have different levels.
+	 */
+	private boolean hasRoom (List<? extends E> tasks) {
+		long bounded = boundedLevels;
+		long nonEmptyLevels = runQueue.getNonEmptyLevels ();
+		int queued = 0;
+		int counted = RunQueue.LEVELS;
+		while (bounded != 0) {
+			int bound = RunQueue.LEVELS - 1 - Long.numberOfLeadingZeros (bounded);
+			bounded &= ~(1L << bound);
+			queued += countTasks (nonEmptyLevels, bound, counted);
+			counted = bound;
+			int added = 0;
+			for (E e : tasks) {
+				if (e.getPriority () >= bound) {
+					added++;
+				}
+			}
+			if (queued + added > capacities[bound]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 * @return the count of tasks in the run queue from the level from
+	 * (inclusive) to the level to (exclusive).
+	 */
+	private int countTasks (long nonEmptyLevels, int from, int to) {
+		long levels = nonEmptyLevels & (-1L << from);
+		if (to < RunQueue.LEVELS) {
+			levels &= (1L << to) - 1;
+		}
+		int count = 0;
+		while (levels != 0) {
+			count += runQueue.getSize (Long.numberOfTrailingZeros (levels));
+			levels &= levels - 1;
+		}
+		return count;
+	}
+
+	/**
+	 * Should be called under the lock.
+	 */
+	private void signalNotFull () {
+		if (roomWaiters > 0) {
+			notFull.signalAll ();
+		}
+	}
+
+	/**
+	 * Completes a dropped task. Should be called outside the lock.
+	 *
+	 * @param task that is dropped from the run queue
+	 */
+	private void completeDropped (E task) {
+		if (terminalState != null) {
+			terminalState.registerDropped (task.getPriority ());
+		}
+		if (tracer != null) {
+			tracer.record (TraceEvent.REJECTED, task);
+		}
+		task.drop ();
+	}
+
+	/**
+	 * Counts an exclusive task, that has entered the gate, unless it has got
+	 * the gate by a handover. Should be called under the lock.
+	 */
+	private void startEpoch () {
+		if (epochLength == 0) {
+			epochLength = 1;
+		}
+	}
+
+	/**
+	 * Releases the gate of an exclusive task, or hands it over to the next
+	 * exclusive task of the epoch, which becomes the waiting one.
+	 */
+	private void releaseExclusive () {
+		lock.lock ();
 		try {
-			if (!terminalState.activeExclusivesExist ()) {
-				getLogger ().debug ("queue: no exclusives");
-				E callable = super.poll ();
-				if (callable instanceof ComparableFutureTask) {
-					getLogger ().debug ("to be taken from queue: " + ((ComparableFutureTask) callable).getName ());
+			E next = null;
+			boolean overtaking = false;
+			if (epochLength < epochBudget && !runQueue.isEmpty ()) {
+				long nonEmptyLevels = runQueue.getNonEmptyLevels ();
+				int level = policy.selectLevel (nonEmptyLevels, runQueue);
+				if (level >= 0 && level < RunQueue.LEVELS && (nonEmptyLevels & (1L << level)) != 0) {
+					E head = runQueue.peekLevel (level);
+					long now = 0;
+					boolean permitted = true;
+					if (rateLimits != null) {
+						now = System.nanoTime ();
+						dispatchTime = now;
+						permitted = rateLimits.permitsLevel (level, head, now);
+					}
+					//an expired head is left to dispatch (), that expires it
+					next = isExpired (head) || !permitted ? null : runQueue.pollExclusive (level, EPOCH_LOOKAHEAD, permittedName);
+					if (next != null) {
+						policy.dispatched (level);
+						overtaking = next != head;
+						if (rateLimits != null) {
+							rateLimits.acquire (next, now);
+						}
+					}
+				}
+			}
+			if (next == null) {
+				epochLength = 0;
+				gate.releaseExclusive ();
+			} else {
+				epochLength++;
+				gate.handOver ();
+				next.startGateWait (System.nanoTime ());
+				waitingExclusive = next;
+				signalNotFull ();
+				if (terminalState != null) {
+					terminalState.registerExclusiveHandover (overtaking);
 				}
+			}
+			dispatchable.signal ();
+		} finally {
+			lock.unlock ();
+		}
+	}
 
-				getLogger ().debug ("queue as array length " + this.toArray ().length);
-				return callable;
+	/**
+	 * Lets the next waiting worker check the new head. Should be called under
+	 * the lock.
+	 */
+	private void signalNext () {
+		if (!runQueue.isEmpty () || keyedGate.size () > 0) {
+			dispatchable.signal ();
+		}
+	}
+
+	/**
+	 * Registers that the given admitted task has finished its execution. A
+	 * usual task takes no lock here, unless it's the last active one and an
+	 * exclusive task is waiting for it: then the waiting worker is woken up.
+	 *
+	 * @param task that was previously obtained from this queue.
+	 */
+	void release (ComparableRunnable task) {
+		if (task.getKey () != null) {
+			boolean keyFreed = keyedGate.release (task);
+			if (gate.releaseUsual () || keyFreed) {
+				signalDispatchable ();
+			}
+		} else if (task.isExclusive ()) {
+			if (epochBudget > 1) {
+				releaseExclusive ();
 			} else {
-				getLogger ().debug ("queue: some exclusive is still active");
-				return null;
+				gate.releaseExclusive ();
+				signalDispatchable ();
 			}
+		} else if (gate.releaseUsual ()) {
+			signalDispatchable ();
+		}
+	}
+
+	private void signalDispatchable () {
+		lock.lock ();
+		try {
+			dispatchable.signal ();
 		} finally {
-			innerLock.unlock ();
-			getLogger ().debug ("queue: innerLock is unlocked");
+			lock.unlock ();
+		}
+	}
+
+	/**
+	 * Should be called under the lock.
+	 */
+	private void removeWaitingExclusive () {
+		waitingExclusive = null;
+		//a handed over task may be removed, then the epoch is over
+		epochLength = 0;
+		gate.cancelWaiting ();
+		dispatchable.signal ();
+	}
+
+	/**
+	 * Admits a usual task without a key, that bypasses the queue, if no
+	 * exclusive task is active or waiting. Takes no lock.
+	 *
+	 * @param task that is not in the queue
+	 * @return true if the task is admitted and should be released once it's
+	 * executed.
+	 */
+	boolean tryAdmitUsual (E task) {
+		if (task.isExclusive () || task.getKey () != null) {
+			throw new IllegalArgumentException ("only usual tasks without a key can bypass the queue");
 		}
+		return gate.tryAcquireUsual ();
+	}
+
+	int getActiveUsuals () {
+		return gate.getActiveUsuals ();
+	}
+
+	boolean isExclusiveActive () {
+		return gate.isExclusiveHeld ();
+	}
+
+	/**
+	 *
+	 * @return true if an exclusive task is either active or waiting for the
+	 * active usual tasks to finish.
+	 */
+	boolean isExclusivePending () {
+		return gate.isExclusiveHeld () || gate.isExclusiveWaiting ();
 	}
 
+	/**
+	 * Takes no lock.
+	 *
+	 * @param task to be checked
+	 * @return true if a rate limit applies to the task, so it should not
+	 * bypass the queue.
+	 */
+	boolean isRateLimited (E task) {
+		return rateLimits != null && rateLimits.isLimited (task);
+	}
+
+	/**
+	 *
+	 * @return the time till the earliest permit of a rate limit, that has held
+	 * a task back in the latest dispatch, in nanoseconds, or 0 if none has.
+	 */
+	long getThrottleDelay () {
+		if (rateLimits == null) {
+			return 0;
+		}
+		lock.lock ();
+		try {
+			return rateLimits.getDelay ();
+		} finally {
+			lock.unlock ();
+		}
+	}
+
+	/**
+	 *
+	 * @return the rate limits with their counters, or an empty list if there
+	 * are none.
+	 */
+	List<RateLimit> getRateLimits () {
+		if (rateLimits == null) {
+			return new ArrayList<> (0);
+		}
+		lock.lock ();
+		try {
+			return rateLimits.getRateLimits ();
+		} finally {
+			lock.unlock ();
+		}
+	}
+
+	/**
+	 *
+	 * @return false if there is no room for the task.
+	 */
 	@Override
-	public E poll () {
-		Lock innerLock = terminalState.getInnerLock ();
-		innerLock.lock ();
-		getLogger ().debug ("queue poll: innerLock is acquired");
+	public boolean offer (E e) {
+		if (e == null) {
+			throw new NullPointerException ();
+		}
+		lock.lock ();
 		try {
-			if (!terminalState.activeExclusivesExist ()) {
-				getLogger ().debug ("queue poll: no exclusives");
-				E callable = super.poll ();
-				if (callable instanceof ComparableFutureTask) {
-					getLogger ().debug ("to be taken from queue poll: " + ((ComparableFutureTask) callable).getName ());
+			if (capacities != null && !hasRoom (e.getPriority (), 1)) {
+				return false;
+			}
+			runQueue.add (e);
+			dispatchable.signal ();
+			return true;
+		} finally {
+			lock.unlock ();
+		}
+	}
+
+	/**
+	 * The same as {@link #offer(ComparableRunnable)}, but if there is no room
+	 * for the task, drops the oldest task of the lowest non-empty level to
+	 * make it, unless that level is higher than the level of the task. The
+	 * dropped task is completed outside the lock (see
+	 * {@link ComparableRunnable#drop()}).
+	 *
+	 * @param e the task to be put
+	 * @param droppedTasks receives the dropped task, may be null
+	 * @return false if there is no room for the task, and all the queued
+	 * tasks, that take it, are higher.
+	 */
+	boolean offer (E e, Collection<? super E> droppedTasks) {
+		if (e == null) {
+			throw new NullPointerException ();
+		}
+		E dropped = null;
+		lock.lock ();
+		try {
+			int level = e.getPriority ();
+			if (capacities != null && !hasRoom (level, 1)) {
+				//a single task of a level not higher than the new one frees a place in all of its capacities
+				long nonEmptyLevels = runQueue.getNonEmptyLevels ();
+				int lowest = RunQueue.LEVELS - 1 - Long.numberOfLeadingZeros (nonEmptyLevels);
+				if (nonEmptyLevels == 0 || lowest < level) {
+					return false;
+				}
+				dropped = runQueue.pollOldest (lowest);
+				forgetThrottled (dropped);
+			}
+			runQueue.add (e);
+			dispatchable.signal ();
+		} finally {
+			lock.unlock ();
+		}
+		if (dropped != null) {
+			completeDropped (dropped);
+			if (droppedTasks != null) {
+				droppedTasks.add (dropped);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Puts all the tasks under a single lock acquisition, if there is room for
+	 * all of them.
+	 *
+	 * @param tasks to be put
+	 * @return false if there is no room for all the tasks: then none of them
+	 * is put.
+	 */
+	boolean offerAll (List<? extends E> tasks) {
+		for (E e : tasks) {
+			if (e == null) {
+				throw new NullPointerException ();
+			}
+		}
+		lock.lock ();
+		try {
+			if (capacities != null && !hasRoom (tasks)) {
+				return false;
+			}
+			for (E e : tasks) {
+				runQueue.add (e);
+			}
+			//the workers wake each other up while there are dispatchable tasks
+			dispatchable.signal ();
+			return true;
+		} finally {
+			lock.unlock ();
+		}
+	}
+
+	/**
+	 * Removes all the tasks under a single lock acquisition.
+	 *
+	 * @param tasks to be removed
+	 * @return the removed tasks, the other ones have left the queue already.
+	 */
+	List<E> removeTasks (List<? extends E> tasks) {
+		List<E> removed = new ArrayList<> (0);
+		lock.lock ();
+		try {
+			for (E e : tasks) {
+				if (remove (e)) {
+					removed.add (e);
+				}
+			}
+		} finally {
+			lock.unlock ();
+		}
+		return removed;
+	}
+
+	/**
+	 * Waits for room for the task, if the queue is bounded.
+	 */
+	@Override
+	public void put (E e) throws InterruptedException {
+		if (e == null) {
+			throw new NullPointerException ();
+		}
+		lock.lockInterruptibly ();
+		try {
+			if (capacities != null) {
+				roomWaiters++;
+				try {
+					while (!hasRoom (e.getPriority (), 1)) {
+						notFull.await ();
+					}
+				} finally {
+					roomWaiters--;
+				}
+			}
+			runQueue.add (e);
+			dispatchable.signal ();
+		} finally {
+			lock.unlock ();
+		}
+	}
+
+	/**
+	 * Waits for room for the task up to the timeout, if the queue is bounded.
+	 *
+	 * @return false if there is still no room by the timeout.
+	 */
+	@Override
+	public boolean offer (E e, long timeout, TimeUnit unit) throws InterruptedException {
+		if (e == null) {
+			throw new NullPointerException ();
+		}
+		long nanos = unit.toNanos (timeout);
+		lock.lockInterruptibly ();
+		try {
+			if (capacities != null) {
+				roomWaiters++;
+				try {
+					while (!hasRoom (e.getPriority (), 1)) {
+						if (nanos <= 0) {
+							return false;
+						}
+						nanos = notFull.awaitNanos (nanos);
+					}
+				} finally {
+					roomWaiters--;
 				}
-				return callable;
-			} else {
-				return null;
 			}
+			runQueue.add (e);
+			dispatchable.signal ();
+			return true;
 		} finally {
-			innerLock.unlock ();
-			getLogger ().debug ("queue poll: innerLock is unlocked");
+			lock.unlock ();
 		}
 	}
+
+	@Override
+	public E take () throws InterruptedException {
+		for (;;) {
+			E task;
+			List<E> expiredTasks;
+			lock.lockInterruptibly ();
+			try {
+				while ((task = dispatch ()) == null && expired.isEmpty ()) {
+					awaitDispatchable (Long.MAX_VALUE);
+				}
+				expiredTasks = takeExpired ();
+			} finally {
+				lock.unlock ();
+			}
+			completeExpired (expiredTasks);
+			if (task != null) {
+				return task;
+			}
+		}
+	}
+
+	@Override
+	public E poll (long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime () + unit.toNanos (timeout);
+		for (;;) {
+			long nanos = deadline - System.nanoTime ();
+			E task;
+			List<E> expiredTasks;
+			lock.lockInterruptibly ();
+			try {
+				while ((task = dispatch ()) == null && expired.isEmpty () && nanos > 0) {
+					nanos = awaitDispatchable (nanos);
+				}
+				if (task == null && nanos <= 0 && rateLimits != null && rateLimits.getDelay () > 0) {
+					//let another worker wait for the permit
+					dispatchable.signal ();
+				}
+				expiredTasks = takeExpired ();
+			} finally {
+				lock.unlock ();
+			}
+			completeExpired (expiredTasks);
+			if (task != null || nanos <= 0) {
+				return task;
+			}
+		}
+	}
+
+	@Override
+	public E poll () {
+		return poll ((Collection<? super E>) null);
+	}
+
+	/**
+	 * The same as {@link #poll()}, that also reports the expired tasks it has
+	 * found.
+	 *
+	 * @param expiredTasks receives the tasks, that have been expired by this
+	 * call, may be null
+	 * @return the admitted head, or null if the queue is empty or its head has
+	 * to wait.
+	 */
+	E poll (Collection<? super E> expiredTasks) {
+		E task;
+		List<E> found;
+		lock.lock ();
+		try {
+			task = dispatch ();
+			found = takeExpired ();
+		} finally {
+			lock.unlock ();
+		}
+		if (completeExpired (found) > 0 && expiredTasks != null) {
+			expiredTasks.addAll (found);
+		}
+		return task;
+	}
+
+	@Override
+	public E peek () {
+		lock.lock ();
+		try {
+			if (waitingExclusive != null) {
+				return waitingExclusive;
+			}
+			E head = runQueue.peek ();
+			return head != null ? head : keyedGate.peek ();
+		} finally {
+			lock.unlock ();
+		}
+	}
+
+	@Override
+	public int size () {
+		lock.lock ();
+		try {
+			return runQueue.size () + (waitingExclusive != null ? 1 : 0) + keyedGate.size ();
+		} finally {
+			lock.unlock ();
+		}
+	}
+
+	/**
+	 *
+	 * @param level a priority level
+	 * @return the count of the tasks of the level in the run queue.
+	 */
+	int size (int level) {
+		lock.lock ();
+		try {
+			return runQueue.getSize (level);
+		} finally {
+			lock.unlock ();
+		}
+	}
+
+	/**
+	 *
+	 * @return the counts of the tasks in the run queue by levels.
+	 */
+	int[] getLevelSizes () {
+		int[] sizes = new int[RunQueue.LEVELS];
+		lock.lock ();
+		try {
+			long levels = runQueue.getNonEmptyLevels ();
+			while (levels != 0) {
+				int level = Long.numberOfTrailingZeros (levels);
+				levels &= levels - 1;
+				sizes[level] = runQueue.getSize (level);
+			}
+		} finally {
+			lock.unlock ();
+		}
+		return sizes;
+	}
+
+	/**
+	 * The capacities are set by levels, see
+	 * {@link TerminalConfig#setQueueCapacity(int, int)}.
+	 *
+	 * @return {@link Integer#MAX_VALUE} always.
+	 */
+	@Override
+	public int remainingCapacity () {
+		return Integer.MAX_VALUE;
+	}
+
+	@Override
+	public boolean remove (Object o) {
+		lock.lock ();
+		try {
+			if (o != null && o == waitingExclusive) {
+				removeWaitingExclusive ();
+				return true;
+			}
+			if (runQueue.remove (o)) {
+				forgetThrottled (o);
+				signalNotFull ();
+				return true;
+			}
+			return keyedGate.remove (o);
+		} finally {
+			lock.unlock ();
+		}
+	}
+
+	@Override
+	public boolean contains (Object o) {
+		lock.lock ();
+		try {
+			return (o != null && o == waitingExclusive) || runQueue.contains (o) || keyedGate.contains (o);
+		} finally {
+			lock.unlock ();
+		}
+	}
+
+	@Override
+	public Object[] toArray () {
+		lock.lock ();
+		try {
+			if (waitingExclusive == null && keyedGate.size () == 0) {
+				return runQueue.toArray ();
+			}
+			List<Object> list = new ArrayList<> (size ());
+			if (waitingExclusive != null) {
+				list.add (waitingExclusive);
+			}
+			keyedGate.addTo (list);
+			list.addAll (Arrays.asList (runQueue.toArray ()));
+			return list.toArray ();
+		} finally {
+			lock.unlock ();
+		}
+	}
+
+	@Override
+	@SuppressWarnings ("unchecked")
+	public <T> T[] toArray (T[] a) {
+		Object[] array = toArray ();
+		if (a.length < array.length) {
+			return (T[]) Arrays.copyOf (array, array.length, a.getClass ());
+		}
+		System.arraycopy (array, 0, a, 0, array.length);
+		if (a.length > array.length) {
+			a[array.length] = null;
+		}
+		return a;
+	}
+
+	@Override
+	public void clear () {
+		lock.lock ();
+		try {
+			if (waitingExclusive != null) {
+				removeWaitingExclusive ();
+			}
+			keyedGate.drainTo (null, Integer.MAX_VALUE);
+			runQueue.clear ();
+			if (rateLimits != null) {
+				rateLimits.forgetAll ();
+			}
+			signalNotFull ();
+		} finally {
+			lock.unlock ();
+		}
+	}
+
+	/**
+	 * Removes the tasks regardless of their exclusivity: they are not
+	 * admitted, so they must not be released.
+	 */
+	@Override
+	public int drainTo (Collection<? super E> c) {
+		return drainTo (c, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Removes the tasks regardless of their exclusivity: they are not
+	 * admitted, so they must not be released.
+	 */
+	@Override
+	public int drainTo (Collection<? super E> c, int maxElements) {
+		if (c == null) {
+			throw new NullPointerException ();
+		}
+		if (c == this) {
+			throw new IllegalArgumentException ();
+		}
+		lock.lock ();
+		try {
+			int n = 0;
+			if (waitingExclusive != null && n < maxElements) {
+				c.add (waitingExclusive);
+				removeWaitingExclusive ();
+				n++;
+			}
+			n += keyedGate.drainTo (c, maxElements - n);
+			while (n < maxElements && !runQueue.isEmpty ()) {
+				E e = runQueue.poll ();
+				forgetThrottled (e);
+				c.add (e);
+				n++;
+			}
+			signalNotFull ();
+			return n;
+		} finally {
+			lock.unlock ();
+		}
+	}
+
+	/**
+	 * The iterator works over a snapshot of the queue, as in
+	 * {@link java.util.concurrent.PriorityBlockingQueue}.
+	 */
+	@Override
+	public Iterator<E> iterator () {
+		return new Itr (toArray ());
+	}
+
+	private class Itr implements Iterator<E> {
+
+		private final Object[] array;
+		private int cursor = 0;
+		private int lastRet = -1;
+
+		Itr (Object[] array) {
+			this.array = array;
+		}
+
+		@Override
+		public boolean hasNext () {
+			return cursor < array.length;
+		}
+
+		@Override
+		@SuppressWarnings ("unchecked")
+		public E next () {
+			if (cursor >= array.length) {
+				throw new NoSuchElementException ();
+			}
+			lastRet = cursor;
+			return (E) array[cursor++];
+		}
+
+		@Override
+		public void remove () {
+			if (lastRet < 0) {
+				throw new IllegalStateException ();
+			}
+			PEBQueue.this.remove (array[lastRet]);
+			lastRet = -1;
+		}
+	}
+
+	@Override
+	public String toString () {
+		return Arrays.toString (toArray ());
+	}
 }
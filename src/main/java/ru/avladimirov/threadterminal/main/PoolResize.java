@@ -0,0 +1,54 @@
+package ru.avladimirov.threadterminal.main;
+
+/**
+ * A record of a resize of the pool of a {@link ThreadTerminal}, either by
+ * {@link ThreadTerminal#setPoolSize(int)} or by the adaptive controller (see
+ * {@link TerminalConfig#setAdaptivePoolSize(int, int)}). The latest records
+ * are kept in the {@link TerminalState}.
+ *
+ * @author Vladimirov.A.A
+ */
+public final class PoolResize {
+
+	private final long time;
+	private final int fromSize;
+	private final int toSize;
+	private final String reason;
+
+	PoolResize (long time, int fromSize, int toSize, String reason) {
+		this.time = time;
+		this.fromSize = fromSize;
+		this.toSize = toSize;
+		this.reason = reason;
+	}
+
+	/**
+	 *
+	 * @return {@link System#currentTimeMillis()} of the resize.
+	 */
+	public long getTime () {
+		return time;
+	}
+
+	public int getFromSize () {
+		return fromSize;
+	}
+
+	public int getToSize () {
+		return toSize;
+	}
+
+	/**
+	 *
+	 * @return "manual" for {@link ThreadTerminal#setPoolSize(int)}, or the
+	 * observations, that the controller has based its decision on.
+	 */
+	public String getReason () {
+		return reason;
+	}
+
+	@Override
+	public String toString () {
+		return fromSize + " -> " + toSize + " (" + reason + ")";
+	}
+}
@@ -0,0 +1,173 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static ru.avladimirov.threadterminal.main.Terminals.getLogger;
+
+/**
+ * Resizes the pool of a {@link ThreadTerminal} between the bounds of
+ * {@link TerminalConfig#setAdaptivePoolSize(int, int)}. Each interval it
+ * samples the average queue wait of the tasks taken since the previous
+ * sample, the throughput of finished tasks and the system load per
+ * processor, and decides:
+ * <ul>
+ * <li>to grow by a quarter (at least by 1), if tasks are queued and wait
+ * longer than the target, unless the processors are saturated, or the
+ * previous growth hasn't raised the throughput;</li>
+ * <li>to shrink by 1, if the processors are saturated and the pool is
+ * larger than their count;</li>
+ * <li>to shrink by a quarter (at least by 1), if nothing is queued and less
+ * than a half of the pool is busy for several samples in a row.</li>
+ * </ul>
+ * The controller runs on the timer wheel of the terminal, and each decision
+ * is applied by {@link ThreadTerminal#resize(int, String)}, so it's recorded
+ * in the {@link TerminalState}.
+ *
+ * @author Vladimirov.A.A
+ */
+final class PoolSizeController {
+
+	//the system load per processor, that counts as saturated
+	static final double CPU_CEILING = 0.9;
+	//idle samples in a row, after which the pool shrinks
+	static final int IDLE_SAMPLES = 2;
+
+	private static final OperatingSystemMXBean SYSTEM = ManagementFactory.getOperatingSystemMXBean ();
+
+	private final ThreadTerminal terminal;
+	private final int minSize;
+	private final int maxSize;
+	private final long interval;
+	private final long targetWait;
+	private final int processors;
+	//the previous sample, guarded by the thread of the timer wheel
+	private long lastWaitNanos = 0;
+	private long lastWaits = 0;
+	private long lastFinished = 0;
+	private long lastTime = System.nanoTime ();
+	//the throughput before the latest growth, negative if the pool hasn't just grown
+	private double throughputBeforeGrowth = -1;
+	private int idleSamples = 0;
+	private volatile boolean stopped = false;
+
+	/**
+	 *
+	 * @param terminal which pool is resized
+	 * @param minSize the lower bound of the pool size
+	 * @param maxSize the upper bound of the pool size
+	 * @param interval between the samples, in nanoseconds
+	 * @param targetWait the queue wait, above which the pool grows, in
+	 * nanoseconds
+	 */
+	PoolSizeController (ThreadTerminal terminal, int minSize, int maxSize, long interval, long targetWait) {
+		this (terminal, minSize, maxSize, interval, targetWait, Runtime.getRuntime ().availableProcessors ());
+	}
+
+	/**
+	 *
+	 * @param terminal which pool is resized
+	 * @param minSize the lower bound of the pool size
+	 * @param maxSize the upper bound of the pool size
+	 * @param interval between the samples, in nanoseconds
+	 * @param targetWait the queue wait, above which the pool grows, in
+	 * nanoseconds
+	 * @param processors the count of processors
+	 */
+	PoolSizeController (ThreadTerminal terminal, int minSize, int maxSize, long interval, long targetWait, int processors) {
+		this.processors = processors;
+		this.terminal = terminal;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.interval = interval;
+		this.targetWait = targetWait;
+	}
+
+	void start () {
+		schedule ();
+	}
+
+	void stop () {
+		stopped = true;
+	}
+
+	private void schedule () {
+		if (!stopped && !terminal.scheduleTimer (this::sample, interval)) {
+			stopped = true;
+		}
+	}
+
+	private void sample () {
+		if (stopped) {
+			return;
+		}
+		try {
+			TerminalState state = terminal.getTerminalState ();
+			TerminalSnapshot counters = state.readCounters (new TerminalSnapshot ());
+			long now = System.nanoTime ();
+			long waitNanos = state.getQueueWaitNanos ();
+			long waits = state.getQueueWaitsCount ();
+			long finished = counters.getFinishedTasksCount ();
+			double seconds = (double) (now - lastTime) / TimeUnit.SECONDS.toNanos (1);
+			double throughput = seconds > 0 ? (finished - lastFinished) / seconds : 0;
+			double averageWait = waits > lastWaits ? (double) (waitNanos - lastWaitNanos) / (waits - lastWaits) : 0;
+			lastWaitNanos = waitNanos;
+			lastWaits = waits;
+			lastFinished = finished;
+			lastTime = now;
+
+			double load = SYSTEM.getSystemLoadAverage ();
+			double cpu = load < 0 ? 0 : load / processors;
+			int size = terminal.getPoolSize ();
+			int decided = decide (size, averageWait, throughput, counters.getQueuedTasksCount (), counters.getActiveTasksCount (), cpu);
+			if (decided != size) {
+				terminal.resize (decided, String.format (Locale.ROOT, "queue wait %.1f ms, throughput %.1f/s, cpu %.2f",
+						averageWait / TimeUnit.MILLISECONDS.toNanos (1), throughput, cpu));
+			}
+		} catch (RuntimeException ex) {
+			getLogger ().error ("the pool of " + terminal.getName () + " is not resized", ex);
+		} finally {
+			schedule ();
+		}
+	}
+
+	/**
+	 *
+	 * @param size the current pool size
+	 * @param averageWait the average queue wait since the previous sample, in
+	 * nanoseconds
+	 * @param throughput finished tasks per second since the previous sample
+	 * @param queued the count of queued tasks
+	 * @param active the count of active tasks
+	 * @param cpu the system load per processor
+	 * @return the new pool size, or the current one.
+	 */
+	int decide (int size, double averageWait, double throughput, long queued, long active, double cpu) {
+		if (queued > 0 && averageWait >= targetWait && size < maxSize && cpu < CPU_CEILING) {
+			idleSamples = 0;
+			if (throughputBeforeGrowth >= 0 && throughput <= throughputBeforeGrowth) {
+				//the previous growth hasn't helped, wait for one more sample
+				throughputBeforeGrowth = -1;
+				return size;
+			}
+			throughputBeforeGrowth = throughput;
+			return Math.min (maxSize, size + Math.max (1, size / 4));
+		}
+		throughputBeforeGrowth = -1;
+		if (cpu >= CPU_CEILING && size > processors && size > minSize) {
+			idleSamples = 0;
+			return size - 1;
+		}
+		if (queued == 0 && active * 2 < size) {
+			if (++idleSamples >= IDLE_SAMPLES && size > minSize) {
+				idleSamples = 0;
+				return Math.max (minSize, size - Math.max (1, size / 4));
+			}
+		} else {
+			idleSamples = 0;
+		}
+		return size;
+	}
+}
@@ -1,8 +1,9 @@
 package ru.avladimirov.threadterminal.main;
 
 /**
- * An enum for defining prioirity levels. Thus a user can use only levels
- * provided by this enum.
+ * An enum for defining the most common prioirity levels. Any other level from
+ * {@link #HIGHEST_LEVEL} to {@link #LOWEST_LEVEL} can be used as an int, the
+ * less the value, the higher the priority.
  *
  * @author Vladimirov.A.A
  */
@@ -11,6 +12,16 @@ public enum Priority {
 	HIGH (1),
 	LOW (2),;
 
+	/**
+	 * The value of the highest possible priority level.
+	 */
+	public static final int HIGHEST_LEVEL = 0;
+
+	/**
+	 * The value of the lowest possible priority level.
+	 */
+	public static final int LOWEST_LEVEL = 63;
+
 	private int value;
 
 	Priority (int value) {
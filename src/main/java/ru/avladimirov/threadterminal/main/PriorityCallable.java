@@ -12,25 +12,66 @@ class PriorityCallable<T> implements Callable<T>, Prioritized {
 	private int priority;
 	private Callable<T> callable;
 	private String name;
+	private long id;
+	private String key;
+	//System.nanoTime () of the latest start, ComparableRunnable.NO_DEADLINE if there is none
+	private long deadline;
+	//counts whether the task has started by its deadline, null if there is none
+	private TerminalState terminalState;
 
 	/**
 	 *
 	 * @param callable should be either {@link ExclusiveCallable} or
 	 * {@link UsualCallable}.
+	 * @param name of the task, may be null
+	 * @param id of the task, allocated by the terminal
 	 */
-	PriorityCallable (Callable<T> callable, String name, int priority) {
+	PriorityCallable (Callable<T> callable, String name, long id, int priority) {
+		this (callable, name, id, priority, null);
+	}
+
+	/**
+	 *
+	 * @param callable should be either {@link ExclusiveCallable} or
+	 * {@link UsualCallable}.
+	 * @param name of the task, may be null
+	 * @param id of the task, allocated by the terminal
+	 * @param key the exclusivity key of the task, may be null (see
+	 * {@link ComparableRunnable#getKey()})
+	 */
+	PriorityCallable (Callable<T> callable, String name, long id, int priority, String key) {
+		this (callable, name, id, priority, key, ComparableRunnable.NO_DEADLINE, null);
+	}
+
+	/**
+	 *
+	 * @param callable should be either {@link ExclusiveCallable} or
+	 * {@link UsualCallable}.
+	 * @param name of the task, may be null
+	 * @param id of the task, allocated by the terminal
+	 * @param key the exclusivity key of the task, may be null
+	 * @param deadline {@link System#nanoTime()} of the latest start of the
+	 * task, or {@link ComparableRunnable#NO_DEADLINE}
+	 * @param terminalState counts, whether the task has started by its
+	 * deadline, may be null if there is no deadline
+	 */
+	PriorityCallable (Callable<T> callable, String name, long id, int priority, String key, long deadline, TerminalState terminalState) {
 		this.callable = callable;
 		this.priority = priority;
 		this.name = name;
+		this.id = id;
+		this.key = key;
+		this.deadline = deadline;
+		this.terminalState = terminalState;
 	}
 
 	@Override
 	public T call () throws Exception {
-		try {
-			return (T) callable.call ();
-		} catch (Exception ex) {
-			throw ex;
+		if (terminalState != null) {
+			//the same clock as the expiry check of the queue, that has handed the task out
+			terminalState.registerDeadlineMet (deadline - System.nanoTime () >= 0);
 		}
+		return callable.call ();
 	}
 
 	@Override
@@ -38,11 +79,31 @@ class PriorityCallable<T> implements Callable<T>, Prioritized {
 		return priority;
 	}
 
+	/**
+	 *
+	 * @return the name of the task, may be null.
+	 */
 	String getName () {
 		return name;
 	}
 
-	Callable getCallable () {
+	long getId () {
+		return id;
+	}
+
+	/**
+	 *
+	 * @return the exclusivity key of the task, may be null.
+	 */
+	String getKey () {
+		return key;
+	}
+
+	long getDeadline () {
+		return deadline;
+	}
+
+	Callable<T> getCallable () {
 		return callable;
 	}
 
@@ -59,7 +120,7 @@ class PriorityCallable<T> implements Callable<T>, Prioritized {
 		if (callable instanceof UsualCallable) {
 			addition = "false";
 		}
-		return name + "," + addition + "," + priority;
+		return TerminalState.label (name, id) + "," + addition + "," + priority;
 	}
 
 }
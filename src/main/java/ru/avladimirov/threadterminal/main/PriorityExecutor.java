@@ -1,31 +1,35 @@
 package ru.avladimirov.threadterminal.main;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Callable;
-import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.RunnableFuture;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 
 /**
  * An extension of the standard java {@link ThreadPoolExecutor}, that allows
  * task scheduling based on task priority and order of submission.
+ * <br>
+ * All tasks pass through its {@link PEBQueue}, which admits them for execution
+ * considering their exclusivity, and are released back to the queue in
+ * {@link #afterExecute(java.lang.Runnable, java.lang.Throwable)}.
  *
  * @author Vladimirov.A.A
  */
-public class PriorityExecutor extends ThreadPoolExecutor {
+public class PriorityExecutor extends ThreadPoolExecutor implements TerminalExecutor {
 
-	//A counter of all submitted tasks
-	private final AtomicLong taskCounter = new AtomicLong (0);
 	private ThreadTerminal terminal;
-	private TerminalState terminalState;
-	private Lock innerLock;
-	private BlockingQueue queue;
+	private PEBQueue<ComparableRunnable> queue;
+	private LifecycleTracer tracer;
 
 	/**
-	 * The same constructor as in the {@link ThreadPoolExecutor}.
+	 * The same constructor as in the {@link ThreadPoolExecutor}. Core threads
+	 * never time out and are started at once.
 	 *
 	 * @param corePoolSize
 	 * @param maximumPoolSize
@@ -33,26 +37,314 @@ public class PriorityExecutor extends ThreadPoolExecutor {
 	 * @param unit
 	 * @param queue
 	 */
-	PriorityExecutor (ThreadTerminal terminal, int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, PriorityBlockingQueue<ComparableRunnable> queue) {
-		super (corePoolSize, maximumPoolSize, keepAliveTime, unit, (BlockingQueue) queue);
+	PriorityExecutor (ThreadTerminal terminal, int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, PEBQueue<ComparableRunnable> queue) {
+		super (corePoolSize, maximumPoolSize, keepAliveTime, unit, (BlockingQueue) queue,
+				new WorkerThreadFactory (terminal.getName (), terminal.getTerminalState (), queue));
 		this.terminal = terminal;
-		this.terminalState = terminal.getTerminalState ();
-		this.innerLock = terminalState.getInnerLock ();
 		this.queue = queue;
-		this.allowCoreThreadTimeOut (true);
+		this.tracer = terminal.getTerminalState ().getTracer ();
+		//workers wait inside the queue until a task can be executed,
+		//so they are kept warm instead of being torn down and re-created around exclusive tasks
+		this.prestartAllCoreThreads ();
 	}
 
 	@Override
 	protected <T> RunnableFuture<T> newTaskFor (Callable<T> callable) {
-		PriorityCallable<T> priCallable = (PriorityCallable<T>) callable;
+		return newComparableTask (terminal, (PriorityCallable<T>) callable);
+	}
+
+	/**
+	 * Registers a new submitted task and wraps it for the queue. Is shared by
+	 * all executors of a terminal.
+	 *
+	 * @param terminal that the task is submitted to
+	 * @param priCallable the task
+	 * @return a new task for the {@link PEBQueue}.
+	 */
+	static <T> ComparableFutureTask<T> newComparableTask (ThreadTerminal terminal, PriorityCallable<T> priCallable) {
+		TerminalState terminalState = terminal.getTerminalState ();
 		//terminalStateUpdate:
 		//here we update the terminal inner state: increment the count of submitted tasks
+		if (terminal.getGateMode () != GateMode.STRICT) {
+			terminalState.registerNewNext (priCallable.getId (), priCallable.getName ());
+			return new ComparableFutureTask<> (priCallable);
+		}
+		Lock innerLock = terminalState.getInnerLock ();
 		innerLock.lock ();
 		try {
-			terminalState.registerNewNext (priCallable.getName ());
-			return new ComparableFutureTask<> (priCallable, taskCounter);
+			terminalState.registerNewNext (priCallable.getId (), priCallable.getName ());
+			return new ComparableFutureTask<> (priCallable);
 		} finally {
 			innerLock.unlock ();
 		}
 	}
+
+	/**
+	 * Puts a task to the queue of a terminal. If the queue has no room for
+	 * it, applies the {@link OverflowPolicy} of the terminal. Is shared by all
+	 * executors of a terminal.
+	 *
+	 * @param terminal that the task is submitted to
+	 * @param queue of the terminal
+	 * @param task to be queued
+	 * @param droppedTasks receives the tasks, that have been dropped to make
+	 * room for it, may be null
+	 * @return true if the task is queued, false if it has been run by the
+	 * calling thread, or expired instead.
+	 * @throws RejectedExecutionException if the queue has no room for the
+	 * task, and the calling thread is a worker of the terminal, whatever the
+	 * policy is.
+	 */
+	static boolean offer (ThreadTerminal terminal, PEBQueue<ComparableRunnable> queue, ComparableRunnable task,
+			Collection<? super ComparableRunnable> droppedTasks) {
+		if (queue.offer (task)) {
+			return true;
+		}
+		OverflowPolicy policy = terminal.getOverflowPolicy ();
+		if (policy == OverflowPolicy.DROP_OLDEST_LOW && queue.offer (task, droppedTasks)) {
+			return true;
+		}
+		if (policy == OverflowPolicy.CALLER_RUNS) {
+			if (PEBQueue.isExpired (task)) {
+				//the queue would expire it as well instead of handing it out
+				expire (terminal, task);
+				return false;
+			}
+			if (!task.isExclusive () && task.getKey () == null && !queue.isRateLimited (task) && queue.tryAdmitUsual (task)) {
+				terminal.getTerminalState ().registerCallerRun ();
+				beforeRun (terminal, task);
+				try {
+					task.run ();
+				} finally {
+					queue.release (task);
+				}
+				return false;
+			}
+			//the task can't bypass the gate or its rate limit, so the caller is slowed down by waiting for room,
+			//unless it's a worker: the room may depend on the gate, that the worker holds
+			if (!terminal.isWorkerThread ()) {
+				try {
+					queue.put (task);
+					return true;
+				} catch (InterruptedException ex) {
+					Thread.currentThread ().interrupt ();
+				}
+			}
+		}
+		throw reject (terminal, Collections.singletonList (task));
+	}
+
+	/**
+	 * Puts a task to the queue of a terminal, waiting for room up to the
+	 * timeout, whatever the {@link OverflowPolicy} is. Is shared by all
+	 * executors of a terminal.
+	 *
+	 * @param terminal that the task is submitted to
+	 * @param queue of the terminal
+	 * @param task to be queued
+	 * @param timeout how long to wait for room
+	 * @param unit of the timeout
+	 * @throws RejectedExecutionException if there is still no room by the
+	 * timeout.
+	 * @throws InterruptedException if interrupted while waiting: then the task
+	 * is rejected as well.
+	 */
+	static void offer (ThreadTerminal terminal, PEBQueue<ComparableRunnable> queue, ComparableRunnable task,
+			long timeout, TimeUnit unit) throws InterruptedException {
+		boolean queued;
+		try {
+			queued = queue.offer (task, timeout, unit);
+		} catch (InterruptedException ex) {
+			reject (terminal, Collections.singletonList (task));
+			throw ex;
+		}
+		if (!queued) {
+			throw reject (terminal, Collections.singletonList (task));
+		}
+	}
+
+	/**
+	 * Registers the tasks, that the queue has no room for.
+	 *
+	 * @param terminal that the tasks are submitted to
+	 * @param tasks that are rejected
+	 * @return an exception to be thrown to the submitter.
+	 */
+	static RejectedExecutionException reject (ThreadTerminal terminal, List<? extends ComparableRunnable> tasks) {
+		registerRejected (terminal, tasks);
+		return new RejectedExecutionException ("the queue of " + terminal.getName () + " has no room for priority level "
+				+ tasks.get (0).getPriority ());
+	}
+
+	/**
+	 * Registers the tasks, that are rejected, as the terminal is shut down:
+	 * they are counted as submitted already, so they leave the queued ones.
+	 * Is shared by all executors of a terminal.
+	 *
+	 * @param terminal that the tasks are submitted to
+	 * @param tasks that are rejected
+	 * @return an exception to be thrown to the submitter.
+	 */
+	static RejectedExecutionException rejectShutdown (ThreadTerminal terminal, List<? extends ComparableRunnable> tasks) {
+		registerRejected (terminal, tasks);
+		return new RejectedExecutionException ("the terminal is shut down");
+	}
+
+	/**
+	 * Records the waits of an admitted task, that is going to run. Is shared
+	 * by all executors of a terminal and by a caller, that runs the task
+	 * itself, so that each started task is counted once.
+	 *
+	 * @param terminal that runs the task
+	 * @param task that is going to run
+	 */
+	static void beforeRun (ThreadTerminal terminal, ComparableRunnable task) {
+		terminal.getTerminalState ().registerQueueWait (task);
+	}
+
+	private static void expire (ThreadTerminal terminal, ComparableRunnable task) {
+		TerminalState terminalState = terminal.getTerminalState ();
+		terminalState.registerExpired ();
+		LifecycleTracer tracer = terminalState.getTracer ();
+		if (tracer != null) {
+			tracer.record (TraceEvent.EXPIRED, task);
+		}
+		task.expire ();
+	}
+
+	private static void registerRejected (ThreadTerminal terminal, List<? extends ComparableRunnable> tasks) {
+		TerminalState terminalState = terminal.getTerminalState ();
+		LifecycleTracer tracer = terminalState.getTracer ();
+		for (ComparableRunnable task : tasks) {
+			terminalState.registerRejected (task.getPriority ());
+			if (tracer != null) {
+				tracer.record (TraceEvent.REJECTED, task);
+			}
+		}
+	}
+
+	/**
+	 * Unlike the {@link ThreadPoolExecutor#execute(java.lang.Runnable)}, never
+	 * hands a task to a new worker directly: each task is put to the queue,
+	 * otherwise it would bypass the exclusivity admission.
+	 *
+	 * @param command a {@link ComparableRunnable} to be executed
+	 * @throws RejectedExecutionException if the executor is shut down, or the
+	 * queue has no room for the task.
+	 */
+	@Override
+	public void execute (Runnable command) {
+		if (command == null) {
+			throw new NullPointerException ();
+		}
+		if (isShutdown ()) {
+			rejectShutdown (terminal, Collections.singletonList ((ComparableRunnable) command));
+			getRejectedExecutionHandler ().rejectedExecution (command, this);
+			return;
+		}
+		if (!offer (terminal, queue, (ComparableRunnable) command, null)) {
+			//it has been run by the caller
+			return;
+		}
+		if (isShutdown () && queue.remove (command)) {
+			rejectShutdown (terminal, Collections.singletonList ((ComparableRunnable) command));
+			getRejectedExecutionHandler ().rejectedExecution (command, this);
+			return;
+		}
+		if (tracer != null) {
+			tracer.record (TraceEvent.QUEUED, (ComparableRunnable) command);
+		}
+		//a worker may have died, make sure someone takes the task
+		prestartAllCoreThreads ();
+	}
+
+	/**
+	 * Puts all the tasks to the queue under a single lock acquisition, the
+	 * same way as {@link #execute(java.lang.Runnable)} does for one task.
+	 *
+	 * @param tasks to be executed
+	 */
+	@Override
+	public void executeAll (List<? extends ComparableRunnable> tasks) {
+		if (isShutdown ()) {
+			throw rejectShutdown (terminal, tasks);
+		}
+		if (!queue.offerAll (tasks)) {
+			throw reject (terminal, tasks);
+		}
+		if (isShutdown ()) {
+			List<ComparableRunnable> removed = queue.removeTasks (tasks);
+			if (!removed.isEmpty ()) {
+				throw rejectShutdown (terminal, removed);
+			}
+		}
+		if (tracer != null) {
+			for (ComparableRunnable task : tasks) {
+				tracer.record (TraceEvent.QUEUED, task);
+			}
+		}
+		prestartAllCoreThreads ();
+	}
+
+	@Override
+	public void execute (ComparableRunnable task, long timeout, TimeUnit unit) throws InterruptedException {
+		if (isShutdown ()) {
+			throw rejectShutdown (terminal, Collections.singletonList (task));
+		}
+		offer (terminal, queue, task, timeout, unit);
+		if (isShutdown () && queue.remove (task)) {
+			throw rejectShutdown (terminal, Collections.singletonList (task));
+		}
+		if (tracer != null) {
+			tracer.record (TraceEvent.QUEUED, task);
+		}
+		prestartAllCoreThreads ();
+	}
+
+	/**
+	 * When growing, the maximum size is raised first, when shrinking - the
+	 * core size is lowered first, as the core size can't exceed the maximum
+	 * one. The workers above the new size leave, once they are idle.
+	 *
+	 * @param poolSize the new count of threads
+	 */
+	@Override
+	public void setPoolSize (int poolSize) {
+		if (poolSize > getMaximumPoolSize ()) {
+			setMaximumPoolSize (poolSize);
+			setCorePoolSize (poolSize);
+		} else {
+			setCorePoolSize (poolSize);
+			setMaximumPoolSize (poolSize);
+		}
+		prestartAllCoreThreads ();
+	}
+
+	@Override
+	public boolean isWorkerThread () {
+		return ((WorkerThreadFactory) getThreadFactory ()).isWorker (Thread.currentThread ());
+	}
+
+	@Override
+	protected void beforeExecute (Thread t, Runnable r) {
+		super.beforeExecute (t, r);
+		beforeRun (terminal, (ComparableRunnable) r);
+	}
+
+	@Override
+	protected void afterExecute (Runnable r, Throwable t) {
+		super.afterExecute (r, t);
+		queue.release ((ComparableRunnable) r);
+	}
+
+	/**
+	 * Lets the tracer pass the last events to its sink and stop.
+	 */
+	@Override
+	protected void terminated () {
+		super.terminated ();
+		if (tracer != null) {
+			tracer.close ();
+		}
+	}
 }
@@ -0,0 +1,112 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A rate limit of a {@link ThreadTerminal}, either of a priority level or of
+ * the tasks, which names start with a prefix (see
+ * {@link TerminalConfig#setRateLimit(int, double, int)} and
+ * {@link TerminalConfig#setRateLimit(String, double, int)}). The limits, that
+ * are read from the {@link TerminalState}, carry their counters as well.
+ *
+ * @author Vladimirov.A.A
+ */
+public final class RateLimit {
+
+	private final int level;
+	private final String namePrefix;
+	private final double permitsPerSecond;
+	private final int burst;
+	private final long permitsCount;
+	private final long throttledTasksCount;
+	private final long throttleWaitNanos;
+	private final long maxThrottleWaitNanos;
+
+	RateLimit (int level, String namePrefix, double permitsPerSecond, int burst) {
+		this (level, namePrefix, permitsPerSecond, burst, 0, 0, 0, 0);
+	}
+
+	RateLimit (int level, String namePrefix, double permitsPerSecond, int burst,
+			long permitsCount, long throttledTasksCount, long throttleWaitNanos, long maxThrottleWaitNanos) {
+		this.level = level;
+		this.namePrefix = namePrefix;
+		this.permitsPerSecond = permitsPerSecond;
+		this.burst = burst;
+		this.permitsCount = permitsCount;
+		this.throttledTasksCount = throttledTasksCount;
+		this.throttleWaitNanos = throttleWaitNanos;
+		this.maxThrottleWaitNanos = maxThrottleWaitNanos;
+	}
+
+	/**
+	 *
+	 * @return the limited priority level, or -1 for a limit of a name prefix.
+	 */
+	public int getLevel () {
+		return level;
+	}
+
+	/**
+	 *
+	 * @return the limited name prefix, or null for a limit of a level.
+	 */
+	public String getNamePrefix () {
+		return namePrefix;
+	}
+
+	public double getPermitsPerSecond () {
+		return permitsPerSecond;
+	}
+
+	/**
+	 *
+	 * @return the count of tasks, that may be dispatched at once after an
+	 * idle period.
+	 */
+	public int getBurst () {
+		return burst;
+	}
+
+	/**
+	 *
+	 * @return the count of tasks, that have been dispatched under the limit.
+	 */
+	public long getPermitsCount () {
+		return permitsCount;
+	}
+
+	/**
+	 *
+	 * @return the count of tasks, that the limit has held back in the queue
+	 * at least once.
+	 */
+	public long getThrottledTasksCount () {
+		return throttledTasksCount;
+	}
+
+	/**
+	 *
+	 * @param unit of the result
+	 * @return the sum of the waits of the dispatched tasks since the limit has
+	 * held them back for the first time.
+	 */
+	public long getThrottleWait (TimeUnit unit) {
+		return unit.convert (throttleWaitNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 *
+	 * @param unit of the result
+	 * @return the longest of the throttle waits.
+	 */
+	public long getMaxThrottleWait (TimeUnit unit) {
+		return unit.convert (maxThrottleWaitNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public String toString () {
+		return (namePrefix != null ? "prefix " + namePrefix : "level " + level) + ": " + permitsPerSecond
+				+ "/s, burst " + burst + ", permits " + permitsCount + ", throttled " + throttledTasksCount
+				+ ", throttle wait " + TimeUnit.NANOSECONDS.toMillis (throttleWaitNanos) + " ms";
+	}
+}
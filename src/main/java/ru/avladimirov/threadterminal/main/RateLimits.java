@@ -0,0 +1,261 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Token buckets of the rate limits of a terminal, by priority levels and by
+ * name prefixes (see {@link TerminalConfig#setRateLimit(int, double, int)}).
+ * A task needs a permit of the bucket of its level and of the bucket of the
+ * longest prefix of its name, if they are limited. The {@link PEBQueue}
+ * checks the buckets at dispatch and takes the permits only when the task
+ * leaves the run queue, so a task, that is held back, keeps its place and the
+ * worker takes the next permitted one.
+ * <br>
+ * A bucket keeps the theoretical time of its next permit instead of a count
+ * of tokens: a permit is available, if that time is not later than now by
+ * more than the burst allows, so checking and taking a permit need neither a
+ * refill nor a timer.
+ * <br>
+ * The class is not thread safe: it is guarded by the lock of its
+ * {@link PEBQueue}.
+ *
+ * @author Vladimirov.A.A
+ */
+final class RateLimits {
+
+	private final Bucket[] levelBuckets = new Bucket[RunQueue.LEVELS];
+	//the longest prefix goes first
+	private final Bucket[] prefixBuckets;
+	//all buckets in the order of configuration
+	private final List<Bucket> buckets = new ArrayList<> ();
+	//the tasks in the run queue, that have been held back, with their holds
+	private final HashMap<ComparableRunnable, Hold> holds = new HashMap<> ();
+	//counts the throttled tasks and their waits, may be null
+	private final TerminalState terminalState;
+	//the shortest time till a permit of a bucket, that has held a task back since the latest reset
+	private long delay = 0;
+
+	/**
+	 *
+	 * @param limits from {@link TerminalConfig#getRateLimits()}
+	 * @param terminalState counts the throttled tasks, may be null
+	 */
+	RateLimits (List<RateLimit> limits, TerminalState terminalState) {
+		this.terminalState = terminalState;
+		long now = System.nanoTime ();
+		List<Bucket> prefixes = new ArrayList<> ();
+		for (RateLimit limit : limits) {
+			Bucket bucket = new Bucket (limit, now);
+			buckets.add (bucket);
+			if (limit.getNamePrefix () != null) {
+				prefixes.add (bucket);
+			} else {
+				levelBuckets[limit.getLevel ()] = bucket;
+			}
+		}
+		prefixes.sort ((a, b) -> Integer.compare (b.limit.getNamePrefix ().length (), a.limit.getNamePrefix ().length ()));
+		this.prefixBuckets = prefixes.toArray (new Bucket[prefixes.size ()]);
+	}
+
+	/**
+	 * Is thread safe, as it reads the configuration only.
+	 *
+	 * @param task to be checked
+	 * @return true if any limit applies to the task.
+	 */
+	boolean isLimited (ComparableRunnable task) {
+		return levelBuckets[task.getPriority ()] != null || prefixBucket (task) != null;
+	}
+
+	private Bucket prefixBucket (ComparableRunnable task) {
+		if (prefixBuckets.length == 0) {
+			return null;
+		}
+		String name = task.getTaskName ();
+		if (name == null) {
+			return null;
+		}
+		for (Bucket bucket : prefixBuckets) {
+			if (name.startsWith (bucket.limit.getNamePrefix ())) {
+				return bucket;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 *
+	 * @return true if there are limits of name prefixes, so the tasks of one
+	 * level may differ.
+	 */
+	boolean hasPrefixes () {
+		return prefixBuckets.length > 0;
+	}
+
+	/**
+	 * Starts a new dispatch: forgets the delay of the previous one.
+	 */
+	void reset () {
+		delay = 0;
+	}
+
+	/**
+	 *
+	 * @return the shortest time till a permit of a bucket, that has held a
+	 * task back since the latest reset, in nanoseconds, or 0 if none has.
+	 */
+	long getDelay () {
+		return delay;
+	}
+
+	/**
+	 * Checks the bucket of a level, that holds back all of its tasks.
+	 *
+	 * @param level of the head
+	 * @param head the task, that is held back, if the level has no permit
+	 * @param now {@link System#nanoTime()}
+	 * @return true if the level has a permit.
+	 */
+	boolean permitsLevel (int level, ComparableRunnable head, long now) {
+		Bucket bucket = levelBuckets[level];
+		return bucket == null || permits (bucket, head, now);
+	}
+
+	/**
+	 * Checks the bucket of the name prefix of a task, the one of its level is
+	 * checked by {@link #permitsLevel(int, ComparableRunnable, long)}.
+	 *
+	 * @param task to be checked, is held back, if it has no permit
+	 * @param now {@link System#nanoTime()}
+	 * @return true if the task has a permit.
+	 */
+	boolean permitsName (ComparableRunnable task, long now) {
+		Bucket bucket = prefixBucket (task);
+		return bucket == null || permits (bucket, task, now);
+	}
+
+	private boolean permits (Bucket bucket, ComparableRunnable task, long now) {
+		long wait = bucket.getDelay (now);
+		if (wait <= 0) {
+			return true;
+		}
+		if (delay == 0 || wait < delay) {
+			delay = wait;
+		}
+		if (!holds.containsKey (task)) {
+			holds.put (task, new Hold (bucket, now));
+			bucket.throttledTasks++;
+			if (terminalState != null) {
+				terminalState.registerThrottled ();
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Takes the permits of a task, that leaves the run queue to be admitted.
+	 *
+	 * @param task that has been permitted
+	 * @param now {@link System#nanoTime()}
+	 */
+	void acquire (ComparableRunnable task, long now) {
+		Bucket level = levelBuckets[task.getPriority ()];
+		if (level != null) {
+			level.acquire (now);
+		}
+		Bucket prefix = prefixBucket (task);
+		if (prefix != null) {
+			prefix.acquire (now);
+		}
+		Hold hold = holds.isEmpty () ? null : holds.remove (task);
+		if (hold != null) {
+			long wait = now - hold.time;
+			hold.bucket.throttleWaitNanos += wait;
+			hold.bucket.maxThrottleWaitNanos = Math.max (hold.bucket.maxThrottleWaitNanos, wait);
+			if (terminalState != null) {
+				terminalState.registerThrottleWait (wait);
+			}
+		}
+	}
+
+	/**
+	 * Forgets the hold of a task, that has left the run queue otherwise:
+	 * removed, dropped or expired.
+	 */
+	void forget (Object task) {
+		if (!holds.isEmpty ()) {
+			holds.remove (task);
+		}
+	}
+
+	void forgetAll () {
+		holds.clear ();
+	}
+
+	/**
+	 *
+	 * @return the limits with their counters, in the order of configuration.
+	 */
+	List<RateLimit> getRateLimits () {
+		List<RateLimit> limits = new ArrayList<> (buckets.size ());
+		for (Bucket bucket : buckets) {
+			RateLimit limit = bucket.limit;
+			limits.add (new RateLimit (limit.getLevel (), limit.getNamePrefix (), limit.getPermitsPerSecond (), limit.getBurst (),
+					bucket.permits, bucket.throttledTasks, bucket.throttleWaitNanos, bucket.maxThrottleWaitNanos));
+		}
+		return limits;
+	}
+
+	/**
+	 * A token bucket in the form of the theoretical time of its next permit.
+	 */
+	private static final class Bucket {
+
+		private final RateLimit limit;
+		//nanoseconds per permit
+		private final long interval;
+		//how much the next permit may be ahead of now: the rest of the burst
+		private final long tolerance;
+		private long nextPermitTime;
+		private long permits = 0;
+		private long throttledTasks = 0;
+		private long throttleWaitNanos = 0;
+		private long maxThrottleWaitNanos = 0;
+
+		Bucket (RateLimit limit, long now) {
+			this.limit = limit;
+			this.interval = Math.max (1, (long) (1e9 / limit.getPermitsPerSecond ()));
+			this.tolerance = interval * (limit.getBurst () - 1);
+			this.nextPermitTime = now;
+		}
+
+		/**
+		 *
+		 * @return the time till the next permit, not positive if a permit is
+		 * available now.
+		 */
+		long getDelay (long now) {
+			return nextPermitTime - tolerance - now;
+		}
+
+		void acquire (long now) {
+			//an idle bucket doesn't save permits beyond its burst
+			nextPermitTime = (nextPermitTime - now < 0 ? now : nextPermitTime) + interval;
+			permits++;
+		}
+	}
+
+	private static final class Hold {
+
+		private final Bucket bucket;
+		//when the task has been held back for the first time
+		private final long time;
+
+		Hold (Bucket bucket, long time) {
+			this.bucket = bucket;
+			this.time = time;
+		}
+	}
+}
@@ -0,0 +1,323 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+/**
+ * A run queue made of per-level FIFO lanes, one lane for each priority level
+ * from {@link Priority#HIGHEST_LEVEL} to {@link Priority#LOWEST_LEVEL}, and a
+ * bitmap of non-empty levels. Enqueuing and dequeuing take a constant time
+ * regardless of the backlog: a task is appended to the tail of its lane, and
+ * the head is taken from the first non-empty lane found by the bitmap, or from
+ * the lane chosen by a {@link SchedulingPolicy}. Inside one level tasks keep
+ * their order of submission.
+ * <br>
+ * Tasks with a deadline (see {@link ComparableRunnable#getDeadline()}) are
+ * kept in a heap of their level, ordered by the earliest deadline, and go
+ * before the tasks without a deadline: a level without deadlines works as a
+ * plain FIFO lane, and the heap is created on the first use.
+ * <br>
+ * The class is not thread safe: it is guarded by the lock of its
+ * {@link PEBQueue}.
+ *
+ * @author Vladimirov.A.A
+ */
+class RunQueue<E extends ComparableRunnable> implements SchedulingPolicy.LevelView {
+
+	static final int LEVELS = Priority.LOWEST_LEVEL + 1;
+
+	//the earliest deadline goes first, then the order of submission
+	private static final Comparator<ComparableRunnable> EARLIEST_DEADLINE = (a, b) -> {
+		int deadline = Long.compare (a.getDeadline () - b.getDeadline (), 0);
+		return deadline != 0 ? deadline : Long.compare (a.getIndex (), b.getIndex ());
+	};
+
+	//lanes are created on the first use
+	@SuppressWarnings ({"unchecked", "rawtypes"})
+	private final ArrayDeque<E>[] lanes = new ArrayDeque[LEVELS];
+	//tasks with deadlines, are served before the lane of the same level
+	@SuppressWarnings ({"unchecked", "rawtypes"})
+	private final PriorityQueue<E>[] deadlineLanes = new PriorityQueue[LEVELS];
+	//a bit per each level: set if its lane is not empty
+	private long nonEmptyLevels = 0;
+	private int size = 0;
+
+	void add (E e) {
+		int level = e.getPriority ();
+		if (e.getDeadline () != ComparableRunnable.NO_DEADLINE) {
+			PriorityQueue<E> deadlineLane = deadlineLanes[level];
+			if (deadlineLane == null) {
+				deadlineLane = new PriorityQueue<> (EARLIEST_DEADLINE);
+				deadlineLanes[level] = deadlineLane;
+			}
+			deadlineLane.add (e);
+			nonEmptyLevels |= 1L << level;
+			size++;
+			return;
+		}
+		ArrayDeque<E> lane = lanes[level];
+		if (lane == null) {
+			lane = new ArrayDeque<> ();
+			lanes[level] = lane;
+		}
+		lane.addLast (e);
+		nonEmptyLevels |= 1L << level;
+		size++;
+	}
+
+	/**
+	 *
+	 * @return the head of the highest non-empty level or null.
+	 */
+	E peek () {
+		if (nonEmptyLevels == 0) {
+			return null;
+		}
+		return peekLevel (Long.numberOfTrailingZeros (nonEmptyLevels));
+	}
+
+	/**
+	 *
+	 * @return the head of the given level or null.
+	 */
+	E peekLevel (int level) {
+		PriorityQueue<E> deadlineLane = deadlineLanes[level];
+		if (deadlineLane != null && !deadlineLane.isEmpty ()) {
+			return deadlineLane.peek ();
+		}
+		ArrayDeque<E> lane = lanes[level];
+		return lane == null ? null : lane.peekFirst ();
+	}
+
+	/**
+	 *
+	 * @return the removed head of the highest non-empty level or null.
+	 */
+	E poll () {
+		if (nonEmptyLevels == 0) {
+			return null;
+		}
+		return pollLevel (Long.numberOfTrailingZeros (nonEmptyLevels));
+	}
+
+	/**
+	 *
+	 * @return the removed head of the given level or null.
+	 */
+	E pollLevel (int level) {
+		PriorityQueue<E> deadlineLane = deadlineLanes[level];
+		E e = deadlineLane == null ? null : deadlineLane.poll ();
+		if (e == null) {
+			ArrayDeque<E> lane = lanes[level];
+			e = lane == null ? null : lane.pollFirst ();
+		}
+		if (e != null) {
+			size--;
+			updateLevel (level);
+		}
+		return e;
+	}
+
+	/**
+	 * Removes the oldest task of the given level: the head of its FIFO lane,
+	 * or the head of its heap, if the lane is empty.
+	 *
+	 * @return the removed task or null.
+	 */
+	E pollOldest (int level) {
+		ArrayDeque<E> lane = lanes[level];
+		E e = lane == null ? null : lane.pollFirst ();
+		if (e == null) {
+			return pollLevel (level);
+		}
+		size--;
+		updateLevel (level);
+		return e;
+	}
+
+	/**
+	 * Clears the bit of the level, if both of its lanes are empty.
+	 */
+	private void updateLevel (int level) {
+		if (getSize (level) == 0) {
+			nonEmptyLevels &= ~(1L << level);
+		}
+	}
+
+	/**
+	 * Removes the first exclusive task without a key among the first tasks of
+	 * the given level. If the level has tasks with deadlines, only its head is
+	 * looked at, as the heap has no order to search in.
+	 *
+	 * @param level to search in
+	 * @param lookahead the maximum count of tasks to look at
+	 * @param filter the task should match as well, may be null
+	 * @return the removed task or null.
+	 */
+	E pollExclusive (int level, int lookahead, Predicate<? super E> filter) {
+		PriorityQueue<E> deadlineLane = deadlineLanes[level];
+		if (deadlineLane != null && !deadlineLane.isEmpty ()) {
+			E head = deadlineLane.peek ();
+			return head.isExclusive () && head.getKey () == null && (filter == null || filter.test (head)) ? pollLevel (level) : null;
+		}
+		ArrayDeque<E> lane = lanes[level];
+		if (lane == null) {
+			return null;
+		}
+		int i = 0;
+		for (Iterator<E> it = lane.iterator (); it.hasNext () && i < lookahead; i++) {
+			E e = it.next ();
+			if (e.isExclusive () && e.getKey () == null && (filter == null || filter.test (e))) {
+				it.remove ();
+				size--;
+				updateLevel (level);
+				return e;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Finds the first task, that matches the filter, among the first tasks of
+	 * the given level. If the level has tasks with deadlines, only its head is
+	 * looked at, as in {@link #pollExclusive(int, int, Predicate)}.
+	 *
+	 * @param level to search in
+	 * @param lookahead the maximum count of tasks to look at
+	 * @param filter the task should match
+	 * @return the found task, that stays in the queue, or null.
+	 */
+	E find (int level, int lookahead, Predicate<? super E> filter) {
+		PriorityQueue<E> deadlineLane = deadlineLanes[level];
+		if (deadlineLane != null && !deadlineLane.isEmpty ()) {
+			E head = deadlineLane.peek ();
+			return filter.test (head) ? head : null;
+		}
+		ArrayDeque<E> lane = lanes[level];
+		if (lane == null) {
+			return null;
+		}
+		int i = 0;
+		for (Iterator<E> it = lane.iterator (); it.hasNext () && i < lookahead; i++) {
+			E e = it.next ();
+			if (filter.test (e)) {
+				return e;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Removes a task found by {@link #find(int, int, Predicate)}, or the head
+	 * of the level.
+	 *
+	 * @param level of the task
+	 * @param e the task, that is in the queue
+	 */
+	void removeTask (int level, E e) {
+		if (e == peekLevel (level)) {
+			pollLevel (level);
+			return;
+		}
+		lanes[level].removeFirstOccurrence (e);
+		size--;
+		updateLevel (level);
+	}
+
+	boolean remove (Object o) {
+		if (!(o instanceof ComparableRunnable)) {
+			return false;
+		}
+		int level = ((ComparableRunnable) o).getPriority ();
+		if (level < 0 || level >= LEVELS) {
+			return false;
+		}
+		if (!(lanes[level] != null && lanes[level].remove (o))
+				&& !(deadlineLanes[level] != null && deadlineLanes[level].remove (o))) {
+			return false;
+		}
+		size--;
+		updateLevel (level);
+		return true;
+	}
+
+	boolean contains (Object o) {
+		if (!(o instanceof ComparableRunnable)) {
+			return false;
+		}
+		int level = ((ComparableRunnable) o).getPriority ();
+		return level >= 0 && level < LEVELS && ((lanes[level] != null && lanes[level].contains (o))
+				|| (deadlineLanes[level] != null && deadlineLanes[level].contains (o)));
+	}
+
+	/**
+	 *
+	 * @return all tasks in the order they would be dequeued.
+	 */
+	Object[] toArray () {
+		Object[] array = new Object[size];
+		int i = 0;
+		long levels = nonEmptyLevels;
+		while (levels != 0) {
+			int level = Long.numberOfTrailingZeros (levels);
+			levels &= levels - 1;
+			PriorityQueue<E> deadlineLane = deadlineLanes[level];
+			if (deadlineLane != null && !deadlineLane.isEmpty ()) {
+				ComparableRunnable[] deadlines = deadlineLane.toArray (new ComparableRunnable[deadlineLane.size ()]);
+				Arrays.sort (deadlines, EARLIEST_DEADLINE);
+				System.arraycopy (deadlines, 0, array, i, deadlines.length);
+				i += deadlines.length;
+			}
+			if (lanes[level] != null) {
+				for (Iterator<E> it = lanes[level].iterator (); it.hasNext ();) {
+					array[i++] = it.next ();
+				}
+			}
+		}
+		return array;
+	}
+
+	void clear () {
+		long levels = nonEmptyLevels;
+		while (levels != 0) {
+			int level = Long.numberOfTrailingZeros (levels);
+			levels &= levels - 1;
+			if (lanes[level] != null) {
+				lanes[level].clear ();
+			}
+			if (deadlineLanes[level] != null) {
+				deadlineLanes[level].clear ();
+			}
+		}
+		nonEmptyLevels = 0;
+		size = 0;
+	}
+
+	@Override
+	public long getHeadSubmissionTime (int level) {
+		return peekLevel (level).getSubmissionTime ();
+	}
+
+	@Override
+	public int getSize (int level) {
+		ArrayDeque<E> lane = lanes[level];
+		PriorityQueue<E> deadlineLane = deadlineLanes[level];
+		return (lane == null ? 0 : lane.size ()) + (deadlineLane == null ? 0 : deadlineLane.size ());
+	}
+
+	long getNonEmptyLevels () {
+		return nonEmptyLevels;
+	}
+
+	int size () {
+		return size;
+	}
+
+	boolean isEmpty () {
+		return size == 0;
+	}
+}
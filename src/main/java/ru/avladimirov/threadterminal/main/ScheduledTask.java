@@ -0,0 +1,192 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A task, that is scheduled in a {@link ThreadTerminal} by one of its
+ * schedule() methods. It waits in the {@link TimerWheel} of the terminal, and
+ * each time it's due, a new terminal task is submitted for it with its name,
+ * priority and exclusivity straight from the thread of the wheel. A periodic
+ * task skips its run, if the previous run is still queued or running, so
+ * the runs never pile up in the queue, and if the queue has no room for it
+ * or drops it later.
+ * <br>
+ * The task itself is the future given to the user: a one-shot task completes
+ * with the result of its callable, a periodic one only by cancellation or
+ * by a failure of a run.
+ *
+ * @author Vladimirov.A.A
+ */
+class ScheduledTask<T> extends FutureTask<T> implements ScheduledFuture<T> {
+
+	private final ThreadTerminal terminal;
+	private final String name;
+	private final int priority;
+	private final boolean exclusively;
+	//0 for a one-shot task, positive for a fixed rate, negative for a fixed delay, in nanoseconds
+	private final long period;
+	//System.nanoTime () of the next run
+	private volatile long time;
+	private volatile TimerWheel.Timer timer;
+	//the terminal task of the last run, null before the first one
+	private volatile Future<?> lastRun;
+
+	/**
+	 *
+	 * @param callable your custom callable
+	 * @param terminal that runs the task
+	 * @param name of the task, may be null
+	 * @param priority of each run
+	 * @param exclusively if true, each run is exclusive
+	 * @param time {@link System#nanoTime()} of the first run
+	 * @param period 0 for a one-shot task, positive for a fixed rate,
+	 * negative for a fixed delay, in nanoseconds
+	 */
+	ScheduledTask (Callable<T> callable, ThreadTerminal terminal, String name, int priority, boolean exclusively, long time, long period) {
+		super (callable);
+		this.terminal = terminal;
+		this.name = name;
+		this.priority = priority;
+		this.exclusively = exclusively;
+		this.time = time;
+		this.period = period;
+	}
+
+	long getTime () {
+		return time;
+	}
+
+	void setTimer (TimerWheel.Timer timer) {
+		this.timer = timer;
+		if (isDone ()) {
+			timer.cancel ();
+		}
+	}
+
+	/**
+	 * Is called by the thread of the timer wheel, when the task is due.
+	 */
+	void fire () {
+		if (isDone ()) {
+			return;
+		}
+		Future<?> last = lastRun;
+		//a fixed delay run schedules the next one itself, so only a fixed rate may pile up
+		if (period > 0 && last != null && !last.isDone ()) {
+			terminal.getTerminalState ().registerSkippedRun ();
+		} else {
+			//the run may be dropped later to make room for another task, then it's never run
+			CompletableFuture<Object> outcome = new CompletableFuture<> ();
+			outcome.whenComplete ((result, failure) -> {
+				if (failure instanceof RejectedExecutionException) {
+					skip ((RejectedExecutionException) failure);
+				}
+			});
+			try {
+				lastRun = terminal.submitRun (new Callable<Object> () {
+
+					@Override
+					public Object call () {
+						runOnce ();
+						return null;
+					}
+				}, name, priority, exclusively, outcome);
+			} catch (RejectedExecutionException ex) {
+				skip (ex);
+				if (period == 0 || isDone ()) {
+					return;
+				}
+			}
+		}
+		if (period > 0) {
+			time += period;
+			scheduleNext ();
+		}
+	}
+
+	/**
+	 * Skips a run, that the queue has no room for: either it's rejected at
+	 * once, or it's dropped from the queue later. A one-shot task fails then,
+	 * a fixed delay task schedules its next run, as the skipped one never
+	 * will.
+	 *
+	 * @param ex the reason of the rejection
+	 */
+	private void skip (RejectedExecutionException ex) {
+		if (isDone ()) {
+			return;
+		}
+		if (terminal.isShutdown ()) {
+			cancel (false);
+			return;
+		}
+		if (period == 0) {
+			setException (ex);
+			return;
+		}
+		terminal.getTerminalState ().registerSkippedRun ();
+		if (period < 0) {
+			time = System.nanoTime () - period;
+			scheduleNext ();
+		}
+	}
+
+	/**
+	 * Runs the callable in a terminal task.
+	 */
+	private void runOnce () {
+		if (period == 0) {
+			run ();
+		} else if (runAndReset () && period < 0) {
+			time = System.nanoTime () - period;
+			scheduleNext ();
+		}
+	}
+
+	private void scheduleNext () {
+		try {
+			terminal.scheduleTimer (this);
+		} catch (RejectedExecutionException ex) {
+			//the terminal is shut down, the task is cancelled already
+		}
+	}
+
+	@Override
+	public boolean cancel (boolean mayInterruptIfRunning) {
+		boolean cancelled = super.cancel (mayInterruptIfRunning);
+		TimerWheel.Timer current = timer;
+		if (current != null) {
+			current.cancel ();
+		}
+		Future<?> last = lastRun;
+		if (cancelled && last != null) {
+			last.cancel (false);
+		}
+		return cancelled;
+	}
+
+	@Override
+	protected void done () {
+		terminal.unregisterScheduled (this);
+	}
+
+	@Override
+	public long getDelay (TimeUnit unit) {
+		return unit.convert (time - System.nanoTime (), TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public int compareTo (Delayed another) {
+		if (another == this) {
+			return 0;
+		}
+		return Long.compare (getDelay (TimeUnit.NANOSECONDS), another.getDelay (TimeUnit.NANOSECONDS));
+	}
+}
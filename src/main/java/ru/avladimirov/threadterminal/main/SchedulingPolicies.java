@@ -0,0 +1,63 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A static class for obtaining instances of {@link SchedulingPolicy}. Each
+ * call returns a new instance, that should be used by a single terminal.
+ *
+ * @author Vladimirov.A.A
+ */
+public final class SchedulingPolicies {
+
+	private SchedulingPolicies () {
+	}
+
+	/**
+	 * The default policy: higher levels always go first.
+	 *
+	 * @return a new strict priority policy.
+	 */
+	public static SchedulingPolicy strictPriority () {
+		return new StrictPriorityPolicy ();
+	}
+
+	/**
+	 * A policy that promotes waiting tasks by one level for each interval
+	 * they have waited in the queue.
+	 *
+	 * @param promotionInterval the time of waiting, that promotes a task by
+	 * one level.
+	 * @param unit the time unit of the interval
+	 * @return a new aging policy.
+	 */
+	public static SchedulingPolicy aging (long promotionInterval, TimeUnit unit) {
+		return new AgingPolicy (unit.toNanos (promotionInterval));
+	}
+
+	/**
+	 * A policy of weighted fair queueing across levels.
+	 *
+	 * @param weights of the levels starting from
+	 * {@link Priority#HIGHEST_LEVEL}, each from 1 to 65536. The levels
+	 * beyond the array get the weight of 1.
+	 * @return a new weighted fair policy.
+	 */
+	public static SchedulingPolicy weightedFair (int... weights) {
+		return new WeightedFairPolicy (weights);
+	}
+
+	/**
+	 * A policy of weighted fair queueing across levels, where each level has
+	 * a half of the weight of the level above it, down to the weight of 1.
+	 *
+	 * @return a new weighted fair policy.
+	 */
+	public static SchedulingPolicy weightedFair () {
+		int[] weights = new int[RunQueue.LEVELS];
+		for (int level = 0; level < weights.length; level++) {
+			weights[level] = level < 16 ? WeightedFairPolicy.MAX_WEIGHT >> level : 1;
+		}
+		return new WeightedFairPolicy (weights);
+	}
+}
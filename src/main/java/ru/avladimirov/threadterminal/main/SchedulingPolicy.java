@@ -0,0 +1,55 @@
+package ru.avladimirov.threadterminal.main;
+
+/**
+ * A policy, that decides which priority level the next task is taken from.
+ * It is consulted by the {@link PEBQueue} each time a worker asks for a task,
+ * always under the queue lock, so an implementation may keep its own state
+ * without any synchronization. Thus an instance should never be shared between
+ * terminals.
+ * <br>
+ * The ready-made policies are obtained from {@link SchedulingPolicies}.
+ *
+ * @author Vladimirov.A.A
+ */
+public interface SchedulingPolicy {
+
+	/**
+	 *
+	 * @param nonEmptyLevels a bitmap of levels, that have tasks: bit N is set if
+	 * there is a task of the level N. Is never zero.
+	 * @param levels gives access to the queued tasks of each level.
+	 * @return one of the non-empty levels.
+	 */
+	public int selectLevel (long nonEmptyLevels, LevelView levels);
+
+	/**
+	 * Is called when a task of the selected level is actually taken from the
+	 * queue. The head of the selected level may stay in the queue, when it's
+	 * not allowed to be executed yet due to exclusivity.
+	 *
+	 * @param level of the taken task.
+	 */
+	default public void dispatched (int level) {
+	}
+
+	/**
+	 * A read-only view of the queued tasks, grouped by their priority levels.
+	 */
+	public interface LevelView {
+
+		/**
+		 *
+		 * @param level a non-empty priority level
+		 * @return {@link System#nanoTime()} of the submission of the oldest task
+		 * of the level.
+		 */
+		public long getHeadSubmissionTime (int level);
+
+		/**
+		 *
+		 * @param level a priority level
+		 * @return the count of queued tasks of the level.
+		 */
+		public int getSize (int level);
+	}
+}
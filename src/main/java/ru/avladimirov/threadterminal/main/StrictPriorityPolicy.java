@@ -0,0 +1,16 @@
+package ru.avladimirov.threadterminal.main;
+
+/**
+ * The default {@link SchedulingPolicy}: a task is taken from the highest
+ * non-empty level, so a steady stream of high priority tasks may hold back
+ * lower levels indefinitely.
+ *
+ * @author Vladimirov.A.A
+ */
+class StrictPriorityPolicy implements SchedulingPolicy {
+
+	@Override
+	public int selectLevel (long nonEmptyLevels, LevelView levels) {
+		return Long.numberOfTrailingZeros (nonEmptyLevels);
+	}
+}
@@ -0,0 +1,294 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A graph of named tasks, that depend on each other, to be executed by
+ * {@link ThreadTerminal#submitGraph(TaskGraph)}. Each task has its own
+ * priority and exclusivity, and it's put to the queue of the terminal only
+ * once all of its predecessors are done, so no worker waits for another
+ * task. A task gets the results of its predecessors from their futures,
+ * returned by add(): they are completed by then, so join() doesn't wait.
+ * <br>
+ * The predecessors of a task should be added before it, so the graph never
+ * has a cycle. Each task has a cost, 1 by default, and the rank of a task is
+ * the longest sum of costs on a path from it to the end of the graph. The
+ * tasks, that get ready at once, are put to the queue by their ranks, the
+ * highest first, so inside a priority level the critical path goes ahead.
+ * <br>
+ * If a task fails or is cancelled, its dependents are never started: their
+ * futures fail with a {@link CompletionException} caused by the same
+ * exception, and so do their own dependents.
+ * <br>
+ * A graph can be submitted only once, and no tasks can be added to it after
+ * that.
+ *
+ * @author Vladimirov.A.A
+ */
+public final class TaskGraph {
+
+	//the highest rank goes first, then the order of adding
+	private static final Comparator<Node<?>> CRITICAL_PATH = new Comparator<Node<?>> () {
+
+		@Override
+		public int compare (Node<?> a, Node<?> b) {
+			int rank = Long.compare (b.rank, a.rank);
+			return rank != 0 ? rank : Integer.compare (a.index, b.index);
+		}
+	};
+
+	//in the order of adding, which is a topological order
+	private final LinkedHashMap<String, Node<?>> nodes = new LinkedHashMap<> ();
+	private ThreadTerminal terminal;
+
+	/**
+	 * Adds a task with the cost of 1, see
+	 * {@link #add(String, Callable, int, boolean, long, String...)}.
+	 *
+	 * @param <T> the type of the callable's returned result
+	 * @param name of the task, unique in the graph
+	 * @param callable a standard callable to be executed
+	 * @param priority can be one of {@link Priority} levels
+	 * @param exclusively if true, it will be executed exclusively
+	 * @param predecessors names of the tasks, that should be done before it
+	 * @return a future, that is completed by the task.
+	 */
+	public <T> CompletableFuture<T> add (String name, Callable<T> callable, Priority priority, boolean exclusively, String... predecessors) {
+		return add (name, callable, priority.getValue (), exclusively, 1, predecessors);
+	}
+
+	/**
+	 * Adds a task with the cost of 1, see
+	 * {@link #add(String, Callable, int, boolean, long, String...)}.
+	 *
+	 * @param <T> the type of the callable's returned result
+	 * @param name of the task, unique in the graph
+	 * @param callable a standard callable to be executed
+	 * @param priority from {@link Priority#HIGHEST_LEVEL} to
+	 * {@link Priority#LOWEST_LEVEL}
+	 * @param exclusively if true, it will be executed exclusively
+	 * @param predecessors names of the tasks, that should be done before it
+	 * @return a future, that is completed by the task.
+	 */
+	public <T> CompletableFuture<T> add (String name, Callable<T> callable, int priority, boolean exclusively, String... predecessors) {
+		return add (name, callable, priority, exclusively, 1, predecessors);
+	}
+
+	/**
+	 * Adds a task, that will be put to the queue, when all of its
+	 * predecessors are done.
+	 *
+	 * @param <T> the type of the callable's returned result
+	 * @param name of the task, unique in the graph
+	 * @param callable a standard callable to be executed
+	 * @param priority from {@link Priority#HIGHEST_LEVEL} to
+	 * {@link Priority#LOWEST_LEVEL}
+	 * @param exclusively if true, it will be executed exclusively
+	 * @param cost an estimate of the task's duration in any units, common for
+	 * the graph, is used for ranking the tasks
+	 * @param predecessors names of the tasks, that should be done before it,
+	 * they should be added already
+	 * @return a future, that is completed by the task.
+	 * @throws IllegalArgumentException if the name is already used, a
+	 * predecessor is not added, the priority is out of range or the cost is
+	 * negative.
+	 * @throws IllegalStateException if the graph is submitted already.
+	 */
+	public synchronized <T> CompletableFuture<T> add (String name, Callable<T> callable, int priority, boolean exclusively, long cost, String... predecessors) {
+		if (name == null || callable == null) {
+			throw new NullPointerException ();
+		}
+		if (terminal != null) {
+			throw new IllegalStateException ("the graph is submitted already");
+		}
+		if (nodes.containsKey (name)) {
+			throw new IllegalArgumentException ("the graph has a task named " + name + " already");
+		}
+		if (priority < Priority.HIGHEST_LEVEL || priority > Priority.LOWEST_LEVEL) {
+			throw new IllegalArgumentException ("priority should be from " + Priority.HIGHEST_LEVEL
+					+ " to " + Priority.LOWEST_LEVEL + ": " + priority);
+		}
+		if (cost < 0) {
+			throw new IllegalArgumentException ("cost should not be negative: " + cost);
+		}
+		List<Node<?>> inputs = new ArrayList<> (predecessors.length);
+		for (String predecessor : predecessors) {
+			Node<?> input = nodes.get (predecessor);
+			if (input == null) {
+				throw new IllegalArgumentException ("the predecessor " + predecessor + " of " + name + " should be added first");
+			}
+			inputs.add (input);
+		}
+		Node<T> node = new Node<> (name, callable, priority, exclusively, cost, nodes.size (), inputs.size ());
+		for (Node<?> input : inputs) {
+			input.successors.add (node);
+		}
+		nodes.put (name, node);
+		return node.future;
+	}
+
+	/**
+	 *
+	 * @param name of the task
+	 * @return the future of the task, or null if there is no such task.
+	 */
+	public synchronized CompletableFuture<?> getFuture (String name) {
+		Node<?> node = nodes.get (name);
+		return node != null ? node.future : null;
+	}
+
+	/**
+	 *
+	 * @param name of the task
+	 * @return the rank of the task: the longest sum of costs on a path from
+	 * it to the end of the graph, or -1 if there is no such task.
+	 */
+	public synchronized long getRank (String name) {
+		Node<?> node = nodes.get (name);
+		if (node == null) {
+			return -1;
+		}
+		if (terminal == null) {
+			rank ();
+		}
+		return node.rank;
+	}
+
+	/**
+	 * Ranks the tasks and puts the ones without predecessors to the queue.
+	 *
+	 * @param terminal that executes the graph
+	 * @return a future, that is completed when all tasks are done.
+	 */
+	synchronized CompletableFuture<Void> submit (ThreadTerminal terminal) {
+		if (this.terminal != null) {
+			throw new IllegalStateException ("the graph is submitted already");
+		}
+		this.terminal = terminal;
+		rank ();
+		List<Node<?>> roots = new ArrayList<> ();
+		List<CompletableFuture<?>> futures = new ArrayList<> (nodes.size ());
+		for (Node<?> node : nodes.values ()) {
+			if (node.remaining.get () == 0) {
+				roots.add (node);
+			}
+			futures.add (node.future);
+			node.listen ();
+		}
+		release (roots);
+		return CompletableFuture.allOf (futures.toArray (new CompletableFuture<?>[futures.size ()]));
+	}
+
+	/**
+	 * The successors of a task are added after it, so the ranks are counted
+	 * in the reverse order of adding.
+	 */
+	private void rank () {
+		List<Node<?>> order = new ArrayList<> (nodes.values ());
+		for (int i = order.size () - 1; i >= 0; i--) {
+			Node<?> node = order.get (i);
+			long longest = 0;
+			for (Node<?> successor : node.successors) {
+				longest = Math.max (longest, successor.rank);
+			}
+			node.rank = node.cost + longest;
+		}
+	}
+
+	/**
+	 * Puts the ready tasks to the queue, the critical path first.
+	 */
+	private void release (List<Node<?>> ready) {
+		if (ready.size () > 1) {
+			Collections.sort (ready, CRITICAL_PATH);
+		}
+		for (Node<?> node : ready) {
+			node.start ();
+		}
+	}
+
+	/**
+	 * A task of the graph.
+	 */
+	private final class Node<T> {
+
+		private final String name;
+		private final Callable<T> callable;
+		private final int priority;
+		private final boolean exclusively;
+		private final long cost;
+		private final int index;
+		private final List<Node<?>> successors = new ArrayList<> ();
+		//predecessors, that are not done yet
+		private final AtomicInteger remaining;
+		//set when the task is either submitted or failed by a predecessor
+		private final AtomicBoolean settled = new AtomicBoolean (false);
+		private final TerminalFuture<T> future = new TerminalFuture<> ();
+		private long rank;
+
+		Node (String name, Callable<T> callable, int priority, boolean exclusively, long cost, int index, int predecessors) {
+			this.name = name;
+			this.callable = callable;
+			this.priority = priority;
+			this.exclusively = exclusively;
+			this.cost = cost;
+			this.index = index;
+			this.remaining = new AtomicInteger (predecessors);
+		}
+
+		/**
+		 * Releases or fails the successors, when the task completes. Runs in
+		 * the thread, that completes the task, usually its worker.
+		 */
+		void listen () {
+			future.whenComplete ((result, failure) -> {
+				if (failure != null) {
+					Throwable cause = failure instanceof CompletionException ? failure : new CompletionException (failure);
+					for (Node<?> successor : successors) {
+						successor.fail (cause);
+					}
+					return;
+				}
+				List<Node<?>> ready = null;
+				for (Node<?> successor : successors) {
+					if (successor.remaining.decrementAndGet () == 0) {
+						if (ready == null) {
+							ready = new ArrayList<> ();
+						}
+						ready.add (successor);
+					}
+				}
+				if (ready != null) {
+					release (ready);
+				}
+			});
+		}
+
+		void start () {
+			if (!settled.compareAndSet (false, true) || future.isDone ()) {
+				return;
+			}
+			try {
+				terminal.submitAsync (callable, name, priority, exclusively, future);
+			} catch (RejectedExecutionException ex) {
+				future.completeExceptionally (ex);
+			}
+		}
+
+		void fail (Throwable cause) {
+			if (settled.compareAndSet (false, true)) {
+				future.completeExceptionally (cause);
+			}
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package ru.avladimirov.threadterminal.main;
+
+/**
+ * An enum for defining how a finished task has ended.
+ *
+ * @author Vladimirov.A.A
+ */
+public enum TaskOutcome {
+
+	/**
+	 * The task has returned its result.
+	 */
+	SUCCEEDED,
+	/**
+	 * The task has thrown an exception.
+	 */
+	FAILED,;
+}
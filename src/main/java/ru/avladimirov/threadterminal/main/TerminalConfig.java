@@ -0,0 +1,427 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional settings of a {@link ThreadTerminal}, that are applied when it's
+ * created by {@link Terminals#newThreadTerminal(String, int, TerminalConfig)}.
+ * All setters return the config itself, so that they can be chained. Each
+ * setting has a default value, that is used if it's not set.
+ *
+ * @author Vladimirov.A.A
+ */
+public final class TerminalConfig {
+
+	private GateMode gateMode = GateMode.LOCK_FREE;
+	private SchedulingPolicy schedulingPolicy = null;
+	private boolean nameTracking = false;
+	private int journalCapacity = FinishedJournal.MIN_CAPACITY;
+	private TraceSink traceSink = null;
+	private ExecutionMode executionMode = ExecutionMode.PLATFORM_THREADS;
+	private int exclusiveEpochBudget = 1;
+	//0 if the pool size is fixed
+	private int minPoolSize = 0;
+	private int maxPoolSize = 0;
+	private long adaptiveInterval = TimeUnit.SECONDS.toNanos (1);
+	private long targetQueueWait = TimeUnit.MILLISECONDS.toNanos (10);
+	//null if the queue is unbounded
+	private int[] queueCapacities = null;
+	private OverflowPolicy overflowPolicy = OverflowPolicy.REJECT;
+	//by levels and by name prefixes, in the order of setting
+	private final List<RateLimit> rateLimits = new ArrayList<> ();
+
+	public GateMode getGateMode () {
+		return gateMode;
+	}
+
+	/**
+	 *
+	 * @param gateMode the way task transitions are registered around the
+	 * exclusive gate, {@link GateMode#LOCK_FREE} by default.
+	 * @return this config
+	 */
+	public TerminalConfig setGateMode (GateMode gateMode) {
+		this.gateMode = gateMode;
+		return this;
+	}
+
+	/**
+	 *
+	 * @return the policy set, or a new strict priority policy if none is set.
+	 */
+	SchedulingPolicy newSchedulingPolicy () {
+		return schedulingPolicy != null ? schedulingPolicy : SchedulingPolicies.strictPriority ();
+	}
+
+	/**
+	 *
+	 * @param schedulingPolicy decides which priority level the next task is
+	 * taken from, {@link SchedulingPolicies#strictPriority()} by default. As
+	 * a policy may have its own state, a config with a policy set should be
+	 * used for a single terminal.
+	 * @return this config
+	 */
+	public TerminalConfig setSchedulingPolicy (SchedulingPolicy schedulingPolicy) {
+		this.schedulingPolicy = schedulingPolicy;
+		return this;
+	}
+
+	public boolean isNameTracking () {
+		return nameTracking;
+	}
+
+	/**
+	 *
+	 * @param nameTracking if true, the {@link TerminalState} keeps the names of
+	 * pending and active tasks under a lock of their own, false by default:
+	 * then only task counters and the journal of finished tasks are kept.
+	 * @return this config
+	 */
+	public TerminalConfig setNameTracking (boolean nameTracking) {
+		this.nameTracking = nameTracking;
+		return this;
+	}
+
+	public int getJournalCapacity () {
+		return journalCapacity;
+	}
+
+	/**
+	 *
+	 * @param journalCapacity the count of the latest finished tasks, that are
+	 * kept in the journal of the {@link TerminalState}, from 100 (by default)
+	 * to 1000000. The journal is allocated at once.
+	 * @return this config
+	 * @throws IllegalArgumentException if the capacity is out of range.
+	 */
+	public TerminalConfig setJournalCapacity (int journalCapacity) {
+		if (journalCapacity < FinishedJournal.MIN_CAPACITY || journalCapacity > FinishedJournal.MAX_CAPACITY) {
+			throw new IllegalArgumentException ("journal capacity should be from " + FinishedJournal.MIN_CAPACITY
+					+ " to " + FinishedJournal.MAX_CAPACITY + ": " + journalCapacity);
+		}
+		this.journalCapacity = journalCapacity;
+		return this;
+	}
+
+	public TraceSink getTraceSink () {
+		return traceSink;
+	}
+
+	/**
+	 *
+	 * @param traceSink receives lifecycle events of all tasks of the terminal
+	 * from its background thread, null by default: then the events are not
+	 * recorded at all.
+	 * @return this config
+	 * @see Log4jTraceSink
+	 */
+	public TerminalConfig setTraceSink (TraceSink traceSink) {
+		this.traceSink = traceSink;
+		return this;
+	}
+
+	public ExecutionMode getExecutionMode () {
+		return executionMode;
+	}
+
+	/**
+	 *
+	 * @param executionMode what threads the tasks are run in,
+	 * {@link ExecutionMode#PLATFORM_THREADS} by default.
+	 * {@link ExecutionMode#VIRTUAL_THREADS} needs Java 21 or later,
+	 * {@link ExecutionMode#WORK_STEALING} runs the tasks in a fork-join pool.
+	 * @return this config
+	 */
+	public TerminalConfig setExecutionMode (ExecutionMode executionMode) {
+		this.executionMode = executionMode;
+		return this;
+	}
+
+	public int getExclusiveEpochBudget () {
+		return exclusiveEpochBudget;
+	}
+
+	/**
+	 *
+	 * @param exclusiveEpochBudget the maximum count of exclusive tasks, that
+	 * run one after another in a single epoch, 1 by default: then the gate
+	 * reopens after each exclusive task. In an epoch the gate passes straight
+	 * to the next exclusive task near the head of the queue, even if some
+	 * usual tasks are ahead of it, so the pool drains once per epoch.
+	 * @return this config
+	 * @throws IllegalArgumentException if the budget is less than 1.
+	 */
+	public TerminalConfig setExclusiveEpochBudget (int exclusiveEpochBudget) {
+		if (exclusiveEpochBudget < 1) {
+			throw new IllegalArgumentException ("exclusive epoch budget should be at least 1: " + exclusiveEpochBudget);
+		}
+		this.exclusiveEpochBudget = exclusiveEpochBudget;
+		return this;
+	}
+
+	/**
+	 *
+	 * @return true if the pool is resized by the adaptive controller.
+	 */
+	public boolean isAdaptivePoolSize () {
+		return maxPoolSize > 0;
+	}
+
+	public int getMinPoolSize () {
+		return minPoolSize;
+	}
+
+	public int getMaxPoolSize () {
+		return maxPoolSize;
+	}
+
+	/**
+	 *
+	 * @param minPoolSize the lower bound of the pool size
+	 * @param maxPoolSize the upper bound of the pool size. The pool size of
+	 * the terminal should be within the bounds, it's the initial one. A
+	 * terminal in the {@link ExecutionMode#WORK_STEALING} mode rejects the
+	 * adaptive sizing, as its size is fixed.
+	 * @return this config
+	 * @throws IllegalArgumentException if the bounds are wrong.
+	 * @see ThreadTerminal#setPoolSize(int)
+	 */
+	public TerminalConfig setAdaptivePoolSize (int minPoolSize, int maxPoolSize) {
+		if (minPoolSize < 1 || maxPoolSize < minPoolSize) {
+			throw new IllegalArgumentException ("pool size bounds should be 1 <= min <= max: " + minPoolSize + ", " + maxPoolSize);
+		}
+		this.minPoolSize = minPoolSize;
+		this.maxPoolSize = maxPoolSize;
+		return this;
+	}
+
+	/**
+	 *
+	 * @param unit of the result
+	 * @return the interval between the decisions of the adaptive controller.
+	 */
+	public long getAdaptiveInterval (TimeUnit unit) {
+		return unit.convert (adaptiveInterval, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 *
+	 * @param interval between the decisions of the adaptive controller, 1
+	 * second by default
+	 * @param unit of the interval
+	 * @return this config
+	 * @throws IllegalArgumentException if the interval is not positive.
+	 */
+	public TerminalConfig setAdaptiveInterval (long interval, TimeUnit unit) {
+		if (interval <= 0) {
+			throw new IllegalArgumentException ("adaptive interval should be positive: " + interval);
+		}
+		this.adaptiveInterval = unit.toNanos (interval);
+		return this;
+	}
+
+	/**
+	 *
+	 * @param unit of the result
+	 * @return the average queue wait, above which the pool grows.
+	 */
+	public long getTargetQueueWait (TimeUnit unit) {
+		return unit.convert (targetQueueWait, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 *
+	 * @param targetQueueWait the average queue wait, above which the
+	 * adaptive controller grows the pool, if tasks are queued, 10 ms by
+	 * default
+	 * @param unit of the wait
+	 * @return this config
+	 * @throws IllegalArgumentException if the wait is negative.
+	 */
+	public TerminalConfig setTargetQueueWait (long targetQueueWait, TimeUnit unit) {
+		if (targetQueueWait < 0) {
+			throw new IllegalArgumentException ("target queue wait should not be negative: " + targetQueueWait);
+		}
+		this.targetQueueWait = unit.toNanos (targetQueueWait);
+		return this;
+	}
+
+	/**
+	 *
+	 * @param level a priority level
+	 * @return the capacity of the level, or {@link Integer#MAX_VALUE} if it's
+	 * unbounded.
+	 */
+	public int getQueueCapacity (int level) {
+		return queueCapacities != null && queueCapacities[level] > 0 ? queueCapacities[level] : Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Sets the capacity of a level, see {@link #setQueueCapacity(int, int)}.
+	 *
+	 * @param priority one of {@link Priority} levels
+	 * @param capacity the maximum count of queued tasks of the level and the
+	 * lower ones
+	 * @return this config
+	 */
+	public TerminalConfig setQueueCapacity (Priority priority, int capacity) {
+		return setQueueCapacity (priority.getValue (), capacity);
+	}
+
+	/**
+	 * Bounds the queue: the capacity of a level is the maximum count of
+	 * queued tasks of that level and all the lower ones, so the lower levels
+	 * can't take the room of the higher ones. E.g. with the capacity of 1000
+	 * for {@link Priority#HIGH} and of 200 for {@link Priority#LOW} there are
+	 * at most 1000 queued tasks, and at most 200 of them are low. Levels are
+	 * unbounded by default, and a task, that overflows any capacity, is
+	 * handled by the {@link OverflowPolicy}. Only the tasks waiting for their
+	 * turn are counted: neither the ones waiting at the exclusive gate, nor
+	 * the active ones.
+	 *
+	 * @param level from {@link Priority#HIGHEST_LEVEL} to
+	 * {@link Priority#LOWEST_LEVEL}
+	 * @param capacity the maximum count of queued tasks of the level and the
+	 * lower ones
+	 * @return this config
+	 * @throws IllegalArgumentException if the level is out of range or the
+	 * capacity is less than 1.
+	 */
+	public TerminalConfig setQueueCapacity (int level, int capacity) {
+		if (level < Priority.HIGHEST_LEVEL || level > Priority.LOWEST_LEVEL) {
+			throw new IllegalArgumentException ("priority should be from " + Priority.HIGHEST_LEVEL
+					+ " to " + Priority.LOWEST_LEVEL + ": " + level);
+		}
+		if (capacity < 1) {
+			throw new IllegalArgumentException ("queue capacity should be at least 1: " + capacity);
+		}
+		if (queueCapacities == null) {
+			queueCapacities = new int[Priority.LOWEST_LEVEL + 1];
+		}
+		queueCapacities[level] = capacity;
+		return this;
+	}
+
+	/**
+	 *
+	 * @return a copy of the capacities by levels, 0 for an unbounded level,
+	 * or null if the queue is unbounded.
+	 */
+	int[] getQueueCapacities () {
+		return queueCapacities != null ? queueCapacities.clone () : null;
+	}
+
+	public OverflowPolicy getOverflowPolicy () {
+		return overflowPolicy;
+	}
+
+	/**
+	 *
+	 * @param overflowPolicy what is done with a task, that has no room in the
+	 * queue, {@link OverflowPolicy#REJECT} by default.
+	 * @return this config
+	 */
+	public TerminalConfig setOverflowPolicy (OverflowPolicy overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+		return this;
+	}
+
+	/**
+	 *
+	 * @return the rate limits set, in the order of setting.
+	 */
+	public List<RateLimit> getRateLimits () {
+		return Collections.unmodifiableList (new ArrayList<> (rateLimits));
+	}
+
+	/**
+	 * Limits the rate of a level, see
+	 * {@link #setRateLimit(int, double, int)}.
+	 *
+	 * @param priority one of {@link Priority} levels
+	 * @param permitsPerSecond the sustained rate of the tasks of the level
+	 * @param burst the count of tasks, that may be dispatched at once
+	 * @return this config
+	 */
+	public TerminalConfig setRateLimit (Priority priority, double permitsPerSecond, int burst) {
+		return setRateLimit (priority.getValue (), permitsPerSecond, burst);
+	}
+
+	/**
+	 * Limits the rate, at which the tasks of a level are dispatched, by a
+	 * token bucket: up to the burst of tasks at once, and then one per
+	 * 1/permitsPerSecond of a second. A task, that has no permit, stays in the
+	 * queue, and the worker takes the next permitted task of any level
+	 * instead, so no worker sleeps for a permit. The tasks, that bypass the
+	 * queue (see {@link OverflowPolicy#CALLER_RUNS} and
+	 * {@link ExecutionMode#WORK_STEALING}), are queued, if a limit applies to
+	 * them. Setting a limit of the same level again replaces it.
+	 *
+	 * @param level from {@link Priority#HIGHEST_LEVEL} to
+	 * {@link Priority#LOWEST_LEVEL}
+	 * @param permitsPerSecond the sustained rate of the tasks of the level
+	 * @param burst the count of tasks, that may be dispatched at once
+	 * @return this config
+	 * @throws IllegalArgumentException if the level is out of range, the rate
+	 * is not positive or the burst is less than 1.
+	 */
+	public TerminalConfig setRateLimit (int level, double permitsPerSecond, int burst) {
+		if (level < Priority.HIGHEST_LEVEL || level > Priority.LOWEST_LEVEL) {
+			throw new IllegalArgumentException ("priority should be from " + Priority.HIGHEST_LEVEL
+					+ " to " + Priority.LOWEST_LEVEL + ": " + level);
+		}
+		return putRateLimit (new RateLimit (level, null, permitsPerSecond, burst));
+	}
+
+	/**
+	 * Limits the rate, at which the tasks, which names start with the prefix,
+	 * are dispatched, whatever their levels are, see
+	 * {@link #setRateLimit(int, double, int)}. A task is limited by the
+	 * longest of the prefixes of its name, and by the limit of its level as
+	 * well. Setting a limit of the same prefix again replaces it.
+	 *
+	 * @param namePrefix the start of the names of the limited tasks
+	 * @param permitsPerSecond the sustained rate of the tasks
+	 * @param burst the count of tasks, that may be dispatched at once
+	 * @return this config
+	 * @throws IllegalArgumentException if the prefix is empty, the rate is
+	 * not positive or the burst is less than 1.
+	 */
+	public TerminalConfig setRateLimit (String namePrefix, double permitsPerSecond, int burst) {
+		if (namePrefix.isEmpty ()) {
+			throw new IllegalArgumentException ("name prefix should not be empty");
+		}
+		return putRateLimit (new RateLimit (-1, namePrefix, permitsPerSecond, burst));
+	}
+
+	private TerminalConfig putRateLimit (RateLimit limit) {
+		if (!(limit.getPermitsPerSecond () > 0)) {
+			throw new IllegalArgumentException ("permits per second should be positive: " + limit.getPermitsPerSecond ());
+		}
+		if (limit.getBurst () < 1) {
+			throw new IllegalArgumentException ("burst should be at least 1: " + limit.getBurst ());
+		}
+		for (int i = 0; i < rateLimits.size (); i++) {
+			RateLimit set = rateLimits.get (i);
+			if (limit.getNamePrefix () != null ? limit.getNamePrefix ().equals (set.getNamePrefix ())
+					: set.getNamePrefix () == null && set.getLevel () == limit.getLevel ()) {
+				rateLimits.set (i, limit);
+				return this;
+			}
+		}
+		rateLimits.add (limit);
+		return this;
+	}
+
+	/**
+	 *
+	 * @param terminalState counts the throttled tasks
+	 * @return new buckets of the rate limits, or null if none is set.
+	 */
+	RateLimits newRateLimits (TerminalState terminalState) {
+		return rateLimits.isEmpty () ? null : new RateLimits (rateLimits, terminalState);
+	}
+}
@@ -0,0 +1,62 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An executor of a {@link ThreadTerminal}. All its implementations take
+ * tasks from the same {@link PEBQueue}, so they differ only in the threads,
+ * that run the tasks.
+ *
+ * @author Vladimirov.A.A
+ */
+interface TerminalExecutor extends ExecutorService {
+
+	/**
+	 * Puts all the tasks to the queue at once. The tasks should be already
+	 * registered in the {@link TerminalState}.
+	 *
+	 * @param tasks to be executed
+	 * @throws java.util.concurrent.RejectedExecutionException if the executor
+	 * is shut down, or the queue has no room for all of them: then none of the
+	 * tasks is executed.
+	 */
+	void executeAll (List<? extends ComparableRunnable> tasks);
+
+	/**
+	 * Puts the task to the queue, waiting for room up to the timeout, whatever
+	 * the {@link OverflowPolicy} is. The task should be already registered in
+	 * the {@link TerminalState}.
+	 *
+	 * @param task to be executed
+	 * @param timeout how long to wait for room
+	 * @param unit of the timeout
+	 * @throws java.util.concurrent.RejectedExecutionException if the executor
+	 * is shut down, or there is still no room by the timeout.
+	 * @throws InterruptedException if interrupted while waiting: then the task
+	 * is not executed either.
+	 */
+	void execute (ComparableRunnable task, long timeout, TimeUnit unit) throws InterruptedException;
+
+	/**
+	 * Changes the count of threads or permits, that the tasks run with.
+	 * Workers are never added around the queue, so the new ones wait for the
+	 * gate as the others do, and the removed ones leave only when they are
+	 * idle, so an active task, exclusive or not, is never interrupted.
+	 *
+	 * @param poolSize the new size, at least 1
+	 * @throws UnsupportedOperationException if the size of the executor is
+	 * fixed.
+	 */
+	void setPoolSize (int poolSize);
+
+	/**
+	 * A worker may hold the gate or a permit, that the room in the queue
+	 * depends on, e.g. while it completes the continuations of its task, so
+	 * it should never wait for room.
+	 *
+	 * @return true if the current thread runs the tasks of this executor.
+	 */
+	boolean isWorkerThread ();
+}
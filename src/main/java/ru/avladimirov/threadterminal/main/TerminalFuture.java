@@ -0,0 +1,44 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link CompletableFuture} of a terminal task, returned by
+ * {@link ThreadTerminal#submitAsync(java.util.concurrent.Callable, String, Priority, boolean)}
+ * and {@link ThreadTerminal#thenSubmit(java.util.concurrent.CompletionStage, java.util.function.Function, String, Priority, boolean)}.
+ * It's completed by the task itself, in the thread that has executed it, so
+ * the continuations don't bounce through another executor. Cancelling the
+ * future cancels the task, if it's not started yet.
+ * <br>
+ * A continuation gets its task only when its parent completes, so the task
+ * may be set after the future is cancelled: then it's cancelled at once.
+ *
+ * @author Vladimirov.A.A
+ */
+class TerminalFuture<T> extends CompletableFuture<T> {
+
+	//null until the task is submitted
+	private volatile Future<T> task;
+
+	/**
+	 *
+	 * @param task that completes this future
+	 */
+	void setTask (Future<T> task) {
+		this.task = task;
+		if (isCancelled ()) {
+			task.cancel (false);
+		}
+	}
+
+	@Override
+	public boolean cancel (boolean mayInterruptIfRunning) {
+		boolean cancelled = super.cancel (mayInterruptIfRunning);
+		Future<T> current = task;
+		if (cancelled && current != null) {
+			current.cancel (mayInterruptIfRunning);
+		}
+		return cancelled;
+	}
+}
@@ -0,0 +1,363 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A lightweight snapshot of a {@link ThreadTerminal} inner state, obtained by
+ * {@link ThreadTerminal#snapshotTerminalState(TerminalSnapshot)}. It is taken
+ * without any locking, and the same instance can be passed again and again to
+ * be refilled, so that frequent polling produces no garbage.
+ * <br>
+ * The terminal keeps only monotonic counters of task transitions (submitted,
+ * taken from the queue, started and finished ones), and all other counts are
+ * derived from them. The counters are read from the latest to the earliest
+ * transition, so none of the derived counts is ever negative, and the sum of
+ * queued, pending, active, finished, expired, rejected and dropped tasks
+ * always equals the count of submitted ones. The counters are re-read until
+ * two readings give the same version - the total count of transitions - which
+ * means that the snapshot corresponds to a single moment. Under a heavy load
+ * the reader backs off between the attempts, and if the counters still keep
+ * changing, the last reading is taken and the snapshot is marked as not
+ * consistent (see {@link #isConsistent()}).
+ * <br>
+ * Tasks and their labels are not copied: they are materialized from the
+ * terminal only when asked for, by the time of the call.
+ *
+ * @author Vladimirov.A.A
+ */
+public final class TerminalSnapshot {
+
+	private TerminalState origin;
+	private long version;
+	private long submittedTasksCount;
+	private long dequeuedTasksCount;
+	private long expiredTasksCount;
+	private long rejectedTasksCount;
+	private long droppedTasksCount;
+	private long startedUsuals;
+	private long startedExclusives;
+	private long finishedUsuals;
+	private long finishedExclusives;
+	private long createdThreadsCount;
+	private long exclusiveCreatedThreadsCount;
+	private long journalTail;
+	private long exclusiveHandoversCount;
+	private long savedDrainsCount;
+	private long coalescedSubmissionsCount;
+	private long replacedCallablesCount;
+	private long skippedPeriodicRunsCount;
+	private long onTimeTasksCount;
+	private long lateTasksCount;
+	private int poolSize;
+	private long poolResizesCount;
+	private long callerRunsCount;
+	private long throttledTasksCount;
+	private long throttleWaitNanos;
+	private boolean consistent;
+
+	/**
+	 * Creates an empty snapshot, that should be filled by
+	 * {@link ThreadTerminal#snapshotTerminalState(TerminalSnapshot)}.
+	 */
+	public TerminalSnapshot () {
+	}
+
+	void set (TerminalState origin, long version, long submittedTasksCount, long dequeuedTasksCount, long expiredTasksCount,
+			long rejectedTasksCount, long droppedTasksCount,
+			long startedUsuals, long startedExclusives, long finishedUsuals, long finishedExclusives) {
+		this.origin = origin;
+		this.version = version;
+		this.submittedTasksCount = submittedTasksCount;
+		this.dequeuedTasksCount = dequeuedTasksCount;
+		this.expiredTasksCount = expiredTasksCount;
+		this.rejectedTasksCount = rejectedTasksCount;
+		this.droppedTasksCount = droppedTasksCount;
+		this.startedUsuals = startedUsuals;
+		this.startedExclusives = startedExclusives;
+		this.finishedUsuals = finishedUsuals;
+		this.finishedExclusives = finishedExclusives;
+	}
+
+	void setConsistent (boolean consistent) {
+		this.consistent = consistent;
+	}
+
+	void setThreadCounts (long createdThreadsCount, long exclusiveCreatedThreadsCount) {
+		this.createdThreadsCount = createdThreadsCount;
+		this.exclusiveCreatedThreadsCount = exclusiveCreatedThreadsCount;
+	}
+
+	void setEpochCounts (long exclusiveHandoversCount, long savedDrainsCount) {
+		this.exclusiveHandoversCount = exclusiveHandoversCount;
+		this.savedDrainsCount = savedDrainsCount;
+	}
+
+	void setCoalesceCounts (long coalescedSubmissionsCount, long replacedCallablesCount) {
+		this.coalescedSubmissionsCount = coalescedSubmissionsCount;
+		this.replacedCallablesCount = replacedCallablesCount;
+	}
+
+	void setScheduleCounts (long skippedPeriodicRunsCount) {
+		this.skippedPeriodicRunsCount = skippedPeriodicRunsCount;
+	}
+
+	void setDeadlineCounts (long onTimeTasksCount, long lateTasksCount) {
+		this.onTimeTasksCount = onTimeTasksCount;
+		this.lateTasksCount = lateTasksCount;
+	}
+
+	void setPoolCounts (int poolSize, long poolResizesCount) {
+		this.poolSize = poolSize;
+		this.poolResizesCount = poolResizesCount;
+	}
+
+	void setOverflowCounts (long callerRunsCount) {
+		this.callerRunsCount = callerRunsCount;
+	}
+
+	void setThrottleCounts (long throttledTasksCount, long throttleWaitNanos) {
+		this.throttledTasksCount = throttledTasksCount;
+		this.throttleWaitNanos = throttleWaitNanos;
+	}
+
+	void setJournalTail (long journalTail) {
+		this.journalTail = journalTail;
+	}
+
+	/**
+	 *
+	 * @return the total count of task transitions registered by the terminal.
+	 * If two snapshots have the same version, nothing has changed between them.
+	 */
+	public long getVersion () {
+		return version;
+	}
+
+	/**
+	 *
+	 * @return true if two readings of the counters have given the same
+	 * version, so the counts correspond to a single moment. Otherwise the
+	 * counts may come from different moments, though none of them is
+	 * negative and their sum still holds.
+	 */
+	public boolean isConsistent () {
+		return consistent;
+	}
+
+	public String getTerminalName () {
+		return origin.getTerminalName ();
+	}
+
+	/**
+	 *
+	 * @return the pool size by the time of the snapshot, it may be changed by
+	 * {@link ThreadTerminal#setPoolSize(int)}.
+	 */
+	public int getPoolSize () {
+		return poolSize;
+	}
+
+	public long getPoolResizesCount () {
+		return poolResizesCount;
+	}
+
+	public long getSubmittedTasksCount () {
+		return submittedTasksCount;
+	}
+
+	public long getQueuedTasksCount () {
+		return submittedTasksCount - dequeuedTasksCount - expiredTasksCount - rejectedTasksCount - droppedTasksCount;
+	}
+
+	public long getPendingTasksCount () {
+		return dequeuedTasksCount - startedUsuals - startedExclusives;
+	}
+
+	public long getActiveTasksCount () {
+		return getActiveUsuals () + getActiveExclusives ();
+	}
+
+	public long getFinishedTasksCount () {
+		return finishedUsuals + finishedExclusives;
+	}
+
+	public int getActiveUsuals () {
+		return (int) (startedUsuals - finishedUsuals);
+	}
+
+	public int getActiveExclusives () {
+		return (int) (startedExclusives - finishedExclusives);
+	}
+
+	public long getCreatedThreadsCount () {
+		return createdThreadsCount;
+	}
+
+	public long getExclusiveCreatedThreadsCount () {
+		return exclusiveCreatedThreadsCount;
+	}
+
+	/**
+	 *
+	 * @return the count of exclusive tasks, that got the gate straight from
+	 * the previous exclusive one in an epoch.
+	 */
+	public long getExclusiveHandoversCount () {
+		return exclusiveHandoversCount;
+	}
+
+	/**
+	 *
+	 * @return the count of handovers, that overtook usual tasks: without the
+	 * epoch the pool would have been drained once more for each of them.
+	 */
+	public long getSavedDrainsCount () {
+		return savedDrainsCount;
+	}
+
+	/**
+	 *
+	 * @return the count of coalescing submissions, that were attached to a
+	 * queued or pending task with the same name instead of being queued.
+	 */
+	public long getCoalescedSubmissionsCount () {
+		return coalescedSubmissionsCount;
+	}
+
+	/**
+	 *
+	 * @return the count of coalesced submissions, that replaced the callable
+	 * of the existing task.
+	 */
+	public long getReplacedCallablesCount () {
+		return replacedCallablesCount;
+	}
+
+	/**
+	 *
+	 * @return the count of runs of periodic tasks, that were skipped because
+	 * the previous run was still queued or running, or the queue had no room
+	 * for it or has dropped it.
+	 */
+	public long getSkippedPeriodicRunsCount () {
+		return skippedPeriodicRunsCount;
+	}
+
+	/**
+	 *
+	 * @return the count of tasks, whose deadlines have passed before their
+	 * start.
+	 */
+	public long getExpiredTasksCount () {
+		return expiredTasksCount;
+	}
+
+	/**
+	 *
+	 * @return the count of tasks with deadlines, that have started by them.
+	 */
+	public long getOnTimeTasksCount () {
+		return onTimeTasksCount;
+	}
+
+	/**
+	 *
+	 * @return the count of tasks with deadlines, that have been handed out to
+	 * workers in time, but started after them.
+	 */
+	public long getLateTasksCount () {
+		return lateTasksCount;
+	}
+
+	/**
+	 *
+	 * @return the count of tasks, that were rejected, as the queue had no room
+	 * for them, or the terminal was shut down.
+	 */
+	public long getRejectedTasksCount () {
+		return rejectedTasksCount;
+	}
+
+	/**
+	 *
+	 * @return the count of queued tasks, that were dropped to make room for
+	 * other ones.
+	 */
+	public long getDroppedTasksCount () {
+		return droppedTasksCount;
+	}
+
+	/**
+	 *
+	 * @return the count of tasks, that were run by their submitting threads,
+	 * as the queue had no room for them.
+	 */
+	public long getCallerRunsCount () {
+		return callerRunsCount;
+	}
+
+	/**
+	 *
+	 * @return the count of tasks, that a rate limit has held back in the
+	 * queue at least once.
+	 */
+	public long getThrottledTasksCount () {
+		return throttledTasksCount;
+	}
+
+	/**
+	 *
+	 * @return the sum of the waits of the throttled tasks, that have been
+	 * dispatched, since they were held back for the first time, in
+	 * nanoseconds.
+	 */
+	public long getThrottleWaitNanos () {
+		return throttleWaitNanos;
+	}
+
+	long getJournalTail () {
+		return journalTail;
+	}
+
+	/**
+	 * Is materialized from the terminal on each call.
+	 *
+	 * @return labels of active tasks by their ids by the time of the call, or
+	 * an empty map if the tasks are not tracked.
+	 */
+	public Map<Long, String> getActiveTasks () {
+		return origin.getActiveTasks ();
+	}
+
+	/**
+	 * Is materialized from the terminal on each call.
+	 *
+	 * @return labels of pending tasks by their ids by the time of the call, or
+	 * an empty map if the tasks are not tracked.
+	 */
+	public Map<Long, String> getPendingTasks () {
+		return origin.getPendingTasks ();
+	}
+
+	/**
+	 * Is materialized from the journal of finished tasks on each call.
+	 *
+	 * @return names of the last (up to 100) finished tasks by the time of the
+	 * snapshot.
+	 * @see TerminalState#getLast100finishedTasksNames()
+	 */
+	public TreeMap<Long, String> getLast100finishedTasksNames () {
+		return origin.getLastFinishedTasksNames (journalTail, 100);
+	}
+
+	/**
+	 *
+	 * @return a new cursor over the journal of finished tasks by the time of
+	 * the snapshot.
+	 * @see TerminalState#getFinishedTasksCursor()
+	 */
+	public JournalCursor getFinishedTasksCursor () {
+		return origin.newFinishedTasksCursor (journalTail, Integer.MAX_VALUE);
+	}
+}
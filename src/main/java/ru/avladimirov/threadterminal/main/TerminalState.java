@@ -1,16 +1,25 @@
 package ru.avladimirov.threadterminal.main;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 import static ru.avladimirov.threadterminal.main.Terminals.getLogger;
 
 /**
  * Contains info about hosting {@link ThreadTerminal} inner state: queue length,
  * pending/active/finished tasks' count, hosting threadTerminal name and
- * poolSize. All methods are synchronized.
+ * poolSize.
  * <br>
  * The class is constructed in such a way, that any {@link ThreadTerminal}
  * should use only a single instance of it, and at any given moment provide a
@@ -18,30 +27,101 @@ import static ru.avladimirov.threadterminal.main.Terminals.getLogger;
  * can never change the inner state of the terminal from outside, only the
  * terminal itself can do this.
  * <br>
- * The main requirement when using this class is to provide atomicity during
- * writing terminal state to it. Thus all public and package private methods are
- * made synchronized, but that's not enough. Changing terminal's inner state
- * (submitting new tasks, finishing active ones, ...) should be done atomically
- * with registering these changes in its {@link ThreadTerminal} instance.
+ * Task counters are striped {@link LongAdder}s, so registering a task
+ * transition takes no lock. They count transitions only and never decrease,
+ * other counts are derived from them when the counters are read (see
+ * {@link TerminalSnapshot}). Names of pending, active and recently finished
+ * tasks are kept only in the name tracking mode, under a separate lock of
+ * their own. Changing terminal's inner state (submitting new tasks, finishing
+ * active ones, ...) atomically with registering these changes is up to its
+ * {@link ThreadTerminal} instance: it's done under the inner lock in the
+ * {@link GateMode#STRICT} mode.
+ * <br>
+ * The latencies of the phases of the task lifecycle (see
+ * {@link LatencyPhase}) are recorded to log-linear histograms by levels and
+ * by exclusivity, that are created on the first use and take no lock. A
+ * snapshot copies them, and {@link ThreadTerminal#snapshotTerminalState(boolean)}
+ * may reset them, so each snapshot covers an interval.
  *
  * @author Vladimirov.A.A
  */
 public class TerminalState implements Cloneable {
 
 	private final String terminalName;
-	private final int poolSize;
-	private long finishedTasksCount = 0;
-	private long activeTasksCount = 0;
-	private long pendingTasksCount = 0;
-	private long queuedTasksCount = 0;
-	private TreeMap<Long, String> last100finishedTasksNames = new TreeMap<> ();
-	private LinkedHashMap<String, Long> activeTasksNames = new LinkedHashMap<> ();
-	private LinkedHashMap<String, Long> pendingTasksNames = new LinkedHashMap<> ();
-
-	//A count of currently executing usual tasks
-	private int activeUsuals = 0;
-	//A count of currently executing exclusive tasks
-	private int activeExclusives = 0;
+	private volatile int poolSize;
+	//monotonic counters of task transitions, all other counts are derived from them
+	private final LongAdder submittedTasksCount = new LongAdder ();
+	private final LongAdder dequeuedTasksCount = new LongAdder ();
+	//tasks, that have left the queue without a start, as their deadlines have passed
+	private final LongAdder expiredTasksCount = new LongAdder ();
+	//tasks, that have got no room in the queue or have come after the shutdown
+	private final LongAdder rejectedTasksCount = new LongAdder ();
+	private final LongAdder droppedTasksCount = new LongAdder ();
+	private final LongAdder startedUsuals = new LongAdder ();
+	private final LongAdder startedExclusives = new LongAdder ();
+	private final LongAdder finishedUsuals = new LongAdder ();
+	private final LongAdder finishedExclusives = new LongAdder ();
+	private final LongAdder createdThreadsCount = new LongAdder ();
+	//threads created while an exclusive task was active or waiting at the gate
+	private final LongAdder exclusiveCreatedThreadsCount = new LongAdder ();
+	//exclusive tasks, that got the gate from the previous one in an epoch
+	private final LongAdder exclusiveHandoversCount = new LongAdder ();
+	private final LongAdder savedDrainsCount = new LongAdder ();
+	//submissions attached to a queued or pending task with the same name
+	private final LongAdder coalescedSubmissionsCount = new LongAdder ();
+	private final LongAdder replacedCallablesCount = new LongAdder ();
+	//runs of periodic tasks skipped because the previous run was not finished
+	private final LongAdder skippedPeriodicRunsCount = new LongAdder ();
+	//tasks with deadlines, that have started by them or after them
+	private final LongAdder onTimeTasksCount = new LongAdder ();
+	private final LongAdder lateTasksCount = new LongAdder ();
+	//the queue waits of started tasks, are summed only for the adaptive pool size
+	private final boolean waitSampling;
+	private final LongAdder queueWaitNanos = new LongAdder ();
+	private final LongAdder queueWaitsCount = new LongAdder ();
+	//the latest resizes of the pool, guarded by itself
+	static final int MAX_POOL_RESIZES = 64;
+	private final ArrayDeque<PoolResize> poolResizes;
+	private final LongAdder poolResizesCount = new LongAdder ();
+	//the capacities of the queue by levels, null if the queue is unbounded
+	private final int[] queueCapacities;
+	//rejected and dropped tasks by levels, null if the queue is unbounded
+	private final AtomicLongArray rejectedByLevels;
+	private final AtomicLongArray droppedByLevels;
+	private final LongAdder callerRunsCount = new LongAdder ();
+	//tasks held back by rate limits, and their waits since then
+	private final LongAdder throttledTasksCount = new LongAdder ();
+	private final LongAdder throttleWaitNanos = new LongAdder ();
+	//the live queue, null for snapshots
+	private volatile PEBQueue<?> queue;
+	//the sizes of the levels of the queue, for snapshots only
+	private final int[] queueSizes;
+	//the rate limits with their counters, for snapshots only
+	private final List<RateLimit> rateLimits;
+	//the histograms of the phases by levels and exclusivity, see latencyIndex (), null for snapshots
+	private final AtomicReferenceArray<LatencyRecorder> latencies;
+	//the copies of the histograms, null for the live state
+	private final LatencyHistogram[] latencyHistograms;
+
+	//the counters of a snapshot, null for the live state
+	private final TerminalSnapshot frozen;
+	//the counters are re-read without a pause first, then with a growing one
+	private static final int SPIN_READ_ATTEMPTS = 4;
+	private static final int MAX_READ_ATTEMPTS = 16;
+	private static final long MAX_READ_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos (100);
+
+	//records of finished tasks, shared by the state and all its snapshots
+	private final FinishedJournal journal;
+	//null if lifecycle events are not traced, and for snapshots
+	private final LifecycleTracer tracer;
+
+	//if false, pending and active tasks are not kept
+	private final boolean nameTracking;
+	//guards the maps of tracked tasks
+	private final Lock namesLock = new ReentrantLock ();
+	//tracked tasks by their ids
+	private LinkedHashMap<Long, TrackedTask> activeTasks = new LinkedHashMap<> ();
+	private LinkedHashMap<Long, TrackedTask> pendingTasks = new LinkedHashMap<> ();
 
 	//for changing some inner variables outside the class body
 	private Lock innerLock = new ReentrantLock ();
@@ -53,43 +133,38 @@ public class TerminalState implements Cloneable {
 	/**
 	 * An inner constructor used solely for the purpose of cloning.
 	 *
-	 * @param terminalName from the object that calls this method
-	 * @param poolSize from the object that calls this method
-	 * @param finishedTasksCount from the object that calls this method
-	 * @param activeTasksCount from the object that calls this method
-	 * @param pendingTasksCount from the object that calls this method
-	 * @param queuedTasksCount from the object that calls this method
-	 * @param last100finishedTasksNames from the object that calls this method
-	 * @param activeTasksNames from the object that calls this method
-	 * @param pendingTasksNames from the object that calls this method
-	 * @param next100pendingTasksNames from the object that calls this method
-	 */
-	private TerminalState (
-			String terminalName,
-			int poolSize,
-			long finishedTasksCount,
-			long activeTasksCount,
-			long pendingTasksCount,
-			long queuedTasksCount,
-			TreeMap<Long, String> last100finishedTasksNames,
-			LinkedHashMap<String, Long> activeTasksNames,
-			LinkedHashMap<String, Long> pendingTasksNames,
-			int activeUsuals,
-			int activeExclusives,
-			boolean selfTest
-	) {
-		this.terminalName = terminalName;
-		this.poolSize = poolSize;
-		this.finishedTasksCount = finishedTasksCount;
-		this.activeTasksCount = activeTasksCount;
-		this.pendingTasksCount = pendingTasksCount;
-		this.queuedTasksCount = queuedTasksCount;
-		this.last100finishedTasksNames = (TreeMap<Long, String>) last100finishedTasksNames;
-		this.activeTasksNames = activeTasksNames;
-		this.pendingTasksNames = pendingTasksNames;
-		this.activeUsuals = (activeUsuals);
-		this.activeExclusives = (activeExclusives);
-		this.selfTest = selfTest;
+	 * @param origin the object that calls this method
+	 * @param resetLatencies if true, the histograms of the origin are reset
+	 */
+	private TerminalState (TerminalState origin, boolean resetLatencies) {
+		this.terminalName = origin.terminalName;
+		this.poolSize = origin.poolSize;
+		this.frozen = origin.readCounters (new TerminalSnapshot ());
+		this.waitSampling = false;
+		synchronized (origin.poolResizes) {
+			this.poolResizes = new ArrayDeque<> (origin.poolResizes);
+		}
+		this.queueCapacities = origin.queueCapacities;
+		this.rejectedByLevels = copy (origin.rejectedByLevels);
+		this.droppedByLevels = copy (origin.droppedByLevels);
+		PEBQueue<?> originQueue = origin.queue;
+		this.queueSizes = originQueue != null ? originQueue.getLevelSizes () : origin.queueSizes;
+		this.rateLimits = originQueue != null ? originQueue.getRateLimits () : origin.rateLimits;
+		this.latencies = null;
+		this.latencyHistograms = origin.snapshotLatencies (resetLatencies);
+		this.journal = origin.journal;
+		this.tracer = null;
+		this.nameTracking = origin.nameTracking;
+		if (nameTracking) {
+			origin.namesLock.lock ();
+			try {
+				this.activeTasks = new LinkedHashMap<> (origin.activeTasks);
+				this.pendingTasks = new LinkedHashMap<> (origin.pendingTasks);
+			} finally {
+				origin.namesLock.unlock ();
+			}
+		}
+		this.selfTest = origin.selfTest;
 		this.testStateMap = null;
 	}
 
@@ -98,10 +173,26 @@ public class TerminalState implements Cloneable {
 	 *
 	 * @param terminalName of the hosting terminal
 	 * @param poolSize of the hosting terminal
+	 * @param config optional settings of the hosting terminal: name tracking,
+	 * the capacity of the journal of finished tasks and the trace sink. A self
+	 * testing state always tracks names.
 	 */
-	TerminalState (String terminalName, int poolSize, boolean selfTest) {
+	TerminalState (String terminalName, int poolSize, TerminalConfig config, boolean selfTest) {
 		this.terminalName = terminalName;
 		this.poolSize = poolSize;
+		this.journal = new FinishedJournal (config.getJournalCapacity ());
+		this.frozen = null;
+		this.waitSampling = config.isAdaptivePoolSize ();
+		this.poolResizes = new ArrayDeque<> ();
+		this.queueCapacities = config.getQueueCapacities ();
+		this.rejectedByLevels = queueCapacities != null ? new AtomicLongArray (RunQueue.LEVELS) : null;
+		this.droppedByLevels = queueCapacities != null ? new AtomicLongArray (RunQueue.LEVELS) : null;
+		this.queueSizes = null;
+		this.rateLimits = null;
+		this.latencies = new AtomicReferenceArray<> (LatencyPhase.values ().length * RunQueue.LEVELS * 2);
+		this.latencyHistograms = null;
+		this.tracer = config.getTraceSink () != null ? new LifecycleTracer (terminalName, config.getTraceSink ()) : null;
+		this.nameTracking = config.isNameTracking () || selfTest;
 		this.selfTest = selfTest;
 		if (selfTest) {
 			testStateMap = new LinkedHashMap<> ();
@@ -111,206 +202,871 @@ public class TerminalState implements Cloneable {
 
 	}
 
-	public synchronized String getTerminalName () {
+	private static AtomicLongArray copy (AtomicLongArray counts) {
+		if (counts == null) {
+			return null;
+		}
+		long[] values = new long[counts.length ()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = counts.get (i);
+		}
+		return new AtomicLongArray (values);
+	}
+
+	/**
+	 *
+	 * @param queue of the hosting terminal, its sizes are read by the getters
+	 * and copied by the snapshots
+	 */
+	void setQueue (PEBQueue<?> queue) {
+		this.queue = queue;
+	}
+
+	public String getTerminalName () {
 		return terminalName;
 	}
 
-	public synchronized int getPoolSize () {
+	public int getPoolSize () {
 		return poolSize;
 	}
 
-	public synchronized long getFinishedTasksCount () {
-		return finishedTasksCount;
+	/**
+	 *
+	 * @return the counters of the snapshot, or a fresh reading of them for the
+	 * live state.
+	 */
+	private TerminalSnapshot counters () {
+		return frozen != null ? frozen : readCounters (new TerminalSnapshot ());
+	}
+
+	/**
+	 * Reads the counters without locking. See {@link TerminalSnapshot} for the
+	 * consistency guarantees.
+	 *
+	 * @param snapshot to be filled
+	 * @return the same snapshot
+	 */
+	TerminalSnapshot readCounters (TerminalSnapshot snapshot) {
+		long version = -1;
+		boolean consistent = false;
+		for (int attempt = 0; attempt < MAX_READ_ATTEMPTS && !consistent; attempt++) {
+			if (attempt >= SPIN_READ_ATTEMPTS) {
+				LockSupport.parkNanos (Math.min (1000L << (attempt - SPIN_READ_ATTEMPTS), MAX_READ_BACKOFF_NANOS));
+			}
+			//the latest transitions go first, so that no derived count is negative
+			long finishedU = finishedUsuals.sum ();
+			long finishedE = finishedExclusives.sum ();
+			long startedU = startedUsuals.sum ();
+			long startedE = startedExclusives.sum ();
+			long dequeued = dequeuedTasksCount.sum ();
+			long expired = expiredTasksCount.sum ();
+			long rejected = rejectedTasksCount.sum ();
+			long dropped = droppedTasksCount.sum ();
+			long submitted = submittedTasksCount.sum ();
+			long readVersion = finishedU + finishedE + startedU + startedE + dequeued + expired + rejected + dropped + submitted;
+			snapshot.set (this, readVersion, submitted, dequeued, expired, rejected, dropped, startedU, startedE, finishedU, finishedE);
+			//the counters are monotonic, so the same version means that nothing has changed in between
+			consistent = readVersion == version;
+			version = readVersion;
+		}
+		snapshot.setConsistent (consistent);
+		snapshot.setThreadCounts (createdThreadsCount.sum (), exclusiveCreatedThreadsCount.sum ());
+		snapshot.setEpochCounts (exclusiveHandoversCount.sum (), savedDrainsCount.sum ());
+		snapshot.setCoalesceCounts (coalescedSubmissionsCount.sum (), replacedCallablesCount.sum ());
+		snapshot.setScheduleCounts (skippedPeriodicRunsCount.sum ());
+		snapshot.setDeadlineCounts (onTimeTasksCount.sum (), lateTasksCount.sum ());
+		snapshot.setPoolCounts (poolSize, poolResizesCount.sum ());
+		snapshot.setOverflowCounts (callerRunsCount.sum ());
+		snapshot.setThrottleCounts (throttledTasksCount.sum (), throttleWaitNanos.sum ());
+		snapshot.setJournalTail (journal.getTail ());
+		return snapshot;
+	}
+
+	public long getFinishedTasksCount () {
+		return counters ().getFinishedTasksCount ();
+	}
+
+	public long getActiveTasksCount () {
+		return counters ().getActiveTasksCount ();
+	}
+
+	public long getPendingTasksCount () {
+		return counters ().getPendingTasksCount ();
+	}
+
+	/**
+	 * Is materialized from the journal of finished tasks on each call.
+	 *
+	 * @return names of the last (up to 100) finished tasks by the number of
+	 * their records in the journal, that is by the order of finishing.
+	 */
+	public TreeMap<Long, String> getLast100finishedTasksNames () {
+		return getLastFinishedTasksNames (getJournalTail (), 100);
+	}
+
+	TreeMap<Long, String> getLastFinishedTasksNames (long tail, int count) {
+		TreeMap<Long, String> names = new TreeMap<> ();
+		JournalCursor cursor = newFinishedTasksCursor (tail, count);
+		while (cursor.next ()) {
+			names.put (cursor.getSequence (), cursor.getName ());
+		}
+		return names;
+	}
+
+	/**
+	 * Gives a cursor over the records of the finished tasks, that are still
+	 * kept in the journal, from older to newer ones. The records are read
+	 * directly from the journal of the terminal, so the cursor of a snapshot
+	 * skips the records overwritten since the snapshot was taken.
+	 *
+	 * @return a new cursor over the journal of finished tasks.
+	 */
+	public JournalCursor getFinishedTasksCursor () {
+		return newFinishedTasksCursor (getJournalTail (), Integer.MAX_VALUE);
+	}
+
+	/**
+	 *
+	 * @param tail the count of records to read up to
+	 * @param count the maximum count of the latest records
+	 * @return a new cursor over the journal of finished tasks.
+	 */
+	JournalCursor newFinishedTasksCursor (long tail, int count) {
+		return new JournalCursor (journal, Math.max (0, tail - Math.min (count, journal.getCapacity ())), tail);
+	}
+
+	private long getJournalTail () {
+		return frozen != null ? frozen.getJournalTail () : journal.getTail ();
+	}
+
+	/**
+	 * Is materialized on each call. Tasks with the same name share a single
+	 * entry here, see {@link #getActiveTasks()} for all of them.
+	 *
+	 * @return labels of active tasks with {@link System#nanoTime()} of their
+	 * start, or an empty map if the tasks are not tracked.
+	 */
+	public Map<String, Long> getActiveTasksNames () {
+		return toNames (activeTasks);
+	}
+
+	/**
+	 * Is materialized on each call. Tasks with the same name share a single
+	 * entry here, see {@link #getPendingTasks()} for all of them.
+	 *
+	 * @return labels of pending tasks with {@link System#currentTimeMillis()}
+	 * of their pending, or an empty map if the tasks are not tracked.
+	 */
+	public Map<String, Long> getPendingTasksNames () {
+		return toNames (pendingTasks);
+	}
+
+	/**
+	 *
+	 * @return labels of active tasks by their ids, or an empty map if the
+	 * tasks are not tracked.
+	 */
+	public Map<Long, String> getActiveTasks () {
+		return toLabels (activeTasks);
+	}
+
+	/**
+	 *
+	 * @return labels of pending tasks by their ids, or an empty map if the
+	 * tasks are not tracked.
+	 */
+	public Map<Long, String> getPendingTasks () {
+		return toLabels (pendingTasks);
+	}
+
+	private Map<String, Long> toNames (LinkedHashMap<Long, TrackedTask> tasks) {
+		LinkedHashMap<String, Long> names = new LinkedHashMap<> ();
+		lockNamesIfLive ();
+		try {
+			for (Entry<Long, TrackedTask> entry : tasks.entrySet ()) {
+				names.put (label (entry.getValue ().name, entry.getKey ()), entry.getValue ().time);
+			}
+		} finally {
+			unlockNamesIfLive ();
+		}
+		return names;
+	}
+
+	private Map<Long, String> toLabels (LinkedHashMap<Long, TrackedTask> tasks) {
+		LinkedHashMap<Long, String> labels = new LinkedHashMap<> ();
+		lockNamesIfLive ();
+		try {
+			for (Entry<Long, TrackedTask> entry : tasks.entrySet ()) {
+				labels.put (entry.getKey (), label (entry.getValue ().name, entry.getKey ()));
+			}
+		} finally {
+			unlockNamesIfLive ();
+		}
+		return labels;
+	}
+
+	//the maps of a snapshot are never changed
+	private void lockNamesIfLive () {
+		if (frozen == null) {
+			namesLock.lock ();
+		}
+	}
+
+	private void unlockNamesIfLive () {
+		if (frozen == null) {
+			namesLock.unlock ();
+		}
+	}
+
+	/**
+	 * Names are optional, so a label of an unnamed task is made of its id only
+	 * when it's asked for.
+	 *
+	 * @param name of a task, may be null
+	 * @param id of the task
+	 * @return the name, or a label made of the id if there is no name.
+	 */
+	static String label (String name, long id) {
+		return name != null ? name : "#" + id;
+	}
+
+	/**
+	 *
+	 * @return true if pending and active tasks are kept.
+	 */
+	public boolean isNameTracking () {
+		return nameTracking;
+	}
+
+	public long getQueuedTasksCount () {
+		return counters ().getQueuedTasksCount ();
+	}
+
+	/**
+	 *
+	 * @return the count of all tasks submitted to the terminal.
+	 */
+	public long getSubmittedTasksCount () {
+		return counters ().getSubmittedTasksCount ();
+	}
+
+	/**
+	 *
+	 * @return the count of worker threads created by the terminal.
+	 */
+	public long getCreatedThreadsCount () {
+		return counters ().getCreatedThreadsCount ();
+	}
+
+	/**
+	 *
+	 * @return the count of worker threads created while an exclusive task was
+	 * active or waiting for the usual ones to finish. Should stay zero, as
+	 * workers are not torn down around exclusive tasks.
+	 */
+	public long getExclusiveCreatedThreadsCount () {
+		return counters ().getExclusiveCreatedThreadsCount ();
+	}
+
+	/**
+	 *
+	 * @return the count of exclusive tasks, that got the gate straight from
+	 * the previous exclusive one, see
+	 * {@link TerminalConfig#setExclusiveEpochBudget(int)}.
+	 */
+	public long getExclusiveHandoversCount () {
+		return counters ().getExclusiveHandoversCount ();
+	}
+
+	/**
+	 *
+	 * @return the count of pool drains saved by exclusive epochs: handovers,
+	 * that overtook usual tasks.
+	 */
+	public long getSavedDrainsCount () {
+		return counters ().getSavedDrainsCount ();
+	}
+
+	/**
+	 *
+	 * @param savedDrain true if the next exclusive task has overtaken usual
+	 * ones
+	 */
+	void registerExclusiveHandover (boolean savedDrain) {
+		exclusiveHandoversCount.increment ();
+		if (savedDrain) {
+			savedDrainsCount.increment ();
+		}
+	}
+
+	/**
+	 *
+	 * @return the count of coalescing submissions, that were attached to a
+	 * queued or pending task with the same name, see
+	 * {@link ThreadTerminal#submitCoalescing(java.util.concurrent.Callable, Class, String, Priority, boolean, CoalesceMode)}.
+	 */
+	public long getCoalescedSubmissionsCount () {
+		return counters ().getCoalescedSubmissionsCount ();
+	}
+
+	/**
+	 *
+	 * @return the count of coalesced submissions, that replaced the callable
+	 * of the existing task.
+	 */
+	public long getReplacedCallablesCount () {
+		return counters ().getReplacedCallablesCount ();
+	}
+
+	void registerCoalesced (CoalesceMode mode) {
+		coalescedSubmissionsCount.increment ();
+		if (mode == CoalesceMode.REPLACE) {
+			replacedCallablesCount.increment ();
+		}
+	}
+
+	/**
+	 *
+	 * @return the count of runs of periodic tasks, that were skipped because
+	 * the previous run was still queued or running, or the queue had no room
+	 * for it or has dropped it, see
+	 * {@link ThreadTerminal#scheduleAtFixedRate(Runnable, String, int, boolean, long, long, java.util.concurrent.TimeUnit)}.
+	 */
+	public long getSkippedPeriodicRunsCount () {
+		return counters ().getSkippedPeriodicRunsCount ();
+	}
+
+	void registerSkippedRun () {
+		skippedPeriodicRunsCount.increment ();
+	}
+
+	/**
+	 *
+	 * @return the count of tasks, whose deadlines have passed before their
+	 * start, so they were completed exceptionally without running, see
+	 * {@link ThreadTerminal#submit(java.util.concurrent.Callable, String, int, boolean, long, java.util.concurrent.TimeUnit)}.
+	 */
+	public long getExpiredTasksCount () {
+		return counters ().getExpiredTasksCount ();
+	}
+
+	/**
+	 *
+	 * @return the count of tasks with deadlines, that have started by their
+	 * deadlines.
+	 */
+	public long getOnTimeTasksCount () {
+		return counters ().getOnTimeTasksCount ();
+	}
+
+	/**
+	 *
+	 * @return the count of tasks with deadlines, that have been handed out to
+	 * workers in time, but started after their deadlines.
+	 */
+	public long getLateTasksCount () {
+		return counters ().getLateTasksCount ();
+	}
+
+	void registerExpired () {
+		expiredTasksCount.increment ();
+	}
+
+	void registerDeadlineMet (boolean onTime) {
+		if (onTime) {
+			onTimeTasksCount.increment ();
+		} else {
+			lateTasksCount.increment ();
+		}
+	}
+
+	/**
+	 *
+	 * @param level a priority level
+	 * @return the capacity of the level, see
+	 * {@link TerminalConfig#setQueueCapacity(int, int)}, or
+	 * {@link Integer#MAX_VALUE} if it's unbounded.
+	 */
+	public int getQueueCapacity (int level) {
+		return queueCapacities != null && queueCapacities[level] > 0 ? queueCapacities[level] : Integer.MAX_VALUE;
+	}
+
+	/**
+	 *
+	 * @param level a priority level
+	 * @return the count of tasks of the level, that are waiting for their
+	 * turn in the queue: the ones counted by the capacities.
+	 */
+	public int getQueueOccupancy (int level) {
+		if (frozen != null) {
+			return queueSizes != null ? queueSizes[level] : 0;
+		}
+		PEBQueue<?> current = queue;
+		return current != null ? current.size (level) : 0;
+	}
+
+	/**
+	 *
+	 * @return the count of tasks, that were rejected, as the queue had no room
+	 * for them (see {@link OverflowPolicy}), or the terminal was shut down.
+	 */
+	public long getRejectedTasksCount () {
+		return counters ().getRejectedTasksCount ();
+	}
+
+	/**
+	 *
+	 * @param level a priority level
+	 * @return the count of rejected tasks of the level.
+	 */
+	public long getRejectedTasksCount (int level) {
+		return rejectedByLevels != null ? rejectedByLevels.get (level) : 0;
+	}
+
+	/**
+	 *
+	 * @return the count of queued tasks, that were dropped to make room for
+	 * other ones, see {@link OverflowPolicy#DROP_OLDEST_LOW}.
+	 */
+	public long getDroppedTasksCount () {
+		return counters ().getDroppedTasksCount ();
+	}
+
+	/**
+	 *
+	 * @param level a priority level
+	 * @return the count of dropped tasks of the level.
+	 */
+	public long getDroppedTasksCount (int level) {
+		return droppedByLevels != null ? droppedByLevels.get (level) : 0;
+	}
+
+	/**
+	 *
+	 * @return the count of tasks, that were run by their submitting threads,
+	 * see {@link OverflowPolicy#CALLER_RUNS}.
+	 */
+	public long getCallerRunsCount () {
+		return counters ().getCallerRunsCount ();
+	}
+
+	void registerRejected (int level) {
+		if (rejectedByLevels != null) {
+			rejectedByLevels.incrementAndGet (level);
+		}
+		rejectedTasksCount.increment ();
+	}
+
+	void registerDropped (int level) {
+		if (droppedByLevels != null) {
+			droppedByLevels.incrementAndGet (level);
+		}
+		droppedTasksCount.increment ();
+	}
+
+	void registerCallerRun () {
+		callerRunsCount.increment ();
+	}
+
+	/**
+	 *
+	 * @return the count of tasks, that a rate limit has held back in the
+	 * queue at least once, see
+	 * {@link TerminalConfig#setRateLimit(int, double, int)}.
+	 */
+	public long getThrottledTasksCount () {
+		return counters ().getThrottledTasksCount ();
+	}
+
+	/**
+	 *
+	 * @return the sum of the waits of the throttled tasks, that have been
+	 * dispatched, since they were held back for the first time, in
+	 * nanoseconds.
+	 */
+	public long getThrottleWaitNanos () {
+		return counters ().getThrottleWaitNanos ();
+	}
+
+	/**
+	 *
+	 * @return the rate limits of the terminal with their counters, or an
+	 * empty list if there are none.
+	 */
+	public List<RateLimit> getRateLimits () {
+		if (frozen != null) {
+			return rateLimits != null ? new ArrayList<> (rateLimits) : new ArrayList<> (0);
+		}
+		PEBQueue<?> current = queue;
+		return current != null ? current.getRateLimits () : new ArrayList<> (0);
+	}
+
+	void registerThrottled () {
+		throttledTasksCount.increment ();
+	}
+
+	void registerThrottleWait (long nanos) {
+		throttleWaitNanos.add (nanos);
+	}
+
+	/**
+	 *
+	 * @return the count of resizes of the pool, see
+	 * {@link ThreadTerminal#setPoolSize(int)} and
+	 * {@link TerminalConfig#setAdaptivePoolSize(int, int)}.
+	 */
+	public long getPoolResizesCount () {
+		return counters ().getPoolResizesCount ();
+	}
+
+	/**
+	 *
+	 * @return the latest (up to 64) resizes of the pool, from older to newer
+	 * ones.
+	 */
+	public List<PoolResize> getPoolResizes () {
+		synchronized (poolResizes) {
+			return new ArrayList<> (poolResizes);
+		}
 	}
 
-	public synchronized long getActiveTasksCount () {
-		return activeTasksCount;
+	void registerPoolResize (int fromSize, int toSize, String reason) {
+		PoolResize resize = new PoolResize (System.currentTimeMillis (), fromSize, toSize, reason);
+		synchronized (poolResizes) {
+			if (poolResizes.size () == MAX_POOL_RESIZES) {
+				poolResizes.pollFirst ();
+			}
+			poolResizes.addLast (resize);
+		}
+		poolSize = toSize;
+		poolResizesCount.increment ();
+		getLogger ().info (terminalName + ", pool resize " + resize);
 	}
 
-	public synchronized long getPendingTasksCount () {
-		return pendingTasksCount;
+	/**
+	 * Records the queue wait and the gate wait of a task, that is taken from
+	 * the queue, and sums its whole wait, if the pool size is adaptive.
+	 *
+	 * @param task that is going to run
+	 */
+	void registerQueueWait (ComparableRunnable task) {
+		long now = System.nanoTime ();
+		long wait = now - task.getSubmissionTime ();
+		long gateWait = task.getGateWait (now);
+		recordLatency (LatencyPhase.QUEUE_WAIT, task.getPriority (), task.isExclusive (), wait - gateWait);
+		recordLatency (LatencyPhase.GATE_WAIT, task.getPriority (), task.isExclusive (), gateWait);
+		if (waitSampling) {
+			queueWaitNanos.add (wait);
+			queueWaitsCount.increment ();
+		}
 	}
 
-	public synchronized TreeMap<Long, String> getLast100finishedTasksNames () {
-		return last100finishedTasksNames;
+	private static int latencyIndex (LatencyPhase phase, int level, boolean exclusive) {
+		return ((phase.ordinal () * RunQueue.LEVELS + level) << 1) + (exclusive ? 1 : 0);
 	}
 
-	public synchronized Map<String, Long> getActiveTasksNames () {
-		return activeTasksNames;
+	private void recordLatency (LatencyPhase phase, int level, boolean exclusive, long nanos) {
+		int index = latencyIndex (phase, level, exclusive);
+		LatencyRecorder recorder = latencies.get (index);
+		if (recorder == null) {
+			latencies.compareAndSet (index, null, new LatencyRecorder ());
+			recorder = latencies.get (index);
+		}
+		recorder.record (nanos);
 	}
 
-	public synchronized Map<String, Long> getPendingTasksNames () {
-		return pendingTasksNames;
+	/**
+	 *
+	 * @param reset if true, the live histograms are reset
+	 * @return the copies of the histograms, null for the unused ones.
+	 */
+	private LatencyHistogram[] snapshotLatencies (boolean reset) {
+		if (latencies == null) {
+			return latencyHistograms;
+		}
+		LatencyHistogram[] histograms = new LatencyHistogram[latencies.length ()];
+		for (int i = 0; i < histograms.length; i++) {
+			LatencyRecorder recorder = latencies.get (i);
+			if (recorder != null) {
+				histograms[i] = recorder.snapshot (reset);
+			}
+		}
+		return histograms;
 	}
 
-	public synchronized long getQueuedTasksCount () {
-		return queuedTasksCount;
+	private LatencyHistogram getLatencyHistogram (int index) {
+		if (latencies == null) {
+			LatencyHistogram histogram = latencyHistograms[index];
+			return histogram != null ? histogram : LatencyHistogram.EMPTY;
+		}
+		LatencyRecorder recorder = latencies.get (index);
+		return recorder != null ? recorder.snapshot (false) : LatencyHistogram.EMPTY;
 	}
 
-	synchronized void setQueuedTasksCount (long queuedTasksCount) {
-		this.queuedTasksCount = queuedTasksCount;
+	/**
+	 *
+	 * @param phase of the task lifecycle
+	 * @param level a priority level
+	 * @param exclusive true for the exclusive tasks, false for the usual ones
+	 * @return the histogram of the latencies of the phase of the given tasks,
+	 * since the terminal has started or since the latest reset, see
+	 * {@link ThreadTerminal#snapshotTerminalState(boolean)}.
+	 */
+	public LatencyHistogram getLatencyHistogram (LatencyPhase phase, int level, boolean exclusive) {
+		return getLatencyHistogram (latencyIndex (phase, level, exclusive));
+	}
+
+	/**
+	 *
+	 * @param phase of the task lifecycle
+	 * @return the histogram of the latencies of the phase of all tasks.
+	 */
+	public LatencyHistogram getLatencyHistogram (LatencyPhase phase) {
+		List<LatencyHistogram> histograms = new ArrayList<> ();
+		for (int level = 0; level < RunQueue.LEVELS; level++) {
+			histograms.add (getLatencyHistogram (latencyIndex (phase, level, false)));
+			histograms.add (getLatencyHistogram (latencyIndex (phase, level, true)));
+		}
+		return LatencyHistogram.merge (histograms);
+	}
+
+	long getQueueWaitNanos () {
+		return queueWaitNanos.sum ();
+	}
+
+	long getQueueWaitsCount () {
+		return queueWaitsCount.sum ();
+	}
+
+	void registerNewThread (boolean exclusivePending) {
+		createdThreadsCount.increment ();
+		if (exclusivePending) {
+			exclusiveCreatedThreadsCount.increment ();
+		}
 	}
 
 	/**
 	 * The clone is not backed up by the original object. All complex inner
-	 * objects like maps and lists are also cloned.
+	 * objects like maps and lists are also cloned, except for the journal of
+	 * finished tasks: only its position is kept. Counters are read without
+	 * locking, the same way as for a {@link TerminalSnapshot}.
 	 *
 	 * @return the clone of the calling object.
 	 */
 	@Override
-	public synchronized TerminalState clone () {
-		return new TerminalState (
-				terminalName,
-				poolSize,
-				finishedTasksCount,
-				activeTasksCount,
-				pendingTasksCount,
-				queuedTasksCount,
-				(TreeMap<Long, String>) last100finishedTasksNames.clone (),
-				(LinkedHashMap<String, Long>) activeTasksNames.clone (),
-				(LinkedHashMap<String, Long>) pendingTasksNames.clone (),
-				activeUsuals,
-				activeExclusives,
-				selfTest
-		);
+	public TerminalState clone () {
+		return new TerminalState (this, false);
 	}
 
-	//TODO implement map size controlling: no more 100 tasks
-	synchronized void registerNewFinished (String name, boolean exclusive) {
+	/**
+	 * The same as {@link #clone()}, that may reset the latency histograms.
+	 *
+	 * @param resetLatencies if true, the histograms of this state restart
+	 * from zero, so the next snapshot covers the latencies since this one
+	 * @return the clone of the calling object.
+	 */
+	TerminalState snapshot (boolean resetLatencies) {
+		return new TerminalState (this, resetLatencies);
+	}
+
+	/**
+	 *
+	 * @param id of the task
+	 * @param name of the task, may be null
+	 * @param exclusive true if the task was exclusive
+	 * @param startTime {@link System#nanoTime()} of the task start
+	 * @param failed true if the task has thrown an exception
+	 */
+	void registerNewFinished (long id, String name, int priority, boolean exclusive, long startTime, boolean failed) {
 		//tests
 		TerminalState stateBefore = null;
 		if (selfTest) {
 			stateBefore = this.clone ();
 		}
 
-		while (last100finishedTasksNames.size () > 99) {
-			last100finishedTasksNames.pollFirstEntry ();
-		}
-		activeTasksNames.remove (name);
 		if (exclusive) {
-			activeExclusives--;
+			finishedExclusives.increment ();
 		} else {
-			activeUsuals--;
+			finishedUsuals.increment ();
+		}
+		long finishTime = System.nanoTime ();
+		recordLatency (LatencyPhase.RUN, priority, exclusive, finishTime - startTime);
+		journal.record (id, name, startTime, finishTime, exclusive, failed);
+		if (tracer != null) {
+			tracer.record (TraceEvent.FINISHED, id, name);
 		}
 
-		last100finishedTasksNames.put (System.nanoTime (), name);
-		finishedTasksCount++;
-
-		updateInnerCounters ();
+		if (nameTracking) {
+			namesLock.lock ();
+			try {
+				activeTasks.remove (id);
+			} finally {
+				namesLock.unlock ();
+			}
+		}
 
 		//tests
 		if (selfTest) {
 			TerminalState stateAfter = this.clone ();
 			testStateMap.put (stateAfter, System.nanoTime ());
-			this.printStateCounts ("new finished " + name);
+			this.printStateCounts ("new finished " + label (name, id));
 			if (stateBefore.getFinishedTasksCount () != stateAfter.getFinishedTasksCount () - 1) {
 				getLogger ().error ("atomicity break: the count of finished differs");
 			}
 		}
 	}
 
-	synchronized void registerNewPending (String name) {
+	void registerNewPending (long id, String name) {
 		//tests
 		TerminalState stateBefore = null;
 		if (selfTest) {
 			stateBefore = this.clone ();
 		}
 
-		pendingTasksNames.put (name, System.currentTimeMillis ());
-		updateInnerCounters ();
-		queuedTasksCount--;
+		dequeuedTasksCount.increment ();
+		if (tracer != null) {
+			tracer.record (TraceEvent.PENDING, id, name);
+		}
+
+		if (nameTracking) {
+			namesLock.lock ();
+			try {
+				pendingTasks.put (id, new TrackedTask (name, System.currentTimeMillis ()));
+			} finally {
+				namesLock.unlock ();
+			}
+		}
 
 		//tests
 		if (selfTest) {
 			TerminalState stateAfter = this.clone ();
 			testStateMap.put (stateAfter, System.nanoTime ());
-			this.printStateCounts ("new pending " + name);
+			this.printStateCounts ("new pending " + label (name, id));
 			if (stateBefore.getPendingTasksCount () != stateAfter.getPendingTasksCount () - 1) {
 				getLogger ().error ("atomicity break: the count of pending differs");
 			}
 		}
 	}
 
-	synchronized void registerNewActive (String name, boolean exclusive) {
+	void registerNewActive (long id, String name, boolean exclusive) {
 		//tests
 		TerminalState stateBefore = null;
 		if (selfTest) {
 			stateBefore = this.clone ();
 		}
-		activeTasksNames.put (name, System.nanoTime ());
 		if (exclusive) {
-			activeExclusives++;
+			startedExclusives.increment ();
 		} else {
-			activeUsuals++;
+			startedUsuals.increment ();
+		}
+		if (tracer != null) {
+			tracer.record (TraceEvent.ACTIVE, id, name);
+		}
+
+		if (nameTracking) {
+			namesLock.lock ();
+			try {
+				activeTasks.put (id, new TrackedTask (name, System.nanoTime ()));
+				pendingTasks.remove (id);
+			} finally {
+				namesLock.unlock ();
+			}
 		}
-		pendingTasksNames.remove (name);
-		updateInnerCounters ();
 
 		//tests
 		if (selfTest) {
 			TerminalState stateAfter = this.clone ();
 			testStateMap.put (stateAfter, System.nanoTime ());
-			this.printStateCounts ("new active " + name);
+			this.printStateCounts ("new active " + label (name, id));
 			if (stateBefore.getActiveTasksCount () != stateAfter.getActiveTasksCount () - 1) {
 				getLogger ().error ("atomicity break: the count of active differs");
 			}
 		}
 	}
 
-	synchronized void registerNewNext (String name) {
+	void registerNewNext (long id, String name) {
 		//tests
 		TerminalState stateBefore = null;
 		if (selfTest) {
 			stateBefore = this.clone ();
 		}
 
-		queuedTasksCount++;
+		submittedTasksCount.increment ();
+		if (tracer != null) {
+			tracer.record (TraceEvent.SUBMITTED, id, name);
+		}
 
 		//tests
 		if (selfTest) {
 			TerminalState stateAfter = this.clone ();
 			testStateMap.put (stateAfter, System.nanoTime ());
-			this.printStateCounts ("new next " + name);
+			this.printStateCounts ("new next " + label (name, id));
 			if (stateBefore.getQueuedTasksCount () != stateAfter.getQueuedTasksCount () - 1) {
 				getLogger ().error ("atomicity break: the count of queued differs");
 			}
 		}
 	}
 
-	private void updateInnerCounters () {
-		activeTasksCount = activeTasksNames.size ();
-		pendingTasksCount = pendingTasksNames.size ();
+	/**
+	 * Registers a batch of submitted tasks with a single update of the
+	 * counters. A self testing state registers them one by one.
+	 *
+	 * @param tasks submitted at once
+	 */
+	void registerNewNexts (List<? extends PriorityCallable<?>> tasks) {
+		if (selfTest) {
+			for (PriorityCallable<?> task : tasks) {
+				registerNewNext (task.getId (), task.getName ());
+			}
+			return;
+		}
+		submittedTasksCount.add (tasks.size ());
+		if (tracer != null) {
+			for (PriorityCallable<?> task : tasks) {
+				tracer.record (TraceEvent.SUBMITTED, task.getId (), task.getName ());
+			}
+		}
 	}
 
-	synchronized void printStateCounts (String preString) {
+	void printStateCounts (String preString) {
 		String last = "";
-		if (!last100finishedTasksNames.isEmpty ()) {
-			last = last100finishedTasksNames.lastEntry ().getValue ();
+		String pending;
+		String active;
+		JournalCursor cursor = newFinishedTasksCursor (journal.getTail (), 1);
+		if (cursor.next ()) {
+			last = cursor.getName ();
+		}
+		namesLock.lock ();
+		try {
+			pending = pendingTasks.keySet ().toString ();
+			active = activeTasks.keySet ().toString ();
+		} finally {
+			namesLock.unlock ();
 		}
 
-		getLogger ().debug (terminalName + ", " + preString + " | queued " + queuedTasksCount
-				+ "; pending " + pendingTasksCount + " (" + pendingTasksNames.keySet () + ")"
-				+ "; active " + activeTasksCount + " (" + activeTasksNames.keySet () + ")"
-				+ "; (usuals " + activeUsuals
-				+ "; exclusives " + activeExclusives
-				+ ") finished " + finishedTasksCount + " (" + last + ")"
+		getLogger ().debug (terminalName + ", " + preString + " | queued " + getQueuedTasksCount ()
+				+ "; pending " + getPendingTasksCount () + " (" + pending + ")"
+				+ "; active " + getActiveTasksCount () + " (" + active + ")"
+				+ "; (usuals " + getActiveUsuals ()
+				+ "; exclusives " + getActiveExclusives ()
+				+ ") finished " + getFinishedTasksCount () + " (" + last + ")"
 		);
 	}
 
-	public synchronized int getActiveUsuals () {
-		return activeUsuals;
-	}
-
-	public synchronized int getActiveExclusives () {
-		return activeExclusives;
+	public int getActiveUsuals () {
+		return counters ().getActiveUsuals ();
 	}
 
-	synchronized boolean activeExclusivesExist () {
-		return activeExclusives > 0 ? true : false;
+	public int getActiveExclusives () {
+		return counters ().getActiveExclusives ();
 	}
 
-	synchronized boolean activeUsualsExist () {
-		return activeUsuals > 0 ? true : false;
+	/**
+	 *
+	 * @return the tracer of lifecycle events, or null if they are not traced.
+	 */
+	LifecycleTracer getTracer () {
+		return tracer;
 	}
 
 	public Lock getInnerLock () {
@@ -321,4 +1077,18 @@ public class TerminalState implements Cloneable {
 		return testStateMap;
 	}
 
+	/**
+	 * A pending or active task, kept in the name tracking mode.
+	 */
+	private static final class TrackedTask {
+
+		private final String name;
+		private final long time;
+
+		TrackedTask (String name, long time) {
+			this.name = name;
+			this.time = time;
+		}
+	}
+
 }
@@ -1,7 +1,6 @@
 package ru.avladimirov.threadterminal.main;
 
 import org.apache.log4j.ConsoleAppender;
-import org.apache.log4j.Level;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PatternLayout;
@@ -29,6 +28,49 @@ public final class Terminals {
 		return new ThreadTerminal (name, poolSize, false);
 	}
 
+	/**
+	 * Creates a new instance of a {@link ThreadTerminal}.
+	 *
+	 * @param name terminal's name
+	 * @param poolSize the count of threads in the terminal.
+	 * @param gateMode the way task transitions are registered around the
+	 * exclusive gate.
+	 * @return a new {@link ThreadTerminal}
+	 */
+	public static ThreadTerminal newThreadTerminal (String name, int poolSize, GateMode gateMode) {
+		return newThreadTerminal (name, poolSize, new TerminalConfig ().setGateMode (gateMode));
+	}
+
+	/**
+	 * Creates a new instance of a {@link ThreadTerminal}.
+	 *
+	 * @param name terminal's name
+	 * @param poolSize the count of threads in the terminal.
+	 * @param schedulingPolicy decides which priority level the next task is
+	 * taken from. Should be a new instance obtained from
+	 * {@link SchedulingPolicies}.
+	 * @return a new {@link ThreadTerminal}
+	 */
+	public static ThreadTerminal newThreadTerminal (String name, int poolSize, SchedulingPolicy schedulingPolicy) {
+		return newThreadTerminal (name, poolSize, new TerminalConfig ().setSchedulingPolicy (schedulingPolicy));
+	}
+
+	/**
+	 * Creates a new instance of a {@link ThreadTerminal}.
+	 *
+	 * @param name terminal's name
+	 * @param poolSize the count of threads in the terminal, or the count of
+	 * permits for active tasks in the {@link ExecutionMode#VIRTUAL_THREADS}
+	 * mode.
+	 * @param config optional settings of the terminal.
+	 * @return a new {@link ThreadTerminal}
+	 * @throws IllegalArgumentException if the settings don't fit each other
+	 * or the pool size.
+	 */
+	public static ThreadTerminal newThreadTerminal (String name, int poolSize, TerminalConfig config) {
+		return new ThreadTerminal (name, poolSize, config, false);
+	}
+
 	/**
 	 * A global function for obtaining the logger inside the package.
 	 *
@@ -39,7 +81,6 @@ public final class Terminals {
 			logger = LogManager.getLogger (Terminals.class);
 			PatternLayout layout = new PatternLayout ("%d{ISO8601} [%t] %p %C{2}, %M: %m%n");
 			logger.addAppender (new ConsoleAppender (layout));
-			logger.setLevel (Level.ALL);
 		}
 		return logger;
 	}
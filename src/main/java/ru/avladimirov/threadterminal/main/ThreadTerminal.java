@@ -1,28 +1,35 @@
 package ru.avladimirov.threadterminal.main;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.UUID;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Future;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 /**
  * A global thread scheduler, that runs tasks in threads, arranges them by
- * priority, allows any of them to run exclusively. Priority has two levels -
- * high and low. Tasks of one priority level are executed in their sequential
- * order. Exclusivity means that no other task will be executed while an
- * exclusive one is in process. Non-exclusive (usual) tasks are executed in
- * parallel using all available threads, as they are intended to do by a
- * ThreadPoolExecutor.
+ * priority, allows any of them to run exclusively. Priority has up to 64
+ * levels, the most common are high and low (see {@link Priority}). Tasks of
+ * one priority level are executed in their sequential order. Exclusivity means
+ * that no other task will be executed while an exclusive one is in process.
+ * Non-exclusive (usual) tasks are executed in parallel using all available
+ * threads, as they are intended to do by a ThreadPoolExecutor.
  *
  * @see ExclusiveCallable
  * @see UsualCallable
@@ -32,24 +39,18 @@ public class ThreadTerminal {
 
 	//TODO why ReentrantLocks?
 	//TODO implement useful executor methods: awaitTermination, isTerminated, ...
-	private PriorityExecutor executor;
-	private PriorityBlockingQueue<ComparableRunnable> queue;
+	private TerminalExecutor executor;
+	private PEBQueue<ComparableRunnable> queue;
 	//terminal self name
 	private String name;
-	private int poolSize;
-
-	/**
-	 * A lock used for scheduling execution between all tasks in the executor.
-	 * It's necessary only for maintaining exclusive/usual execution.
-	 */
-	private Lock taskLock = new ReentrantLock ();
-
-	/**
-	 * If there is an active exclusive callable currently executing, all usual
-	 * callables must await until it's finished and signals all of them using
-	 * this condition.
-	 */
-	private Condition condition = taskLock.newCondition ();
+	private volatile int poolSize;
+	//guards resizes of the pool
+	private final Object resizeLock = new Object ();
+	//0 if the pool size is fixed
+	private final int minPoolSize;
+	private final int maxPoolSize;
+	//null if the pool size is fixed
+	private PoolSizeController poolSizeController;
 
 	/**
 	 * A lock for providing atomicity for some inner operations. Is used by
@@ -59,24 +60,87 @@ public class ThreadTerminal {
 
 	private TerminalState terminalState;
 
+	//A counter of task ids
+	private final AtomicLong taskIds = new AtomicLong (0);
+
 	//only for testing purposes. Should be false in daily usage.
 	private boolean selfTest = false;
 
+	private GateMode gateMode;
+
+	private ExecutionMode executionMode;
+
+	private final OverflowPolicy overflowPolicy;
+
+	//coalescing tasks, that are queued or pending, by their names
+	private final ConcurrentHashMap<String, CoalescingCallable<?>> coalescing = new ConcurrentHashMap<> ();
+
+	//fires the scheduled tasks, is created on the first use
+	private TimerWheel timerWheel;
+	private boolean timersStopped = false;
+	//scheduled tasks, that are not done yet
+	private final Set<ScheduledTask<?>> scheduledTasks = ConcurrentHashMap.newKeySet ();
+
 	/**
+	 * A self testing terminal always works in the {@link GateMode#STRICT}
+	 * mode.
 	 *
 	 * @param name the name of this terminal
 	 * @param poolSize the count of threads in the executor pool
 	 */
 	ThreadTerminal (String name, int poolSize, boolean selfTest) {
+		this (name, poolSize, new TerminalConfig (), selfTest);
+	}
+
+	/**
+	 *
+	 * @param name the name of this terminal
+	 * @param poolSize the count of threads in the executor pool
+	 * @param config optional settings of the terminal
+	 * @throws UnsupportedOperationException if the
+	 * {@link ExecutionMode#VIRTUAL_THREADS} mode is set, but the running JVM
+	 * doesn't support virtual threads.
+	 * @throws IllegalArgumentException if the pool size is out of the
+	 * adaptive bounds, or the adaptive sizing is set for the
+	 * {@link ExecutionMode#WORK_STEALING} mode.
+	 */
+	ThreadTerminal (String name, int poolSize, TerminalConfig config, boolean selfTest) {
+		if (config.isAdaptivePoolSize () && config.getExecutionMode () == ExecutionMode.WORK_STEALING) {
+			throw new IllegalArgumentException ("the parallelism of a work stealing terminal is fixed, it can't be adaptive");
+		}
+		if (config.isAdaptivePoolSize () && (poolSize < config.getMinPoolSize () || poolSize > config.getMaxPoolSize ())) {
+			throw new IllegalArgumentException ("pool size should be from " + config.getMinPoolSize ()
+					+ " to " + config.getMaxPoolSize () + ": " + poolSize);
+		}
 		this.name = name;
 		this.poolSize = poolSize;
+		this.minPoolSize = config.getMinPoolSize ();
+		this.maxPoolSize = config.getMaxPoolSize ();
+		this.gateMode = selfTest ? GateMode.STRICT : config.getGateMode ();
 		this.selfTest = selfTest;
-		this.terminalState = new TerminalState (name, poolSize, selfTest);
+		this.terminalState = new TerminalState (name, poolSize, config, selfTest);
 		this.innerLock = terminalState.getInnerLock ();
-		queue = new PEBQueue<> (this);
+		this.overflowPolicy = config.getOverflowPolicy ();
+		//exclusive/usual execution is maintained by the queue: it admits tasks for execution
+		queue = new PEBQueue<> (config.newSchedulingPolicy (), terminalState.getTracer (), config.getExclusiveEpochBudget (),
+				terminalState, config.getQueueCapacities (), config.newRateLimits (terminalState));
+		terminalState.setQueue (queue);
 
-		//some timeout should be specified due to ThreadPoolExecutor's getTask() method.
-		executor = new PriorityExecutor (this, poolSize, poolSize, 10, TimeUnit.SECONDS, queue);
+		this.executionMode = config.getExecutionMode ();
+		if (executionMode == ExecutionMode.VIRTUAL_THREADS) {
+			//the pool size is the count of permits for active tasks
+			executor = new VirtualThreadExecutor (this, poolSize, queue);
+		} else if (executionMode == ExecutionMode.WORK_STEALING) {
+			executor = new WorkStealingExecutor (this, poolSize, queue);
+		} else {
+			//the timeout is never used: core threads don't time out
+			executor = new PriorityExecutor (this, poolSize, poolSize, 10, TimeUnit.SECONDS, queue);
+		}
+		if (config.isAdaptivePoolSize ()) {
+			poolSizeController = new PoolSizeController (this, minPoolSize, maxPoolSize,
+					config.getAdaptiveInterval (TimeUnit.NANOSECONDS), config.getTargetQueueWait (TimeUnit.NANOSECONDS));
+			poolSizeController.start ();
+		}
 	}
 
 	/**
@@ -93,17 +157,696 @@ public class ThreadTerminal {
 	 * your callable's execution.
 	 */
 	public <T> Future<T> submit (Callable<T> callable, String name, Priority priority, boolean exclusively) {
-		innerLock.lock ();
+		return submit (callable, name, priority.getValue (), exclusively);
+	}
+
+	/**
+	 * Submits a callable task with an arbitrary priority level. It will be
+	 * executed after all tasks with higher levels and after the tasks of the
+	 * same level submitted earlier.
+	 *
+	 * @param <T> the type of the callable's returned result
+	 * @param callable a standard callable to be executed
+	 * @param name the name of the task, may be null. It's only a label: tasks
+	 * are told apart by their ids, so names may repeat.
+	 * @param priority from {@link Priority#HIGHEST_LEVEL} to
+	 * {@link Priority#LOWEST_LEVEL}, the less the value, the higher the
+	 * priority.
+	 * @param exclusively if true, it will be executed exclusively, if false,
+	 * then in parallel with all other tasks.
+	 * @return an object of Future, from which you can obtain the results of
+	 * your callable's execution.
+	 * @throws IllegalArgumentException if the priority is out of range.
+	 */
+	public <T> Future<T> submit (Callable<T> callable, String name, int priority, boolean exclusively) {
+		return submit (callable, name, priority, exclusively, null);
+	}
+
+	/**
+	 * Submits a callable task with an exclusivity key. An exclusive task with
+	 * a key excludes only the tasks with the same key, a usual task with a key
+	 * is excluded only by them: tasks on unrelated keys run in parallel. An
+	 * exclusive task without a key still excludes all tasks, keyed ones too.
+	 *
+	 * @param <T> the type of the callable's returned result
+	 * @param callable a standard callable to be executed
+	 * @param name the name of the task, may be null
+	 * @param priority can be one of {@link Priority} levels
+	 * @param exclusively if true, it will be executed exclusively among the
+	 * tasks with the same key, if false, then in parallel with them.
+	 * @param key the exclusivity key, e.g. an id of the resource the task
+	 * works with, may be null.
+	 * @return an object of Future, from which you can obtain the results of
+	 * your callable's execution.
+	 */
+	public <T> Future<T> submit (Callable<T> callable, String name, Priority priority, boolean exclusively, String key) {
+		return submit (callable, name, priority.getValue (), exclusively, key);
+	}
+
+	/**
+	 * Submits a callable task with an arbitrary priority level and an
+	 * exclusivity key, see {@link #submit(Callable, String, Priority, boolean, String)}.
+	 *
+	 * @param <T> the type of the callable's returned result
+	 * @param callable a standard callable to be executed
+	 * @param name the name of the task, may be null
+	 * @param priority from {@link Priority#HIGHEST_LEVEL} to
+	 * {@link Priority#LOWEST_LEVEL}
+	 * @param exclusively if true, it will be executed exclusively among the
+	 * tasks with the same key, if false, then in parallel with them.
+	 * @param key the exclusivity key, may be null.
+	 * @return an object of Future, from which you can obtain the results of
+	 * your callable's execution.
+	 * @throws IllegalArgumentException if the priority is out of range.
+	 */
+	public <T> Future<T> submit (Callable<T> callable, String name, int priority, boolean exclusively, String key) {
+		checkPriority (priority);
+		PriorityCallable<T> priorityCallable = newPriorityCallable (callable, name, priority, exclusively, taskIds.incrementAndGet (), key);
+		return executor.submit (priorityCallable);
+	}
+
+	/**
+	 * Submits a callable task with a deadline, see
+	 * {@link #submit(Callable, String, int, boolean, long, TimeUnit)}.
+	 *
+	 * @param <T> the type of the callable's returned result
+	 * @param callable a standard callable to be executed
+	 * @param name the name of the task, may be null
+	 * @param priority can be one of {@link Priority} levels
+	 * @param exclusively if true, it will be executed exclusively, if false,
+	 * then in parallel with all other tasks.
+	 * @param deadline the time from now, that the task should start within
+	 * @param unit the time unit of the deadline
+	 * @return an object of Future, from which you can obtain the results of
+	 * your callable's execution.
+	 */
+	public <T> Future<T> submit (Callable<T> callable, String name, Priority priority, boolean exclusively, long deadline, TimeUnit unit) {
+		return submit (callable, name, priority.getValue (), exclusively, deadline, unit);
+	}
+
+	/**
+	 * Submits a callable task, that is worthless, unless it starts within the
+	 * given time. Inside its priority level the task goes before the tasks
+	 * without deadlines and the tasks with later deadlines. If the deadline
+	 * passes before the task reaches the head of the queue, the task is never
+	 * started: its future throws an {@link java.util.concurrent.ExecutionException}
+	 * caused by a {@link java.util.concurrent.TimeoutException}. See
+	 * {@link TerminalState#getExpiredTasksCount()},
+	 * {@link TerminalState#getOnTimeTasksCount()} and
+	 * {@link TerminalState#getLateTasksCount()}.
+	 *
+	 * @param <T> the type of the callable's returned result
+	 * @param callable a standard callable to be executed
+	 * @param name the name of the task, may be null
+	 * @param priority from {@link Priority#HIGHEST_LEVEL} to
+	 * {@link Priority#LOWEST_LEVEL}
+	 * @param exclusively if true, it will be executed exclusively, if false,
+	 * then in parallel with all other tasks.
+	 * @param deadline the time from now, that the task should start within
+	 * @param unit the time unit of the deadline
+	 * @return an object of Future, from which you can obtain the results of
+	 * your callable's execution.
+	 * @throws IllegalArgumentException if the priority is out of range.
+	 */
+	public <T> Future<T> submit (Callable<T> callable, String name, int priority, boolean exclusively, long deadline, TimeUnit unit) {
+		checkPriority (priority);
+		long deadlineTime = System.nanoTime () + unit.toNanos (deadline);
+		if (deadlineTime == ComparableRunnable.NO_DEADLINE) {
+			deadlineTime--;
+		}
+		PriorityCallable<T> priorityCallable = newPriorityCallable (callable, name, priority, exclusively, taskIds.incrementAndGet (), null, deadlineTime);
+		return executor.submit (priorityCallable);
+	}
+
+	/**
+	 * Submits a callable task, waiting for room in the queue, see
+	 * {@link #submitBlocking(Callable, String, int, boolean, long, TimeUnit)}.
+	 *
+	 * @param <T> the type of the callable's returned result
+	 * @param callable a standard callable to be executed
+	 * @param name the name of the task, may be null
+	 * @param priority can be one of {@link Priority} levels
+	 * @param exclusively if true, it will be executed exclusively, if false,
+	 * then in parallel with all other tasks.
+	 * @param timeout how long to wait for room
+	 * @param unit of the timeout
+	 * @return an object of Future, from which you can obtain the results of
+	 * your callable's execution.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public <T> Future<T> submitBlocking (Callable<T> callable, String name, Priority priority, boolean exclusively, long timeout, TimeUnit unit) throws InterruptedException {
+		return submitBlocking (callable, name, priority.getValue (), exclusively, timeout, unit);
+	}
+
+	/**
+	 * Submits a callable task, waiting for room in the queue up to the
+	 * timeout, if the queue is bounded (see
+	 * {@link TerminalConfig#setQueueCapacity(int, int)}), instead of
+	 * applying the {@link OverflowPolicy}. So a producer, that is faster than
+	 * the workers, is slowed down to their pace.
+	 *
+	 * @param <T> the type of the callable's returned result
+	 * @param callable a standard callable to be executed
+	 * @param name the name of the task, may be null
+	 * @param priority from {@link Priority#HIGHEST_LEVEL} to
+	 * {@link Priority#LOWEST_LEVEL}
+	 * @param exclusively if true, it will be executed exclusively, if false,
+	 * then in parallel with all other tasks.
+	 * @param timeout how long to wait for room
+	 * @param unit of the timeout
+	 * @return an object of Future, from which you can obtain the results of
+	 * your callable's execution.
+	 * @throws IllegalArgumentException if the priority is out of range.
+	 * @throws RejectedExecutionException if the terminal is shut down, or
+	 * there is still no room by the timeout.
+	 * @throws InterruptedException if interrupted while waiting: then the task
+	 * is rejected.
+	 */
+	public <T> Future<T> submitBlocking (Callable<T> callable, String name, int priority, boolean exclusively, long timeout, TimeUnit unit) throws InterruptedException {
+		checkPriority (priority);
+		PriorityCallable<T> priCallable = newPriorityCallable (callable, name, priority, exclusively);
+		ComparableFutureTask<T> task = new ComparableFutureTask<> (priCallable);
+		registerNext (priCallable);
+		executor.execute (task, timeout, unit);
+		return task;
+	}
+
+	/**
+	 * Submits an unnamed callable task. It's labelled by its id, allocated by
+	 * the terminal, wherever a name is asked for.
+	 *
+	 * @param <T> the type of the callable's returned result
+	 * @param callable a standard callable to be executed
+	 * @param priority can be one of {@link Priority} levels
+	 * @param exclusively if true, it will be executed exclusively, if false,
+	 * then in parallel with all other tasks.
+	 * @return an object of Future, from which you can obtain the results of
+	 * your callable's execution.
+	 */
+	public <T> Future<T> submit (Callable<T> callable, Priority priority, boolean exclusively) {
+		return submit (callable, null, priority.getValue (), exclusively);
+	}
+
+	/**
+	 * Submits an unnamed callable task with an arbitrary priority level.
+	 *
+	 * @param <T> the type of the callable's returned result
+	 * @param callable a standard callable to be executed
+	 * @param priority from {@link Priority#HIGHEST_LEVEL} to
+	 * {@link Priority#LOWEST_LEVEL}
+	 * @param exclusively if true, it will be executed exclusively, if false,
+	 * then in parallel with all other tasks.
+	 * @return an object of Future, from which you can obtain the results of
+	 * your callable's execution.
+	 * @throws IllegalArgumentException if the priority is out of range.
+	 */
+	public <T> Future<T> submit (Callable<T> callable, int priority, boolean exclusively) {
+		return submit (callable, null, priority, exclusively);
+	}
+
+	/**
+	 * Submits a callable task, see
+	 * {@link #submitAsync(Callable, String, int, boolean)}.
+	 *
+	 * @param <T> the type of the callable's returned result
+	 * @param callable a standard callable to be executed
+	 * @param name the name of the task, may be null
+	 * @param priority can be one of {@link Priority} levels
+	 * @param exclusively if true, it will be executed exclusively, if false,
+	 * then in parallel with all other tasks.
+	 * @return a future, that is completed by the task.
+	 */
+	public <T> CompletableFuture<T> submitAsync (Callable<T> callable, String name, Priority priority, boolean exclusively) {
+		return submitAsync (callable, name, priority.getValue (), exclusively);
+	}
+
+	/**
+	 * Submits a callable task the same way as
+	 * {@link #submit(Callable, String, int, boolean)}, but returns a
+	 * {@link CompletableFuture}, so the work can be chained without blocking
+	 * a thread on get(). The future is completed by the task in the thread,
+	 * that has executed it, and the non-async continuations run right there,
+	 * so they should be short. Longer ones should be submitted as new tasks
+	 * by {@link #thenSubmit(CompletionStage, Function, String, int, boolean)}.
+	 * Cancelling the future cancels the task, unless it's started.
+	 *
+	 * @param <T> the type of the callable's returned result
+	 * @param callable a standard callable to be executed
+	 * @param name the name of the task, may be null
+	 * @param priority from {@link Priority#HIGHEST_LEVEL} to
+	 * {@link Priority#LOWEST_LEVEL}
+	 * @param exclusively if true, it will be executed exclusively, if false,
+	 * then in parallel with all other tasks.
+	 * @return a future, that is completed by the task.
+	 * @throws IllegalArgumentException if the priority is out of range.
+	 * @throws RejectedExecutionException if the terminal is shut down.
+	 */
+	public <T> CompletableFuture<T> submitAsync (Callable<T> callable, String name, int priority, boolean exclusively) {
+		if (callable == null) {
+			throw new NullPointerException ();
+		}
+		checkPriority (priority);
+		TerminalFuture<T> future = new TerminalFuture<> ();
+		submitAsync (callable, name, priority, exclusively, future);
+		return future;
+	}
+
+	/**
+	 * Submits a continuation, see
+	 * {@link #thenSubmit(CompletionStage, Function, String, int, boolean)}.
+	 *
+	 * @param <T> the type of the parent's result
+	 * @param <U> the type of the continuation's result
+	 * @param parent the stage, that the continuation waits for
+	 * @param function is applied to the result of the parent in a new task
+	 * @param name the name of the task, may be null
+	 * @param priority can be one of {@link Priority} levels
+	 * @param exclusively if true, the continuation will be executed
+	 * exclusively
+	 * @return a future, that is completed by the continuation.
+	 */
+	public <T, U> CompletableFuture<U> thenSubmit (CompletionStage<T> parent, Function<? super T, ? extends U> function, String name, Priority priority, boolean exclusively) {
+		return thenSubmit (parent, function, name, priority.getValue (), exclusively);
+	}
+
+	/**
+	 * Submits a continuation as a new task with its own priority and
+	 * exclusivity, when the parent stage completes. Nothing waits for the
+	 * parent: the task is put to the queue by the thread, that completes the
+	 * parent, e.g. by the worker of the parent task. If the parent fails, the
+	 * continuation is not submitted and its future fails with a
+	 * {@link CompletionException} caused by the same exception. If the
+	 * terminal is shut down by then, the future fails with a
+	 * {@link RejectedExecutionException}.
+	 *
+	 * @param <T> the type of the parent's result
+	 * @param <U> the type of the continuation's result
+	 * @param parent the stage, that the continuation waits for, e.g. a future
+	 * of {@link #submitAsync(Callable, String, int, boolean)}
+	 * @param function is applied to the result of the parent in a new task
+	 * @param name the name of the task, may be null
+	 * @param priority from {@link Priority#HIGHEST_LEVEL} to
+	 * {@link Priority#LOWEST_LEVEL}
+	 * @param exclusively if true, the continuation will be executed
+	 * exclusively
+	 * @return a future, that is completed by the continuation.
+	 * @throws IllegalArgumentException if the priority is out of range.
+	 */
+	public <T, U> CompletableFuture<U> thenSubmit (CompletionStage<T> parent, Function<? super T, ? extends U> function, String name, int priority, boolean exclusively) {
+		if (parent == null || function == null) {
+			throw new NullPointerException ();
+		}
+		checkPriority (priority);
+		TerminalFuture<U> future = new TerminalFuture<> ();
+		parent.whenComplete ((result, failure) -> {
+			if (future.isDone ()) {
+				return;
+			}
+			if (failure != null) {
+				future.completeExceptionally (failure instanceof CompletionException ? failure : new CompletionException (failure));
+				return;
+			}
+			try {
+				submitAsync (() -> function.apply (result), name, priority, exclusively, future);
+			} catch (RejectedExecutionException ex) {
+				future.completeExceptionally (ex);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Executes a graph of tasks, that depend on each other: each task is put
+	 * to the queue, once its predecessors are done, and the tasks, that get
+	 * ready at once, are put by their ranks on the critical path. See
+	 * {@link TaskGraph}.
+	 *
+	 * @param graph of tasks, that is not submitted yet
+	 * @return a future, that is completed when all tasks of the graph are
+	 * done, exceptionally if any of them has failed.
+	 * @throws IllegalStateException if the graph is submitted already.
+	 */
+	public CompletableFuture<Void> submitGraph (TaskGraph graph) {
+		return graph.submit (this);
+	}
+
+	/**
+	 * Submits a task, that completes the given future.
+	 *
+	 * @throws RejectedExecutionException if the terminal is shut down.
+	 */
+	<T> void submitAsync (Callable<T> callable, String name, int priority, boolean exclusively, TerminalFuture<T> future) {
+		PriorityCallable<T> priCallable = newPriorityCallable (callable, name, priority, exclusively);
+		ComparableFutureTask<T> task = new ComparableFutureTask<> (priCallable, future);
+		registerNext (priCallable);
+		future.setTask (task);
+		executor.execute (task);
+	}
+
+	/**
+	 * Submits a named callable task, unless a task with the same name, also
+	 * submitted by this method, is still queued or pending: then nothing is
+	 * queued, and the submission is attached to the existing task, which
+	 * keeps its id, priority and exclusivity. That suits refreshing tasks,
+	 * where a newer request makes the queued one redundant. Once a task
+	 * starts, the next submission with its name creates a new task.
+	 * <br>
+	 * The tasks, submitted by the other methods, e.g. by
+	 * {@link #submit(Callable, String, Priority, boolean)} or by a schedule,
+	 * are never coalesced, even if they have the same name: the queue is not
+	 * searched by names, only the coalescing tasks are registered by them.
+	 *
+	 * @param <T> the type of the callable's returned result
+	 * @param callable a standard callable to be executed
+	 * @param resultType the type of the callable's returned result: all the
+	 * submissions with the same name share one future, so they should have the
+	 * same result type
+	 * @param name the name of the task, the coalescing key
+	 * @param priority can be one of {@link Priority} levels
+	 * @param exclusively if true, it will be executed exclusively, if false,
+	 * then in parallel with all other tasks.
+	 * @param mode whether the existing task keeps its callable or runs the
+	 * new one
+	 * @return the future of the new task or of the existing one.
+	 * @throws IllegalArgumentException if the existing task has another result
+	 * type.
+	 */
+	public <T> Future<T> submitCoalescing (Callable<T> callable, Class<T> resultType, String name, Priority priority, boolean exclusively, CoalesceMode mode) {
+		return submitCoalescing (callable, resultType, name, priority.getValue (), exclusively, mode);
+	}
+
+	/**
+	 * Submits a named callable task with an arbitrary priority level, see
+	 * {@link #submitCoalescing(Callable, Class, String, Priority, boolean, CoalesceMode)}.
+	 *
+	 * @param <T> the type of the callable's returned result
+	 * @param callable a standard callable to be executed
+	 * @param resultType the type of the callable's returned result, the same
+	 * for all the submissions with the same name
+	 * @param name the name of the task, the coalescing key
+	 * @param priority from {@link Priority#HIGHEST_LEVEL} to
+	 * {@link Priority#LOWEST_LEVEL}
+	 * @param exclusively if true, it will be executed exclusively, if false,
+	 * then in parallel with all other tasks.
+	 * @param mode whether the existing task keeps its callable or runs the
+	 * new one
+	 * @return the future of the new task or of the existing one.
+	 * @throws IllegalArgumentException if the priority is out of range, or if
+	 * the existing task has another result type.
+	 * @throws NullPointerException if the name or the result type is null.
+	 */
+	public <T> Future<T> submitCoalescing (Callable<T> callable, Class<T> resultType, String name, int priority, boolean exclusively, CoalesceMode mode) {
+		if (name == null) {
+			throw new NullPointerException ("a coalescing task should have a name");
+		}
+		if (resultType == null) {
+			throw new NullPointerException ("a coalescing task should have a result type");
+		}
+		checkPriority (priority);
+		for (;;) {
+			CoalescingCallable<?> registered = coalescing.get (name);
+			if (registered != null) {
+				CoalescingCallable<T> existing = registered.withResultType (resultType);
+				if (existing.attach (callable, mode)) {
+					terminalState.registerCoalesced (mode);
+					return existing.getFuture ();
+				}
+				//it has started or has been cancelled
+				coalescing.remove (name, existing);
+				continue;
+			}
+			CoalescingCallable<T> coalescingCallable = new CoalescingCallable<> (callable, resultType, name, coalescing);
+			PriorityCallable<T> priCallable = newPriorityCallable (coalescingCallable, name, priority, exclusively);
+			ComparableFutureTask<T> task = new ComparableFutureTask<> (priCallable);
+			coalescingCallable.setFuture (task);
+			if (coalescing.putIfAbsent (name, coalescingCallable) != null) {
+				continue;
+			}
+			registerNext (priCallable);
+			try {
+				executor.execute (task);
+			} catch (RejectedExecutionException ex) {
+				coalescing.remove (name, coalescingCallable);
+				throw ex;
+			}
+			return task;
+		}
+	}
+
+	/**
+	 * Schedules a callable task to be submitted after the given delay, see
+	 * {@link #schedule(Callable, String, int, boolean, long, TimeUnit)}.
+	 *
+	 * @param <T> the type of the callable's returned result
+	 * @param callable a standard callable to be executed
+	 * @param name the name of the task, may be null
+	 * @param priority can be one of {@link Priority} levels
+	 * @param exclusively if true, it will be executed exclusively, if false,
+	 * then in parallel with all other tasks.
+	 * @param delay the time from now to submit the task after
+	 * @param unit the time unit of the delay
+	 * @return a future of the task, that can be used to cancel it.
+	 */
+	public <T> ScheduledFuture<T> schedule (Callable<T> callable, String name, Priority priority, boolean exclusively, long delay, TimeUnit unit) {
+		return schedule (callable, name, priority.getValue (), exclusively, delay, unit);
+	}
+
+	/**
+	 * Schedules a callable task to be submitted after the given delay. The
+	 * task waits in a timer wheel of the terminal, not in the queue, and is
+	 * put to the queue with its priority, when it's due. The delay is counted
+	 * in milliseconds at least.
+	 *
+	 * @param <T> the type of the callable's returned result
+	 * @param callable a standard callable to be executed
+	 * @param name the name of the task, may be null
+	 * @param priority from {@link Priority#HIGHEST_LEVEL} to
+	 * {@link Priority#LOWEST_LEVEL}
+	 * @param exclusively if true, it will be executed exclusively, if false,
+	 * then in parallel with all other tasks.
+	 * @param delay the time from now to submit the task after
+	 * @param unit the time unit of the delay
+	 * @return a future of the task, that can be used to cancel it.
+	 * @throws IllegalArgumentException if the priority is out of range.
+	 * @throws RejectedExecutionException if the terminal is shut down.
+	 */
+	public <T> ScheduledFuture<T> schedule (Callable<T> callable, String name, int priority, boolean exclusively, long delay, TimeUnit unit) {
+		return schedule (callable, name, priority, exclusively, delay, 0, unit);
+	}
+
+	/**
+	 * Schedules a periodic task with a fixed rate, see
+	 * {@link #scheduleAtFixedRate(Runnable, String, int, boolean, long, long, TimeUnit)}.
+	 *
+	 * @param command a runnable to be executed
+	 * @param name the name of the task, may be null
+	 * @param priority can be one of {@link Priority} levels
+	 * @param exclusively if true, each run is executed exclusively
+	 * @param initialDelay the time from now to submit the first run after
+	 * @param period the time between the submissions of the runs
+	 * @param unit the time unit of the delay and the period
+	 * @return a future of the task, that can be used to cancel it.
+	 */
+	public ScheduledFuture<?> scheduleAtFixedRate (Runnable command, String name, Priority priority, boolean exclusively, long initialDelay, long period, TimeUnit unit) {
+		return scheduleAtFixedRate (command, name, priority.getValue (), exclusively, initialDelay, period, unit);
+	}
+
+	/**
+	 * Schedules a periodic task, that is submitted after the initial delay
+	 * and then each period. If the previous run is still queued or running,
+	 * when the next one is due, the next one is skipped (see
+	 * {@link TerminalState#getSkippedPeriodicRunsCount()}), so the runs never
+	 * pile up. The task stops, if a run throws an exception.
+	 *
+	 * @param command a runnable to be executed
+	 * @param name the name of the task, may be null
+	 * @param priority from {@link Priority#HIGHEST_LEVEL} to
+	 * {@link Priority#LOWEST_LEVEL}
+	 * @param exclusively if true, each run is executed exclusively
+	 * @param initialDelay the time from now to submit the first run after
+	 * @param period the time between the submissions of the runs
+	 * @param unit the time unit of the delay and the period
+	 * @return a future of the task, that can be used to cancel it.
+	 * @throws IllegalArgumentException if the priority is out of range or
+	 * the period is not positive.
+	 * @throws RejectedExecutionException if the terminal is shut down.
+	 */
+	public ScheduledFuture<?> scheduleAtFixedRate (Runnable command, String name, int priority, boolean exclusively, long initialDelay, long period, TimeUnit unit) {
+		if (period <= 0) {
+			throw new IllegalArgumentException ("period should be positive: " + period);
+		}
+		return schedule (Executors.callable (command), name, priority, exclusively, initialDelay, unit.toNanos (period), unit);
+	}
+
+	/**
+	 * Schedules a periodic task with a fixed delay, see
+	 * {@link #scheduleWithFixedDelay(Runnable, String, int, boolean, long, long, TimeUnit)}.
+	 *
+	 * @param command a runnable to be executed
+	 * @param name the name of the task, may be null
+	 * @param priority can be one of {@link Priority} levels
+	 * @param exclusively if true, each run is executed exclusively
+	 * @param initialDelay the time from now to submit the first run after
+	 * @param delay the time between the end of a run and the submission of
+	 * the next one
+	 * @param unit the time unit of the delays
+	 * @return a future of the task, that can be used to cancel it.
+	 */
+	public ScheduledFuture<?> scheduleWithFixedDelay (Runnable command, String name, Priority priority, boolean exclusively, long initialDelay, long delay, TimeUnit unit) {
+		return scheduleWithFixedDelay (command, name, priority.getValue (), exclusively, initialDelay, delay, unit);
+	}
+
+	/**
+	 * Schedules a periodic task, that is submitted after the initial delay
+	 * and then after the given delay since the end of each run. The task
+	 * stops, if a run throws an exception.
+	 *
+	 * @param command a runnable to be executed
+	 * @param name the name of the task, may be null
+	 * @param priority from {@link Priority#HIGHEST_LEVEL} to
+	 * {@link Priority#LOWEST_LEVEL}
+	 * @param exclusively if true, each run is executed exclusively
+	 * @param initialDelay the time from now to submit the first run after
+	 * @param delay the time between the end of a run and the submission of
+	 * the next one
+	 * @param unit the time unit of the delays
+	 * @return a future of the task, that can be used to cancel it.
+	 * @throws IllegalArgumentException if the priority is out of range or
+	 * the delay is not positive.
+	 * @throws RejectedExecutionException if the terminal is shut down.
+	 */
+	public ScheduledFuture<?> scheduleWithFixedDelay (Runnable command, String name, int priority, boolean exclusively, long initialDelay, long delay, TimeUnit unit) {
+		if (delay <= 0) {
+			throw new IllegalArgumentException ("delay should be positive: " + delay);
+		}
+		return schedule (Executors.callable (command), name, priority, exclusively, initialDelay, -unit.toNanos (delay), unit);
+	}
+
+	private <T> ScheduledFuture<T> schedule (Callable<T> callable, String name, int priority, boolean exclusively, long delay, long period, TimeUnit unit) {
+		if (callable == null) {
+			throw new NullPointerException ();
+		}
+		checkPriority (priority);
+		ScheduledTask<T> task = new ScheduledTask<> (callable, this, name, priority, exclusively,
+				System.nanoTime () + unit.toNanos (delay), period);
+		scheduledTasks.add (task);
+		scheduleTimer (task);
+		return task;
+	}
+
+	/**
+	 * Puts the scheduled task to the timer wheel for its next run.
+	 *
+	 * @param task to be scheduled
+	 * @throws RejectedExecutionException if the terminal is shut down.
+	 */
+	void scheduleTimer (ScheduledTask<?> task) {
+		TimerWheel wheel = getTimerWheel ();
+		if (wheel == null) {
+			task.cancel (false);
+			throw new RejectedExecutionException ("the terminal is shut down");
+		}
+		task.setTimer (wheel.schedule (task::fire, task.getTime () - System.nanoTime ()));
+	}
+
+	/**
+	 * Runs the action on the timer wheel after the delay.
+	 *
+	 * @param action a short action
+	 * @param delay in nanoseconds
+	 * @return false if the terminal is shut down.
+	 */
+	boolean scheduleTimer (Runnable action, long delay) {
+		TimerWheel wheel = getTimerWheel ();
+		if (wheel == null) {
+			return false;
+		}
+		wheel.schedule (action, delay);
+		return true;
+	}
+
+	/**
+	 *
+	 * @return the timer wheel, or null if the terminal is shut down.
+	 */
+	private TimerWheel getTimerWheel () {
+		synchronized (scheduledTasks) {
+			if (timersStopped || executor.isShutdown ()) {
+				return null;
+			}
+			if (timerWheel == null) {
+				timerWheel = new TimerWheel (name);
+			}
+			return timerWheel;
+		}
+	}
+
+	void unregisterScheduled (ScheduledTask<?> task) {
+		scheduledTasks.remove (task);
+	}
+
+	/**
+	 * Submits a run of a scheduled task. The run is rejected, if the queue
+	 * has no room for it, whatever the {@link OverflowPolicy} is, so the
+	 * thread of the timer wheel never waits and never runs a task itself.
+	 *
+	 * @param callable the run
+	 * @param name of the scheduled task
+	 * @param priority of the scheduled task
+	 * @param exclusively if true, the run is exclusive
+	 * @param outcome is completed with the outcome of the run, e.g. with a
+	 * {@link RejectedExecutionException}, if the run is dropped from the
+	 * queue later
+	 * @return the future of the run.
+	 * @throws RejectedExecutionException if the terminal is shut down, or the
+	 * queue has no room for the run.
+	 */
+	<T> Future<T> submitRun (Callable<T> callable, String name, int priority, boolean exclusively, CompletableFuture<T> outcome) {
+		PriorityCallable<T> priCallable = newPriorityCallable (callable, name, priority, exclusively);
+		ComparableFutureTask<T> task = new ComparableFutureTask<> (priCallable, outcome);
+		registerNext (priCallable);
 		try {
-			if (terminalState.getPendingTasksNames ().keySet ().contains (name)
-					|| terminalState.getActiveTasksNames ().keySet ().contains (name)) {
-				name = name + UUID.randomUUID ().toString ().substring (0, 6);
+			executor.execute (task, 0, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException ex) {
+			//the wheel is being stopped
+			Thread.currentThread ().interrupt ();
+			throw new RejectedExecutionException ("the terminal is shut down");
+		}
+		return task;
+	}
+
+	/**
+	 * Stops the timer wheel and cancels the scheduled tasks, that are not
+	 * submitted yet.
+	 */
+	private void stopTimers () {
+		if (poolSizeController != null) {
+			poolSizeController.stop ();
+		}
+		synchronized (scheduledTasks) {
+			timersStopped = true;
+			if (timerWheel != null) {
+				timerWheel.stop ();
 			}
+		}
+		for (ScheduledTask<?> task : scheduledTasks) {
+			task.cancel (false);
+		}
+	}
+
+	private void registerNext (PriorityCallable<?> priCallable) {
+		//terminalStateUpdate:
+		//here we update the terminal inner state: increment the count of submitted tasks
+		if (gateMode != GateMode.STRICT) {
+			terminalState.registerNewNext (priCallable.getId (), priCallable.getName ());
+			return;
+		}
+		innerLock.lock ();
+		try {
+			terminalState.registerNewNext (priCallable.getId (), priCallable.getName ());
 		} finally {
 			innerLock.unlock ();
 		}
-		PriorityCallable<T> priorityCallable = newPriorityCallable (callable, name, priority, exclusively);
-		return executor.submit (priorityCallable);
 	}
 
 	/**
@@ -152,6 +895,110 @@ public class ThreadTerminal {
 		return executor.invokeAll (priCallables, timeout, unit);
 	}
 
+	/**
+	 * Submits a batch of named callable tasks at once and returns without
+	 * waiting for them. The tasks get a contiguous block of ids, are
+	 * registered in the {@link TerminalState} with a single update and are put
+	 * to the queue under a single lock acquisition, so they keep the order of
+	 * the map among the tasks of their level.
+	 *
+	 * @param <T> the type of the callables' returned results
+	 * @param callables a map with callables to be submitted and their names.
+	 * @param priority can be one of {@link Priority} levels
+	 * @param exclusively if true, each of them will be executed exclusively,
+	 * if false, then in parallel with all other tasks.
+	 * @return futures of the tasks in the order of the map.
+	 * @throws java.util.concurrent.RejectedExecutionException if the terminal
+	 * is shut down, or the queue has no room for all of them, whatever the
+	 * {@link OverflowPolicy} is: then none of the tasks is executed.
+	 */
+	public <T> List<Future<T>> submitAll (Map<Callable<T>, String> callables, Priority priority, boolean exclusively) {
+		return submitAll (callables, priority.getValue (), exclusively);
+	}
+
+	/**
+	 * Submits a batch of named callable tasks with an arbitrary priority
+	 * level, see {@link #submitAll(Map, Priority, boolean)}.
+	 *
+	 * @param <T> the type of the callables' returned results
+	 * @param callables a map with callables to be submitted and their names.
+	 * @param priority from {@link Priority#HIGHEST_LEVEL} to
+	 * {@link Priority#LOWEST_LEVEL}
+	 * @param exclusively if true, each of them will be executed exclusively,
+	 * if false, then in parallel with all other tasks.
+	 * @return futures of the tasks in the order of the map.
+	 * @throws IllegalArgumentException if the priority is out of range.
+	 * @throws java.util.concurrent.RejectedExecutionException if the terminal
+	 * is shut down, or the queue has no room for all of them, whatever the
+	 * {@link OverflowPolicy} is: then none of the tasks is executed.
+	 */
+	public <T> List<Future<T>> submitAll (Map<Callable<T>, String> callables, int priority, boolean exclusively) {
+		checkPriority (priority);
+		long id = taskIds.getAndAdd (callables.size ());
+		List<PriorityCallable<T>> priCallables = new ArrayList<> (callables.size ());
+		for (Entry<Callable<T>, String> entry : callables.entrySet ()) {
+			priCallables.add (newPriorityCallable (entry.getKey (), entry.getValue (), priority, exclusively, ++id));
+		}
+		return submitAll (priCallables);
+	}
+
+	/**
+	 * Submits a batch of unnamed callable tasks, see
+	 * {@link #submitAll(Map, Priority, boolean)}.
+	 *
+	 * @param <T> the type of the callables' returned results
+	 * @param callables to be submitted
+	 * @param priority from {@link Priority#HIGHEST_LEVEL} to
+	 * {@link Priority#LOWEST_LEVEL}
+	 * @param exclusively if true, each of them will be executed exclusively,
+	 * if false, then in parallel with all other tasks.
+	 * @return futures of the tasks in the order of the collection.
+	 * @throws IllegalArgumentException if the priority is out of range.
+	 * @throws java.util.concurrent.RejectedExecutionException if the terminal
+	 * is shut down, or the queue has no room for all of them, whatever the
+	 * {@link OverflowPolicy} is: then none of the tasks is executed.
+	 */
+	public <T> List<Future<T>> submitAll (Collection<? extends Callable<T>> callables, int priority, boolean exclusively) {
+		checkPriority (priority);
+		long id = taskIds.getAndAdd (callables.size ());
+		List<PriorityCallable<T>> priCallables = new ArrayList<> (callables.size ());
+		for (Callable<T> callable : callables) {
+			priCallables.add (newPriorityCallable (callable, null, priority, exclusively, ++id));
+		}
+		return submitAll (priCallables);
+	}
+
+	private <T> List<Future<T>> submitAll (List<PriorityCallable<T>> priCallables) {
+		if (executor.isShutdown ()) {
+			throw new RejectedExecutionException ("the terminal is shut down");
+		}
+		List<ComparableFutureTask<T>> tasks = new ArrayList<> (priCallables.size ());
+		for (PriorityCallable<T> priCallable : priCallables) {
+			tasks.add (new ComparableFutureTask<> (priCallable));
+		}
+		//terminalStateUpdate:
+		//here we update the terminal inner state: the whole batch is submitted
+		if (gateMode != GateMode.STRICT) {
+			terminalState.registerNewNexts (priCallables);
+		} else {
+			innerLock.lock ();
+			try {
+				terminalState.registerNewNexts (priCallables);
+			} finally {
+				innerLock.unlock ();
+			}
+		}
+		executor.executeAll (tasks);
+		return new ArrayList<Future<T>> (tasks);
+	}
+
+	private static void checkPriority (int priority) {
+		if (priority < Priority.HIGHEST_LEVEL || priority > Priority.LOWEST_LEVEL) {
+			throw new IllegalArgumentException ("priority should be from " + Priority.HIGHEST_LEVEL
+					+ " to " + Priority.LOWEST_LEVEL + ": " + priority);
+		}
+	}
+
 	/**
 	 * Constructs a new {@link PriorityCallable} wrapped around
 	 * {@link ExclusiveCallable} or {@link UsualCallable} depending on the given
@@ -164,34 +1011,79 @@ public class ThreadTerminal {
 	 * then in parallel with all other tasks.
 	 * @return an instance of PriorityCallable with defined exclusivity.
 	 */
-	private PriorityCallable newPriorityCallable (Callable callable, String name, Priority priority, boolean exclusively) {
-		PriorityCallable priorityCallable;
+	private <T> PriorityCallable<T> newPriorityCallable (Callable<T> callable, String name, Priority priority, boolean exclusively) {
+		return newPriorityCallable (callable, name, priority.getValue (), exclusively);
+	}
+
+	private <T> PriorityCallable<T> newPriorityCallable (Callable<T> callable, String name, int priority, boolean exclusively) {
+		return newPriorityCallable (callable, name, priority, exclusively, taskIds.incrementAndGet (), null);
+	}
+
+	private <T> PriorityCallable<T> newPriorityCallable (Callable<T> callable, String name, int priority, boolean exclusively, long id) {
+		return newPriorityCallable (callable, name, priority, exclusively, id, null);
+	}
+
+	private <T> PriorityCallable<T> newPriorityCallable (Callable<T> callable, String name, int priority, boolean exclusively, long id, String key) {
+		return newPriorityCallable (callable, name, priority, exclusively, id, key, ComparableRunnable.NO_DEADLINE);
+	}
+
+	private <T> PriorityCallable<T> newPriorityCallable (Callable<T> callable, String name, int priority, boolean exclusively, long id, String key, long deadline) {
+		TerminalState deadlineState = deadline != ComparableRunnable.NO_DEADLINE ? terminalState : null;
+		Callable<T> transport;
 		if (exclusively) {
-			ExclusiveCallable exclusive = new ExclusiveCallable (callable, this, name);
-			priorityCallable = new PriorityCallable (exclusive, name, priority.getValue ());
+			transport = new ExclusiveCallable<> (callable, this, name, id, priority);
 		} else {
-			UsualCallable usual = new UsualCallable (callable, this, name);
-			priorityCallable = new PriorityCallable (usual, name, priority.getValue ());
+			transport = new UsualCallable<> (callable, this, name, id, priority);
 		}
-		return priorityCallable;
+		return new PriorityCallable<> (transport, name, id, priority, key, deadline, deadlineState);
 	}
 
 	/**
 	 * Gets a {@link TerminalState} object, describing the inner state of the
 	 * terminal at the moment of call. It is a clone of the real object inside
-	 * the terminal, so it's not backed by it.
+	 * the terminal, so it's not backed by it. In the {@link GateMode#STRICT}
+	 * mode it's taken under the inner lock, otherwise the counters are read
+	 * without locking (see {@link TerminalSnapshot}).
 	 *
 	 * @return a {@link TerminalState} object.
 	 */
 	public TerminalState snapshotTerminalState () {
+		return snapshotTerminalState (false);
+	}
+
+	/**
+	 * The same as {@link #snapshotTerminalState()}, that may reset the
+	 * latency histograms (see {@link TerminalState#getLatencyHistogram(LatencyPhase, int, boolean)}),
+	 * e.g. to report the latencies of each interval of a monitoring tool.
+	 *
+	 * @param resetLatencies if true, the histograms of the terminal restart
+	 * from zero, so the next snapshot covers the latencies since this one
+	 * @return a {@link TerminalState} object.
+	 */
+	public TerminalState snapshotTerminalState (boolean resetLatencies) {
+		if (gateMode != GateMode.STRICT) {
+			return terminalState.snapshot (resetLatencies);
+		}
 		innerLock.lock ();
 		try {
-			return (TerminalState) terminalState.clone ();
+			return terminalState.snapshot (resetLatencies);
 		} finally {
 			innerLock.unlock ();
 		}
 	}
 
+	/**
+	 * Fills a snapshot of the terminal counters without any locking and
+	 * without copying names of tasks, so it's cheap enough to be polled at a
+	 * high rate.
+	 *
+	 * @param snapshot to be refilled, or null to create a new one
+	 * @return the given snapshot, or a new one.
+	 */
+	public TerminalSnapshot snapshotTerminalState (TerminalSnapshot snapshot) {
+		return terminalState.readCounters (snapshot != null ? snapshot : new TerminalSnapshot ());
+	}
+
 	/**
 	 * Shuts down the executor using the executor's
 	 * {@link ThreadPoolExecutor#shutdown()}.
@@ -200,6 +1092,7 @@ public class ThreadTerminal {
 	 */
 	public void shutdown () {
 		executor.shutdown ();
+		stopTimers ();
 	}
 
 	/**
@@ -210,29 +1103,59 @@ public class ThreadTerminal {
 	 */
 	public void shutdownNow () {
 		executor.shutdownNow ();
+		stopTimers ();
 	}
 
 	/**
+	 * If lifecycle events are traced, also waits for the last of them to be
+	 * passed to the sink.
+	 *
 	 * @see ThreadPoolExecutor#awaitTermination(long,
 	 * java.util.concurrent.TimeUnit)
 	 */
 	public boolean awaitTermination (long timeout, TimeUnit unit) throws InterruptedException {
-		return executor.awaitTermination (timeout, unit);
+		long deadline = System.nanoTime () + unit.toNanos (timeout);
+		if (!executor.awaitTermination (timeout, unit)) {
+			return false;
+		}
+		LifecycleTracer tracer = terminalState.getTracer ();
+		if (tracer != null) {
+			tracer.awaitClosed (deadline - System.nanoTime (), TimeUnit.NANOSECONDS);
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 * @return the count of lifecycle events dropped because the tracer could
+	 * not keep up, or 0 if the events are not traced.
+	 */
+	public long getDroppedTraceEvents () {
+		LifecycleTracer tracer = terminalState.getTracer ();
+		return tracer != null ? tracer.getDroppedEvents () : 0;
+	}
+
+	public boolean isShutdown () {
+		return executor.isShutdown ();
 	}
 
 	public boolean isTerminated () {
 		return executor.isTerminated ();
 	}
 
-	synchronized Lock getTaskLock () {
-		return taskLock;
+	public OverflowPolicy getOverflowPolicy () {
+		return overflowPolicy;
 	}
 
-	synchronized Condition getCondition () {
-		return condition;
+	/**
+	 *
+	 * @return true if the current thread is a worker of this terminal.
+	 */
+	boolean isWorkerThread () {
+		return executor.isWorkerThread ();
 	}
 
-	synchronized TerminalState getTerminalState () {
+	TerminalState getTerminalState () {
 		return terminalState;
 	}
 
@@ -244,7 +1167,65 @@ public class ThreadTerminal {
 		return selfTest;
 	}
 
+	public GateMode getGateMode () {
+		return gateMode;
+	}
+
+	public ExecutionMode getExecutionMode () {
+		return executionMode;
+	}
+
+	public String getName () {
+		return name;
+	}
+
 	public int getPoolSize () {
 		return poolSize;
 	}
+
+	/**
+	 * Resizes the pool at once. New workers wait for the exclusive gate in
+	 * the queue as the others do, and the removed ones leave only when they
+	 * are idle, so the pool may be resized while an exclusive task holds the
+	 * gate. The resize is recorded in the {@link TerminalState}, see
+	 * {@link TerminalState#getPoolResizes()}.
+	 *
+	 * @param poolSize the new count of threads, or of permits in the
+	 * {@link ExecutionMode#VIRTUAL_THREADS} mode. If the pool size is
+	 * adaptive, it should be within the bounds of
+	 * {@link TerminalConfig#setAdaptivePoolSize(int, int)}, and the
+	 * controller goes on from it.
+	 * @throws IllegalArgumentException if the size is less than 1 or out of
+	 * the adaptive bounds.
+	 * @throws IllegalStateException if the terminal is shut down.
+	 * @throws UnsupportedOperationException in the
+	 * {@link ExecutionMode#WORK_STEALING} mode.
+	 */
+	public void setPoolSize (int poolSize) {
+		if (poolSize < 1 || (maxPoolSize > 0 && (poolSize < minPoolSize || poolSize > maxPoolSize))) {
+			throw new IllegalArgumentException ("pool size should be from " + Math.max (1, minPoolSize)
+					+ " to " + (maxPoolSize > 0 ? maxPoolSize : Integer.MAX_VALUE) + ": " + poolSize);
+		}
+		resize (poolSize, "manual");
+	}
+
+	/**
+	 *
+	 * @param poolSize the new size
+	 * @param reason of the resize
+	 */
+	void resize (int poolSize, String reason) {
+		synchronized (resizeLock) {
+			if (executor.isShutdown ()) {
+				throw new IllegalStateException ("the terminal is shut down");
+			}
+			int fromSize = this.poolSize;
+			if (fromSize == poolSize) {
+				return;
+			}
+			executor.setPoolSize (poolSize);
+			this.poolSize = poolSize;
+			terminalState.registerPoolResize (fromSize, poolSize, reason);
+		}
+	}
 }
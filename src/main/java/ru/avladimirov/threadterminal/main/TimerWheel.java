@@ -0,0 +1,237 @@
+package ru.avladimirov.threadterminal.main;
+
+import static ru.avladimirov.threadterminal.main.Terminals.getLogger;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hierarchical timer wheel, that fires the timers of a terminal from a
+ * single daemon thread. Time is counted in ticks of a millisecond. The first
+ * level has a slot per tick for the next 256 ticks, each of the next three
+ * levels has 64 slots, each covering a whole turn of the level below, so the
+ * wheel spans about 18 hours, and the rest of timers wait in an overflow list.
+ * When a level turns, the timers of its next slot are cascaded down. Adding a
+ * timer and firing it take a constant time, whatever the count of timers is.
+ * <br>
+ * The wheel is owned by its thread: new timers are passed to it through a
+ * lock-free queue, and a cancelled timer is only marked and dropped when its
+ * slot is reached. While the first level is empty, the thread sleeps until
+ * the next turn of it instead of waking up every tick. Timer actions are run
+ * by the thread itself, so they should be short.
+ *
+ * @author Vladimirov.A.A
+ */
+final class TimerWheel {
+
+	static final long TICK = TimeUnit.MILLISECONDS.toNanos (1);
+	private static final int LEVEL0_BITS = 8;
+	private static final int LEVEL_BITS = 6;
+	//the wheel spans 2^26 ticks, later timers wait in the overflow list
+	private static final int LEVELS = 4;
+
+	/**
+	 * A timer, that fires its action once.
+	 */
+	static final class Timer {
+
+		private final Runnable action;
+		private final long deadline;
+		private Timer next;
+		private volatile boolean cancelled = false;
+
+		private Timer (Runnable action, long deadline) {
+			this.action = action;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * The action won't be run, unless it's already running.
+		 */
+		void cancel () {
+			cancelled = true;
+		}
+	}
+
+	private final long start = System.nanoTime ();
+	private final ConcurrentLinkedQueue<Timer> added = new ConcurrentLinkedQueue<> ();
+	//slot heads of all levels, guarded by the thread of the wheel
+	private final Timer[][] slots = new Timer[LEVELS][];
+	private final int[] counts = new int[LEVELS];
+	private Timer overflow;
+	private int overflowCount = 0;
+	//the last processed tick
+	private long now = 0;
+	//the tick, that the thread sleeps till
+	private volatile long sleepingTill = Long.MAX_VALUE;
+	private volatile boolean stopped = false;
+	private final Thread thread;
+
+	/**
+	 *
+	 * @param terminalName names the thread of the wheel
+	 */
+	TimerWheel (String terminalName) {
+		slots[0] = new Timer[1 << LEVEL0_BITS];
+		for (int level = 1; level < LEVELS; level++) {
+			slots[level] = new Timer[1 << LEVEL_BITS];
+		}
+		thread = new Thread (this::run, terminalName + "-timer");
+		thread.setDaemon (true);
+		thread.start ();
+	}
+
+	/**
+	 * Can be called from any thread.
+	 *
+	 * @param action to be run by the thread of the wheel
+	 * @param delay in nanoseconds, is rounded up to ticks
+	 * @return the new timer.
+	 */
+	Timer schedule (Runnable action, long delay) {
+		long elapsed = System.nanoTime () - start + Math.max (0, delay);
+		Timer timer = new Timer (action, (elapsed + TICK - 1) / TICK);
+		added.offer (timer);
+		if (timer.deadline < sleepingTill) {
+			LockSupport.unpark (thread);
+		}
+		return timer;
+	}
+
+	/**
+	 * Stops the thread, the timers, that are not fired yet, are dropped.
+	 */
+	void stop () {
+		stopped = true;
+		LockSupport.unpark (thread);
+	}
+
+	private long currentTick () {
+		return (System.nanoTime () - start) / TICK;
+	}
+
+	private void run () {
+		while (!stopped) {
+			long tick = currentTick ();
+			addTimers ();
+			while (now < tick && !stopped) {
+				now++;
+				process ();
+				addTimers ();
+			}
+			long till;
+			if (counts[0] > 0) {
+				till = now + 1;
+			} else if (counts[1] + counts[2] + counts[3] + overflowCount > 0) {
+				till = ((now >> LEVEL0_BITS) + 1) << LEVEL0_BITS;
+			} else {
+				till = Long.MAX_VALUE;
+			}
+			sleepingTill = till;
+			//a timer may have been added before the sleeping tick was published
+			if (added.isEmpty () && !stopped) {
+				if (till == Long.MAX_VALUE) {
+					LockSupport.park (this);
+				} else {
+					LockSupport.parkNanos (this, start + till * TICK - System.nanoTime ());
+				}
+			}
+			sleepingTill = Long.MAX_VALUE;
+		}
+	}
+
+	private void addTimers () {
+		Timer timer;
+		while ((timer = added.poll ()) != null) {
+			place (timer);
+		}
+	}
+
+	/**
+	 * Puts the timer to the slot of the level, that covers its deadline, or
+	 * fires it, if it's due.
+	 */
+	private void place (Timer timer) {
+		if (timer.cancelled) {
+			return;
+		}
+		long delta = timer.deadline - now;
+		if (delta <= 0) {
+			fire (timer);
+			return;
+		}
+		int shift = 0;
+		for (int level = 0; level < LEVELS; level++) {
+			int bits = level == 0 ? LEVEL0_BITS : LEVEL_BITS;
+			if (delta < 1L << (shift + bits)) {
+				int slot = (int) ((timer.deadline >> shift) & ((1 << bits) - 1));
+				timer.next = slots[level][slot];
+				slots[level][slot] = timer;
+				counts[level]++;
+				return;
+			}
+			shift += bits;
+		}
+		timer.next = overflow;
+		overflow = timer;
+		overflowCount++;
+	}
+
+	/**
+	 * Processes the tick {@link #now}: cascades the levels, that turn at it,
+	 * from the highest one, then fires the timers of its slot.
+	 */
+	private void process () {
+		if ((now & ((1 << LEVEL0_BITS) - 1)) == 0) {
+			int turnedLevels = 1;
+			int shift = LEVEL0_BITS;
+			while (turnedLevels < LEVELS && ((now >> shift) & ((1 << LEVEL_BITS) - 1)) == 0) {
+				turnedLevels++;
+				shift += LEVEL_BITS;
+			}
+			if (turnedLevels == LEVELS) {
+				Timer timer = overflow;
+				overflow = null;
+				overflowCount = 0;
+				replace (timer);
+			}
+			for (int level = Math.min (turnedLevels, LEVELS - 1); level >= 1; level--) {
+				int slot = (int) ((now >> (LEVEL0_BITS + (level - 1) * LEVEL_BITS)) & ((1 << LEVEL_BITS) - 1));
+				Timer timer = slots[level][slot];
+				slots[level][slot] = null;
+				for (Timer t = timer; t != null; t = t.next) {
+					counts[level]--;
+				}
+				replace (timer);
+			}
+		}
+		int slot = (int) (now & ((1 << LEVEL0_BITS) - 1));
+		Timer timer = slots[0][slot];
+		slots[0][slot] = null;
+		while (timer != null) {
+			Timer next = timer.next;
+			counts[0]--;
+			if (!timer.cancelled) {
+				fire (timer);
+			}
+			timer = next;
+		}
+	}
+
+	private void replace (Timer timer) {
+		while (timer != null) {
+			Timer next = timer.next;
+			timer.next = null;
+			place (timer);
+			timer = next;
+		}
+	}
+
+	private void fire (Timer timer) {
+		try {
+			timer.action.run ();
+		} catch (RuntimeException ex) {
+			getLogger ().error ("a timer action has failed", ex);
+		}
+	}
+}
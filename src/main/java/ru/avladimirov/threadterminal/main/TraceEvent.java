@@ -0,0 +1,48 @@
+package ru.avladimirov.threadterminal.main;
+
+/**
+ * An enum for defining the lifecycle events of a task, that are passed to a
+ * {@link TraceSink}.
+ *
+ * @author Vladimirov.A.A
+ */
+public enum TraceEvent {
+
+	/**
+	 * The task is accepted by the terminal.
+	 */
+	SUBMITTED,
+	/**
+	 * The task is put to the queue.
+	 */
+	QUEUED,
+	/**
+	 * The task has reached the head of the queue, but has to wait for the
+	 * exclusive gate: an exclusive task waits for the active usual ones to
+	 * finish.
+	 */
+	GATE_WAIT,
+	/**
+	 * The deadline of the task has passed before it could be started: at the
+	 * head of the queue, at the gate or on the caller's thread. It's completed
+	 * exceptionally and never started.
+	 */
+	EXPIRED,
+	/**
+	 * The queue had no room for the task: it's either rejected, or dropped
+	 * to make room for another one, and it's never started.
+	 */
+	REJECTED,
+	/**
+	 * The task is taken from the queue by a worker.
+	 */
+	PENDING,
+	/**
+	 * The task has started its execution.
+	 */
+	ACTIVE,
+	/**
+	 * The task has finished its execution.
+	 */
+	FINISHED,;
+}
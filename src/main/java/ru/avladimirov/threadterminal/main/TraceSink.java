@@ -0,0 +1,24 @@
+package ru.avladimirov.threadterminal.main;
+
+/**
+ * A receiver of task lifecycle events, that can be set for a terminal by
+ * {@link TerminalConfig#setTraceSink(TraceSink)}. Events are recorded by the
+ * threads, that make the transitions, into buffers of their own, and are
+ * passed to the sink later by a single background thread of the terminal, so
+ * the sink needs no synchronization and never slows tasks down.
+ *
+ * @see Log4jTraceSink
+ * @author Vladimirov.A.A
+ */
+public interface TraceSink {
+
+	/**
+	 *
+	 * @param event the lifecycle event
+	 * @param taskId the id of the task, allocated by the terminal
+	 * @param name the name of the task, may be null
+	 * @param time {@link System#nanoTime()} of the event
+	 * @param threadId the id of the thread, that has made the transition
+	 */
+	void onEvent (TraceEvent event, long taskId, String name, long time, long threadId);
+}
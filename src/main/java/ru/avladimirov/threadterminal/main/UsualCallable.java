@@ -1,112 +1,101 @@
 package ru.avladimirov.threadterminal.main;
 
 import java.util.concurrent.Callable;
-import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
-import static ru.avladimirov.threadterminal.main.Terminals.getLogger;
 
 /**
  * A wrapper for a callable, that can be executed in parallel with other tasks
- * of this class in a common {@link PriorityExecutor}.
+ * of this class in a common {@link PriorityExecutor}. The {@link PEBQueue}
+ * doesn't hand it out while an exclusive task is active, so the wrapper itself
+ * never waits.
  * <br>
  * In other words, this class in pair with {@link ExclusiveCallable} form a
  * transport, that delivers its load (your custom callables) to the pool
- * executor and regulates its execution.
+ * executor and reports its execution.
  *
  * @author Vladimirov.A.A
  */
 class UsualCallable<T> implements Callable<T> {
 
-	private Lock taskLock;
-	private Condition exclusiveCondition;
 	private Lock innerLock;
 	private Callable<T> callable;
 	private String name;
+	private long id;
+	private int priority;
 	private TerminalState terminalState;
-	private ThreadTerminal terminal;
+	//in the STRICT mode all registrations are done under the inner lock
+	private boolean strict;
 
 	/**
 	 *
 	 * @param callable your custom callable, that is wrapped by this class.
 	 * @param threadTerminal that runs this wrapper
-	 * @param name of this wrapper.
+	 * @param name of this wrapper, may be null.
+	 * @param id of the task, allocated by the terminal.
+	 * @param priority of the task, its latencies are recorded by levels.
 	 */
-	UsualCallable (Callable<T> callable, ThreadTerminal threadTerminal, String name) {
-		this.terminal = threadTerminal;
+	UsualCallable (Callable<T> callable, ThreadTerminal threadTerminal, String name, long id, int priority) {
 		this.terminalState = threadTerminal.getTerminalState ();
 		this.callable = callable;
-		this.taskLock = threadTerminal.getTaskLock ();
-		this.exclusiveCondition = threadTerminal.getCondition ();
 		this.innerLock = terminalState.getInnerLock ();
+		this.strict = threadTerminal.getGateMode () == GateMode.STRICT;
 		this.name = name;
+		this.id = id;
+		this.priority = priority;
 	}
 
 	@Override
 	public T call () throws Exception {
-		taskLock.lock ();
+		//terminalStateUpdate:
+		//here we update the terminal inner state: increment the count of pending tasks
+		lockIfStrict ();
 		try {
-			//terminalStateUpdate:
-			//here we update the terminal inner state: increment the count of pending tasks
-			innerLock.lock ();
-			try {
-				terminalState.registerNewPending (name);
-			} finally {
-				innerLock.unlock ();
-			}
-
-			//wait until an exclusive task finishes its execution
-			boolean shouldWait = false;
-			innerLock.lock ();
-			try {
-				if (terminalState.activeExclusivesExist ()) {
-					getLogger ().debug (name + " can't start: there are activeExclusives");
-					shouldWait = true;
-					getLogger ().debug (name + ": permission's acquired");
-				}
-			} finally {
-				innerLock.unlock ();
-			}
-			//TODO any ideas how to atomize activeExclusivesExist() and await()?
-			if (shouldWait) {
-				exclusiveCondition.await ();
-			}
-
+			terminalState.registerNewPending (id, name);
 		} finally {
-			//we don't need locking between usual tasks: they share no mutual variables,
-			//so can be run in parallel. If you need to synchronize actions between your custom
-			//callables, that are wrapped by this class, make additional locking inside
-			//their call() methods.
-			taskLock.unlock ();
-			getLogger ().debug (name + ": unlocked");
+			unlockIfStrict ();
 		}
 
+		//we don't need locking between usual tasks: they share no mutual variables,
+		//so can be run in parallel. If you need to synchronize actions between your custom
+		//callables, that are wrapped by this class, make additional locking inside
+		//their call() methods.
 		//terminalStateUpdate:
 		//terminal inner state is changed: the task has entered active phase
-		innerLock.lock ();
-		getLogger ().debug (name + " innerLock: before registering new active");
+		lockIfStrict ();
 		try {
-			terminalState.registerNewActive (name, false);
+			terminalState.registerNewActive (id, name, false);
 		} finally {
-			innerLock.unlock ();
-			getLogger ().debug (name + " innerLock: unlocked");
+			unlockIfStrict ();
 		}
+		long startTime = System.nanoTime ();
+		boolean failed = true;
 
 		//the CALL code itself
 		try {
-			getLogger ().debug (name + " starts execution");
-			return callable.call ();
+			T result = callable.call ();
+			failed = false;
+			return result;
 		} finally {
 			//terminalStateUpdate:
 			//terminal inner state is changed: the task has finished execution
-			innerLock.lock ();
-			getLogger ().debug (name + " innerLock: before registering new finished");
+			lockIfStrict ();
 			try {
-				terminalState.registerNewFinished (name, false);
+				terminalState.registerNewFinished (id, name, priority, false, startTime, failed);
 			} finally {
-				innerLock.unlock ();
-				getLogger ().debug (name + " innerLock: finally unlocked");
+				unlockIfStrict ();
 			}
-			getLogger ().debug (name + " ends execution");
+		}
+	}
+
+	private void lockIfStrict () {
+		if (strict) {
+			innerLock.lock ();
+		}
+	}
+
+	private void unlockIfStrict () {
+		if (strict) {
+			innerLock.unlock ();
 		}
 	}
 }
@@ -0,0 +1,276 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An executor for the {@link ExecutionMode#VIRTUAL_THREADS} mode. A single
+ * dispatcher thread takes a permit, then takes the next admitted task from the
+ * {@link PEBQueue} and starts a new virtual thread for it. The task gives its
+ * permit back and is released to the queue once it's executed, so the count
+ * of permits bounds the count of active tasks, while the queue keeps the
+ * priorities and exclusivity exactly as for the {@link PriorityExecutor}.
+ * <br>
+ * A permit is taken before a task, so an admitted task never waits for a
+ * permit while holding the exclusive gate.
+ *
+ * @author Vladimirov.A.A
+ */
+class VirtualThreadExecutor extends AbstractExecutorService implements TerminalExecutor {
+
+	//how long the dispatcher waits for a task before checking for the shutdown
+	private static final long IDLE_POLL_MILLIS = 100;
+
+	private final ThreadTerminal terminal;
+	private final PEBQueue<ComparableRunnable> queue;
+	//guarded by this
+	private int permitsCount;
+	private final Permits permits;
+	private final ThreadFactory taskThreads;
+	private final Thread dispatcher;
+	private final Set<Thread> activeThreads = ConcurrentHashMap.newKeySet ();
+	private final CountDownLatch termination = new CountDownLatch (1);
+	private volatile boolean shutdown = false;
+	private volatile boolean stopped = false;
+
+	/**
+	 *
+	 * @param terminal that runs this executor
+	 * @param permitsCount the maximum count of active tasks
+	 * @param queue orders and admits the tasks
+	 * @throws UnsupportedOperationException if the running JVM doesn't
+	 * support virtual threads.
+	 */
+	VirtualThreadExecutor (ThreadTerminal terminal, int permitsCount, PEBQueue<ComparableRunnable> queue) {
+		this.terminal = terminal;
+		this.queue = queue;
+		this.permitsCount = permitsCount;
+		this.permits = new Permits (permitsCount);
+		this.taskThreads = VirtualThreads.newFactory (terminal.getName () + "-task-");
+		this.dispatcher = new Thread (this::dispatch, terminal.getName () + "-dispatcher");
+		terminal.getTerminalState ().registerNewThread (false);
+		this.dispatcher.start ();
+	}
+
+	@Override
+	protected <T> RunnableFuture<T> newTaskFor (Callable<T> callable) {
+		return PriorityExecutor.newComparableTask (terminal, (PriorityCallable<T>) callable);
+	}
+
+	/**
+	 * Puts the task to the queue, as the {@link PriorityExecutor} does.
+	 *
+	 * @param command a {@link ComparableRunnable} to be executed
+	 * @throws RejectedExecutionException if the executor is shut down, or the
+	 * queue has no room for the task.
+	 */
+	@Override
+	public void execute (Runnable command) {
+		if (command == null) {
+			throw new NullPointerException ();
+		}
+		if (shutdown) {
+			throw PriorityExecutor.rejectShutdown (terminal, Collections.singletonList ((ComparableRunnable) command));
+		}
+		if (!PriorityExecutor.offer (terminal, queue, (ComparableRunnable) command, null)) {
+			//it has been run by the caller
+			return;
+		}
+		if (shutdown && queue.remove (command)) {
+			throw PriorityExecutor.rejectShutdown (terminal, Collections.singletonList ((ComparableRunnable) command));
+		}
+		LifecycleTracer tracer = terminal.getTerminalState ().getTracer ();
+		if (tracer != null) {
+			tracer.record (TraceEvent.QUEUED, (ComparableRunnable) command);
+		}
+	}
+
+	/**
+	 * Puts all the tasks to the queue under a single lock acquisition.
+	 *
+	 * @param tasks to be executed
+	 */
+	@Override
+	public void executeAll (List<? extends ComparableRunnable> tasks) {
+		if (shutdown) {
+			throw PriorityExecutor.rejectShutdown (terminal, tasks);
+		}
+		if (!queue.offerAll (tasks)) {
+			throw PriorityExecutor.reject (terminal, tasks);
+		}
+		if (shutdown) {
+			List<ComparableRunnable> removed = queue.removeTasks (tasks);
+			if (!removed.isEmpty ()) {
+				throw PriorityExecutor.rejectShutdown (terminal, removed);
+			}
+		}
+		LifecycleTracer tracer = terminal.getTerminalState ().getTracer ();
+		if (tracer != null) {
+			for (ComparableRunnable task : tasks) {
+				tracer.record (TraceEvent.QUEUED, task);
+			}
+		}
+	}
+
+	@Override
+	public void execute (ComparableRunnable task, long timeout, TimeUnit unit) throws InterruptedException {
+		if (shutdown) {
+			throw PriorityExecutor.rejectShutdown (terminal, Collections.singletonList (task));
+		}
+		PriorityExecutor.offer (terminal, queue, task, timeout, unit);
+		if (shutdown && queue.remove (task)) {
+			throw PriorityExecutor.rejectShutdown (terminal, Collections.singletonList (task));
+		}
+		LifecycleTracer tracer = terminal.getTerminalState ().getTracer ();
+		if (tracer != null) {
+			tracer.record (TraceEvent.QUEUED, task);
+		}
+	}
+
+	private void dispatch () {
+		try {
+			while (!stopped) {
+				acquirePermit ();
+				ComparableRunnable task = null;
+				while (task == null && !stopped && !(shutdown && queue.isEmpty ())) {
+					try {
+						task = queue.poll (IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+					} catch (InterruptedException ex) {
+						//woken up by the shutdown
+					}
+				}
+				if (task == null) {
+					permits.release ();
+					break;
+				}
+				start (task);
+			}
+			//wait for the active tasks, the pool is not resized after the shutdown
+			permits.acquireUninterruptibly (getPermitsCount ());
+		} finally {
+			termination.countDown ();
+			LifecycleTracer tracer = terminal.getTerminalState ().getTracer ();
+			if (tracer != null) {
+				tracer.close ();
+			}
+		}
+	}
+
+	private void acquirePermit () {
+		for (;;) {
+			try {
+				permits.acquire ();
+				return;
+			} catch (InterruptedException ex) {
+				//woken up by the shutdown, the queued tasks are still to be run
+			}
+		}
+	}
+
+	private synchronized int getPermitsCount () {
+		return permitsCount;
+	}
+
+	private void start (ComparableRunnable task) {
+		PriorityExecutor.beforeRun (terminal, task);
+		Thread thread = taskThreads.newThread (() -> {
+			try {
+				task.run ();
+			} finally {
+				activeThreads.remove (Thread.currentThread ());
+				queue.release (task);
+				permits.release ();
+			}
+		});
+		activeThreads.add (thread);
+		thread.start ();
+	}
+
+	/**
+	 * Adds permits or takes them away: the permits of active tasks are taken
+	 * when they are given back.
+	 *
+	 * @param poolSize the new count of permits
+	 */
+	@Override
+	public synchronized void setPoolSize (int poolSize) {
+		if (poolSize > permitsCount) {
+			permits.release (poolSize - permitsCount);
+		} else if (poolSize < permitsCount) {
+			permits.reducePermits (permitsCount - poolSize);
+		}
+		permitsCount = poolSize;
+	}
+
+	@Override
+	public boolean isWorkerThread () {
+		return activeThreads.contains (Thread.currentThread ());
+	}
+
+	@Override
+	public void shutdown () {
+		shutdown = true;
+		dispatcher.interrupt ();
+	}
+
+	/**
+	 * Removes all queued tasks and interrupts the active ones.
+	 *
+	 * @return the tasks, that were never started.
+	 */
+	@Override
+	public List<Runnable> shutdownNow () {
+		shutdown = true;
+		stopped = true;
+		List<Runnable> tasks = new ArrayList<> ();
+		queue.drainTo (tasks);
+		dispatcher.interrupt ();
+		for (Thread thread : activeThreads) {
+			thread.interrupt ();
+		}
+		return tasks;
+	}
+
+	@Override
+	public boolean isShutdown () {
+		return shutdown;
+	}
+
+	@Override
+	public boolean isTerminated () {
+		return termination.getCount () == 0;
+	}
+
+	@Override
+	public boolean awaitTermination (long timeout, TimeUnit unit) throws InterruptedException {
+		return termination.await (timeout, unit);
+	}
+
+	/**
+	 * A semaphore, which permits can be taken away.
+	 */
+	private static final class Permits extends Semaphore {
+
+		private static final long serialVersionUID = 1L;
+
+		Permits (int permits) {
+			super (permits);
+		}
+
+		@Override
+		protected void reducePermits (int reduction) {
+			super.reducePermits (reduction);
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads for the {@link ExecutionMode#VIRTUAL_THREADS}
+ * mode. The library targets Java 8, so here they are looked up at runtime;
+ * the multi-release jar contains a Java 21 version of this class, that uses
+ * them directly.
+ *
+ * @author Vladimirov.A.A
+ */
+final class VirtualThreads {
+
+	//Thread.isVirtual (), null if the running JVM has no virtual threads
+	private static final Method IS_VIRTUAL = findIsVirtual ();
+
+	private VirtualThreads () {
+	}
+
+	private static Method findIsVirtual () {
+		try {
+			return Thread.class.getMethod ("isVirtual");
+		} catch (NoSuchMethodException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 *
+	 * @return true if the running JVM supports virtual threads.
+	 */
+	static boolean isSupported () {
+		try {
+			Thread.class.getMethod ("ofVirtual");
+			return true;
+		} catch (NoSuchMethodException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 *
+	 * @param prefix of the thread names, followed by a counter
+	 * @return a factory of virtual threads.
+	 * @throws UnsupportedOperationException if the running JVM doesn't
+	 * support virtual threads.
+	 */
+	static ThreadFactory newFactory (String prefix) {
+		try {
+			Object builder = Thread.class.getMethod ("ofVirtual").invoke (null);
+			Class<?> builderClass = Class.forName ("java.lang.Thread$Builder");
+			builder = builderClass.getMethod ("name", String.class, long.class).invoke (builder, prefix, 0L);
+			Method factory = builderClass.getMethod ("factory");
+			return (ThreadFactory) factory.invoke (builder);
+		} catch (ReflectiveOperationException ex) {
+			throw new UnsupportedOperationException ("virtual threads need Java 21 or later", ex);
+		}
+	}
+
+	/**
+	 *
+	 * @param thread to be checked
+	 * @return true if the thread is a virtual one.
+	 */
+	static boolean isVirtual (Thread thread) {
+		if (IS_VIRTUAL == null) {
+			return false;
+		}
+		try {
+			return (Boolean) IS_VIRTUAL.invoke (thread);
+		} catch (ReflectiveOperationException ex) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.Arrays;
+
+/**
+ * A {@link SchedulingPolicy} of weighted fair queueing across levels: each
+ * non-empty level gets a share of dispatches proportional to its weight. Every
+ * level has a virtual time, which grows by the inverse of its weight on each
+ * dispatch, and the task is taken from the level with the least virtual time.
+ * A level, that has been empty, resumes from the current virtual time, so it
+ * can't save up a share while it has no tasks. Virtual times are compared by
+ * their difference, like {@link System#nanoTime()}, so they may overflow.
+ *
+ * @author Vladimirov.A.A
+ */
+class WeightedFairPolicy implements SchedulingPolicy {
+
+	//a virtual time step of a level with the weight of 1
+	private static final long SCALE = 1L << 32;
+
+	/**
+	 * The maximum weight of a level.
+	 */
+	static final int MAX_WEIGHT = 1 << 16;
+
+	private final long[] steps = new long[RunQueue.LEVELS];
+	private final long[] virtualTimes = new long[RunQueue.LEVELS];
+	//the virtual time of the last dispatch
+	private long virtualTime = 0;
+	private long lastNonEmptyLevels = 0;
+
+	/**
+	 *
+	 * @param weights of the levels starting from
+	 * {@link Priority#HIGHEST_LEVEL}, each from 1 to {@link #MAX_WEIGHT}. The
+	 * levels beyond the array get the weight of 1.
+	 */
+	WeightedFairPolicy (int[] weights) {
+		if (weights.length > RunQueue.LEVELS) {
+			throw new IllegalArgumentException ("there are only " + RunQueue.LEVELS + " levels: " + weights.length);
+		}
+		Arrays.fill (steps, SCALE);
+		for (int level = 0; level < weights.length; level++) {
+			if (weights[level] <= 0 || weights[level] > MAX_WEIGHT) {
+				throw new IllegalArgumentException ("weight of the level " + level + " should be from 1 to " + MAX_WEIGHT + ": " + weights[level]);
+			}
+			steps[level] = SCALE / weights[level];
+		}
+	}
+
+	@Override
+	public int selectLevel (long nonEmptyLevels, LevelView levels) {
+		//levels, that have just got tasks, start from the current virtual time
+		long resumed = nonEmptyLevels & ~lastNonEmptyLevels;
+		while (resumed != 0) {
+			int level = Long.numberOfTrailingZeros (resumed);
+			resumed &= resumed - 1;
+			if (virtualTimes[level] - virtualTime < 0) {
+				virtualTimes[level] = virtualTime;
+			}
+		}
+		lastNonEmptyLevels = nonEmptyLevels;
+
+		int selected = Long.numberOfTrailingZeros (nonEmptyLevels);
+		long selectedFinish = virtualTimes[selected] + steps[selected];
+		nonEmptyLevels &= nonEmptyLevels - 1;
+		while (nonEmptyLevels != 0) {
+			int level = Long.numberOfTrailingZeros (nonEmptyLevels);
+			nonEmptyLevels &= nonEmptyLevels - 1;
+			long finish = virtualTimes[level] + steps[level];
+			if (finish - selectedFinish < 0) {
+				selectedFinish = finish;
+				selected = level;
+			}
+		}
+		return selected;
+	}
+
+	@Override
+	public void dispatched (int level) {
+		virtualTimes[level] += steps[level];
+		virtualTime = virtualTimes[level];
+	}
+}
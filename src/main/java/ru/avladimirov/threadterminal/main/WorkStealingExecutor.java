@@ -0,0 +1,426 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An executor for the {@link ExecutionMode#WORK_STEALING} mode. Its workers
+ * are the ones of a {@link ForkJoinPool}: each of them owns a deque, and the
+ * idle ones steal from the others. Workers never wait inside the
+ * {@link PEBQueue} for a task: each task put to the queue schedules a pump, a
+ * small fork-join task, that polls the next admitted task and runs it. The
+ * poll takes the lock of the queue for a moment, as a submission does, but
+ * never waits for a signal. The pumps are stolen the same way, so the queue
+ * keeps the priorities and exclusivity exactly as for the
+ * {@link PriorityExecutor}, while the workers balance themselves.
+ * <br>
+ * A usual task without a key or a deadline, that is submitted by a running
+ * task of the same terminal, doesn't go through the queue at all: it's forked
+ * to the deque of the current worker and only passes the exclusive gate when
+ * it starts, so it takes no lock. Such subtasks run ahead of the queued tasks,
+ * whatever their priority is, and they are not counted by the capacities of
+ * the levels (see {@link TerminalConfig#setQueueCapacity(int, int)}), as they
+ * never occupy the queue. If an exclusive task is active or waiting, the
+ * subtask is put to the queue instead, and then both apply to it.
+ *
+ * @author Vladimirov.A.A
+ */
+class WorkStealingExecutor extends AbstractExecutorService implements TerminalExecutor {
+
+	private final ThreadTerminal terminal;
+	private final PEBQueue<ComparableRunnable> queue;
+	private final ForkJoinPool pool;
+	private final int parallelism;
+	private final LifecycleTracer tracer;
+	private final Set<Thread> activeThreads = ConcurrentHashMap.newKeySet ();
+	//scheduled pumps, that haven't polled the queue yet
+	private final AtomicInteger pumps = new AtomicInteger (0);
+	//tasks put to the queue and not taken by a pump yet
+	private final AtomicInteger queued = new AtomicInteger (0);
+	//accepted tasks, that are not finished yet
+	private final AtomicLong outstanding = new AtomicLong (0);
+	//set while a pump is scheduled on the timer wheel for a permit of a rate limit
+	private final AtomicBoolean throttleTimer = new AtomicBoolean (false);
+	private final AtomicBoolean terminating = new AtomicBoolean (false);
+	private final CountDownLatch termination = new CountDownLatch (1);
+	private volatile boolean shutdown = false;
+	private volatile boolean stopped = false;
+
+	/**
+	 *
+	 * @param terminal that runs this executor
+	 * @param parallelism the count of workers
+	 * @param queue orders and admits the tasks
+	 */
+	WorkStealingExecutor (ThreadTerminal terminal, int parallelism, PEBQueue<ComparableRunnable> queue) {
+		this.terminal = terminal;
+		this.queue = queue;
+		this.parallelism = parallelism;
+		this.tracer = terminal.getTerminalState ().getTracer ();
+		//FIFO mode: forked tasks are never joined, they are events
+		this.pool = new ForkJoinPool (parallelism, new Workers (terminal.getName (), terminal.getTerminalState (), queue), null, true);
+	}
+
+	@Override
+	protected <T> RunnableFuture<T> newTaskFor (Callable<T> callable) {
+		return PriorityExecutor.newComparableTask (terminal, (PriorityCallable<T>) callable);
+	}
+
+	/**
+	 * Puts the task to the queue, or forks it to the deque of the current
+	 * worker, if it's a subtask (see above).
+	 *
+	 * @param command a {@link ComparableRunnable} to be executed
+	 * @throws RejectedExecutionException if the executor is shut down, or the
+	 * queue has no room for the task.
+	 */
+	@Override
+	public void execute (Runnable command) {
+		if (command == null) {
+			throw new NullPointerException ();
+		}
+		ComparableRunnable task = (ComparableRunnable) command;
+		outstanding.incrementAndGet ();
+		if (shutdown) {
+			taskDone ();
+			throw PriorityExecutor.rejectShutdown (terminal, Collections.singletonList (task));
+		}
+		if (!task.isExclusive () && task.getKey () == null && task.getDeadline () == ComparableRunnable.NO_DEADLINE
+				&& !queue.isRateLimited (task) && ForkJoinTask.getPool () == pool) {
+			if (tracer != null) {
+				tracer.record (TraceEvent.QUEUED, task);
+			}
+			ForkJoinTask.adapt (() -> runSubtask (task)).fork ();
+			return;
+		}
+		boolean inQueue;
+		try {
+			inQueue = enqueue (task);
+		} catch (RejectedExecutionException ex) {
+			taskDone ();
+			throw ex;
+		}
+		if (!inQueue) {
+			//it has been run by the caller
+			taskDone ();
+			return;
+		}
+		if (tracer != null) {
+			tracer.record (TraceEvent.QUEUED, task);
+		}
+	}
+
+	@Override
+	public void execute (ComparableRunnable task, long timeout, TimeUnit unit) throws InterruptedException {
+		outstanding.incrementAndGet ();
+		if (shutdown) {
+			taskDone ();
+			throw PriorityExecutor.rejectShutdown (terminal, Collections.singletonList (task));
+		}
+		queued.incrementAndGet ();
+		try {
+			PriorityExecutor.offer (terminal, queue, task, timeout, unit);
+		} catch (RejectedExecutionException | InterruptedException ex) {
+			queued.decrementAndGet ();
+			taskDone ();
+			throw ex;
+		}
+		schedulePump ();
+		if (tracer != null) {
+			tracer.record (TraceEvent.QUEUED, task);
+		}
+	}
+
+	/**
+	 * Puts all the tasks to the queue under a single lock acquisition.
+	 *
+	 * @param tasks to be executed
+	 */
+	@Override
+	public void executeAll (List<? extends ComparableRunnable> tasks) {
+		outstanding.addAndGet (tasks.size ());
+		if (shutdown) {
+			tasksDone (tasks.size ());
+			throw PriorityExecutor.rejectShutdown (terminal, tasks);
+		}
+		if (!queue.offerAll (tasks)) {
+			tasksDone (tasks.size ());
+			throw PriorityExecutor.reject (terminal, tasks);
+		}
+		queued.addAndGet (tasks.size ());
+		if (tracer != null) {
+			for (ComparableRunnable task : tasks) {
+				tracer.record (TraceEvent.QUEUED, task);
+			}
+		}
+		schedulePump ();
+	}
+
+	/**
+	 *
+	 * @return true if the task is queued, false if it has been run by the
+	 * calling thread.
+	 * @throws RejectedExecutionException if the queue has no room for the
+	 * task.
+	 */
+	private boolean enqueue (ComparableRunnable task) {
+		queued.incrementAndGet ();
+		List<ComparableRunnable> dropped = new ArrayList<> (0);
+		boolean inQueue = false;
+		try {
+			inQueue = PriorityExecutor.offer (terminal, queue, task, dropped);
+		} finally {
+			queued.addAndGet (-dropped.size () - (inQueue ? 0 : 1));
+			if (!dropped.isEmpty ()) {
+				tasksDone (dropped.size ());
+			}
+		}
+		//a task run by the caller has released the gate, so the head may be dispatchable as well
+		if (inQueue || queued.get () > 0) {
+			schedulePump ();
+		}
+		return inQueue;
+	}
+
+	/**
+	 * Schedules a pump, unless there are already as many of them as workers:
+	 * a pump is counted until it polls the queue, so the scheduled ones will
+	 * see the latest state of the queue anyway.
+	 */
+	private void schedulePump () {
+		for (;;) {
+			int p = pumps.get ();
+			if (p >= parallelism) {
+				return;
+			}
+			if (pumps.compareAndSet (p, p + 1)) {
+				break;
+			}
+		}
+		ForkJoinTask<?> pump = ForkJoinTask.adapt (this::pump);
+		if (ForkJoinTask.getPool () == pool) {
+			pump.fork ();
+		} else {
+			pool.execute (pump);
+		}
+	}
+
+	private void pump () {
+		pumps.decrementAndGet ();
+		if (stopped) {
+			return;
+		}
+		List<ComparableRunnable> expired = new ArrayList<> (0);
+		ComparableRunnable task = queue.poll (expired);
+		int left = queued.addAndGet (-expired.size () - (task != null ? 1 : 0));
+		if (!expired.isEmpty ()) {
+			tasksDone (expired.size ());
+		}
+		if (task == null) {
+			//the head waits for the gate, a release will schedule a new pump
+			if (!expired.isEmpty () && left > 0) {
+				schedulePump ();
+			} else if (left > 0) {
+				scheduleThrottledPump ();
+			}
+			return;
+		}
+		//let another worker take the next task
+		if (left > 0) {
+			schedulePump ();
+		}
+		runAdmitted (task);
+	}
+
+	/**
+	 * Schedules a pump on the timer wheel for the earliest permit, if a rate
+	 * limit holds the queued tasks back, as no release may come to schedule
+	 * it.
+	 */
+	private void scheduleThrottledPump () {
+		long delay = queue.getThrottleDelay ();
+		if (delay <= 0 || !throttleTimer.compareAndSet (false, true)) {
+			return;
+		}
+		Runnable pump = () -> {
+			throttleTimer.set (false);
+			schedulePump ();
+		};
+		if (!terminal.scheduleTimer (pump, delay)) {
+			//the timer wheel is stopped by the shutdown, so a worker waits for the permit itself
+			pool.execute (() -> {
+				LockSupport.parkNanos (delay);
+				pump.run ();
+			});
+		}
+	}
+
+	private void runSubtask (ComparableRunnable task) {
+		if (stopped) {
+			((Future<?>) task).cancel (false);
+			taskDone ();
+			return;
+		}
+		if (queue.tryAdmitUsual (task)) {
+			runAdmitted (task);
+			return;
+		}
+		try {
+			if (!enqueue (task)) {
+				taskDone ();
+			}
+		} catch (RejectedExecutionException ex) {
+			//its submitter has got the future already
+			task.drop ();
+			taskDone ();
+		}
+	}
+
+	/**
+	 * The parallelism of a fork-join pool is fixed.
+	 *
+	 * @throws UnsupportedOperationException always.
+	 */
+	@Override
+	public void setPoolSize (int poolSize) {
+		throw new UnsupportedOperationException ("the parallelism of a work stealing terminal is fixed");
+	}
+
+	@Override
+	public boolean isWorkerThread () {
+		return ForkJoinTask.getPool () == pool;
+	}
+
+	private void runAdmitted (ComparableRunnable task) {
+		PriorityExecutor.beforeRun (terminal, task);
+		Thread thread = Thread.currentThread ();
+		activeThreads.add (thread);
+		try {
+			task.run ();
+		} finally {
+			activeThreads.remove (thread);
+			//clear the interrupt of shutdownNow, the worker goes on
+			Thread.interrupted ();
+			queue.release (task);
+			if (queued.get () > 0) {
+				schedulePump ();
+			}
+			taskDone ();
+		}
+	}
+
+	private void taskDone () {
+		tasksDone (1);
+	}
+
+	private void tasksDone (int count) {
+		if (outstanding.addAndGet (-count) == 0 && shutdown) {
+			terminate ();
+		}
+	}
+
+	private void terminate () {
+		if (!terminating.compareAndSet (false, true)) {
+			return;
+		}
+		pool.shutdown ();
+		termination.countDown ();
+		if (tracer != null) {
+			tracer.close ();
+		}
+	}
+
+	@Override
+	public void shutdown () {
+		shutdown = true;
+		if (outstanding.get () == 0) {
+			terminate ();
+		}
+	}
+
+	/**
+	 * Removes all queued tasks and interrupts the active ones. The subtasks,
+	 * forked to the deques of the workers, are cancelled.
+	 *
+	 * @return the tasks, that were never started.
+	 */
+	@Override
+	public List<Runnable> shutdownNow () {
+		shutdown = true;
+		stopped = true;
+		List<Runnable> tasks = new ArrayList<> ();
+		queue.drainTo (tasks);
+		queued.addAndGet (-tasks.size ());
+		for (Thread thread : activeThreads) {
+			thread.interrupt ();
+		}
+		if (outstanding.addAndGet (-tasks.size ()) == 0) {
+			terminate ();
+		}
+		return tasks;
+	}
+
+	@Override
+	public boolean isShutdown () {
+		return shutdown;
+	}
+
+	@Override
+	public boolean isTerminated () {
+		return termination.getCount () == 0 && pool.isTerminated ();
+	}
+
+	@Override
+	public boolean awaitTermination (long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime () + unit.toNanos (timeout);
+		if (!termination.await (timeout, unit)) {
+			return false;
+		}
+		return pool.awaitTermination (deadline - System.nanoTime (), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Names the workers after their terminal and registers them in the
+	 * {@link TerminalState}, as the {@link WorkerThreadFactory} does. The pool
+	 * may retire idle workers and create new ones later.
+	 */
+	private static class Workers implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+
+		private final AtomicInteger threadCounter = new AtomicInteger (0);
+		private final String terminalName;
+		private final TerminalState terminalState;
+		private final PEBQueue<ComparableRunnable> queue;
+
+		Workers (String terminalName, TerminalState terminalState, PEBQueue<ComparableRunnable> queue) {
+			this.terminalName = terminalName;
+			this.terminalState = terminalState;
+			this.queue = queue;
+		}
+
+		@Override
+		public ForkJoinWorkerThread newThread (ForkJoinPool pool) {
+			ForkJoinWorkerThread thread = new ForkJoinWorkerThread (pool) {
+			};
+			thread.setName (terminalName + "-worker-" + threadCounter.incrementAndGet ());
+			terminalState.registerNewThread (queue.isExclusivePending ());
+			return thread;
+		}
+	}
+}
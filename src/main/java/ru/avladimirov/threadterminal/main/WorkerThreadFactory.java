@@ -0,0 +1,56 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread factory for the {@link PriorityExecutor}, that names worker threads
+ * after their terminal and registers each created thread in the
+ * {@link TerminalState}. Threads, created while an exclusive task is active or
+ * waiting at the gate, are counted separately: since workers wait inside the
+ * {@link PEBQueue} instead of timing out, there should be none of them.
+ *
+ * @author Vladimirov.A.A
+ */
+class WorkerThreadFactory implements ThreadFactory {
+
+	private final AtomicInteger threadCounter = new AtomicInteger (0);
+	private final String terminalName;
+	private final TerminalState terminalState;
+	private final PEBQueue<ComparableRunnable> queue;
+
+	WorkerThreadFactory (String terminalName, TerminalState terminalState, PEBQueue<ComparableRunnable> queue) {
+		this.terminalName = terminalName;
+		this.terminalState = terminalState;
+		this.queue = queue;
+	}
+
+	@Override
+	public Thread newThread (Runnable r) {
+		Thread thread = new Worker (r, terminalName + "-worker-" + threadCounter.incrementAndGet (), this);
+		if (thread.isDaemon ()) {
+			thread.setDaemon (false);
+		}
+		terminalState.registerNewThread (queue.isExclusivePending ());
+		return thread;
+	}
+
+	/**
+	 *
+	 * @param thread to be checked
+	 * @return true if the thread has been created by this factory.
+	 */
+	boolean isWorker (Thread thread) {
+		return thread instanceof Worker && ((Worker) thread).factory == this;
+	}
+
+	private static final class Worker extends Thread {
+
+		private final WorkerThreadFactory factory;
+
+		Worker (Runnable r, String name, WorkerThreadFactory factory) {
+			super (r, name);
+			this.factory = factory;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads for the {@link ExecutionMode#VIRTUAL_THREADS}
+ * mode, the Java 21 version of the multi-release jar.
+ *
+ * @author Vladimirov.A.A
+ */
+final class VirtualThreads {
+
+	private VirtualThreads () {
+	}
+
+	static boolean isSupported () {
+		return true;
+	}
+
+	static ThreadFactory newFactory (String prefix) {
+		return Thread.ofVirtual ().name (prefix, 0).factory ();
+	}
+
+	static boolean isVirtual (Thread thread) {
+		return thread.isVirtual ();
+	}
+}
@@ -0,0 +1,131 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author Vladimirov.A.A
+ */
+public class CoalescingCallableTest {
+
+	private static CoalescingCallable<Integer> register (Map<String, CoalescingCallable<?>> registry, String name, int value) {
+		CoalescingCallable<Integer> callable = new CoalescingCallable<> (TerminalStateTest.newValueCallable (value), Integer.class, name, registry);
+		callable.setFuture (new FutureTask<> (callable));
+		registry.put (name, callable);
+		return callable;
+	}
+
+	/**
+	 * An attached submission keeps the callable of the task, a replacing one
+	 * changes it, and once the task has started, it leaves the registry and
+	 * accepts no more submissions.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testAttachAndReplace () throws Exception {
+		Map<String, CoalescingCallable<?>> registry = new ConcurrentHashMap<> ();
+		CoalescingCallable<Integer> callable = register (registry, "prices", 1);
+		assertTrue (callable.attach (TerminalStateTest.newValueCallable (2), CoalesceMode.ATTACH));
+		assertTrue (callable.attach (TerminalStateTest.newValueCallable (3), CoalesceMode.REPLACE));
+		assertTrue (callable.attach (TerminalStateTest.newValueCallable (4), CoalesceMode.ATTACH));
+		assertEquals (Integer.valueOf (3), callable.call ());
+		assertFalse (registry.containsKey ("prices"));
+		assertFalse (callable.attach (TerminalStateTest.newValueCallable (5), CoalesceMode.REPLACE));
+	}
+
+	/**
+	 * A cancelled task accepts no submissions, and a started one doesn't
+	 * remove a newer task with the same name from the registry.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testCancelledAndReplacedInRegistry () throws Exception {
+		Map<String, CoalescingCallable<?>> registry = new ConcurrentHashMap<> ();
+		CoalescingCallable<Integer> cancelled = register (registry, "prices", 1);
+		cancelled.getFuture ().cancel (false);
+		assertFalse (cancelled.attach (TerminalStateTest.newValueCallable (2), CoalesceMode.ATTACH));
+
+		CoalescingCallable<Integer> newer = register (registry, "prices", 3);
+		assertEquals (Integer.valueOf (1), cancelled.call ());
+		assertSame (newer, registry.get ("prices"));
+	}
+
+	@Test
+	public void testResultType () {
+		Map<String, CoalescingCallable<?>> registry = new ConcurrentHashMap<> ();
+		CoalescingCallable<?> registered = register (registry, "prices", 1);
+		CoalescingCallable<Integer> typed = registered.withResultType (Integer.class);
+		assertSame (registered, typed);
+		try {
+			registered.withResultType (String.class);
+			fail ("another result type should be refused");
+		} catch (IllegalArgumentException ex) {
+		}
+	}
+
+	/**
+	 * A coalescing submission with the name of a queued task is attached to
+	 * it, and a replacing one changes its callable, unless its result type
+	 * differs. Once the task has started, the same name makes a new task.
+	 *
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	@Test
+	public void testCoalescingSubmit () throws InterruptedException, ExecutionException {
+		final CountDownLatch blocker = new CountDownLatch (1);
+		ThreadTerminal terminal = Terminals.newThreadTerminal ("terminal", 1);
+		terminal.submit (new Callable<Void> () {
+
+			@Override
+			public Void call () throws InterruptedException {
+				blocker.await ();
+				return null;
+			}
+		}, "blocker", Priority.HIGH, false);
+		Future<Integer> first = terminal.submitCoalescing (TerminalStateTest.newValueCallable (1), Integer.class, "prices", Priority.LOW, false, CoalesceMode.ATTACH);
+		Future<Integer> second = terminal.submitCoalescing (TerminalStateTest.newValueCallable (2), Integer.class, "prices", Priority.LOW, false, CoalesceMode.ATTACH);
+		Future<Integer> third = terminal.submitCoalescing (TerminalStateTest.newValueCallable (3), Integer.class, "prices", Priority.LOW, false, CoalesceMode.REPLACE);
+		assertSame (first, second);
+		assertSame (first, third);
+		//the submissions share the future, so another result type is refused
+		try {
+			terminal.submitCoalescing (new Callable<String> () {
+
+				@Override
+				public String call () {
+					return "prices";
+				}
+			}, String.class, "prices", Priority.LOW, false, CoalesceMode.REPLACE);
+			fail ("another result type should be refused");
+		} catch (IllegalArgumentException ex) {
+		}
+		assertEquals (2, terminal.snapshotTerminalState ().getSubmittedTasksCount ());
+		assertEquals (2, terminal.snapshotTerminalState ().getCoalescedSubmissionsCount ());
+		assertEquals (1, terminal.snapshotTerminalState ().getReplacedCallablesCount ());
+
+		blocker.countDown ();
+		assertEquals (Integer.valueOf (3), first.get ());
+		Future<Integer> next = terminal.submitCoalescing (TerminalStateTest.newValueCallable (4), Integer.class, "prices", Priority.LOW, false, CoalesceMode.ATTACH);
+		assertTrue (next != first);
+		assertEquals (Integer.valueOf (4), next.get ());
+		terminal.shutdown ();
+		assertTrue (terminal.awaitTermination (10, TimeUnit.SECONDS));
+		assertEquals (3, terminal.snapshotTerminalState ().getFinishedTasksCount ());
+	}
+}
@@ -0,0 +1,71 @@
+package ru.avladimirov.threadterminal.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Vladimirov.A.A
+ */
+public class ExclusiveGateTest {
+
+	/**
+	 * A waiting exclusive task keeps the new usual tasks out, and the last
+	 * active usual task reports it.
+	 */
+	@Test
+	public void testExclusiveWaitsForUsuals () {
+		ExclusiveGate gate = new ExclusiveGate ();
+		assertTrue (gate.tryAcquireUsual ());
+		assertTrue (gate.tryAcquireUsual ());
+		assertFalse (gate.tryAcquireExclusive ());
+		assertTrue (gate.isExclusiveWaiting ());
+		assertFalse (gate.tryAcquireUsual ());
+
+		assertFalse (gate.releaseUsual ());
+		assertTrue (gate.releaseUsual ());
+		assertTrue (gate.tryAcquireExclusive ());
+		assertTrue (gate.isExclusiveHeld ());
+		assertFalse (gate.isExclusiveWaiting ());
+		assertFalse (gate.tryAcquireUsual ());
+		gate.releaseExclusive ();
+		assertTrue (gate.tryAcquireUsual ());
+		assertEquals (1, gate.getActiveUsuals ());
+	}
+
+	/**
+	 * A handover passes the gate to the next exclusive task of an epoch, and
+	 * no usual task gets in between.
+	 */
+	@Test
+	public void testHandOver () {
+		ExclusiveGate gate = new ExclusiveGate ();
+		assertTrue (gate.tryAcquireExclusive ());
+		gate.handOver ();
+		assertFalse (gate.isExclusiveHeld ());
+		assertTrue (gate.isExclusiveWaiting ());
+		assertFalse (gate.tryAcquireUsual ());
+		assertTrue (gate.tryAcquireExclusive ());
+		gate.releaseExclusive ();
+		assertFalse (gate.isExclusiveHeld ());
+		assertTrue (gate.tryAcquireUsual ());
+	}
+
+	/**
+	 * A handed over gate, whose next task is removed, lets the usual tasks in
+	 * again.
+	 */
+	@Test
+	public void testCancelWaiting () {
+		ExclusiveGate gate = new ExclusiveGate ();
+		assertTrue (gate.tryAcquireExclusive ());
+		gate.handOver ();
+		gate.cancelWaiting ();
+		assertFalse (gate.isExclusiveWaiting ());
+		assertTrue (gate.tryAcquireUsual ());
+		assertFalse (gate.releaseUsual ());
+		assertEquals (0, gate.getActiveUsuals ());
+	}
+}
@@ -0,0 +1,66 @@
+package ru.avladimirov.threadterminal.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Vladimirov.A.A
+ */
+public class FinishedJournalTest {
+
+	/**
+	 * The journal keeps only the latest records, older ones are overwritten.
+	 */
+	@Test
+	public void testOverwritesOldestRecords () {
+		FinishedJournal journal = new FinishedJournal (100);
+		for (int i = 0; i < 250; i++) {
+			journal.record (i, "task" + i, i, i + 1, i % 10 == 0, i % 7 == 0);
+		}
+		JournalCursor cursor = new JournalCursor (journal, 0, journal.getTail ());
+		long expected = 150;
+		while (cursor.next ()) {
+			assertEquals (expected, cursor.getSequence ());
+			assertEquals (expected, cursor.getTaskId ());
+			assertEquals ("task" + expected, cursor.getName ());
+			assertEquals (expected, cursor.getStartTime ());
+			assertEquals (expected + 1, cursor.getEndTime ());
+			assertEquals (expected % 10 == 0, cursor.isExclusive ());
+			assertEquals (expected % 7 == 0 ? TaskOutcome.FAILED : TaskOutcome.SUCCEEDED, cursor.getOutcome ());
+			expected++;
+		}
+		assertEquals (250, expected);
+	}
+
+	/**
+	 * A snapshot reads the records up to its own position, and skips the ones
+	 * overwritten later.
+	 */
+	@Test
+	public void testSnapshotCursor () {
+		TerminalState state = new TerminalState ("terminal", 1, new TerminalConfig (), false);
+		for (int i = 0; i < 50; i++) {
+			state.registerNewNext (i, "task" + i);
+			state.registerNewPending (i, "task" + i);
+			state.registerNewActive (i, "task" + i, false);
+			state.registerNewFinished (i, "task" + i, Priority.LOW.getValue (), false, System.nanoTime (), false);
+		}
+		TerminalState snapshot = state.clone ();
+		assertEquals ("task49", snapshot.getLast100finishedTasksNames ().lastEntry ().getValue ());
+
+		for (int i = 50; i < 120; i++) {
+			state.registerNewNext (i, "task" + i);
+			state.registerNewPending (i, "task" + i);
+			state.registerNewActive (i, "task" + i, false);
+			state.registerNewFinished (i, "task" + i, Priority.LOW.getValue (), false, System.nanoTime (), false);
+		}
+		JournalCursor cursor = snapshot.getFinishedTasksCursor ();
+		assertTrue (cursor.next ());
+		assertEquals ("task20", cursor.getName ());
+		assertEquals (30, snapshot.getLast100finishedTasksNames ().size ());
+		assertEquals (100, state.getLast100finishedTasksNames ().size ());
+		assertEquals ("task119", state.getLast100finishedTasksNames ().lastEntry ().getValue ());
+	}
+}
@@ -0,0 +1,149 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Vladimirov.A.A
+ */
+public class KeyedGateTest {
+
+	private final ReentrantLock lock = new ReentrantLock ();
+	private final Condition dispatchable = lock.newCondition ();
+
+	/**
+	 * Readers of a key share it, a writer excludes them, and the keys of other
+	 * stripes are not affected.
+	 */
+	@Test
+	public void testReadersAndWriters () {
+		assertNotEquals (KeyedGate.stripe ("A"), KeyedGate.stripe ("B"));
+		KeyedGate<ComparableRunnable> gate = new KeyedGate<> ();
+		ComparableRunnable reader1 = PEBQueueTest.newTask (Priority.LOW, false, "A");
+		ComparableRunnable reader2 = PEBQueueTest.newTask (Priority.LOW, false, "A");
+		ComparableRunnable writer = PEBQueueTest.newTask (Priority.LOW, true, "A");
+		ComparableRunnable other = PEBQueueTest.newTask (Priority.LOW, true, "B");
+		assertTrue (gate.tryAcquire (reader1));
+		assertTrue (gate.tryAcquire (reader2));
+		assertFalse (gate.tryAcquire (writer));
+		assertTrue (gate.tryAcquire (other));
+
+		//the writer has marked the stripe as waiting, so the last reader reports it
+		assertFalse (gate.release (reader1));
+		assertTrue (gate.release (reader2));
+		assertTrue (gate.tryAcquire (writer));
+		assertFalse (gate.tryAcquire (reader1));
+		assertTrue (gate.release (writer));
+		//nobody waits for the other stripe
+		assertFalse (gate.release (other));
+	}
+
+	/**
+	 * The parked tasks of a stripe are admitted in the order of parking, and
+	 * the later tasks of the stripe are parked behind them.
+	 */
+	@Test
+	public void testParkedInOrder () {
+		KeyedGate<ComparableRunnable> gate = new KeyedGate<> ();
+		ExclusiveGate global = new ExclusiveGate ();
+		ComparableRunnable active = PEBQueueTest.newTask (Priority.LOW, true, "A");
+		ComparableRunnable writer = PEBQueueTest.newTask (Priority.LOW, true, "A");
+		ComparableRunnable reader = PEBQueueTest.newTask (Priority.LOW, false, "A");
+		assertTrue (gate.tryAcquire (active));
+		assertFalse (gate.tryAcquire (writer));
+		gate.park (writer);
+		assertTrue (gate.isParked (reader));
+		gate.park (reader);
+		assertFalse (gate.isParked (PEBQueueTest.newTask (Priority.LOW, false, "B")));
+		assertEquals (2, gate.size ());
+		assertSame (writer, gate.peek ());
+
+		lock.lock ();
+		try {
+			assertNull (gate.admitParked (global, dispatchable, new ArrayList<> ()));
+			assertEquals (0, global.getActiveUsuals ());
+			gate.release (active);
+			assertSame (writer, gate.admitParked (global, dispatchable, new ArrayList<> ()));
+			//the reader waits for the writer, that it's parked behind
+			assertNull (gate.admitParked (global, dispatchable, new ArrayList<> ()));
+			gate.release (writer);
+			global.releaseUsual ();
+			assertSame (reader, gate.admitParked (global, dispatchable, new ArrayList<> ()));
+		} finally {
+			lock.unlock ();
+		}
+		assertEquals (0, gate.size ());
+		assertFalse (gate.isParked (reader));
+		//the stripe is not marked as waiting any more
+		assertFalse (gate.release (reader));
+	}
+
+	/**
+	 * A parked head, whose deadline has passed, is removed instead of being
+	 * admitted, and the next task of the stripe gets its turn.
+	 */
+	@Test
+	public void testExpiredParkedHead () {
+		KeyedGate<ComparableRunnable> gate = new KeyedGate<> ();
+		ExclusiveGate global = new ExclusiveGate ();
+		AtomicInteger expiredCount = new AtomicInteger (0);
+		ComparableRunnable active = PEBQueueTest.newTask (Priority.LOW, true, "A");
+		ComparableRunnable stale = PEBQueueTest.newTask (Priority.LOW.getValue (), true, "A", System.nanoTime () - 1, expiredCount);
+		ComparableRunnable reader = PEBQueueTest.newTask (Priority.LOW, false, "A");
+		ComparableRunnable lone = PEBQueueTest.newTask (Priority.LOW.getValue (), false, "B", System.nanoTime () - 1, expiredCount);
+		assertTrue (gate.tryAcquire (active));
+		gate.park (stale);
+		gate.park (reader);
+		gate.park (lone);
+
+		List<ComparableRunnable> expired = new ArrayList<> ();
+		lock.lock ();
+		try {
+			//the stripe of B is emptied, while A is still held
+			assertNull (gate.admitParked (global, dispatchable, expired));
+			assertEquals (Arrays.asList (stale, lone), expired);
+			assertEquals (1, gate.size ());
+			gate.release (active);
+			assertSame (reader, gate.admitParked (global, dispatchable, expired));
+		} finally {
+			lock.unlock ();
+		}
+		assertEquals (2, expired.size ());
+		assertEquals (0, gate.size ());
+	}
+
+	@Test
+	public void testRemoveAndDrain () {
+		KeyedGate<ComparableRunnable> gate = new KeyedGate<> ();
+		ComparableRunnable a1 = PEBQueueTest.newTask (Priority.LOW, false, "A");
+		ComparableRunnable a2 = PEBQueueTest.newTask (Priority.LOW, false, "A");
+		ComparableRunnable b = PEBQueueTest.newTask (Priority.LOW, false, "B");
+		gate.park (a1);
+		gate.park (a2);
+		gate.park (b);
+		assertTrue (gate.contains (a2));
+		assertTrue (gate.remove (a2));
+		assertFalse (gate.remove (a2));
+		assertEquals (2, gate.size ());
+
+		List<ComparableRunnable> drained = new ArrayList<> ();
+		assertEquals (1, gate.drainTo (drained, 1));
+		assertEquals (Arrays.asList (a1), drained);
+		assertEquals (1, gate.drainTo (drained, 10));
+		assertEquals (Arrays.asList (a1, b), drained);
+		assertEquals (0, gate.size ());
+		assertNull (gate.peek ());
+	}
+}
@@ -0,0 +1,58 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.Arrays;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Vladimirov.A.A
+ */
+public class LatencyHistogramTest {
+
+	/**
+	 * Each value falls into the bucket, which range contains it, and the
+	 * buckets are contiguous.
+	 */
+	@Test
+	public void testBuckets () {
+		for (int i = 0; i < LatencyHistogram.BUCKETS - 1; i++) {
+			long highest = LatencyHistogram.highestValue (i);
+			assertEquals (i, LatencyHistogram.index (highest));
+			assertEquals (i + 1, LatencyHistogram.index (highest + 1));
+		}
+		assertEquals (0, LatencyHistogram.index (-5));
+		assertEquals (LatencyHistogram.BUCKETS - 1, LatencyHistogram.index (Long.MAX_VALUE));
+	}
+
+	/**
+	 * The percentiles are reported with an error below 1/16, the maximum is
+	 * exact, and a reset starts a new interval.
+	 */
+	@Test
+	public void testPercentiles () {
+		LatencyRecorder recorder = new LatencyRecorder ();
+		for (long value = 1; value <= 100000; value++) {
+			recorder.record (value * 1000);
+		}
+		LatencyHistogram histogram = recorder.snapshot (true);
+		assertEquals (100000, histogram.getCount ());
+		assertEquals (100000000, histogram.getMax ());
+		assertNear (50000000, histogram.getP50 ());
+		assertNear (99000000, histogram.getP99 ());
+		assertNear (99900000, histogram.getP999 ());
+		assertEquals (histogram.getMax (), histogram.getPercentile (100));
+		assertEquals (0, recorder.snapshot (false).getCount ());
+
+		recorder.record (7);
+		LatencyHistogram merged = LatencyHistogram.merge (Arrays.asList (histogram, recorder.snapshot (false), LatencyHistogram.EMPTY));
+		assertEquals (100001, merged.getCount ());
+		assertEquals (7, merged.getPercentile (0));
+		assertEquals (0, LatencyHistogram.EMPTY.getP99 ());
+	}
+
+	private static void assertNear (long expected, long actual) {
+		assertTrue (expected + " ~ " + actual, actual >= expected && actual - expected <= expected / 16);
+	}
+}
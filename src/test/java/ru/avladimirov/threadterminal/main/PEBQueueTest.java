@@ -0,0 +1,606 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Vladimirov.A.A
+ */
+public class PEBQueueTest {
+
+	private static long counter = 0;
+
+	public static ComparableRunnable newTask (Priority priority, boolean exclusive) {
+		return newTask (priority.getValue (), exclusive);
+	}
+
+	public static ComparableRunnable newTask (int priority, boolean exclusive) {
+		return newTask (priority, exclusive, System.nanoTime ());
+	}
+
+	public static ComparableRunnable newTask (int priority, boolean exclusive, long submissionTime) {
+		return newTask (priority, exclusive, submissionTime, null);
+	}
+
+	public static ComparableRunnable newTask (Priority priority, boolean exclusive, String key) {
+		return newTask (priority.getValue (), exclusive, System.nanoTime (), key);
+	}
+
+	public static ComparableRunnable newTask (int priority, boolean exclusive, long submissionTime, String key) {
+		long index = counter++;
+		return new ComparableRunnable () {
+
+			@Override
+			public int getPriority () {
+				return priority;
+			}
+
+			@Override
+			public long getIndex () {
+				return index;
+			}
+
+			@Override
+			public long getSubmissionTime () {
+				return submissionTime;
+			}
+
+			@Override
+			public boolean isExclusive () {
+				return exclusive;
+			}
+
+			@Override
+			public String getKey () {
+				return key;
+			}
+
+			@Override
+			public void run () {
+			}
+		};
+	}
+
+	/**
+	 *
+	 * @param priority of the task
+	 * @param deadline {@link System#nanoTime()} of the latest start
+	 * @param expired is incremented, when the task is expired by the queue
+	 * @return a usual task with a deadline.
+	 */
+	public static ComparableRunnable newTask (int priority, long deadline, AtomicInteger expired) {
+		return newTask (priority, false, null, deadline, expired);
+	}
+
+	/**
+	 *
+	 * @param priority of the task
+	 * @param exclusive true for an exclusive task
+	 * @param key the exclusivity key, may be null
+	 * @param deadline {@link System#nanoTime()} of the latest start
+	 * @param expired is incremented, when the task is expired by the queue
+	 * @return a task with a deadline.
+	 */
+	public static ComparableRunnable newTask (int priority, boolean exclusive, String key, long deadline, AtomicInteger expired) {
+		ComparableRunnable task = newTask (priority, exclusive);
+		return new ComparableRunnable () {
+
+			@Override
+			public int getPriority () {
+				return priority;
+			}
+
+			@Override
+			public long getIndex () {
+				return task.getIndex ();
+			}
+
+			@Override
+			public long getSubmissionTime () {
+				return task.getSubmissionTime ();
+			}
+
+			@Override
+			public boolean isExclusive () {
+				return exclusive;
+			}
+
+			@Override
+			public String getKey () {
+				return key;
+			}
+
+			@Override
+			public long getDeadline () {
+				return deadline;
+			}
+
+			@Override
+			public void expire () {
+				expired.incrementAndGet ();
+			}
+
+			@Override
+			public void run () {
+			}
+		};
+	}
+
+	/**
+	 *
+	 * @param priority of the task
+	 * @param name of the task, is matched by the rate limits of name prefixes
+	 * @return a usual task with a name.
+	 */
+	public static ComparableRunnable newTask (Priority priority, String name) {
+		ComparableRunnable task = newTask (priority, false);
+		return new ComparableRunnable () {
+
+			@Override
+			public int getPriority () {
+				return priority.getValue ();
+			}
+
+			@Override
+			public long getIndex () {
+				return task.getIndex ();
+			}
+
+			@Override
+			public long getSubmissionTime () {
+				return task.getSubmissionTime ();
+			}
+
+			@Override
+			public boolean isExclusive () {
+				return false;
+			}
+
+			@Override
+			public String getTaskName () {
+				return name;
+			}
+
+			@Override
+			public void run () {
+			}
+
+			@Override
+			public String toString () {
+				return name;
+			}
+		};
+	}
+
+	/**
+	 * An exclusive task is held at the head of the queue while there are
+	 * admitted usual tasks, and holds back everything behind it.
+	 */
+	@Test
+	public void testExclusiveWaitsForUsuals () throws InterruptedException {
+		PEBQueue<ComparableRunnable> queue = new PEBQueue<> ();
+		ComparableRunnable usual1 = newTask (Priority.LOW, false);
+		ComparableRunnable exclusive = newTask (Priority.LOW, true);
+		ComparableRunnable usual2 = newTask (Priority.LOW, false);
+		queue.offer (usual1);
+		queue.offer (exclusive);
+		queue.offer (usual2);
+
+		assertSame (usual1, queue.take ());
+		assertNull (queue.poll ());
+		assertNull (queue.poll (10, TimeUnit.MILLISECONDS));
+
+		queue.release (usual1);
+		assertSame (exclusive, queue.poll ());
+		assertTrue (queue.isExclusiveActive ());
+		assertNull (queue.poll ());
+
+		queue.release (exclusive);
+		assertSame (usual2, queue.poll ());
+		assertTrue (queue.getActiveUsuals () == 1);
+	}
+
+	/**
+	 * A worker waiting for the exclusive head is woken up by the last
+	 * finishing usual task.
+	 */
+	@Test
+	public void testLastUsualWakesExclusive () throws InterruptedException {
+		PEBQueue<ComparableRunnable> queue = new PEBQueue<> ();
+		ComparableRunnable usual = newTask (Priority.HIGH, false);
+		ComparableRunnable exclusive = newTask (Priority.HIGH, true);
+		queue.offer (usual);
+		queue.offer (exclusive);
+		assertSame (usual, queue.take ());
+
+		ComparableRunnable[] taken = new ComparableRunnable[1];
+		Thread worker = new Thread (() -> {
+			try {
+				taken[0] = queue.take ();
+			} catch (InterruptedException ex) {
+			}
+		});
+		worker.start ();
+		Thread.sleep (50);
+		assertNull (taken[0]);
+
+		queue.release (usual);
+		worker.join (1000);
+		assertSame (exclusive, taken[0]);
+	}
+
+	/**
+	 * A waiting exclusive task can't be overtaken by a usual task submitted
+	 * later with a higher priority.
+	 */
+	@Test
+	public void testWaitingExclusiveIsNotOvertaken () throws InterruptedException {
+		PEBQueue<ComparableRunnable> queue = new PEBQueue<> ();
+		ComparableRunnable usual = newTask (Priority.LOW, false);
+		ComparableRunnable exclusive = newTask (Priority.LOW, true);
+		queue.offer (usual);
+		queue.offer (exclusive);
+		assertSame (usual, queue.poll ());
+		assertNull (queue.poll ());
+
+		ComparableRunnable high = newTask (Priority.HIGH, false);
+		queue.offer (high);
+		assertNull (queue.poll ());
+		assertSame (exclusive, queue.peek ());
+
+		queue.release (usual);
+		assertSame (exclusive, queue.poll ());
+		queue.release (exclusive);
+		assertSame (high, queue.poll ());
+	}
+
+	/**
+	 * A keyed exclusive task excludes only the tasks with its key: it waits
+	 * for the readers of the key without holding back the others, and the
+	 * later readers of the key don't overtake it. An exclusive task without a
+	 * key still excludes the keyed ones.
+	 */
+	@Test
+	public void testKeyedExclusivity () throws InterruptedException {
+		PEBQueue<ComparableRunnable> queue = new PEBQueue<> ();
+		ComparableRunnable readerA = newTask (Priority.LOW, false, "A");
+		ComparableRunnable writerA = newTask (Priority.LOW, true, "A");
+		ComparableRunnable lateReaderA = newTask (Priority.LOW, false, "A");
+		ComparableRunnable readerB = newTask (Priority.LOW, false, "B");
+		ComparableRunnable usual = newTask (Priority.LOW, false);
+		queue.offer (readerA);
+		queue.offer (writerA);
+		queue.offer (lateReaderA);
+		queue.offer (readerB);
+		queue.offer (usual);
+
+		assertSame (readerA, queue.poll ());
+		//the writer and the late reader of A are parked
+		assertSame (readerB, queue.poll ());
+		assertSame (usual, queue.poll ());
+		assertNull (queue.poll ());
+		assertEquals (2, queue.size ());
+		assertTrue (queue.contains (writerA));
+
+		queue.release (readerA);
+		assertSame (writerA, queue.poll ());
+		assertNull (queue.poll ());
+		queue.release (writerA);
+		assertSame (lateReaderA, queue.poll ());
+		assertEquals (0, queue.size ());
+
+		ComparableRunnable exclusive = newTask (Priority.LOW, true);
+		ComparableRunnable writerC = newTask (Priority.LOW, true, "C");
+		queue.offer (exclusive);
+		queue.offer (writerC);
+		assertNull (queue.poll ());
+		queue.release (lateReaderA);
+		queue.release (readerB);
+		queue.release (usual);
+		assertSame (exclusive, queue.poll ());
+		assertNull (queue.poll ());
+		queue.release (exclusive);
+		assertSame (writerC, queue.poll ());
+		assertTrue (queue.getActiveUsuals () == 1);
+	}
+
+	/**
+	 * In an epoch the gate passes from an exclusive task to the next one over
+	 * the usual tasks ahead of it, until the budget is spent.
+	 */
+	@Test
+	public void testExclusiveEpoch () throws InterruptedException {
+		TerminalState state = new TerminalState ("terminal", 1, new TerminalConfig (), false);
+		PEBQueue<ComparableRunnable> queue = new PEBQueue<> (new StrictPriorityPolicy (), null, 3, state);
+		ComparableRunnable exclusive1 = newTask (Priority.LOW, true);
+		ComparableRunnable usual1 = newTask (Priority.LOW, false);
+		ComparableRunnable exclusive2 = newTask (Priority.LOW, true);
+		ComparableRunnable usual2 = newTask (Priority.LOW, false);
+		ComparableRunnable exclusive3 = newTask (Priority.LOW, true);
+		ComparableRunnable exclusive4 = newTask (Priority.LOW, true);
+		queue.offer (exclusive1);
+		queue.offer (usual1);
+		queue.offer (exclusive2);
+		queue.offer (usual2);
+		queue.offer (exclusive3);
+		queue.offer (exclusive4);
+
+		assertSame (exclusive1, queue.poll ());
+		queue.release (exclusive1);
+		assertSame (exclusive2, queue.poll ());
+		queue.release (exclusive2);
+		assertSame (exclusive3, queue.poll ());
+		//the budget is spent, the gate reopens
+		queue.release (exclusive3);
+		assertSame (usual1, queue.poll ());
+		assertSame (usual2, queue.poll ());
+		assertNull (queue.poll ());
+		assertEquals (2, state.getExclusiveHandoversCount ());
+		assertEquals (2, state.getSavedDrainsCount ());
+
+		queue.release (usual1);
+		queue.release (usual2);
+		assertSame (exclusive4, queue.poll ());
+		queue.release (exclusive4);
+		assertTrue (!queue.isExclusivePending ());
+	}
+
+	/**
+	 * An exclusive task, that the gate is handed over to, but whose deadline
+	 * passes before it starts, is expired, and the epoch ends with it.
+	 */
+	@Test
+	public void testExpiredInEpoch () {
+		TerminalState state = new TerminalState ("terminal", 1, new TerminalConfig (), false);
+		PEBQueue<ComparableRunnable> queue = new PEBQueue<> (new StrictPriorityPolicy (), null, 3, state);
+		AtomicInteger expired = new AtomicInteger (0);
+		long deadline = System.nanoTime () + TimeUnit.MILLISECONDS.toNanos (200);
+		ComparableRunnable exclusive1 = newTask (Priority.HIGH, true);
+		ComparableRunnable usual = newTask (Priority.LOW, false);
+		ComparableRunnable exclusive2 = newTask (Priority.LOW.getValue (), true, null, deadline, expired);
+		ComparableRunnable exclusive3 = newTask (Priority.LOW, true);
+		queue.offer (exclusive1);
+		queue.offer (usual);
+		queue.offer (exclusive2);
+		queue.offer (exclusive3);
+
+		assertSame (exclusive1, queue.poll ());
+		//the task with the deadline is the head of its level
+		queue.release (exclusive1);
+		assertEquals (1, state.getExclusiveHandoversCount ());
+		while (deadline - System.nanoTime () >= 0) {
+			Thread.yield ();
+		}
+		//the epoch doesn't go on to the third one
+		assertSame (usual, queue.poll ());
+		assertEquals (1, expired.get ());
+		assertNull (queue.poll ());
+		queue.release (usual);
+		assertSame (exclusive3, queue.poll ());
+	}
+
+	/**
+	 * Tasks are taken by their levels, and inside one level in the order of
+	 * submission.
+	 */
+	@Test
+	public void testLevelsAreFifo () {
+		PEBQueue<ComparableRunnable> queue = new PEBQueue<> ();
+		ComparableRunnable[] tasks = new ComparableRunnable[Priority.LOWEST_LEVEL + 1];
+		for (int level = Priority.LOWEST_LEVEL; level >= Priority.HIGHEST_LEVEL; level--) {
+			tasks[level] = newTask (level, false);
+			queue.offer (tasks[level]);
+		}
+		ComparableRunnable second = newTask (Priority.HIGHEST_LEVEL, false);
+		queue.offer (second);
+
+		assertSame (tasks[Priority.HIGHEST_LEVEL], queue.poll ());
+		assertSame (second, queue.poll ());
+		for (int level = Priority.HIGHEST_LEVEL + 1; level <= Priority.LOWEST_LEVEL; level++) {
+			assertSame (tasks[level], queue.poll ());
+		}
+		assertNull (queue.poll ());
+	}
+
+	/**
+	 * Inside a level tasks with deadlines go first, by the earliest deadline,
+	 * and an expired head is dropped instead of being handed out.
+	 */
+	@Test
+	public void testEarliestDeadlineFirst () {
+		PEBQueue<ComparableRunnable> queue = new PEBQueue<> ();
+		AtomicInteger expired = new AtomicInteger (0);
+		long now = System.nanoTime ();
+		ComparableRunnable plain = newTask (5, false);
+		ComparableRunnable late = newTask (5, now + TimeUnit.HOURS.toNanos (2), expired);
+		ComparableRunnable early = newTask (5, now + TimeUnit.HOURS.toNanos (1), expired);
+		ComparableRunnable stale = newTask (5, now - 1, expired);
+		ComparableRunnable higher = newTask (4, false);
+		queue.offer (plain);
+		queue.offer (late);
+		queue.offer (early);
+		queue.offer (stale);
+		queue.offer (higher);
+		assertEquals (5, queue.size ());
+
+		assertSame (higher, queue.poll ());
+		assertSame (early, queue.poll ());
+		assertEquals (1, expired.get ());
+		assertSame (late, queue.poll ());
+		assertSame (plain, queue.poll ());
+		assertNull (queue.poll ());
+		assertEquals (1, expired.get ());
+	}
+
+	/**
+	 * A task, that has passed the head of the queue in time, but has waited
+	 * at the gate past its deadline, is expired instead of being admitted:
+	 * the waiting exclusive and a parked keyed task alike.
+	 */
+	@Test
+	public void testExpiredAtGate () {
+		PEBQueue<ComparableRunnable> queue = new PEBQueue<> ();
+		AtomicInteger expired = new AtomicInteger (0);
+		long deadline = System.nanoTime () + TimeUnit.MILLISECONDS.toNanos (20);
+		ComparableRunnable writer = newTask (Priority.LOW, true, "a");
+		ComparableRunnable parked = newTask (Priority.LOW.getValue (), false, "a", deadline, expired);
+		ComparableRunnable reader = newTask (Priority.LOW, false, "a");
+		ComparableRunnable exclusive = newTask (Priority.LOW.getValue (), true, null, deadline, expired);
+		queue.offer (writer);
+		assertSame (writer, queue.poll ());
+		queue.offer (parked);
+		queue.offer (reader);
+		assertNull (queue.poll ());
+		queue.offer (exclusive);
+		//the active writer is a usual task for the global gate
+		assertNull (queue.poll ());
+		assertEquals (0, expired.get ());
+		assertEquals (3, queue.size ());
+
+		while (deadline - System.nanoTime () >= 0) {
+			Thread.yield ();
+		}
+		queue.release (writer);
+		assertSame (reader, queue.poll ());
+		assertEquals (2, expired.get ());
+		assertEquals (0, queue.size ());
+		queue.release (reader);
+		assertNull (queue.poll ());
+		assertFalse (queue.isExclusivePending ());
+	}
+
+	/**
+	 * A batch is put as a whole: its tasks keep their order inside their
+	 * levels, and if the capacities have no room for all of them, none is
+	 * put.
+	 */
+	@Test
+	public void testOfferAll () {
+		int[] capacities = new int[RunQueue.LEVELS];
+		capacities[Priority.LOW.getValue ()] = 2;
+		PEBQueue<ComparableRunnable> queue = new PEBQueue<> (new StrictPriorityPolicy (), null, 1, null, capacities);
+		ComparableRunnable low1 = newTask (Priority.LOW, false);
+		ComparableRunnable high = newTask (Priority.HIGH, false);
+		ComparableRunnable low2 = newTask (Priority.LOW, false);
+		assertTrue (queue.offerAll (Arrays.asList (low1, high, low2)));
+		assertEquals (3, queue.size ());
+		//the high task would fit, the low one wouldn't
+		assertFalse (queue.offerAll (Arrays.asList (newTask (Priority.HIGH, false), newTask (Priority.LOW, false))));
+		assertEquals (3, queue.size ());
+
+		assertSame (high, queue.poll ());
+		assertSame (low1, queue.poll ());
+		assertSame (low2, queue.poll ());
+		assertNull (queue.poll ());
+	}
+
+	/**
+	 * The capacity of a level counts the tasks of the lower levels too, and a
+	 * task without room may drop the oldest task of the lowest level, unless
+	 * that level is higher.
+	 */
+	@Test
+	public void testLevelCapacities () throws InterruptedException {
+		int[] capacities = new int[RunQueue.LEVELS];
+		capacities[Priority.HIGH.getValue ()] = 3;
+		capacities[Priority.LOW.getValue ()] = 2;
+		PEBQueue<ComparableRunnable> queue = new PEBQueue<> (new StrictPriorityPolicy (), null, 1, null, capacities);
+		ComparableRunnable low1 = newTask (Priority.LOW, false);
+		ComparableRunnable low2 = newTask (Priority.LOW, false);
+		ComparableRunnable low3 = newTask (Priority.LOW, false);
+		ComparableRunnable high1 = newTask (Priority.HIGH, false);
+		ComparableRunnable high2 = newTask (Priority.HIGH, false);
+		ComparableRunnable high3 = newTask (Priority.HIGH, false);
+		assertTrue (queue.offer (low1));
+		assertTrue (queue.offer (low2));
+		//the low capacity is used up, the high one is not
+		assertFalse (queue.offer (low3));
+		assertTrue (queue.offer (high1));
+		assertFalse (queue.offer (high2));
+		assertFalse (queue.offer (high2, 10, TimeUnit.MILLISECONDS));
+
+		List<ComparableRunnable> dropped = new ArrayList<> ();
+		assertTrue (queue.offer (high2, dropped));
+		assertTrue (queue.offer (high3, dropped));
+		assertEquals (Arrays.asList (low1, low2), dropped);
+		//only higher tasks are in the way
+		assertFalse (queue.offer (low3, dropped));
+		assertEquals (3, queue.size ());
+		assertEquals (3, queue.size (Priority.HIGH.getValue ()));
+		assertEquals (0, queue.size (Priority.LOW.getValue ()));
+
+		//a taken task makes room for the waiting one
+		Thread taker = new Thread (() -> {
+			try {
+				Thread.sleep (50);
+			} catch (InterruptedException ex) {
+				Thread.currentThread ().interrupt ();
+			}
+			queue.poll ();
+		});
+		taker.start ();
+		assertTrue (queue.offer (low3, 10, TimeUnit.SECONDS));
+		taker.join ();
+		assertSame (high2, queue.poll ());
+		assertSame (high3, queue.poll ());
+		assertSame (low3, queue.poll ());
+		assertNull (queue.poll ());
+	}
+
+	/**
+	 * A task without a permit stays in the queue, and the next permitted one
+	 * is taken instead: from the same level by a name limit, or from a lower
+	 * level by a level limit. A timed poll waits for the earliest permit.
+	 */
+	@Test
+	public void testRateLimits () throws InterruptedException {
+		RateLimits rateLimits = new TerminalConfig ().setRateLimit (Priority.LOW, 10, 2).setRateLimit ("api", 10, 1)
+				.newRateLimits (null);
+		PEBQueue<ComparableRunnable> queue = new PEBQueue<> (new StrictPriorityPolicy (), null, 1, null, null, rateLimits);
+		ComparableRunnable api1 = newTask (Priority.HIGH, "api1");
+		ComparableRunnable api2 = newTask (Priority.HIGH, "api2");
+		ComparableRunnable other = newTask (Priority.HIGH, "other");
+		ComparableRunnable low1 = newTask (Priority.LOW, "low1");
+		ComparableRunnable low2 = newTask (Priority.LOW, "low2");
+		ComparableRunnable low3 = newTask (Priority.LOW, "low3");
+		for (ComparableRunnable task : Arrays.asList (api1, api2, other, low1, low2, low3)) {
+			queue.offer (task);
+		}
+		assertTrue (queue.isRateLimited (api1));
+		assertFalse (queue.isRateLimited (other));
+
+		assertSame (api1, queue.poll ());
+		//api2 has no permit, the task behind it has
+		assertSame (other, queue.poll ());
+		//the high level is held back as a whole, the low one goes within its burst
+		assertSame (low1, queue.poll ());
+		assertSame (low2, queue.poll ());
+		assertNull (queue.poll ());
+		assertTrue (queue.getThrottleDelay () > 0);
+		assertEquals (2, queue.size ());
+
+		//no release comes, the timed poll wakes up by the permit
+		assertSame (api2, queue.poll (10, TimeUnit.SECONDS));
+		assertSame (low3, queue.poll (10, TimeUnit.SECONDS));
+		assertEquals (0, queue.getThrottleDelay ());
+
+		List<RateLimit> limits = queue.getRateLimits ();
+		assertEquals (Priority.LOW.getValue (), limits.get (0).getLevel ());
+		assertEquals (3, limits.get (0).getPermitsCount ());
+		assertEquals (1, limits.get (0).getThrottledTasksCount ());
+		assertEquals ("api", limits.get (1).getNamePrefix ());
+		assertEquals (2, limits.get (1).getPermitsCount ());
+		assertEquals (1, limits.get (1).getThrottledTasksCount ());
+		assertTrue (limits.get (1).getThrottleWait (TimeUnit.NANOSECONDS) > 0);
+	}
+}
@@ -0,0 +1,86 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author Vladimirov.A.A
+ */
+public class PoolSizeControllerTest {
+
+	private static final long TARGET = TimeUnit.MILLISECONDS.toNanos (10);
+
+	private static PoolSizeController newController () {
+		return new PoolSizeController (null, 2, 16, TimeUnit.SECONDS.toNanos (1), TARGET, 8);
+	}
+
+	/**
+	 * The pool grows on long queue waits with a backlog, while each growth
+	 * raises the throughput, up to the maximum.
+	 */
+	@Test
+	public void testGrowth () {
+		PoolSizeController controller = newController ();
+		//grow by a quarter, at least by 1
+		assertEquals (5, controller.decide (4, 2 * TARGET, 100, 10, 4, 0.1));
+		//the growth has raised the throughput: grow again
+		assertEquals (6, controller.decide (5, 2 * TARGET, 120, 10, 5, 0.1));
+		//it hasn't: hold for a sample, then grow
+		assertEquals (6, controller.decide (6, 2 * TARGET, 110, 10, 6, 0.1));
+		assertEquals (7, controller.decide (6, 2 * TARGET, 110, 10, 6, 0.1));
+		//short waits or no backlog: hold
+		assertEquals (7, controller.decide (7, TARGET / 2, 110, 10, 7, 0.1));
+		assertEquals (7, controller.decide (7, 2 * TARGET, 110, 0, 7, 0.1));
+		//never above the maximum
+		assertEquals (16, controller.decide (15, 2 * TARGET, 200, 10, 15, 0.1));
+		assertEquals (16, controller.decide (16, 2 * TARGET, 300, 10, 16, 0.1));
+	}
+
+	/**
+	 * Saturated processors stop the growth, and a pool larger than their
+	 * count shrinks by 1.
+	 */
+	@Test
+	public void testSaturatedProcessors () {
+		PoolSizeController controller = newController ();
+		assertEquals (7, controller.decide (7, 2 * TARGET, 110, 10, 7, PoolSizeController.CPU_CEILING));
+		assertEquals (9, controller.decide (10, 2 * TARGET, 110, 10, 10, PoolSizeController.CPU_CEILING));
+	}
+
+	/**
+	 * An idle pool shrinks by a quarter after several idle samples in a row,
+	 * but not below the minimum.
+	 */
+	@Test
+	public void testIdleShrink () {
+		PoolSizeController controller = newController ();
+		for (int i = 1; i < PoolSizeController.IDLE_SAMPLES; i++) {
+			assertEquals (16, controller.decide (16, 0, 10, 0, 1, 0.1));
+		}
+		assertEquals (12, controller.decide (16, 0, 10, 0, 1, 0.1));
+		//a busy sample breaks the row
+		assertEquals (12, controller.decide (12, 0, 10, 0, 6, 0.1));
+		assertEquals (12, controller.decide (12, 0, 10, 0, 1, 0.1));
+		assertEquals (9, controller.decide (12, 0, 10, 0, 1, 0.1));
+		assertEquals (3, controller.decide (3, 0, 10, 0, 0, 0.1));
+		assertEquals (2, controller.decide (3, 0, 10, 0, 0, 0.1));
+		assertEquals (2, controller.decide (2, 0, 10, 0, 0, 0.1));
+		assertEquals (2, controller.decide (2, 0, 10, 0, 0, 0.1));
+	}
+
+	/**
+	 * The size of a work stealing terminal is fixed, so it can't be adaptive.
+	 */
+	@Test
+	public void testAdaptiveWorkStealing () {
+		try {
+			Terminals.newThreadTerminal ("terminal", 2, new TerminalConfig ()
+					.setAdaptivePoolSize (1, 4).setExecutionMode (ExecutionMode.WORK_STEALING));
+			fail ("the adaptive sizing should be rejected");
+		} catch (IllegalArgumentException ex) {
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author Vladimirov.A.A
+ */
+public class PriorityCallableTest {
+
+	/**
+	 * The deadline bounds the start of a task, so a task, that starts before
+	 * its deadline and finishes after it, is on time.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testStartedBeforeDeadline () throws Exception {
+		TerminalState state = new TerminalState ("terminal", 1, new TerminalConfig (), false);
+		final long deadline = System.nanoTime () + TimeUnit.MILLISECONDS.toNanos (50);
+		Callable<Integer> outliving = new Callable<Integer> () {
+
+			@Override
+			public Integer call () throws InterruptedException {
+				while (deadline - System.nanoTime () >= 0) {
+					Thread.sleep (1);
+				}
+				return 1;
+			}
+		};
+		PriorityCallable<Integer> callable = new PriorityCallable<> (outliving, "task", 0, Priority.LOW.getValue (), null, deadline, state);
+		assertEquals (1, (int) callable.call ());
+		assertEquals (1, state.getOnTimeTasksCount ());
+		assertEquals (0, state.getLateTasksCount ());
+	}
+
+	/**
+	 * A task, that has been handed out in time, but starts after its deadline,
+	 * is late.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testStartedAfterDeadline () throws Exception {
+		TerminalState state = new TerminalState ("terminal", 1, new TerminalConfig (), false);
+		Callable<Integer> value = new Callable<Integer> () {
+
+			@Override
+			public Integer call () {
+				return 1;
+			}
+		};
+		PriorityCallable<Integer> callable = new PriorityCallable<> (value, "task", 0, Priority.LOW.getValue (), null, System.nanoTime () - 1, state);
+		assertEquals (1, (int) callable.call ());
+		assertEquals (0, state.getOnTimeTasksCount ());
+		assertEquals (1, state.getLateTasksCount ());
+	}
+}
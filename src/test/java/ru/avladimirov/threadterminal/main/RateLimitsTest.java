@@ -0,0 +1,174 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import static ru.avladimirov.threadterminal.main.PEBQueueTest.newTask;
+
+/**
+ *
+ * @author Vladimirov.A.A
+ */
+public class RateLimitsTest {
+
+	private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos (100);
+
+	/**
+	 * A level goes within its burst, then waits an interval per permit, and
+	 * the hold of a task records its wait, when the task takes its permit.
+	 */
+	@Test
+	public void testLevelBurst () {
+		TerminalState state = new TerminalState ("terminal", 1, new TerminalConfig (), false);
+		RateLimits rateLimits = new TerminalConfig ().setRateLimit (Priority.LOW, 10, 2).newRateLimits (state);
+		//the buckets start full at their creation
+		long now = System.nanoTime ();
+		int low = Priority.LOW.getValue ();
+		ComparableRunnable task1 = newTask (Priority.LOW, false);
+		ComparableRunnable task2 = newTask (Priority.LOW, false);
+		ComparableRunnable task3 = newTask (Priority.LOW, false);
+		ComparableRunnable high = newTask (Priority.HIGH, false);
+		assertTrue (rateLimits.isLimited (task1));
+		assertFalse (rateLimits.isLimited (high));
+		assertFalse (rateLimits.hasPrefixes ());
+		assertTrue (rateLimits.permitsLevel (Priority.HIGH.getValue (), high, now));
+
+		assertTrue (rateLimits.permitsLevel (low, task1, now));
+		rateLimits.acquire (task1, now);
+		assertTrue (rateLimits.permitsLevel (low, task2, now));
+		rateLimits.acquire (task2, now);
+		assertFalse (rateLimits.permitsLevel (low, task3, now));
+		assertEquals (INTERVAL, rateLimits.getDelay ());
+		//a task, that is checked again, is counted once
+		assertFalse (rateLimits.permitsLevel (low, task3, now + INTERVAL / 2));
+		assertEquals (INTERVAL / 2, rateLimits.getDelay ());
+		rateLimits.reset ();
+		assertEquals (0, rateLimits.getDelay ());
+
+		assertTrue (rateLimits.permitsLevel (low, task3, now + INTERVAL));
+		rateLimits.acquire (task3, now + INTERVAL);
+		RateLimit limit = rateLimits.getRateLimits ().get (0);
+		assertEquals (low, limit.getLevel ());
+		assertEquals (3, limit.getPermitsCount ());
+		assertEquals (1, limit.getThrottledTasksCount ());
+		assertEquals (INTERVAL, limit.getThrottleWait (TimeUnit.NANOSECONDS));
+		assertEquals (1, state.getThrottledTasksCount ());
+		assertEquals (INTERVAL, state.getThrottleWaitNanos ());
+	}
+
+	/**
+	 * An idle bucket doesn't save permits beyond its burst.
+	 */
+	@Test
+	public void testIdleBucket () {
+		RateLimits rateLimits = new TerminalConfig ().setRateLimit (Priority.LOW, 10, 2).newRateLimits (null);
+		long now = System.nanoTime () + TimeUnit.SECONDS.toNanos (10);
+		int low = Priority.LOW.getValue ();
+		ComparableRunnable task = newTask (Priority.LOW, false);
+		for (int i = 0; i < 2; i++) {
+			assertTrue (rateLimits.permitsLevel (low, task, now));
+			rateLimits.acquire (task, now);
+		}
+		assertFalse (rateLimits.permitsLevel (low, task, now));
+		assertEquals (INTERVAL, rateLimits.getDelay ());
+	}
+
+	/**
+	 * A task takes the bucket of the longest prefix of its name, and a
+	 * forgotten hold doesn't record a wait.
+	 */
+	@Test
+	public void testLongestPrefix () {
+		RateLimits rateLimits = new TerminalConfig ().setRateLimit ("api", 10, 1).setRateLimit ("api-slow", 1, 1)
+				.newRateLimits (null);
+		long now = System.nanoTime ();
+		ComparableRunnable slow1 = newTask (Priority.LOW, "api-slow-1");
+		ComparableRunnable slow2 = newTask (Priority.LOW, "api-slow-2");
+		ComparableRunnable fast1 = newTask (Priority.LOW, "api-1");
+		ComparableRunnable fast2 = newTask (Priority.LOW, "api-2");
+		assertTrue (rateLimits.hasPrefixes ());
+		assertTrue (rateLimits.isLimited (slow1));
+		assertFalse (rateLimits.isLimited (newTask (Priority.LOW, "other")));
+		assertFalse (rateLimits.isLimited (newTask (Priority.LOW, false)));
+		//no level limit
+		assertTrue (rateLimits.permitsLevel (Priority.LOW.getValue (), slow1, now));
+
+		assertTrue (rateLimits.permitsName (slow1, now));
+		rateLimits.acquire (slow1, now);
+		//the slow bucket has no permit, the one of the shorter prefix has
+		assertFalse (rateLimits.permitsName (slow2, now));
+		assertEquals (TimeUnit.SECONDS.toNanos (1), rateLimits.getDelay ());
+		assertTrue (rateLimits.permitsName (fast1, now));
+		rateLimits.acquire (fast1, now);
+		assertFalse (rateLimits.permitsName (fast2, now));
+		//the shortest time till a permit
+		assertEquals (INTERVAL, rateLimits.getDelay ());
+
+		rateLimits.forget (slow2);
+		rateLimits.forgetAll ();
+		rateLimits.acquire (slow2, now + TimeUnit.SECONDS.toNanos (1));
+		rateLimits.acquire (fast2, now + INTERVAL);
+		List<RateLimit> limits = rateLimits.getRateLimits ();
+		assertEquals ("api", limits.get (0).getNamePrefix ());
+		assertEquals ("api-slow", limits.get (1).getNamePrefix ());
+		for (RateLimit limit : limits) {
+			assertEquals (2, limit.getPermitsCount ());
+			assertEquals (1, limit.getThrottledTasksCount ());
+			assertEquals (0, limit.getThrottleWait (TimeUnit.NANOSECONDS));
+		}
+	}
+
+	/**
+	 * The tasks of a rate limited backend are held back in the queue, while
+	 * the other tasks of the same level go past them.
+	 *
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	@Test
+	public void testRateLimits () throws InterruptedException, ExecutionException {
+		for (ExecutionMode mode : new ExecutionMode[] {ExecutionMode.PLATFORM_THREADS, ExecutionMode.WORK_STEALING}) {
+			final List<String> started = Collections.synchronizedList (new ArrayList<String> ());
+			ThreadTerminal terminal = Terminals.newThreadTerminal ("terminal", 2, new TerminalConfig ()
+					.setExecutionMode (mode).setRateLimit ("backend", 20, 1));
+			List<Future<String>> futures = new ArrayList<> ();
+			for (String name : Arrays.asList ("backend-1", "backend-2", "backend-3", "backend-4", "local-1", "local-2", "local-3")) {
+				futures.add (terminal.submit (new Callable<String> () {
+
+					@Override
+					public String call () {
+						started.add (name);
+						return name;
+					}
+				}, name, Priority.LOW, false));
+			}
+			for (Future<String> future : futures) {
+				future.get ();
+			}
+			terminal.shutdown ();
+			assertTrue (terminal.awaitTermination (10, TimeUnit.SECONDS));
+			//the locals haven't waited for the permits of the backend
+			assertTrue (mode + ": " + started, started.indexOf ("local-3") < started.indexOf ("backend-2"));
+			assertEquals (Arrays.asList ("backend-2", "backend-3", "backend-4"), started.subList (4, 7));
+
+			TerminalState state = terminal.snapshotTerminalState ();
+			assertEquals (3, state.getThrottledTasksCount ());
+			assertTrue (state.getThrottleWaitNanos () > 0);
+			RateLimit limit = state.getRateLimits ().get (0);
+			assertEquals ("backend", limit.getNamePrefix ());
+			assertEquals (4, limit.getPermitsCount ());
+			assertEquals (3, limit.getThrottledTasksCount ());
+			//3 intervals of 50 ms at least
+			assertTrue (limit.toString (), limit.getThrottleWait (TimeUnit.MILLISECONDS) >= 100);
+		}
+	}
+}
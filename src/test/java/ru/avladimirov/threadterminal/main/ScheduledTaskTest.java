@@ -0,0 +1,134 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author Vladimirov.A.A
+ */
+public class ScheduledTaskTest {
+
+	private static Runnable newCountingRunnable (final AtomicInteger runs, final CountDownLatch counted) {
+		return new Runnable () {
+
+			@Override
+			public void run () {
+				runs.incrementAndGet ();
+				counted.countDown ();
+			}
+		};
+	}
+
+	/**
+	 * Waits for a one-shot task, that is due after the given delay: by then
+	 * the timer wheel has fired everything due before it, and the only
+	 * worker has run everything queued before it.
+	 */
+	private static void awaitOneShot (ThreadTerminal terminal, long delayMillis) throws InterruptedException, ExecutionException {
+		terminal.schedule (TerminalStateTest.newValueCallable (0), "barrier", Priority.LOW, false, delayMillis, TimeUnit.MILLISECONDS).get ();
+	}
+
+	/**
+	 * A scheduled task runs after its delay, and the ones, that haven't run
+	 * yet, are cancelled by the shutdown.
+	 *
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	@Test
+	public void testOneShot () throws InterruptedException, ExecutionException {
+		ThreadTerminal terminal = Terminals.newThreadTerminal ("terminal", 1);
+		long start = System.nanoTime ();
+		ScheduledFuture<Integer> oneShot = terminal.schedule (TerminalStateTest.newValueCallable (1), "once", Priority.LOW, false, 50, TimeUnit.MILLISECONDS);
+		assertEquals (Integer.valueOf (1), oneShot.get ());
+		assertTrue (System.nanoTime () - start >= TimeUnit.MILLISECONDS.toNanos (50));
+
+		ScheduledFuture<Integer> late = terminal.schedule (TerminalStateTest.newValueCallable (2), "late", Priority.LOW, false, 1, TimeUnit.HOURS);
+		terminal.shutdown ();
+		assertTrue (terminal.awaitTermination (10, TimeUnit.SECONDS));
+		assertTrue (late.isCancelled ());
+		try {
+			terminal.schedule (TerminalStateTest.newValueCallable (3), "rejected", Priority.LOW, false, 1, TimeUnit.MILLISECONDS);
+			fail ();
+		} catch (RejectedExecutionException ex) {
+		}
+	}
+
+	/**
+	 * A periodic task runs until it's cancelled.
+	 *
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	@Test
+	public void testFixedRate () throws InterruptedException, ExecutionException {
+		ThreadTerminal terminal = Terminals.newThreadTerminal ("terminal", 1);
+		AtomicInteger runs = new AtomicInteger (0);
+		CountDownLatch fiveRuns = new CountDownLatch (5);
+		ScheduledFuture<?> periodic = terminal.scheduleAtFixedRate (newCountingRunnable (runs, fiveRuns), "tick", Priority.LOW, false,
+				0, 10, TimeUnit.MILLISECONDS);
+		assertTrue (fiveRuns.await (10, TimeUnit.SECONDS));
+		assertTrue (periodic.cancel (false));
+		//a run, that has been due before the cancel, is either cancelled or done by now
+		awaitOneShot (terminal, 20);
+		int stopped = runs.get ();
+		awaitOneShot (terminal, 20);
+		assertEquals (stopped, runs.get ());
+		terminal.shutdown ();
+		assertTrue (terminal.awaitTermination (10, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * The runs of a periodic task are skipped, while the previous one is
+	 * queued, and the periodic task is cancelled by the shutdown.
+	 *
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	@Test
+	public void testSkippedRuns () throws InterruptedException, ExecutionException {
+		ThreadTerminal terminal = Terminals.newThreadTerminal ("terminal", 1);
+		final CountDownLatch blocker = new CountDownLatch (1);
+		terminal.submit (new Callable<Void> () {
+
+			@Override
+			public Void call () throws InterruptedException {
+				blocker.await ();
+				return null;
+			}
+		}, "blocker", Priority.HIGH, false);
+		AtomicInteger runs = new AtomicInteger (0);
+		CountDownLatch twoRuns = new CountDownLatch (2);
+		ScheduledFuture<?> periodic = terminal.scheduleAtFixedRate (newCountingRunnable (runs, twoRuns), "tick", Priority.LOW, false,
+				0, 10, TimeUnit.MILLISECONDS);
+		//the wheel fires its timers in order, so the later ones have fired by this one
+		final CountDownLatch fired = new CountDownLatch (1);
+		assertTrue (terminal.scheduleTimer (new Runnable () {
+
+			@Override
+			public void run () {
+				fired.countDown ();
+			}
+		}, TimeUnit.MILLISECONDS.toNanos (30)));
+		assertTrue (fired.await (10, TimeUnit.SECONDS));
+		//the only thread is busy, so the queued run holds the next ones back
+		assertTrue (terminal.getTerminalState ().getSkippedPeriodicRunsCount () >= 2);
+		assertEquals (0, runs.get ());
+		blocker.countDown ();
+		assertTrue (twoRuns.await (10, TimeUnit.SECONDS));
+
+		terminal.shutdown ();
+		assertTrue (terminal.awaitTermination (10, TimeUnit.SECONDS));
+		assertTrue (periodic.isCancelled ());
+	}
+}
@@ -0,0 +1,119 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author Vladimirov.A.A
+ */
+public class SchedulingPoliciesTest {
+
+	/**
+	 * A view of the levels, where the head of each level was submitted at the
+	 * given time.
+	 */
+	private static SchedulingPolicy.LevelView newLevels (final long[] headSubmissionTimes) {
+		return new SchedulingPolicy.LevelView () {
+
+			@Override
+			public long getHeadSubmissionTime (int level) {
+				return headSubmissionTimes[level];
+			}
+
+			@Override
+			public int getSize (int level) {
+				return 1;
+			}
+		};
+	}
+
+	/**
+	 * Takes a task by the policy and returns its level.
+	 */
+	private static int dispatch (SchedulingPolicy policy, long nonEmptyLevels, SchedulingPolicy.LevelView levels) {
+		int level = policy.selectLevel (nonEmptyLevels, levels);
+		policy.dispatched (level);
+		return level;
+	}
+
+	@Test
+	public void testStrictPriority () {
+		SchedulingPolicy policy = SchedulingPolicies.strictPriority ();
+		SchedulingPolicy.LevelView levels = newLevels (new long[RunQueue.LEVELS]);
+		assertEquals (3, dispatch (policy, (1L << 3) | (1L << 40), levels));
+		assertEquals (63, dispatch (policy, 1L << 63, levels));
+	}
+
+	/**
+	 * A task, that has waited long enough, is promoted above fresh tasks of
+	 * higher levels, and on a tie the originally higher level wins.
+	 */
+	@Test
+	public void testAgingPromotesWaitingTasks () {
+		SchedulingPolicy policy = SchedulingPolicies.aging (1, TimeUnit.MILLISECONDS);
+		long now = System.nanoTime ();
+		long[] times = new long[RunQueue.LEVELS];
+		times[Priority.HIGHEST_LEVEL] = now;
+		times[10] = now - TimeUnit.SECONDS.toNanos (1);
+		times[11] = now;
+		assertEquals (10, dispatch (policy, (1L << Priority.HIGHEST_LEVEL) | (1L << 10), newLevels (times)));
+		assertEquals (Priority.HIGHEST_LEVEL, dispatch (policy, (1L << Priority.HIGHEST_LEVEL) | (1L << 11), newLevels (times)));
+	}
+
+	/**
+	 * Levels share dispatches in proportion to their weights, so a lower
+	 * level is never starved.
+	 */
+	@Test
+	public void testWeightedFairShares () {
+		SchedulingPolicy policy = SchedulingPolicies.weightedFair (3, 1);
+		SchedulingPolicy.LevelView levels = newLevels (new long[RunQueue.LEVELS]);
+		int[] taken = new int[2];
+		for (int i = 0; i < 40; i++) {
+			taken[dispatch (policy, 3, levels)]++;
+		}
+		assertEquals (30, taken[0]);
+		assertEquals (10, taken[1]);
+	}
+
+	/**
+	 * A level, that has been empty, resumes from the current virtual time, so
+	 * it doesn't take all the dispatches, that it has missed.
+	 */
+	@Test
+	public void testWeightedFairResumedLevel () {
+		SchedulingPolicy policy = SchedulingPolicies.weightedFair (1, 1);
+		SchedulingPolicy.LevelView levels = newLevels (new long[RunQueue.LEVELS]);
+		for (int i = 0; i < 10; i++) {
+			assertEquals (0, dispatch (policy, 1, levels));
+		}
+		int[] taken = new int[2];
+		for (int i = 0; i < 10; i++) {
+			taken[dispatch (policy, 3, levels)]++;
+		}
+		assertEquals (5, taken[0]);
+		assertEquals (5, taken[1]);
+	}
+
+	@Test
+	public void testInvalidArguments () {
+		try {
+			SchedulingPolicies.aging (0, TimeUnit.MILLISECONDS);
+			fail ("the interval should be positive");
+		} catch (IllegalArgumentException ex) {
+		}
+		try {
+			SchedulingPolicies.weightedFair (1, 0);
+			fail ("a weight should be positive");
+		} catch (IllegalArgumentException ex) {
+		}
+		try {
+			SchedulingPolicies.weightedFair (new int[RunQueue.LEVELS + 1]);
+			fail ("there are no more levels");
+		} catch (IllegalArgumentException ex) {
+		}
+	}
+}
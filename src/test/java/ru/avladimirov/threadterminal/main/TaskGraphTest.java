@@ -0,0 +1,164 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author Vladimirov.A.A
+ */
+public class TaskGraphTest {
+
+	/**
+	 * The rank of a task is the longest sum of costs on a path from it to the
+	 * end of the graph.
+	 */
+	@Test
+	public void testRanks () {
+		TaskGraph graph = new TaskGraph ();
+		int low = Priority.LOW.getValue ();
+		graph.add ("root", TerminalStateTest.newValueCallable (0), low, false, 1);
+		graph.add ("cheap", TerminalStateTest.newValueCallable (1), low, false, 1, "root");
+		graph.add ("costly", TerminalStateTest.newValueCallable (2), low, false, 10, "root");
+		CompletableFuture<Integer> end = graph.add ("end", TerminalStateTest.newValueCallable (3), low, false, 2, "cheap", "costly");
+		graph.add ("free", TerminalStateTest.newValueCallable (4), low, false, 0);
+		assertEquals (2, graph.getRank ("end"));
+		assertEquals (3, graph.getRank ("cheap"));
+		assertEquals (12, graph.getRank ("costly"));
+		assertEquals (13, graph.getRank ("root"));
+		assertEquals (0, graph.getRank ("free"));
+		assertEquals (-1, graph.getRank ("unknown"));
+		assertSame (end, graph.getFuture ("end"));
+		assertNull (graph.getFuture ("unknown"));
+	}
+
+	@Test
+	public void testInvalidTasks () {
+		TaskGraph graph = new TaskGraph ();
+		graph.add ("task", TerminalStateTest.newValueCallable (0), Priority.LOW, false);
+		try {
+			graph.add ("task", TerminalStateTest.newValueCallable (1), Priority.LOW, false);
+			fail ("the name is used");
+		} catch (IllegalArgumentException ex) {
+		}
+		try {
+			graph.add ("orphan", TerminalStateTest.newValueCallable (2), Priority.LOW, false, "unknown");
+			fail ("the predecessor is not added");
+		} catch (IllegalArgumentException ex) {
+		}
+		try {
+			graph.add ("outOfRange", TerminalStateTest.newValueCallable (3), Priority.LOWEST_LEVEL + 1, false);
+			fail ("the priority is out of range");
+		} catch (IllegalArgumentException ex) {
+		}
+		try {
+			graph.add ("negative", TerminalStateTest.newValueCallable (4), Priority.LOW.getValue (), false, -1);
+			fail ("the cost is negative");
+		} catch (IllegalArgumentException ex) {
+		}
+		try {
+			graph.add (null, TerminalStateTest.newValueCallable (5), Priority.LOW, false);
+			fail ("the name is null");
+		} catch (NullPointerException ex) {
+		}
+	}
+
+	/**
+	 * Tasks of a graph start after their predecessors, the ready ones by the
+	 * critical path first, and a failure skips the dependents.
+	 *
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	@Test
+	public void testTaskGraph () throws InterruptedException, ExecutionException {
+		final CountDownLatch blocker = new CountDownLatch (1);
+		ThreadTerminal terminal = Terminals.newThreadTerminal ("terminal", 1);
+		terminal.submit (new Callable<Void> () {
+
+			@Override
+			public Void call () throws InterruptedException {
+				blocker.await ();
+				return null;
+			}
+		}, "blocker", Priority.HIGH, false);
+		TaskGraph graph = new TaskGraph ();
+		graph.add ("short", TerminalStateTest.newValueCallable (0), Priority.LOW, false);
+		final CompletableFuture<Integer> load = graph.add ("load", TerminalStateTest.newValueCallable (2), Priority.LOW, false);
+		final CompletableFuture<Integer> aggregate = graph.add ("aggregate", new Callable<Integer> () {
+
+			@Override
+			public Integer call () {
+				return load.join () * 10;
+			}
+		}, Priority.LOW, false, "load");
+		CompletableFuture<Integer> publish = graph.add ("publish", new Callable<Integer> () {
+
+			@Override
+			public Integer call () {
+				return aggregate.join () + 1;
+			}
+		}, Priority.LOW, true, "aggregate", "short");
+		CompletableFuture<Integer> failing = graph.add ("failing", new Callable<Integer> () {
+
+			@Override
+			public Integer call () {
+				throw new IllegalStateException ("failed");
+			}
+		}, Priority.LOW, false);
+		CompletableFuture<Integer> skipped = graph.add ("skipped", TerminalStateTest.newValueCallable (3), Priority.LOW, false, "failing");
+		CompletableFuture<Integer> skippedNext = graph.add ("skippedNext", TerminalStateTest.newValueCallable (4), Priority.LOW, false, "skipped");
+		assertEquals (3, graph.getRank ("load"));
+		assertEquals (2, graph.getRank ("short"));
+		try {
+			graph.add ("orphan", TerminalStateTest.newValueCallable (5), Priority.LOW, false, "unknown");
+			fail ();
+		} catch (IllegalArgumentException ex) {
+		}
+
+		CompletableFuture<Void> all = terminal.submitGraph (graph);
+		//only the roots are queued
+		assertEquals (4, terminal.snapshotTerminalState ().getSubmittedTasksCount ());
+		blocker.countDown ();
+		assertEquals (Integer.valueOf (21), publish.get ());
+		try {
+			skippedNext.get ();
+			fail ();
+		} catch (ExecutionException ex) {
+			assertTrue (ex.getCause () instanceof IllegalStateException);
+		}
+		assertTrue (skipped.isCompletedExceptionally ());
+		assertTrue (failing.isCompletedExceptionally ());
+		try {
+			all.get ();
+			fail ();
+		} catch (ExecutionException ex) {
+		}
+		try {
+			terminal.submitGraph (graph);
+			fail ();
+		} catch (IllegalStateException ex) {
+		}
+		terminal.shutdown ();
+		assertTrue (terminal.awaitTermination (10, TimeUnit.SECONDS));
+		List<String> order = new ArrayList<> ();
+		JournalCursor cursor = terminal.snapshotTerminalState ().getFinishedTasksCursor ();
+		while (cursor.next ()) {
+			order.add (cursor.getName ());
+		}
+		//the longest paths go ahead of the roots added before them
+		assertEquals (Arrays.asList ("blocker", "load", "failing", "short", "aggregate", "publish"), order);
+	}
+}
@@ -0,0 +1,111 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author Vladimirov.A.A
+ */
+public class TerminalFutureTest {
+
+	/**
+	 * Cancelling the future cancels its task, and a task, that is set after
+	 * the future is cancelled, is cancelled at once.
+	 */
+	@Test
+	public void testCancelReachesTask () {
+		TerminalFuture<Integer> future = new TerminalFuture<> ();
+		FutureTask<Integer> task = new FutureTask<> (TerminalStateTest.newValueCallable (1));
+		future.setTask (task);
+		assertTrue (future.cancel (false));
+		assertTrue (task.isCancelled ());
+
+		TerminalFuture<Integer> continuation = new TerminalFuture<> ();
+		assertTrue (continuation.cancel (false));
+		FutureTask<Integer> late = new FutureTask<> (TerminalStateTest.newValueCallable (2));
+		continuation.setTask (late);
+		assertTrue (late.isCancelled ());
+	}
+
+	/**
+	 * A completed future doesn't cancel its task.
+	 */
+	@Test
+	public void testCompletedIsNotCancelled () {
+		TerminalFuture<Integer> future = new TerminalFuture<> ();
+		FutureTask<Integer> task = new FutureTask<> (TerminalStateTest.newValueCallable (1));
+		future.setTask (task);
+		future.complete (1);
+		assertFalse (future.cancel (false));
+		assertFalse (task.isCancelled ());
+	}
+
+	/**
+	 * Continuations are submitted, when their parents complete, so a chain
+	 * runs in a single thread without blocking it, and a failure skips the
+	 * rest of the chain.
+	 *
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	@Test
+	public void testAsyncContinuations () throws InterruptedException, ExecutionException {
+		final CountDownLatch blocker = new CountDownLatch (1);
+		final AtomicInteger exclusiveRuns = new AtomicInteger (0);
+		ThreadTerminal terminal = Terminals.newThreadTerminal ("terminal", 1);
+		CompletableFuture<Integer> first = terminal.submitAsync (new Callable<Integer> () {
+
+			@Override
+			public Integer call () throws Exception {
+				blocker.await ();
+				return 1;
+			}
+		}, "first", Priority.LOW, false);
+		CompletableFuture<Integer> second = terminal.thenSubmit (first, value -> value + 1, "second", Priority.HIGH, false);
+		CompletableFuture<Integer> third = terminal.thenSubmit (second, value -> {
+			exclusiveRuns.incrementAndGet ();
+			return value * 10;
+		}, "third", Priority.LOW, true);
+		CompletableFuture<Integer> failed = terminal.thenSubmit (third, value -> {
+			throw new IllegalStateException ("failed");
+		}, "failed", Priority.LOW, false);
+		CompletableFuture<Integer> skipped = terminal.thenSubmit (failed, value -> value, "skipped", Priority.LOW, false);
+		CompletableFuture<Integer> cancelled = terminal.thenSubmit (first, value -> value, "cancelled", Priority.LOW, false);
+		assertTrue (cancelled.cancel (false));
+		//only the first task is submitted so far
+		assertEquals (1, terminal.snapshotTerminalState ().getSubmittedTasksCount ());
+
+		blocker.countDown ();
+		assertEquals (Integer.valueOf (20), third.get ());
+		assertEquals (1, exclusiveRuns.get ());
+		try {
+			skipped.get ();
+			fail ();
+		} catch (ExecutionException ex) {
+			assertTrue (ex.getCause () instanceof IllegalStateException);
+		}
+		assertTrue (failed.isCompletedExceptionally ());
+		terminal.shutdown ();
+		assertTrue (terminal.awaitTermination (10, TimeUnit.SECONDS));
+		assertEquals (4, terminal.snapshotTerminalState ().getSubmittedTasksCount ());
+		assertEquals (4, terminal.snapshotTerminalState ().getFinishedTasksCount ());
+		try {
+			terminal.thenSubmit (CompletableFuture.completedFuture (1), value -> value, "rejected", Priority.LOW, false).get ();
+			fail ();
+		} catch (ExecutionException ex) {
+			assertTrue (ex.getCause () instanceof RejectedExecutionException);
+		}
+	}
+}
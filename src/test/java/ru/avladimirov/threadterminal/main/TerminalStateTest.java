@@ -10,6 +10,8 @@ import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -17,13 +19,21 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.After;
 import org.junit.AfterClass;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -64,6 +74,16 @@ public class TerminalStateTest {
 		};
 	}
 
+	public static Callable<Integer> newValueCallable (final int value) {
+		return new Callable<Integer> () {
+
+			@Override
+			public Integer call () {
+				return value;
+			}
+		};
+	}
+
 	public static Callable<List<UUID>> newCalcCallable () {
 		return () -> {
 			ArrayList<UUID> entityUuids = new ArrayList<> ();
@@ -393,7 +413,7 @@ public class TerminalStateTest {
 			for (int j = 0; j < pack; j++) {
 				tasksCount++;
 				writer.append (tasksCount + "").append (",").append (exclusivity + "").append (",").append (priority.getValue () + "").append ("\n");
-				map.put (new PriorityCallable (newCalcCallable (), tasksCount + "", priority.getValue ()), exclusivity);
+				map.put (new PriorityCallable (newCalcCallable (), tasksCount + "", tasksCount, priority.getValue ()), exclusivity);
 			}
 		}
 		writer.close ();
@@ -442,4 +462,606 @@ public class TerminalStateTest {
 		terminal.shutdown ();
 		terminal.awaitTermination (1, TimeUnit.DAYS);
 	}
+
+	/**
+	 * Workers wait for exclusive tasks inside the queue, so no thread is
+	 * created around them.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testNoThreadChurnAroundExclusives () throws InterruptedException {
+		int poolSize = 4;
+		ThreadTerminal terminal = Terminals.newThreadTerminal ("terminal", poolSize);
+		for (int i = 0; i < 20; i++) {
+			terminal.submit (newSleepCallable (5), "usual" + i, Priority.LOW, false);
+			if (i % 5 == 0) {
+				terminal.submit (newSleepCallable (20), "exclusive" + i, Priority.LOW, true);
+			}
+		}
+		terminal.shutdown ();
+		assertTrue (terminal.awaitTermination (10, TimeUnit.SECONDS));
+
+		TerminalState state = terminal.snapshotTerminalState ();
+		assertEquals (24, state.getFinishedTasksCount ());
+		assertEquals (poolSize, state.getCreatedThreadsCount ());
+		assertEquals (0, state.getExclusiveCreatedThreadsCount ());
+	}
+
+	/**
+	 * Snapshots are taken without locking, while tasks are running, and their
+	 * counts must always add up.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testSnapshotConsistency () throws InterruptedException {
+		int tasksCount = 2000;
+		ThreadTerminal terminal = Terminals.newThreadTerminal ("terminal", 8);
+		for (int i = 0; i < tasksCount; i++) {
+			terminal.submit (newCalcCallable (), "task" + i, Priority.LOW, i % 100 == 0);
+		}
+		TerminalSnapshot snapshot = new TerminalSnapshot ();
+		long version = -1;
+		while (version < 4L * tasksCount) {
+			assertTrue (terminal.snapshotTerminalState (snapshot) == snapshot);
+			assertTrue (snapshot.getVersion () >= version);
+			version = snapshot.getVersion ();
+			assertTrue (snapshot.getQueuedTasksCount () >= 0);
+			assertTrue (snapshot.getPendingTasksCount () >= 0);
+			assertTrue (snapshot.getActiveUsuals () >= 0);
+			assertTrue (snapshot.getActiveExclusives () >= 0 && snapshot.getActiveExclusives () <= 1);
+			assertEquals (snapshot.getSubmittedTasksCount (), snapshot.getQueuedTasksCount ()
+					+ snapshot.getPendingTasksCount () + snapshot.getActiveTasksCount ()
+					+ snapshot.getFinishedTasksCount ());
+		}
+		terminal.shutdown ();
+		assertTrue (terminal.awaitTermination (10, TimeUnit.SECONDS));
+		assertEquals (tasksCount, snapshot.getFinishedTasksCount ());
+		assertEquals (100, snapshot.getLast100finishedTasksNames ().size ());
+		//nothing changes anymore
+		assertTrue (terminal.snapshotTerminalState (snapshot).isConsistent ());
+	}
+
+	/**
+	 * The counters are striped, so many threads register transitions at once
+	 * without losing any of them.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testConcurrentCounters () throws InterruptedException {
+		final int threadsCount = 8;
+		final int tasksPerThread = 10000;
+		final TerminalState state = new TerminalState ("terminal", threadsCount, new TerminalConfig (), false);
+		final CountDownLatch start = new CountDownLatch (1);
+		List<Thread> threads = new ArrayList<> ();
+		for (int t = 0; t < threadsCount; t++) {
+			final long firstId = (long) t * tasksPerThread;
+			Thread thread = new Thread (() -> {
+				try {
+					start.await ();
+				} catch (InterruptedException ex) {
+					return;
+				}
+				for (long id = firstId; id < firstId + tasksPerThread; id++) {
+					boolean exclusive = id % 10 == 0;
+					state.registerNewNext (id, null);
+					state.registerNewPending (id, null);
+					state.registerNewActive (id, null, exclusive);
+					state.registerNewFinished (id, null, Priority.LOW.getValue (), exclusive, System.nanoTime (), false);
+				}
+			});
+			threads.add (thread);
+			thread.start ();
+		}
+		start.countDown ();
+		for (Thread thread : threads) {
+			thread.join ();
+		}
+		long tasksCount = (long) threadsCount * tasksPerThread;
+		TerminalSnapshot snapshot = state.readCounters (new TerminalSnapshot ());
+		assertTrue (snapshot.isConsistent ());
+		assertEquals (tasksCount, snapshot.getSubmittedTasksCount ());
+		assertEquals (tasksCount, snapshot.getFinishedTasksCount ());
+		assertEquals (0, snapshot.getQueuedTasksCount ());
+		assertEquals (0, snapshot.getPendingTasksCount ());
+		assertEquals (0, snapshot.getActiveTasksCount ());
+		assertEquals (0, snapshot.getActiveUsuals () + snapshot.getActiveExclusives ());
+	}
+
+	/**
+	 * Tasks are told apart by their ids, so the same name may be submitted
+	 * again while the first task is still active, and a task may have no name
+	 * at all.
+	 *
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	@Test
+	public void testTasksWithSameNamesAndWithoutNames () throws InterruptedException, ExecutionException {
+		ThreadTerminal terminal = Terminals.newThreadTerminal ("terminal", 2, new TerminalConfig ().setNameTracking (true));
+		terminal.submit (newSleepCallable (300), "refresh", Priority.LOW, false);
+		terminal.submit (newSleepCallable (300), "refresh", Priority.LOW, false);
+		Thread.sleep (100);
+		TerminalState state = terminal.snapshotTerminalState ();
+		assertEquals (2, state.getActiveTasks ().size ());
+		assertEquals (1, state.getActiveTasksNames ().size ());
+		assertTrue (state.getActiveTasks ().values ().contains ("refresh"));
+
+		terminal.submit (newSleepCallable (1), Priority.LOW, false).get ();
+		terminal.shutdown ();
+		assertTrue (terminal.awaitTermination (10, TimeUnit.SECONDS));
+		JournalCursor cursor = terminal.snapshotTerminalState ().getFinishedTasksCursor ();
+		int unnamed = 0;
+		while (cursor.next ()) {
+			if (cursor.getName ().equals ("#" + cursor.getTaskId ())) {
+				unnamed++;
+			}
+		}
+		assertEquals (1, unnamed);
+	}
+
+	/**
+	 * Every task passes all its lifecycle events to the sink, and all of them
+	 * are passed by the time the terminal is terminated.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testLifecycleTrace () throws InterruptedException {
+		List<ExecutionMode> modes = new ArrayList<> (Arrays.asList (ExecutionMode.PLATFORM_THREADS));
+		if (VirtualThreads.isSupported ()) {
+			//the task threads share a ring
+			modes.add (ExecutionMode.VIRTUAL_THREADS);
+		}
+		for (ExecutionMode mode : modes) {
+			int tasksCount = 200;
+			final HashMap<Long, List<TraceEvent>> events = new HashMap<> ();
+			TraceSink sink = new TraceSink () {
+
+				@Override
+				public void onEvent (TraceEvent event, long taskId, String name, long time, long threadId) {
+					List<TraceEvent> taskEvents = events.get (taskId);
+					if (taskEvents == null) {
+						taskEvents = new ArrayList<> ();
+						events.put (taskId, taskEvents);
+					}
+					taskEvents.add (event);
+				}
+			};
+			ThreadTerminal terminal = Terminals.newThreadTerminal ("terminal", 4, new TerminalConfig ()
+					.setExecutionMode (mode).setTraceSink (sink));
+			for (int i = 0; i < tasksCount; i++) {
+				terminal.submit (newSleepCallable (1), "task" + i, Priority.LOW, i % 50 == 0);
+			}
+			terminal.shutdown ();
+			assertTrue (terminal.awaitTermination (10, TimeUnit.SECONDS));
+
+			assertEquals (0, terminal.getDroppedTraceEvents ());
+			assertEquals (mode.toString (), tasksCount, events.size ());
+			for (List<TraceEvent> taskEvents : events.values ()) {
+				//events of different threads are not ordered, and an exclusive task may wait at the gate
+				assertTrue (taskEvents.remove (TraceEvent.SUBMITTED));
+				assertTrue (taskEvents.remove (TraceEvent.QUEUED));
+				taskEvents.remove (TraceEvent.GATE_WAIT);
+				assertEquals (Arrays.asList (TraceEvent.PENDING, TraceEvent.ACTIVE, TraceEvent.FINISHED), taskEvents);
+			}
+		}
+	}
+
+	/**
+	 * In the virtual threads mode the pool size bounds the count of active
+	 * tasks, and an exclusive task still runs alone. Without virtual threads
+	 * such a terminal can't be created.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testVirtualThreads () throws InterruptedException {
+		TerminalConfig config = new TerminalConfig ().setExecutionMode (ExecutionMode.VIRTUAL_THREADS);
+		if (!VirtualThreads.isSupported ()) {
+			try {
+				Terminals.newThreadTerminal ("terminal", 2, config);
+				fail ();
+			} catch (UnsupportedOperationException ex) {
+				return;
+			}
+		}
+		final AtomicInteger active = new AtomicInteger ();
+		final AtomicInteger maxActive = new AtomicInteger ();
+		final AtomicInteger activeWithExclusive = new AtomicInteger ();
+		ThreadTerminal terminal = Terminals.newThreadTerminal ("terminal", 3, config);
+		for (int i = 0; i < 30; i++) {
+			final boolean exclusive = i % 10 == 5;
+			terminal.submit (new Callable () {
+
+				@Override
+				public Object call () throws Exception {
+					int count = active.incrementAndGet ();
+					maxActive.accumulateAndGet (count, Math::max);
+					if (exclusive && count != 1) {
+						activeWithExclusive.incrementAndGet ();
+					}
+					Thread.sleep (20);
+					active.decrementAndGet ();
+					return null;
+				}
+			}, "task" + i, Priority.LOW, exclusive);
+		}
+		terminal.shutdown ();
+		assertTrue (terminal.awaitTermination (10, TimeUnit.SECONDS));
+		assertEquals (3, maxActive.get ());
+		assertEquals (0, activeWithExclusive.get ());
+		assertEquals (30, terminal.snapshotTerminalState ().getFinishedTasksCount ());
+	}
+
+	/**
+	 * A task, whose deadline passes in the queue, is never started, and the
+	 * ones, that start in time, are counted as on time, even if they finish
+	 * after their deadlines.
+	 *
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	@Test
+	public void testDeadlines () throws InterruptedException, ExecutionException {
+		final CountDownLatch blocker = new CountDownLatch (1);
+		final AtomicInteger started = new AtomicInteger (0);
+		ThreadTerminal terminal = Terminals.newThreadTerminal ("terminal", 1);
+		terminal.submit (new Callable () {
+
+			@Override
+			public Object call () throws Exception {
+				blocker.await ();
+				return null;
+			}
+		}, "blocker", Priority.HIGH, false);
+		Future<?> expired = terminal.submit (new Callable () {
+
+			@Override
+			public Object call () {
+				started.incrementAndGet ();
+				return null;
+			}
+		}, "expired", Priority.LOW, false, 20, TimeUnit.MILLISECONDS);
+		Future<Integer> later = terminal.submit (newValueCallable (1), "later", Priority.LOW, false, 1, TimeUnit.HOURS);
+		Future<Integer> sooner = terminal.submit (newValueCallable (2), "sooner", Priority.LOW, false, 30, TimeUnit.MINUTES);
+		Future<Integer> outliving = terminal.submit (new Callable<Integer> () {
+
+			@Override
+			public Integer call () throws Exception {
+				Thread.sleep (300);
+				return 3;
+			}
+		}, "outliving", Priority.LOWEST_LEVEL, false, 200, TimeUnit.MILLISECONDS);
+		Thread.sleep (50);
+		assertEquals (4, terminal.snapshotTerminalState ().getQueuedTasksCount ());
+		blocker.countDown ();
+
+		try {
+			expired.get ();
+			fail ();
+		} catch (ExecutionException ex) {
+			assertTrue (ex.getCause () instanceof TimeoutException);
+		}
+		assertEquals (Integer.valueOf (1), later.get ());
+		assertEquals (Integer.valueOf (2), sooner.get ());
+		assertEquals (Integer.valueOf (3), outliving.get ());
+		terminal.shutdown ();
+		assertTrue (terminal.awaitTermination (10, TimeUnit.SECONDS));
+		TerminalState state = terminal.snapshotTerminalState ();
+		assertEquals (0, started.get ());
+		assertEquals (1, state.getExpiredTasksCount ());
+		assertEquals (0, state.getQueuedTasksCount ());
+		assertEquals (4, state.getFinishedTasksCount ());
+		assertEquals (3, state.getOnTimeTasksCount ());
+		assertEquals (0, state.getLateTasksCount ());
+		//the earliest deadline goes first inside a level
+		List<String> order = new ArrayList<> ();
+		JournalCursor cursor = state.getFinishedTasksCursor ();
+		while (cursor.next ()) {
+			order.add (cursor.getName ());
+		}
+		assertEquals (Arrays.asList ("blocker", "sooner", "later", "outliving"), order);
+	}
+
+	/**
+	 * A full level rejects a task, drops its oldest one or runs the new one in
+	 * the caller, and a blocking submit waits for room.
+	 *
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	@Test
+	public void testQueueOverflow () throws InterruptedException, ExecutionException {
+		final CountDownLatch started = new CountDownLatch (1);
+		final CountDownLatch blocker = new CountDownLatch (1);
+		Callable<Integer> blocking = new Callable<Integer> () {
+
+			@Override
+			public Integer call () throws InterruptedException {
+				started.countDown ();
+				blocker.await ();
+				return 0;
+			}
+		};
+		int low = Priority.LOW.getValue ();
+		ThreadTerminal terminal = Terminals.newThreadTerminal ("terminal", 1, new TerminalConfig ()
+				.setQueueCapacity (Priority.LOW, 2).setOverflowPolicy (OverflowPolicy.DROP_OLDEST_LOW));
+		terminal.submit (blocking, "blocker", Priority.HIGH, false);
+		started.await ();
+		Future<Integer> low1 = terminal.submit (newValueCallable (1), "low1", Priority.LOW, false);
+		Future<Integer> low2 = terminal.submit (newValueCallable (2), "low2", Priority.LOW, false);
+		//the level is full: its oldest task gives way
+		Future<Integer> low3 = terminal.submit (newValueCallable (3), "low3", Priority.LOW, false);
+		//the higher level is not bounded
+		Future<Integer> high = terminal.submit (newValueCallable (4), "high", Priority.HIGH, false);
+		try {
+			low1.get ();
+			fail ("low1 should be dropped");
+		} catch (ExecutionException ex) {
+			assertTrue (ex.getCause () instanceof RejectedExecutionException);
+		}
+		//a batch gets no room as a whole
+		try {
+			terminal.submitAll (Arrays.asList (newValueCallable (5), newValueCallable (6)), low, false);
+			fail ("the batch should be rejected");
+		} catch (RejectedExecutionException ex) {
+		}
+		try {
+			terminal.submitBlocking (newValueCallable (7), "timedOut", Priority.LOW, false, 20, TimeUnit.MILLISECONDS);
+			fail ("timedOut should be rejected");
+		} catch (RejectedExecutionException ex) {
+		}
+		TerminalState state = terminal.snapshotTerminalState ();
+		assertEquals (2, state.getQueueCapacity (low));
+		assertEquals (Integer.MAX_VALUE, state.getQueueCapacity (Priority.HIGH.getValue ()));
+		assertEquals (2, state.getQueueOccupancy (low));
+		assertEquals (1, state.getQueueOccupancy (Priority.HIGH.getValue ()));
+		assertEquals (1, state.getDroppedTasksCount (low));
+		assertEquals (3, state.getRejectedTasksCount (low));
+		assertEquals (3, state.getQueuedTasksCount ());
+
+		blocker.countDown ();
+		Future<Integer> low4 = terminal.submitBlocking (newValueCallable (8), "low4", Priority.LOW, false, 10, TimeUnit.SECONDS);
+		assertEquals (Integer.valueOf (2), low2.get ());
+		assertEquals (Integer.valueOf (3), low3.get ());
+		assertEquals (Integer.valueOf (4), high.get ());
+		assertEquals (Integer.valueOf (8), low4.get ());
+		terminal.shutdown ();
+		assertTrue (terminal.awaitTermination (10, TimeUnit.SECONDS));
+		state = terminal.snapshotTerminalState ();
+		assertEquals (1, state.getDroppedTasksCount ());
+		assertEquals (3, state.getRejectedTasksCount ());
+		assertEquals (0, state.getQueuedTasksCount ());
+		assertEquals (5, state.getFinishedTasksCount ());
+
+		//the caller runs the task, that has no room
+		final CountDownLatch callerStarted = new CountDownLatch (1);
+		final CountDownLatch callerBlocker = new CountDownLatch (1);
+		ThreadTerminal callerRuns = Terminals.newThreadTerminal ("callerRuns", 1, new TerminalConfig ()
+				.setQueueCapacity (Priority.LOW, 1).setOverflowPolicy (OverflowPolicy.CALLER_RUNS));
+		callerRuns.submit (new Callable<Integer> () {
+
+			@Override
+			public Integer call () throws InterruptedException {
+				callerStarted.countDown ();
+				callerBlocker.await ();
+				return 0;
+			}
+		}, "blocker", Priority.HIGH, false);
+		callerStarted.await ();
+		Future<Integer> queued = callerRuns.submit (newValueCallable (1), "queued", Priority.LOW, false);
+		Future<String> ran = callerRuns.submit (new Callable<String> () {
+
+			@Override
+			public String call () {
+				return Thread.currentThread ().getName ();
+			}
+		}, "ran", Priority.LOW, false);
+		assertTrue (ran.isDone ());
+		assertEquals (Thread.currentThread ().getName (), ran.get ());
+		assertEquals (1, callerRuns.snapshotTerminalState ().getCallerRunsCount ());
+		//it's recorded as the pool records its tasks
+		assertEquals (1, callerRuns.snapshotTerminalState ().getLatencyHistogram (LatencyPhase.QUEUE_WAIT, Priority.LOW.getValue (), false).getCount ());
+		//an expired task is not run by the caller either
+		Future<Integer> stale = callerRuns.submit (newValueCallable (2), "stale", Priority.LOW.getValue (), false, -1, TimeUnit.SECONDS);
+		try {
+			stale.get ();
+			fail ("stale should be expired");
+		} catch (ExecutionException ex) {
+			assertTrue (ex.getCause () instanceof TimeoutException);
+		}
+		assertEquals (1, callerRuns.snapshotTerminalState ().getCallerRunsCount ());
+		assertEquals (1, callerRuns.snapshotTerminalState ().getExpiredTasksCount ());
+		callerBlocker.countDown ();
+		assertEquals (Integer.valueOf (1), queued.get ());
+		callerRuns.shutdown ();
+		assertTrue (callerRuns.awaitTermination (10, TimeUnit.SECONDS));
+		assertEquals (0, callerRuns.snapshotTerminalState ().getRejectedTasksCount ());
+
+		//a worker, that holds the gate, never waits for room to submit a continuation
+		final CountDownLatch parentBlocker = new CountDownLatch (1);
+		ThreadTerminal continuations = Terminals.newThreadTerminal ("continuations", 1, new TerminalConfig ()
+				.setQueueCapacity (Priority.LOW, 1).setOverflowPolicy (OverflowPolicy.CALLER_RUNS));
+		CompletableFuture<Integer> parent = continuations.submitAsync (new Callable<Integer> () {
+
+			@Override
+			public Integer call () throws InterruptedException {
+				parentBlocker.await ();
+				return 1;
+			}
+		}, "parent", Priority.HIGH, true);
+		CompletableFuture<Integer> child = continuations.thenSubmit (parent, value -> value + 1, "child", Priority.LOW, true);
+		Future<Integer> waiting = continuations.submit (newValueCallable (2), "waiting", Priority.LOW, false);
+		parentBlocker.countDown ();
+		try {
+			child.get (10, TimeUnit.SECONDS);
+			fail ("child should be rejected");
+		} catch (ExecutionException ex) {
+			assertTrue (ex.getCause () instanceof RejectedExecutionException);
+		} catch (TimeoutException ex) {
+			fail ("the worker waits for room");
+		}
+		assertEquals (Integer.valueOf (1), parent.get ());
+		assertEquals (Integer.valueOf (2), waiting.get ());
+		continuations.shutdown ();
+		assertTrue (continuations.awaitTermination (10, TimeUnit.SECONDS));
+		assertEquals (1, continuations.snapshotTerminalState ().getRejectedTasksCount ());
+		assertEquals (0, continuations.snapshotTerminalState ().getQueuedTasksCount ());
+	}
+
+	/**
+	 * The tasks, that come after the shutdown, are counted as rejected, so
+	 * they don't stay queued.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testRejectedAfterShutdown () throws InterruptedException {
+		List<ExecutionMode> modes = new ArrayList<> (Arrays.asList (ExecutionMode.PLATFORM_THREADS, ExecutionMode.WORK_STEALING));
+		if (VirtualThreads.isSupported ()) {
+			modes.add (ExecutionMode.VIRTUAL_THREADS);
+		}
+		for (ExecutionMode mode : modes) {
+			ThreadTerminal terminal = Terminals.newThreadTerminal ("terminal", 2, new TerminalConfig ().setExecutionMode (mode));
+			terminal.shutdown ();
+			try {
+				terminal.submit (newValueCallable (1), "late", Priority.LOW, false);
+				fail ();
+			} catch (RejectedExecutionException ex) {
+			}
+			try {
+				terminal.submitBlocking (newValueCallable (2), "lateBlocking", Priority.LOW, false, 1, TimeUnit.SECONDS);
+				fail ();
+			} catch (RejectedExecutionException ex) {
+			}
+			assertTrue (terminal.awaitTermination (10, TimeUnit.SECONDS));
+			TerminalState state = terminal.snapshotTerminalState ();
+			assertEquals (mode.toString (), 2, state.getSubmittedTasksCount ());
+			assertEquals (mode.toString (), 2, state.getRejectedTasksCount ());
+			assertEquals (mode.toString (), 0, state.getQueuedTasksCount ());
+		}
+	}
+
+	/**
+	 * A scheduled run, that is dropped from the queue to make room, fails a
+	 * one-shot task and is skipped by a fixed delay one, that goes on.
+	 *
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	@Test
+	public void testDroppedScheduledRuns () throws InterruptedException, ExecutionException {
+		final AtomicInteger delayedRuns = new AtomicInteger (0);
+		int low = Priority.LOW.getValue ();
+		ThreadTerminal terminal = Terminals.newThreadTerminal ("terminal", 1, new TerminalConfig ()
+				.setQueueCapacity (Priority.LOW, 1).setOverflowPolicy (OverflowPolicy.DROP_OLDEST_LOW));
+		CountDownLatch blocker = submitBlocker (terminal);
+		ScheduledFuture<Integer> oneShot = terminal.schedule (newValueCallable (1), "oneShot", Priority.LOW, false, 0, TimeUnit.MILLISECONDS);
+		awaitOccupancy (terminal, low);
+		Future<Integer> first = terminal.submit (newValueCallable (2), "first", Priority.LOW, false);
+		try {
+			oneShot.get (10, TimeUnit.SECONDS);
+			fail ("oneShot should be dropped");
+		} catch (ExecutionException ex) {
+			assertTrue (ex.getCause () instanceof RejectedExecutionException);
+		} catch (TimeoutException ex) {
+			fail ("oneShot never completes");
+		}
+		blocker.countDown ();
+		assertEquals (Integer.valueOf (2), first.get ());
+
+		blocker = submitBlocker (terminal);
+		ScheduledFuture<?> fixedDelay = terminal.scheduleWithFixedDelay (() -> delayedRuns.incrementAndGet (), "fixedDelay", Priority.LOW, false,
+				0, 10, TimeUnit.MILLISECONDS);
+		awaitOccupancy (terminal, low);
+		Future<Integer> second = terminal.submit (newValueCallable (3), "second", Priority.LOW, false);
+		blocker.countDown ();
+		assertEquals (Integer.valueOf (3), second.get ());
+		long deadline = System.currentTimeMillis () + 10000;
+		while (delayedRuns.get () < 2 && System.currentTimeMillis () < deadline) {
+			Thread.sleep (1);
+		}
+		assertTrue ("fixedDelay has stopped", delayedRuns.get () >= 2);
+		fixedDelay.cancel (false);
+		terminal.shutdown ();
+		assertTrue (terminal.awaitTermination (10, TimeUnit.SECONDS));
+		TerminalState state = terminal.snapshotTerminalState ();
+		assertTrue (state.getSkippedPeriodicRunsCount () >= 1);
+		assertEquals (2, state.getDroppedTasksCount (low));
+		assertEquals (0, state.getQueuedTasksCount ());
+	}
+
+	/**
+	 * Occupies the only worker of a terminal.
+	 *
+	 * @return the latch, that lets the worker go.
+	 */
+	private static CountDownLatch submitBlocker (ThreadTerminal terminal) throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch (1);
+		final CountDownLatch blocker = new CountDownLatch (1);
+		terminal.submit (new Callable<Integer> () {
+
+			@Override
+			public Integer call () throws InterruptedException {
+				started.countDown ();
+				blocker.await ();
+				return 0;
+			}
+		}, "blocker", Priority.HIGH, false);
+		started.await ();
+		return blocker;
+	}
+
+	private static void awaitOccupancy (ThreadTerminal terminal, int level) throws InterruptedException {
+		while (terminal.snapshotTerminalState ().getQueueOccupancy (level) == 0) {
+			Thread.sleep (1);
+		}
+	}
+
+	/**
+	 * An exclusive task, that waits for an active usual one, records its wait
+	 * at the gate, and a reset snapshot starts a new interval.
+	 *
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	@Test
+	public void testLatencyHistograms () throws InterruptedException, ExecutionException {
+		ThreadTerminal terminal = Terminals.newThreadTerminal ("terminal", 2, new TerminalConfig ());
+		final CountDownLatch started = new CountDownLatch (1);
+		final CountDownLatch release = new CountDownLatch (1);
+		Future<Integer> blocker = terminal.submit (new Callable<Integer> () {
+
+			@Override
+			public Integer call () throws InterruptedException {
+				started.countDown ();
+				release.await ();
+				return 1;
+			}
+		}, "blocker", Priority.LOW, false);
+		assertTrue (started.await (10, TimeUnit.SECONDS));
+		Future<Integer> exclusive = terminal.submit (newValueCallable (2), "exclusive", Priority.HIGH, true);
+		Thread.sleep (100);
+		release.countDown ();
+		assertEquals (1, (int) blocker.get ());
+		assertEquals (2, (int) exclusive.get ());
+		terminal.shutdown ();
+		assertTrue (terminal.awaitTermination (10, TimeUnit.SECONDS));
+
+		TerminalState state = terminal.snapshotTerminalState (true);
+		LatencyHistogram gateWait = state.getLatencyHistogram (LatencyPhase.GATE_WAIT, Priority.HIGH.getValue (), true);
+		assertEquals (1, gateWait.getCount ());
+		assertTrue (gateWait.toString (), gateWait.getMax () >= TimeUnit.MILLISECONDS.toNanos (50));
+		LatencyHistogram run = state.getLatencyHistogram (LatencyPhase.RUN, Priority.LOW.getValue (), false);
+		assertEquals (1, run.getCount ());
+		assertTrue (run.toString (), run.getP50 () >= TimeUnit.MILLISECONDS.toNanos (50));
+		assertEquals (2, state.getLatencyHistogram (LatencyPhase.QUEUE_WAIT).getCount ());
+		assertEquals (2, state.getLatencyHistogram (LatencyPhase.RUN).getCount ());
+		assertEquals (0, state.getLatencyHistogram (LatencyPhase.GATE_WAIT, Priority.LOW.getValue (), false).getMax ());
+
+		assertEquals (0, terminal.snapshotTerminalState ().getLatencyHistogram (LatencyPhase.RUN).getCount ());
+	}
 }
@@ -0,0 +1,138 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author Vladimirov.A.A
+ */
+public class ThreadTerminalTest {
+
+	/**
+	 * A batch is submitted without waiting, and its tasks keep their order
+	 * inside the level.
+	 *
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	@Test
+	public void testSubmitAll () throws InterruptedException, ExecutionException {
+		int tasksCount = 10000;
+		final List<Integer> executed = Collections.synchronizedList (new ArrayList<Integer> ());
+		List<Callable<Integer>> callables = new ArrayList<> ();
+		for (int i = 0; i < tasksCount; i++) {
+			final int index = i;
+			callables.add (new Callable<Integer> () {
+
+				@Override
+				public Integer call () {
+					executed.add (index);
+					return index;
+				}
+			});
+		}
+		ThreadTerminal terminal = Terminals.newThreadTerminal ("terminal", 1);
+		List<Future<Integer>> futures = terminal.submitAll (callables, Priority.LOW.getValue (), false);
+		assertEquals (tasksCount, futures.size ());
+		assertEquals (tasksCount, terminal.snapshotTerminalState ().getSubmittedTasksCount ());
+		for (int i = 0; i < tasksCount; i++) {
+			assertEquals (i, (int) futures.get (i).get ());
+			assertEquals (i, (int) executed.get (i));
+		}
+		terminal.shutdown ();
+		assertTrue (terminal.awaitTermination (10, TimeUnit.SECONDS));
+		try {
+			terminal.submitAll (callables, Priority.LOW.getValue (), false);
+			fail ();
+		} catch (RejectedExecutionException ex) {
+			assertEquals (tasksCount, terminal.snapshotTerminalState ().getFinishedTasksCount ());
+		}
+	}
+
+	/**
+	 * The pool is resized while an exclusive task holds the gate: the new
+	 * workers wait for it, and the resizes are recorded.
+	 *
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	@Test
+	public void testPoolResize () throws InterruptedException, ExecutionException {
+		final CountDownLatch exclusiveStarted = new CountDownLatch (1);
+		final CountDownLatch blocker = new CountDownLatch (1);
+		//the first usual tasks wait for each other, so they are active at once
+		final CountDownLatch allActive = new CountDownLatch (4);
+		final AtomicInteger active = new AtomicInteger (0);
+		final AtomicInteger maxActive = new AtomicInteger (0);
+		final AtomicInteger activeWithExclusive = new AtomicInteger (0);
+		final AtomicInteger exclusiveActive = new AtomicInteger (0);
+		ThreadTerminal terminal = Terminals.newThreadTerminal ("terminal", 2);
+		Future<Void> exclusive = terminal.submit (new Callable<Void> () {
+
+			@Override
+			public Void call () throws InterruptedException {
+				exclusiveActive.incrementAndGet ();
+				exclusiveStarted.countDown ();
+				blocker.await ();
+				exclusiveActive.decrementAndGet ();
+				return null;
+			}
+		}, "exclusive", Priority.HIGH, true);
+		assertTrue (exclusiveStarted.await (10, TimeUnit.SECONDS));
+		terminal.setPoolSize (4);
+		List<Future<Void>> futures = new ArrayList<> ();
+		for (int i = 0; i < 12; i++) {
+			futures.add (terminal.submit (new Callable<Void> () {
+
+				@Override
+				public Void call () throws InterruptedException {
+					if (exclusiveActive.get () > 0) {
+						activeWithExclusive.incrementAndGet ();
+					}
+					int now = active.incrementAndGet ();
+					maxActive.accumulateAndGet (now, Math::max);
+					allActive.countDown ();
+					allActive.await (10, TimeUnit.SECONDS);
+					active.decrementAndGet ();
+					return null;
+				}
+			}, "usual" + i, Priority.LOW, false));
+		}
+		assertEquals (4, terminal.snapshotTerminalState ().getPoolSize ());
+		blocker.countDown ();
+		exclusive.get ();
+		for (Future<Void> future : futures) {
+			future.get ();
+		}
+		assertEquals (0, activeWithExclusive.get ());
+		assertEquals (4, maxActive.get ());
+		terminal.setPoolSize (1);
+		try {
+			terminal.setPoolSize (0);
+			fail ();
+		} catch (IllegalArgumentException ex) {
+		}
+		TerminalState state = terminal.snapshotTerminalState ();
+		assertEquals (1, state.getPoolSize ());
+		assertEquals (2, state.getPoolResizesCount ());
+		assertEquals (2, state.getPoolResizes ().size ());
+		assertEquals (2, state.getPoolResizes ().get (0).getFromSize ());
+		assertEquals (4, state.getPoolResizes ().get (0).getToSize ());
+		assertEquals ("manual", state.getPoolResizes ().get (1).getReason ());
+		terminal.shutdown ();
+		assertTrue (terminal.awaitTermination (10, TimeUnit.SECONDS));
+	}
+}
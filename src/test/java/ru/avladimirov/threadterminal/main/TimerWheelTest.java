@@ -0,0 +1,100 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ *
+ * @author Vladimirov.A.A
+ */
+public class TimerWheelTest {
+
+	private final TimerWheel wheel = new TimerWheel ("test");
+	private final List<Integer> fired = Collections.synchronizedList (new ArrayList<Integer> ());
+
+	@After
+	public void tearDown () {
+		wheel.stop ();
+	}
+
+	private Runnable newAction (final int id, final CountDownLatch done) {
+		return new Runnable () {
+
+			@Override
+			public void run () {
+				fired.add (id);
+				done.countDown ();
+			}
+		};
+	}
+
+	private TimerWheel.Timer schedule (int id, CountDownLatch done, long delayMillis) {
+		return wheel.schedule (newAction (id, done), TimeUnit.MILLISECONDS.toNanos (delayMillis));
+	}
+
+	/**
+	 * The timers fire in the order of their deadlines, whatever the order of
+	 * scheduling is, and never before their deadlines.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testFiresInOrder () throws InterruptedException {
+		CountDownLatch done = new CountDownLatch (4);
+		long start = System.nanoTime ();
+		schedule (3, done, 30);
+		schedule (1, done, 10);
+		schedule (2, done, 20);
+		schedule (0, done, 0);
+		assertTrue (done.await (10, TimeUnit.SECONDS));
+		assertEquals (Arrays.asList (0, 1, 2, 3), fired);
+		assertTrue (System.nanoTime () - start >= TimeUnit.MILLISECONDS.toNanos (30));
+	}
+
+	/**
+	 * A timer beyond the first level is cascaded down, when its level turns,
+	 * and still fires in order with the timers of the first level.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testCascade () throws InterruptedException {
+		CountDownLatch done = new CountDownLatch (2);
+		long start = System.nanoTime ();
+		schedule (2, done, 300);
+		schedule (1, done, 250);
+		assertTrue (done.await (10, TimeUnit.SECONDS));
+		assertEquals (Arrays.asList (1, 2), fired);
+		assertTrue (System.nanoTime () - start >= TimeUnit.MILLISECONDS.toNanos (300));
+	}
+
+	/**
+	 * A cancelled timer is dropped, and a failed action doesn't stop the
+	 * wheel.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testCancelledAndFailed () throws InterruptedException {
+		CountDownLatch done = new CountDownLatch (1);
+		schedule (1, done, 5).cancel ();
+		wheel.schedule (new Runnable () {
+
+			@Override
+			public void run () {
+				throw new IllegalStateException ("a failed action");
+			}
+		}, TimeUnit.MILLISECONDS.toNanos (5));
+		schedule (2, done, 10);
+		assertTrue (done.await (10, TimeUnit.SECONDS));
+		assertEquals (Arrays.asList (2), fired);
+	}
+}
@@ -0,0 +1,133 @@
+package ru.avladimirov.threadterminal.main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author Vladimirov.A.A
+ */
+public class WorkStealingExecutorTest {
+
+	private static Callable<Integer> newOrderedCallable (final List<String> order, final String name) {
+		return new Callable<Integer> () {
+
+			@Override
+			public Integer call () {
+				order.add (name);
+				return 1;
+			}
+		};
+	}
+
+	/**
+	 * In the work stealing mode the exclusivity and the pool size hold as
+	 * well, and the subtasks, submitted by running tasks, are executed and
+	 * reported in the terminal state.
+	 *
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	@Test
+	public void testWorkStealing () throws InterruptedException, ExecutionException {
+		final AtomicInteger active = new AtomicInteger ();
+		final AtomicInteger maxActive = new AtomicInteger ();
+		final AtomicInteger activeWithExclusive = new AtomicInteger ();
+		final AtomicInteger subtasks = new AtomicInteger ();
+		final ThreadTerminal terminal = Terminals.newThreadTerminal ("terminal", 3,
+				new TerminalConfig ().setExecutionMode (ExecutionMode.WORK_STEALING));
+		assertEquals (ExecutionMode.WORK_STEALING, terminal.getExecutionMode ());
+		List<Future<Void>> futures = new ArrayList<> ();
+		for (int i = 0; i < 30; i++) {
+			final boolean exclusive = i % 10 == 5;
+			futures.add (terminal.submit (new Callable<Void> () {
+
+				@Override
+				public Void call () throws Exception {
+					int count = active.incrementAndGet ();
+					maxActive.accumulateAndGet (count, Math::max);
+					if (exclusive && count != 1) {
+						activeWithExclusive.incrementAndGet ();
+					}
+					if (!exclusive) {
+						terminal.submit (new Callable<Void> () {
+
+							@Override
+							public Void call () {
+								subtasks.incrementAndGet ();
+								return null;
+							}
+						}, Priority.LOW, false);
+					}
+					Thread.sleep (20);
+					active.decrementAndGet ();
+					return null;
+				}
+			}, "task" + i, Priority.LOW, exclusive));
+		}
+		//the subtasks are submitted before the shutdown
+		for (Future<Void> future : futures) {
+			future.get ();
+		}
+		terminal.shutdown ();
+		assertTrue (terminal.awaitTermination (10, TimeUnit.SECONDS));
+		assertEquals (3, maxActive.get ());
+		assertEquals (0, activeWithExclusive.get ());
+		assertEquals (27, subtasks.get ());
+		assertEquals (57, terminal.snapshotTerminalState ().getFinishedTasksCount ());
+		try {
+			terminal.submit (TerminalStateTest.newValueCallable (1), Priority.LOW, false);
+			fail ();
+		} catch (RejectedExecutionException ex) {
+		}
+	}
+
+	/**
+	 * The subtasks are forked to the deque of their worker, so they run ahead
+	 * of a higher task, that has been queued after them, and the capacity of
+	 * their level doesn't bound them.
+	 *
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	@Test
+	public void testSubtasksBypassQueue () throws InterruptedException, ExecutionException {
+		final List<String> order = Collections.synchronizedList (new ArrayList<String> ());
+		final List<Future<Integer>> children = new ArrayList<> ();
+		final ThreadTerminal terminal = Terminals.newThreadTerminal ("terminal", 1, new TerminalConfig ()
+				.setExecutionMode (ExecutionMode.WORK_STEALING).setQueueCapacity (Priority.LOW, 1));
+		Future<Void> parent = terminal.submit (new Callable<Void> () {
+
+			@Override
+			public Void call () {
+				for (int i = 1; i <= 3; i++) {
+					children.add (terminal.submit (newOrderedCallable (order, "sub" + i), "sub" + i, Priority.LOW, false));
+				}
+				//a task with a deadline is queued, even if it's submitted by a running task
+				children.add (terminal.submit (newOrderedCallable (order, "queued"), "queued", Priority.HIGH, false, 1, TimeUnit.HOURS));
+				return null;
+			}
+		}, "parent", Priority.LOW, false);
+		parent.get ();
+		for (Future<Integer> child : children) {
+			assertEquals (Integer.valueOf (1), child.get ());
+		}
+		assertEquals (Arrays.asList ("sub1", "sub2", "sub3", "queued"), order);
+		terminal.shutdown ();
+		assertTrue (terminal.awaitTermination (10, TimeUnit.SECONDS));
+		assertEquals (0, terminal.snapshotTerminalState ().getRejectedTasksCount ());
+		assertEquals (5, terminal.snapshotTerminalState ().getFinishedTasksCount ());
+	}
+}